@@ -76,6 +76,7 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ad.resource res " //
         + "    JOIN ac.measurementDefinition md, MeasurementSchedule ms JOIN ms.baseline mb " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
@@ -91,6 +92,7 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ad.resource res " //
         + "    JOIN ac.measurementDefinition md, MeasurementSchedule ms JOIN ms.baseline mb " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
@@ -110,6 +112,7 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ad.resource res " //
         + "    JOIN ac.measurementDefinition md, MeasurementSchedule ms " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
@@ -139,6 +142,7 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ad.resource res " //
         + "    JOIN ac.measurementDefinition md, MeasurementSchedule ms " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
@@ -164,6 +168,7 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ac.alertDefinition ad " //
         + "    JOIN ad.resource res " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
@@ -186,6 +191,7 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ad.resource res " //
         + "    JOIN res.resourceType type " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
@@ -203,6 +209,7 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ad.resource res " //
         + "    JOIN ac.measurementDefinition md, MeasurementSchedule ms " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
@@ -220,6 +227,7 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ac.alertDefinition ad " //
         + "    JOIN ad.resource res " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
@@ -237,6 +245,7 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ad.resource res " //
         + "    LEFT JOIN res.resourceConfiguration resConfig " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
@@ -252,6 +261,7 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ac.alertDefinition ad " //
         + "    JOIN ad.resource res " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
@@ -269,6 +279,7 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ad.resource res " //
         + "    JOIN ac.measurementDefinition md, MeasurementSchedule ms " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
@@ -282,10 +293,20 @@ import org.rhq.core.domain.operation.OperationRequestStatus;
         + "    JOIN ac.alertDefinition ad " //
         + "    JOIN ad.resource res " //
         + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND " + AlertCondition.CHANGED_SINCE_CONDITIONAL_EXPRESSION //
         + "     AND ( res.agent.id = :agentId OR :agentId IS NULL ) " //
         + "     AND ad.enabled = TRUE " //
         + "     AND ad.deleted = FALSE " //
         + "     AND ac.category = :category "),
+    @NamedQuery(name = AlertCondition.QUERY_FIND_IDS_BY_AGENT, query = "" //
+        + "  SELECT ac.id " //
+        + "    FROM AlertCondition AS ac " //
+        + "    JOIN ac.alertDefinition ad " //
+        + "    JOIN ad.resource res " //
+        + "   WHERE " + AlertCondition.RECOVERY_CONDITIONAL_EXPRESSION //
+        + "     AND res.agent.id = :agentId " //
+        + "     AND ad.enabled = TRUE " //
+        + "     AND ad.deleted = FALSE "), //
     @NamedQuery(name = AlertCondition.QUERY_FIND_RESOURCE_STATUS_BY_CONDITION_ID, query = "" //
         + "  SELECT res.inventoryStatus " //
         + "    FROM AlertCondition AS ac " //
@@ -317,6 +338,8 @@ public class AlertCondition implements Serializable {
     public static final String QUERY_BY_CATEGORY_COUNT_BASELINE = "AlertCondition.byCategoryCountBaseline";
     public static final String QUERY_BY_CATEGORY_COUNT_PARAMETERIZED = "AlertCondition.byCategoryCountParameterized";
 
+    public static final String QUERY_FIND_IDS_BY_AGENT = "AlertCondition.findIdsByAgent";
+
     public static final String QUERY_FIND_RESOURCE_STATUS_BY_CONDITION_ID = "AlertCondition.findResourceStatus";
 
     public static final String QUERY_DELETE_ORPHANED = "AlertCondition.deleteOrphaned";
@@ -332,6 +355,19 @@ public class AlertCondition implements Serializable {
         + "     ) " //
         + "  ) ";
 
+    /**
+     * Restricts the category queries to the conditions of alert definitions modified at or after :changedSince, and
+     * to the conditions of recovery definitions whose target definition was modified, since those are only cached
+     * while the target is disabled. Pass 0 to get all conditions.
+     */
+    public static final String CHANGED_SINCE_CONDITIONAL_EXPRESSION = "" //
+        + " ( ad.mtime >= :changedSince " //
+        + " OR EXISTS ( SELECT rad FROM AlertDefinition rad " //
+        + "              WHERE rad.id = ad.recoveryId " //
+        + "                AND rad.mtime >= :changedSince " //
+        + "           ) " //
+        + "  ) ";
+
     @Column(name = "ID", nullable = false)
     @GeneratedValue(strategy = GenerationType.AUTO, generator = "RHQ_ALERT_CONDITION_ID_SEQ")
     @Id
@@ -64,6 +64,13 @@ public class MeasurementDataNumeric extends MeasurementData implements Serializa
         this.value = value;
     }
 
+    MeasurementDataNumeric(long collectionTime, int scheduleId, String name, Double value, NumericType rawNumericType) {
+        super(collectionTime, scheduleId);
+        setName(name);
+        this.value = value;
+        this.rawNumericType = rawNumericType;
+    }
+
     @Deprecated
     // Have to make this protected so that people only use the constructor taking a request (so the name can be set for live values)
     public MeasurementDataNumeric(MeasurementDataPK md, Double value) {
@@ -0,0 +1,344 @@
+/*
+  * RHQ Management Platform
+  * Copyright (C) 2005-2014 Red Hat, Inc.
+  * All rights reserved.
+  *
+  * This program is free software; you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License, version 2, as
+  * published by the Free Software Foundation, and/or the GNU Lesser
+  * General Public License, version 2.1, also as published by the Free
+  * Software Foundation.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License and the GNU Lesser General Public License
+  * for more details.
+  *
+  * You should have received a copy of the GNU General Public License
+  * and the GNU Lesser General Public License along with this program;
+  * if not, write to the Free Software Foundation, Inc.,
+  * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+  */
+package org.rhq.core.domain.measurement;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Numeric measurement data kept in columns of primitives - schedule id, timestamp and value - rather than as one
+ * {@link MeasurementDataNumeric} object per data point. This is how a {@link MeasurementReport} holds its numeric data
+ * until it is asked for the objects.
+ * <p/>
+ * Data can be added by several threads at once without locking. A {@link Cursor} may go over the data while it is
+ * being added; it sees the data points whose add completed before it got to them.
+ * <p/>
+ * Only the schedule id, timestamp and value of each data point are serialized, column by column.
+ */
+public class MeasurementDataNumericBuffer implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final int EMPTY = 0;
+    private static final int ADDED = 1;
+    private static final int REMOVED = 2;
+
+    private static final NumericType[] NUMERIC_TYPES = NumericType.values();
+
+    private static final AtomicReferenceFieldUpdater<MeasurementDataNumericBuffer, Chunk> TAIL = AtomicReferenceFieldUpdater
+        .newUpdater(MeasurementDataNumericBuffer.class, Chunk.class, "tail");
+
+    private transient Chunk head;
+    private transient volatile Chunk tail;
+    private transient AtomicInteger size;
+
+    public MeasurementDataNumericBuffer() {
+        init(CHUNK_SIZE);
+    }
+
+    private void init(int firstChunkSize) {
+        this.head = new Chunk(firstChunkSize);
+        this.tail = this.head;
+        this.size = new AtomicInteger();
+    }
+
+    /**
+     * Adds the data point. Its value is stored as a primitive, a null value as {@link Double#NaN}.
+     *
+     * @param data the measurement data to be added
+     */
+    public void add(MeasurementDataNumeric data) {
+        Double value = data.getValue();
+        add(data.getTimestamp(), data.getScheduleId(), (value != null) ? value : Double.NaN, data.getName(),
+            data.getRawNumericType());
+    }
+
+    /**
+     * Adds a data point without creating a {@link MeasurementDataNumeric} for it.
+     *
+     * @param timestamp the time the value was collected
+     * @param request   the request the value was collected for
+     * @param value     the value
+     */
+    public void add(long timestamp, MeasurementScheduleRequest request, double value) {
+        add(timestamp, request.getScheduleId(), value, request.getName(), request.getRawNumericType());
+    }
+
+    private void add(long timestamp, int scheduleId, double value, String name, NumericType rawNumericType) {
+        Chunk chunk = this.tail;
+        while (true) {
+            int index = chunk.claimed.getAndIncrement();
+            if (index < chunk.scheduleIds.length) {
+                chunk.scheduleIds[index] = scheduleId;
+                chunk.timestamps[index] = timestamp;
+                chunk.values[index] = value;
+                chunk.names[index] = name;
+                chunk.rawNumericTypes[index] = (byte) ((rawNumericType != null) ? rawNumericType.ordinal() + 1 : 0);
+                chunk.states.set(index, ADDED); // publishes the columns of the index
+                size.incrementAndGet();
+                return;
+            }
+
+            // the chunk is full, move on to the next one, adding it if no other thread has yet
+            Chunk next = chunk.next;
+            if (next == null) {
+                Chunk added = new Chunk(CHUNK_SIZE);
+                next = Chunk.NEXT.compareAndSet(chunk, null, added) ? added : chunk.next;
+            }
+            TAIL.compareAndSet(this, chunk, next);
+            chunk = next;
+        }
+    }
+
+    /**
+     * @return the number of data points in the buffer
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return a new cursor, positioned before the first data point
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Looks for a data point of the named metric without creating any objects. Names are not kept when the buffer is
+     * serialized, so this only finds data points added since.
+     *
+     * @param name the metric name, see {@link MeasurementDataNumeric#getName()}
+     * @return true if a data point with the name was added and not removed
+     */
+    public boolean containsName(String name) {
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            if (name.equals(cursor.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a {@link MeasurementDataNumeric} for each data point to the collection, in the order they were added. The
+     * buffer is left as it is.
+     */
+    void copyTo(Collection<? super MeasurementDataNumeric> data) {
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            data.add(cursor.toMeasurementData());
+        }
+    }
+
+    /**
+     * Removes the data points whose schedule id and timestamp were added before, like a set of
+     * {@link MeasurementDataNumeric} ignores duplicates. The first data point is kept.
+     *
+     * @return the number of data points removed
+     */
+    public int removeDuplicates() {
+        int removed = 0;
+        Set<MeasurementDataPK> seen = new HashSet<MeasurementDataPK>(size() * 2);
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            if (!seen.add(new MeasurementDataPK(cursor.getTimestamp(), cursor.getScheduleId()))) {
+                cursor.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size());
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            out.writeInt(cursor.getScheduleId());
+        }
+        cursor = cursor();
+        while (cursor.next()) {
+            out.writeLong(cursor.getTimestamp());
+        }
+        cursor = cursor();
+        while (cursor.next()) {
+            out.writeDouble(cursor.getValue());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int count = in.readInt();
+        init(Math.max(count, 1));
+        Chunk chunk = this.head;
+        for (int i = 0; i < count; i++) {
+            chunk.scheduleIds[i] = in.readInt();
+        }
+        for (int i = 0; i < count; i++) {
+            chunk.timestamps[i] = in.readLong();
+        }
+        for (int i = 0; i < count; i++) {
+            chunk.values[i] = in.readDouble();
+            chunk.states.set(i, ADDED);
+        }
+        chunk.claimed.set(count);
+        size.set(count);
+    }
+
+    @Override
+    public String toString() {
+        return "MeasurementDataNumericBuffer[size=" + size() + "]";
+    }
+
+    /**
+     * Iterates over the data points of the buffer in the order they were added. The current data point can be changed
+     * or removed.
+     */
+    public final class Cursor {
+        private Chunk chunk = head;
+        private int index = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the next data point.
+         *
+         * @return false if there are no more data points
+         */
+        public boolean next() {
+            while (chunk != null) {
+                int end = Math.min(chunk.claimed.get(), chunk.scheduleIds.length);
+                while (++index < end) {
+                    if (chunk.states.get(index) == ADDED) {
+                        return true;
+                    }
+                }
+                chunk = chunk.next;
+                index = -1;
+            }
+            return false;
+        }
+
+        public int getScheduleId() {
+            return current().scheduleIds[index];
+        }
+
+        public long getTimestamp() {
+            return current().timestamps[index];
+        }
+
+        public double getValue() {
+            return current().values[index];
+        }
+
+        public void setValue(double value) {
+            current().values[index] = value;
+        }
+
+        /**
+         * @return the name of the metric, which is not kept when the buffer is serialized
+         */
+        public String getName() {
+            return current().names[index];
+        }
+
+        /**
+         * @return the raw numeric type if this is a per-minute metric, otherwise null. This is not kept when the
+         * buffer is serialized.
+         */
+        public NumericType getRawNumericType() {
+            byte type = current().rawNumericTypes[index];
+            return (type == 0) ? null : NUMERIC_TYPES[type - 1];
+        }
+
+        public boolean isPerMinuteCollection() {
+            return current().rawNumericTypes[index] != 0;
+        }
+
+        /**
+         * Removes the current data point from the buffer.
+         */
+        public void remove() {
+            if (current().states.compareAndSet(index, ADDED, REMOVED)) {
+                size.decrementAndGet();
+            }
+        }
+
+        private MeasurementDataNumeric toMeasurementData() {
+            Chunk current = current();
+            return new MeasurementDataNumeric(current.timestamps[index], current.scheduleIds[index],
+                current.names[index], current.values[index], getRawNumericType());
+        }
+
+        private Chunk current() {
+            if (chunk == null || index < 0) {
+                throw new NoSuchElementException();
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * A fixed number of data points. Adding threads claim an index, fill in the columns and then publish it through its
+     * state.
+     */
+    private static final class Chunk {
+        private static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT = AtomicReferenceFieldUpdater.newUpdater(
+            Chunk.class, Chunk.class, "next");
+
+        private final int[] scheduleIds;
+        private final long[] timestamps;
+        private final double[] values;
+        private final String[] names; // shared with the schedule requests
+        private final byte[] rawNumericTypes; // the ordinal + 1, or 0 if none
+        private final AtomicIntegerArray states;
+        private final AtomicInteger claimed = new AtomicInteger();
+        private volatile Chunk next;
+
+        private Chunk(int size) {
+            scheduleIds = new int[size];
+            timestamps = new long[size];
+            values = new double[size];
+            names = new String[size];
+            rawNumericTypes = new byte[size];
+            states = new AtomicIntegerArray(size);
+        }
+    }
+}
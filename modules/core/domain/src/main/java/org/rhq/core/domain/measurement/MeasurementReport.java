@@ -22,6 +22,8 @@
   */
 package org.rhq.core.domain.measurement;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.LinkedHashSet;
 import java.util.Set;
@@ -34,7 +36,9 @@ import org.rhq.core.domain.measurement.calltime.CallTimeData;
  * A report of measurement information. When a plugin collects measurement data that is emitted from a monitored
  * resource, it will store that measurement data in an instance of this type.
  * <p/>
- * <p>This report has an optimized serialization strategy.</p>
+ * <p>This report has an optimized serialization strategy. Numeric data is kept in a
+ * {@link MeasurementDataNumericBuffer}, which is serialized column by column. {@link #getNumericData()} returns a copy
+ * of it as objects.</p>
  *
  * @author Greg Hinkle
  * @author Ian Springer
@@ -43,9 +47,11 @@ public class MeasurementReport implements Serializable {
     private static final long serialVersionUID = 1;
 
     /*
-     * instead of using synchronized collection wrappers - which won't GWT-compile - we can use the synchronized
-     * modifier on the various methods that access these collections
+     * instead of using synchronized collection wrappers we can use the synchronized modifier on the various methods
+     * that access these collections. Numeric data is added to the buffer, which needs no locking. The numeric data set
+     * only holds the data of reports sent by older agents.
      */
+    private MeasurementDataNumericBuffer measurementNumericBuffer = new MeasurementDataNumericBuffer();
     private Set<MeasurementDataNumeric> measurementNumericData = new LinkedHashSet<MeasurementDataNumeric>();
     private Set<MeasurementDataTrait> measurementTraitData = new LinkedHashSet<MeasurementDataTrait>();
     private Set<CallTimeData> callTimeData = new LinkedHashSet<CallTimeData>();
@@ -56,11 +62,14 @@ public class MeasurementReport implements Serializable {
      * Adds the given piece of numeric data to this report. Items are added to this report's list of numeric data in order.
      * That is, the order in which you add multiple pieces of numeric data is the same order in which you get them
      * in the list via {@link #getNumericData()}.
+     * <p/>
+     * Only the schedule id, timestamp, value, name and raw numeric type of the data are kept; this can be called by
+     * several threads at once without blocking.
      *
      * @param value the measurement data to be added
      */
-    public synchronized void addData(MeasurementDataNumeric value) {
-        measurementNumericData.add(value); // note, duplicates will be silently ignored
+    public void addData(MeasurementDataNumeric value) {
+        measurementNumericBuffer.add(value);
     }
 
     /**
@@ -86,13 +95,44 @@ public class MeasurementReport implements Serializable {
     }
 
     /**
-     * Returns the set of all numeric data items in this report. The data items are ordered in the set in the same order
-     * in which they were {@link #addData(MeasurementDataNumeric) added}.
+     * Returns a snapshot of all numeric data items in this report. The data items are ordered in the set in the same
+     * order in which they were {@link #addData(MeasurementDataNumeric) added}. The data stays in the report, so
+     * changing the returned set or its items does not change the report; use the {@link #getNumericDataBuffer()
+     * buffer} for that. This can be called while data is still being added, the snapshot then holds the data whose add
+     * completed.
      *
-     * @return the list of all the numeric data items in this report
+     * @return the set of all the numeric data items in this report
      */
     public synchronized Set<MeasurementDataNumeric> getNumericData() {
-        return measurementNumericData;
+        Set<MeasurementDataNumeric> data = new LinkedHashSet<MeasurementDataNumeric>(measurementNumericData);
+        measurementNumericBuffer.copyTo(data); // note, duplicates will be silently ignored
+        return data;
+    }
+
+    /**
+     * Checks whether this report holds numeric data of the named metric, without taking a
+     * {@link #getNumericData() snapshot} of the data.
+     *
+     * @param name the metric name
+     * @return true if a numeric data item with the name is in this report
+     */
+    public synchronized boolean containsNumericData(String name) {
+        for (MeasurementDataNumeric data : measurementNumericData) {
+            if (name.equals(data.getName())) {
+                return true;
+            }
+        }
+        return measurementNumericBuffer.containsName(name);
+    }
+
+    /**
+     * Returns the numeric data that was added to this report, in compact form. Use this to go over, change or remove
+     * the data without creating an object for each data item.
+     *
+     * @return the buffer of numeric data
+     */
+    public MeasurementDataNumericBuffer getNumericDataBuffer() {
+        return measurementNumericBuffer;
     }
 
     /**
@@ -122,7 +162,8 @@ public class MeasurementReport implements Serializable {
      * @return the total number of data items (numeric metrics, traits, or call-time datums) in this report
      */
     public synchronized long getDataCount() {
-        return this.measurementNumericData.size() + this.measurementTraitData.size() + this.callTimeData.size();
+        return this.measurementNumericData.size() + this.measurementNumericBuffer.size()
+            + this.measurementTraitData.size() + this.callTimeData.size();
     }
 
     public long getCollectionTime() {
@@ -136,4 +177,12 @@ public class MeasurementReport implements Serializable {
     public void incrementCollectionTime(long collectionTime) {
         this.collectionTime += collectionTime;
     }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (measurementNumericBuffer == null) {
+            // sent by an older agent, all numeric data is in the set
+            measurementNumericBuffer = new MeasurementDataNumericBuffer();
+        }
+    }
 }
\ No newline at end of file
@@ -82,6 +82,11 @@ import org.rhq.core.domain.cloud.Server;
         + "  FROM Agent a " //
         + " WHERE a.server.name = :serverName " //
         + "   AND a.status <> 0 "), //
+    @NamedQuery(name = Agent.QUERY_FIND_ALL_WITH_GIVEN_STATUS_BY_SERVER, query = "" //
+        + "SELECT a.id " //
+        + "  FROM Agent a " //
+        + " WHERE a.server.name = :serverName " //
+        + "   AND a.status = :status "), //
     @NamedQuery(name = Agent.QUERY_FIND_ALL_WITH_STATUS, query = "" //
         + "SELECT a.id " //
         + "  FROM Agent a " //
@@ -90,6 +95,11 @@ import org.rhq.core.domain.cloud.Server;
         + "UPDATE Agent a " //
         + "   SET a.status = 0 " //
         + " WHERE a.id IN ( :agentIds ) "), //
+    @NamedQuery(name = Agent.QUERY_UPDATE_CLEAR_GIVEN_STATUS_BY_IDS, query = "" //
+        + "UPDATE Agent a " //
+        + "   SET a.status = 0 " //
+        + " WHERE a.id IN ( :agentIds ) " //
+        + "   AND a.status = :status "), // leave the status alone if it was escalated in the meantime
     @NamedQuery(name = Agent.QUERY_FIND_BY_AFFINITY_GROUP, query = "" //
         + "SELECT a " //
         + "  FROM Agent a " //
@@ -110,7 +120,7 @@ import org.rhq.core.domain.cloud.Server;
         + "   AND a.backFilled = true "), //
     @NamedQuery(name = Agent.QUERY_UPDATE_STATUS_BY_RESOURCE, query = "" //
         + " UPDATE Agent a " //
-        + "    SET a.status = -1 " // negative numbers so that bitmask strategy does not conflict with this one
+        + "    SET a.status = :status " // only alert definitions changed, the caches can be updated incrementally
         + "  WHERE a.status = 0 " // we only need the first guy to set it
         + "    AND a.id = ( SELECT resA.id " // only update ourselves;
         + "                   FROM Resource res " //
@@ -118,7 +128,7 @@ import org.rhq.core.domain.cloud.Server;
         + "                  WHERE res.id = :resourceId ) "), //
     @NamedQuery(name = Agent.QUERY_UPDATE_STATUS_BY_ALERT_DEFINITION, query = "" //
         + " UPDATE Agent a " //
-        + "    SET a.status = -1 " // negative numbers so that bitmask strategy does not conflict with this one
+        + "    SET a.status = :status " // only alert definitions changed, the caches can be updated incrementally
         + "  WHERE a.status = 0 " // we only need the first guy to set it
         + "    AND a.id = ( SELECT resA.id " // only update ourselves;
         + "                   FROM AlertDefinition ad " //
@@ -128,7 +138,7 @@ import org.rhq.core.domain.cloud.Server;
     @NamedQuery(name = Agent.QUERY_UPDATE_STATUS_BY_MEASUREMENT_BASELINE, query = "" //
         + " UPDATE Agent a " //
         + "    SET a.status = -1 " // negative numbers so that bitmask strategy does not conflict with this one
-        + "  WHERE a.status = 0 " // we only need the first guy to set it
+        + "  WHERE a.status <> -1 " // we only need the first guy to set it, but must override a pending incremental update
         + "    AND a.id = ( SELECT resA.id " // only update ourselves;
         + "                   FROM MeasurementBaseline mb " //
         + "                   JOIN mb.schedule ms " //
@@ -138,12 +148,12 @@ import org.rhq.core.domain.cloud.Server;
     @NamedQuery(name = Agent.QUERY_UPDATE_STATUS_BY_AGENT, query = "" //
         + " UPDATE Agent a " //
         + "    SET a.status = -1 " // negative numbers so that bitmask strategy does not conflict with this one
-        + "  WHERE a.status = 0 " // we only need the first guy to set it
+        + "  WHERE a.status <> -1 " // we only need the first guy to set it, but must override a pending incremental update
         + "    AND a.id = :agentId "), //
     @NamedQuery(name = Agent.QUERY_UPDATE_STATUS_FOR_ALL, query = "" //
         + " UPDATE Agent a " //
         + "    SET a.status = -1 " // negative numbers so that bitmask strategy does not conflict with this one
-        + "  WHERE a.status = 0 "), //
+        + "  WHERE a.status <> -1 "), //
     @NamedQuery(name = Agent.QUERY_UPDATE_LAST_AVAIL_REPORT, query = "" //
         + " UPDATE Agent a " //
         + "    SET lastAvailabilityReport = :reportTime, backFilled = FALSE " //
@@ -179,8 +189,10 @@ public class Agent implements Serializable {
 
     // HA queries
     public static final String QUERY_FIND_ALL_WITH_STATUS_BY_SERVER = "Agent.findAllWithStatusByServer";
+    public static final String QUERY_FIND_ALL_WITH_GIVEN_STATUS_BY_SERVER = "Agent.findAllWithGivenStatusByServer";
     public static final String QUERY_FIND_ALL_WITH_STATUS = "Agent.findAllWithStatus";
     public static final String QUERY_UPDATE_CLEAR_STATUS_BY_IDS = "Agent.updateClearStatusByIds";
+    public static final String QUERY_UPDATE_CLEAR_GIVEN_STATUS_BY_IDS = "Agent.updateClearGivenStatusByIds";
     public static final String QUERY_REMOVE_SERVER_REFERENCE = "Agent.removeServerReference";
 
     public static final String QUERY_UPDATE_STATUS_BY_RESOURCE = "Agent.updateStatusByResource";
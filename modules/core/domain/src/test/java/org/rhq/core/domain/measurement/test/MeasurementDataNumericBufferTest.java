@@ -0,0 +1,260 @@
+/*
+  * RHQ Management Platform
+  * Copyright (C) 2005-2014 Red Hat, Inc.
+  * All rights reserved.
+  *
+  * This program is free software; you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License, version 2, as
+  * published by the Free Software Foundation, and/or the GNU Lesser
+  * General Public License, version 2.1, also as published by the Free
+  * Software Foundation.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License and the GNU Lesser General Public License
+  * for more details.
+  *
+  * You should have received a copy of the GNU General Public License
+  * and the GNU Lesser General Public License along with this program;
+  * if not, write to the Free Software Foundation, Inc.,
+  * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+  */
+
+package org.rhq.core.domain.measurement.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.core.domain.measurement.MeasurementDataNumericBuffer;
+import org.rhq.core.domain.measurement.MeasurementReport;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.NumericType;
+
+@Test
+public class MeasurementDataNumericBufferTest {
+
+    public void testDataIsKeptInOrder() {
+        MeasurementReport report = new MeasurementReport();
+        for (int i = 1; i <= 3000; i++) {
+            report.addData(new MeasurementDataNumeric(1000L + i, request(i, null), (double) i));
+        }
+        assert report.getNumericDataBuffer().size() == 3000;
+        assert report.getDataCount() == 3000;
+
+        Set<MeasurementDataNumeric> data = report.getNumericData();
+        assert data.size() == 3000;
+        assert report.getNumericDataBuffer().size() == 3000;
+        int i = 1;
+        for (MeasurementDataNumeric numeric : data) {
+            assert numeric.getScheduleId() == i;
+            assert numeric.getTimestamp() == 1000L + i;
+            assert numeric.getValue() == i;
+            assert ("metric" + i).equals(numeric.getName());
+            i++;
+        }
+
+        // the set is a snapshot, data added later is only in the next one
+        data.clear();
+        report.addData(new MeasurementDataNumeric(5000L, request(5000, null), 1.0));
+        assert report.getDataCount() == 3001;
+        Iterator<MeasurementDataNumeric> iterator = report.getNumericData().iterator();
+        MeasurementDataNumeric last = null;
+        int count = 0;
+        while (iterator.hasNext()) {
+            last = iterator.next();
+            count++;
+        }
+        assert count == 3001;
+        assert last.getScheduleId() == 5000;
+    }
+
+    public void testDuplicatesAreRemoved() {
+        MeasurementReport report = new MeasurementReport();
+        report.addData(new MeasurementDataNumeric(1000L, request(1, NumericType.TRENDSUP), 1.0));
+        report.addData(new MeasurementDataNumeric(1000L, request(2, null), 2.0));
+        report.addData(new MeasurementDataNumeric(2000L, request(1, NumericType.TRENDSUP), 3.0));
+        report.addData(new MeasurementDataNumeric(1000L, request(1, NumericType.TRENDSUP), 4.0));
+        assert report.getNumericData().size() == 3;
+
+        assert report.getNumericDataBuffer().removeDuplicates() == 1;
+        assert report.getNumericDataBuffer().removeDuplicates() == 0;
+        assert report.getNumericDataBuffer().size() == 3;
+        MeasurementDataNumericBuffer.Cursor cursor = report.getNumericDataBuffer().cursor();
+        double sum = 0.0;
+        while (cursor.next()) {
+            sum += cursor.getValue();
+        }
+        assert sum == 6.0 : "the first value of a schedule and time should be kept";
+    }
+
+    public void testSnapshotsWhileDataIsAdded() throws Exception {
+        final MeasurementReport report = new MeasurementReport();
+        final int threads = 4;
+        final int perThread = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int first = t * perThread;
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = first; i < first + perThread; i++) {
+                            report.addData(new MeasurementDataNumeric(1000L, request(i, null), (double) i));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+
+        // like a plugin that looks at the report while other collections add to it
+        int snapshots = 0;
+        int previousSize = 0;
+        do {
+            Set<MeasurementDataNumeric> data = report.getNumericData();
+            assert data.size() >= previousSize : "data was lost: " + data.size() + " < " + previousSize;
+            for (MeasurementDataNumeric numeric : data) {
+                assert numeric.getValue() == numeric.getScheduleId();
+            }
+            previousSize = data.size();
+            snapshots++;
+        } while (done.getCount() > 0);
+        done.await();
+
+        assert snapshots > 0;
+        assert report.getNumericDataBuffer().size() == threads * perThread;
+        assert report.getNumericData().size() == threads * perThread;
+    }
+
+    public void testCursorChangesAndRemoves() {
+        MeasurementDataNumericBuffer buffer = new MeasurementDataNumericBuffer();
+        buffer.add(new MeasurementDataNumeric(1000L, request(1, null), null));
+        buffer.add(1000L, request(2, NumericType.TRENDSUP), 10.0);
+        buffer.add(1000L, request(3, null), Double.POSITIVE_INFINITY);
+
+        MeasurementDataNumericBuffer.Cursor cursor = buffer.cursor();
+        while (cursor.next()) {
+            if (Double.isNaN(cursor.getValue()) || Double.isInfinite(cursor.getValue())) {
+                cursor.remove();
+            } else if (cursor.isPerMinuteCollection()) {
+                assert cursor.getRawNumericType() == NumericType.TRENDSUP;
+                cursor.setValue(20.0);
+            }
+        }
+        assert buffer.size() == 1;
+
+        MeasurementReport report = new MeasurementReport();
+        report.getNumericDataBuffer().add(1000L, request(2, NumericType.TRENDSUP), 10.0);
+        cursor = report.getNumericDataBuffer().cursor();
+        assert cursor.next();
+        cursor.setValue(20.0);
+        assert !cursor.next();
+        MeasurementDataNumeric numeric = report.getNumericData().iterator().next();
+        assert numeric.getValue() == 20.0;
+        assert numeric.isPerMinuteCollection();
+    }
+
+    public void testContainsNumericData() {
+        MeasurementReport report = new MeasurementReport();
+        report.addData(new MeasurementDataNumeric(1000L, request(1, null), 1.0));
+        report.getNumericDataBuffer().add(1000L, request(2, null), 2.0);
+        assert report.containsNumericData("metric1");
+        assert report.containsNumericData("metric2");
+        assert !report.containsNumericData("metric3");
+
+        MeasurementDataNumericBuffer.Cursor cursor = report.getNumericDataBuffer().cursor();
+        assert cursor.next();
+        cursor.remove();
+        assert !report.containsNumericData("metric1");
+        assert report.getNumericDataBuffer().containsName("metric2");
+    }
+
+    public void testSerialization() throws Exception {
+        MeasurementReport report = new MeasurementReport();
+        for (int i = 1; i <= 2500; i++) {
+            report.addData(new MeasurementDataNumeric(1000L + i, request(i, null), i / 2.0));
+        }
+        MeasurementDataNumericBuffer.Cursor cursor = report.getNumericDataBuffer().cursor();
+        while (cursor.next()) {
+            if (cursor.getScheduleId() % 2 == 0) {
+                cursor.remove();
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(report);
+        out.close();
+        MeasurementReport copy = (MeasurementReport) new ObjectInputStream(new ByteArrayInputStream(
+            bytes.toByteArray())).readObject();
+
+        assert copy.getDataCount() == 1250 : copy.getDataCount();
+        int i = 1;
+        for (MeasurementDataNumeric numeric : copy.getNumericData()) {
+            assert numeric.getScheduleId() == i;
+            assert numeric.getTimestamp() == 1000L + i;
+            assert numeric.getValue() == i / 2.0;
+            i += 2;
+        }
+        assert i == 2501;
+    }
+
+    public void testConcurrentAdds() throws Exception {
+        final MeasurementReport report = new MeasurementReport();
+        final int threads = 8;
+        final int perThread = 5000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int first = t * perThread;
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = first; i < first + perThread; i++) {
+                            report.addData(new MeasurementDataNumeric(1000L, request(i, null), (double) i));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+
+        assert report.getNumericDataBuffer().size() == threads * perThread;
+        boolean[] seen = new boolean[threads * perThread];
+        MeasurementDataNumericBuffer.Cursor cursor = report.getNumericDataBuffer().cursor();
+        int count = 0;
+        while (cursor.next()) {
+            assert cursor.getValue() == cursor.getScheduleId();
+            assert !seen[cursor.getScheduleId()];
+            seen[cursor.getScheduleId()] = true;
+            count++;
+        }
+        assert count == threads * perThread;
+    }
+
+    private static MeasurementScheduleRequest request(int scheduleId, NumericType rawNumericType) {
+        return new MeasurementScheduleRequest(scheduleId, "metric" + scheduleId, 30000L, true, DataType.MEASUREMENT,
+            rawNumericType);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+  * RHQ Management Platform
+  * Copyright (C) 2005-2014 Red Hat, Inc.
+  * All rights reserved.
+  *
+  * This program is free software; you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License, version 2, as
+  * published by the Free Software Foundation, and/or the GNU Lesser
+  * General Public License, version 2.1, also as published by the Free
+  * Software Foundation.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License and the GNU Lesser General Public License
+  * for more details.
+  *
+  * You should have received a copy of the GNU General Public License
+  * and the GNU Lesser General Public License along with this program;
+  * if not, write to the Free Software Foundation, Inc.,
+  * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+  */
+package org.rhq.core.pluginapi.measurement;
+
+import java.util.Set;
+
+import org.rhq.core.domain.measurement.MeasurementReport;
+
+/**
+ * An optional facet of components whose descendant resources' metrics can be collected together, e.g. a server whose
+ * management interface returns the values of all its services in one call. Metrics of resources that have an
+ * ancestor with this facet are collected through the nearest such ancestor: the plugin container gathers the requests
+ * of all descendants that are due at the same time and passes them in a single call, instead of calling
+ * {@link MeasurementFacet#getValues(MeasurementReport, Set)} on each descendant.
+ * <p>
+ * The metrics of the component itself are still collected through its own {@link MeasurementFacet}.
+ * </p>
+ */
+public interface BatchMeasurementFacet {
+    /**
+     * Collects the requested metrics of descendant resources and adds them to the report, just like
+     * {@link MeasurementFacet#getValues(MeasurementReport, Set)} does for a single resource. The data of each
+     * descendant is identified by the schedule ids of its requests, which are unique across all resources.
+     * <p>
+     * Requests this component does not know how to serve, e.g. those of descendant types it does not support, are
+     * returned, and are then collected through the {@link MeasurementFacet} of their own resource.
+     * </p>
+     *
+     * @param report   the report to which all collected measurement data should be added
+     * @param requests the requests of each descendant resource that are due
+     *
+     * @return the requests that were not served, an empty set or null if all were
+     *
+     * @throws Exception if the component failed to obtain the values; none of the requests are collected then
+     */
+    Set<BatchMeasurementRequest> getValues(MeasurementReport report, Set<BatchMeasurementRequest> requests)
+        throws Exception;
+}
@@ -0,0 +1,83 @@
+/*
+  * RHQ Management Platform
+  * Copyright (C) 2005-2014 Red Hat, Inc.
+  * All rights reserved.
+  *
+  * This program is free software; you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License, version 2, as
+  * published by the Free Software Foundation, and/or the GNU Lesser
+  * General Public License, version 2.1, also as published by the Free
+  * Software Foundation.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+  * GNU General Public License and the GNU Lesser General Public License
+  * for more details.
+  *
+  * You should have received a copy of the GNU General Public License
+  * and the GNU Lesser General Public License along with this program;
+  * if not, write to the Free Software Foundation, Inc.,
+  * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+  */
+package org.rhq.core.pluginapi.measurement;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.resource.ResourceType;
+
+/**
+ * The metrics of one descendant resource that are requested from a {@link BatchMeasurementFacet}, along with what
+ * identifies the resource to the component of its ancestor.
+ */
+public class BatchMeasurementRequest {
+    private final int resourceId;
+    private final String resourceKey;
+    private final ResourceType resourceType;
+    private final Configuration pluginConfiguration;
+    private final Set<MeasurementScheduleRequest> metrics;
+
+    public BatchMeasurementRequest(int resourceId, String resourceKey, ResourceType resourceType,
+        Configuration pluginConfiguration, Set<MeasurementScheduleRequest> metrics) {
+        this.resourceId = resourceId;
+        this.resourceKey = resourceKey;
+        this.resourceType = resourceType;
+        this.pluginConfiguration = pluginConfiguration;
+        this.metrics = Collections.unmodifiableSet(metrics);
+    }
+
+    public int getResourceId() {
+        return resourceId;
+    }
+
+    public String getResourceKey() {
+        return resourceKey;
+    }
+
+    public ResourceType getResourceType() {
+        return resourceType;
+    }
+
+    /**
+     * @return the plugin configuration of the resource, e.g. the name of the managed object it stands for
+     */
+    public Configuration getPluginConfiguration() {
+        return pluginConfiguration;
+    }
+
+    /**
+     * @return the requested metrics, unmodifiable
+     */
+    public Set<MeasurementScheduleRequest> getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchMeasurementRequest[resourceId=" + resourceId + ", resourceKey=" + resourceKey + ", type="
+            + ((resourceType == null) ? null : resourceType.getName()) + ", metrics=" + metrics.size() + "]";
+    }
+}
@@ -50,7 +50,9 @@ public interface MeasurementFacet {
      * The key to the improvement in metric collection performance and reduction in monitoring overhead is to take
      * advantage of the situations where a single remote call can return more than one piece of data; e.g. a JMX MBean
      * {@link javax.management.MBeanServer#getAttributes(javax.management.ObjectName, String[]) getAttributes} call, or
-     * a database SELECT.
+     * a database SELECT. Where a single call can return the data of several resources, the component of their common
+     * ancestor can implement {@link BatchMeasurementFacet}, and this method is then only called for the requests it
+     * does not serve.
      * </p>
      *
      * @param report  the report to which all collected measurement data should be added
@@ -58,7 +60,5 @@ public interface MeasurementFacet {
      *
      * @throws Exception if the component failed to obtain one or more values
      */
-    // TODO GH: So far this is limited to multi-collections by a single resource. Could support cross-resource
-    //          collections too?
     void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> metrics) throws Exception;
 }
\ No newline at end of file
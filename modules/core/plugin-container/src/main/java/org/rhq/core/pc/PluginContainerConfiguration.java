@@ -88,6 +88,10 @@ public class PluginContainerConfiguration {
     public static final long AVAILABILITY_SCAN_PERIOD_DEFAULT = 30L;
     public static final String AVAILABILITY_SCAN_THREADPOOL_SIZE_PROP = "availability-scan-threadpool-size";
     public static final int AVAILABILITY_SCAN_THREADPOOL_SIZE_DEFAULT = 100;
+    private static final String AVAILABILITY_SCAN_PARALLELISM_PROP = PROP_PREFIX + "availability-scan-parallelism";
+    public static final int AVAILABILITY_SCAN_PARALLELISM_DEFAULT = 10;
+    private static final String AVAILABILITY_SCAN_TIMEOUT_PROP = PROP_PREFIX + "availability-scan-timeout";
+    public static final long AVAILABILITY_SCAN_TIMEOUT_DEFAULT = 300L; // in seconds
 
     // Measurement ----------
 
@@ -496,6 +500,47 @@ public class PluginContainerConfiguration {
         configuration.put(AVAILABILITY_SCAN_THREADPOOL_SIZE_PROP, Integer.valueOf(size));
     }
 
+    /**
+     * Returns the number of threads, including the one running the scan, that check independent parts of the resource
+     * tree concurrently during an availability scan.
+     *
+     * @return the parallelism of an availability scan, 1 to check the resources one after the other
+     */
+    public int getAvailabilityScanParallelism() {
+        Integer parallelism = (Integer) configuration.get(AVAILABILITY_SCAN_PARALLELISM_PROP);
+        return (parallelism == null) ? AVAILABILITY_SCAN_PARALLELISM_DEFAULT : parallelism.intValue();
+    }
+
+    /**
+     * Sets the number of threads, including the one running the scan, that check independent parts of the resource
+     * tree concurrently during an availability scan.
+     *
+     * @param parallelism the parallelism of an availability scan, 1 to check the resources one after the other
+     */
+    public void setAvailabilityScanParallelism(int parallelism) {
+        configuration.put(AVAILABILITY_SCAN_PARALLELISM_PROP, Integer.valueOf(parallelism));
+    }
+
+    /**
+     * Returns the length of time, in seconds, an availability scan may take. Resources that have not been checked by
+     * then are left for the next scan.
+     *
+     * @return the availability scan timeout in seconds, 0 for none
+     */
+    public long getAvailabilityScanTimeout() {
+        Long timeout = (Long) configuration.get(AVAILABILITY_SCAN_TIMEOUT_PROP);
+        return (timeout == null) ? AVAILABILITY_SCAN_TIMEOUT_DEFAULT : timeout.longValue();
+    }
+
+    /**
+     * Sets the length of time, in seconds, an availability scan may take.
+     *
+     * @param timeout the availability scan timeout in seconds, 0 for none
+     */
+    public void setAvailabilityScanTimeout(long timeout) {
+        configuration.put(AVAILABILITY_SCAN_TIMEOUT_PROP, Long.valueOf(timeout));
+    }
+
     /**
      * Returns the length of time, in seconds, before measurements begin getting collected.
      *
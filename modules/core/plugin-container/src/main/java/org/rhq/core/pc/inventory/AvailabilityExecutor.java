@@ -31,7 +31,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -52,6 +56,12 @@ import org.rhq.core.util.stream.StreamUtil;
 
 /**
  * Runs a periodic scan for resource availability.
+ * <p/>
+ * The resource tree is walked depth first. If the inventory manager has
+ * {@link InventoryManager#getAvailabilityScanWorkers() scan workers}, the subtree of a child is handed to an idle
+ * worker, if there is one, so that independent subtrees are checked concurrently. A scan stops going further down the
+ * tree when its {@link InventoryManager#getAvailabilityScanTimeout() timeout} is reached; the resources it did not get
+ * to are checked by the next scan.
  *
  * @author Jay Shaughnessy
  * @author John Mazzitelli
@@ -77,6 +87,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
 
     private int scanHistorySize = 1;
     private final LinkedList<Scan> scanHistory = new LinkedList<Scan>();
+    private final DurationHistogram scanDurations = new DurationHistogram();
 
     public AvailabilityExecutor(InventoryManager inventoryManager) {
         this.inventoryManager = inventoryManager;
@@ -144,6 +155,8 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
     protected void startScan(Resource scanRoot, AvailabilityReport availabilityReport, boolean changesOnly) {
         long start = System.currentTimeMillis();
         Scan scan = new Scan(start, !changesOnly);
+        long timeout = inventoryManager.getAvailabilityScanTimeout();
+        scan.deadline = (timeout > 0L) ? start + timeout : 0L;
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Scan Starting: " + new Date(start));
@@ -172,10 +185,15 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         boolean traceEnabled = LOG.isTraceEnabled();
         try {
             checkInventory(scanRoot, availabilityReport, parentAvailabilityType, false, scan, traceEnabled);
+            if (!scan.awaitSubtrees()) {
+                scan.timedOut = true;
+            }
         } catch (InterruptedException e) {
             LOG.debug("Availability check was interrupted", e);
+            scan.close();
             return;
         } catch (RuntimeException e) {
+            scan.close();
             if (LOG.isDebugEnabled()) {
                 if (Thread.interrupted()) {
                     LOG.debug("Exception occurred during availability check, but this thread has been interrupted, "
@@ -187,9 +205,17 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             return;
         }
 
+        // subtrees that are still being checked no longer add to the report
+        scan.close();
         scan.setEndTime(System.currentTimeMillis());
 
-        if (LOG.isDebugEnabled()) {
+        if (scan.isTimedOut()) {
+            // changes found by the subtrees that did not finish in time are not in the report, the full report makes
+            // up for them
+            sendFullReportNextTime();
+            LOG.warn("Availability scan did not finish within [" + inventoryManager.getAvailabilityScanTimeout()
+                + "]ms, the resources it did not get to will be checked by the next scan: " + scan);
+        } else if (LOG.isDebugEnabled()) {
             LOG.debug("Scan Ended   : " + new Date(scan.getEndTime()) + " : " + scan.toString());
         }
 
@@ -225,6 +251,11 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             return;
         }
 
+        if (scan.isPastDeadline()) {
+            scan.timedOut = true;
+            return;
+        }
+
         ResourceContainer resourceContainer = this.inventoryManager.getResourceContainer(resource.getId());
         // Only report avail for synchronized Resources, otherwise the Server will likely know nothing of the Resource.
         if (resourceContainer == null
@@ -235,7 +266,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         // The avail proxy guarantees fast response time for an avail check
         AvailabilityFacet resourceAvailabilityProxy = resourceContainer.getAvailabilityProxy();
 
-        ++scan.numResources;
+        scan.numResources.incrementAndGet();
 
         // See if this resource is scheduled for an avail check
         boolean checkAvail = false;
@@ -268,7 +299,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                         LOG.trace("Forced availabilityScheduleTime to " + new Date(availabilityScheduleTime) + " for "
                             + resource);
                     }
-                    ++scan.numScheduledRandomly;
+                    scan.numScheduledRandomly.incrementAndGet();
 
                 } else {
                     if (traceEnabled) {
@@ -287,7 +318,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                 }
                 long interval = availScheduleRequest.getInterval(); // intervals are short enough for safe cast
                 resourceContainer.setAvailabilityScheduleTime(scan.startTime + interval);
-                ++scan.numPushedByInterval;
+                scan.numPushedByInterval.incrementAndGet();
             } else {
                 if (traceEnabled) {
                     LOG.trace("Scheduled time has not been reached for " + resource);
@@ -306,7 +337,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         // Otherwise, checkAvail as needed.
         if (deferToParent || (DOWN == parentAvailType)) {
             current = parentAvailType;
-            ++scan.numDeferToParent;
+            scan.numDeferToParent.incrementAndGet();
 
             // For the DOWN parent case it's unclear to me whether we should push out the avail check time of
             // the child.  For now, we'll leave it alone and let the next check happen according to the
@@ -327,8 +358,9 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                     LOG.trace("Now checking availability for " + resource);
                 }
 
+                long checkStart = System.currentTimeMillis();
                 try {
-                    ++scan.numGetAvailabilityCalls;
+                    scan.numGetAvailabilityCalls.incrementAndGet();
 
                     // if the component is started, ask what its current availability is as of right now;
                     // if it's not started, then assume it's down, and the next time we check,
@@ -358,6 +390,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                         + ", availability will be reported as " + DOWN.name() + ", reason=" + t.getMessage());
                     current = DOWN;
                 }
+                scan.availabilityCheckDurations.add(System.currentTimeMillis() - checkStart);
             } else {
                 current = previousType;
             }
@@ -374,7 +407,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
                 if (traceEnabled) {
                     LOG.trace("Availability changed for " + resource);
                 }
-                ++scan.numAvailabilityChanges;
+                scan.numAvailabilityChanges.incrementAndGet();
 
                 availability = this.inventoryManager.updateAvailability(resource, current);
 
@@ -393,15 +426,50 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             }
 
             // update the report
-            availabilityReport.addAvailability(availability);
+            scan.addAvailability(availabilityReport, availability);
         }
 
         for (Resource child : this.inventoryManager.getContainerChildren(resource, resourceContainer)) {
-            checkInventory(child, availabilityReport, current, isForced, scan, traceEnabled);
+            checkSubtree(child, availabilityReport, current, isForced, scan, traceEnabled);
         }
 
     }
 
+    /**
+     * Checks the availability of the child and its descendants, on a scan worker if one is idle, otherwise right away.
+     */
+    private void checkSubtree(final Resource child, final AvailabilityReport availabilityReport,
+        final AvailabilityType parentAvailType, final boolean isForced, final Scan scan, final boolean traceEnabled)
+        throws InterruptedException {
+        Executor workers = inventoryManager.getAvailabilityScanWorkers();
+        if (workers != null) {
+            scan.subtreeStarted();
+            try {
+                workers.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            checkInventory(child, availabilityReport, parentAvailType, isForced, scan, traceEnabled);
+                        } catch (InterruptedException e) {
+                            LOG.debug("Availability check was interrupted", e);
+                            Thread.currentThread().interrupt();
+                        } catch (RuntimeException e) {
+                            if (LOG.isDebugEnabled()) {
+                                LOG.debug("Exception occurred during availability check of " + child + ": " + e);
+                            }
+                        } finally {
+                            scan.subtreeFinished();
+                        }
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // no idle worker
+                scan.subtreeFinished();
+            }
+        }
+        checkInventory(child, availabilityReport, parentAvailType, isForced, scan, traceEnabled);
+    }
+
     /**
      * Resources must report UP or DOWN, If current is UNKNOWN, return previously set avail, otherwise current.
      */
@@ -444,6 +512,7 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
     }
 
     public void addScanHistory(Scan scan) {
+        scanDurations.add(scan.getRuntime());
         synchronized (scanHistory) {
             if (scanHistory.size() == scanHistorySize) {
                 scanHistory.removeLast();
@@ -466,6 +535,13 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         }
     }
 
+    /**
+     * @return the durations of all scans added to the history, including those no longer in it
+     */
+    public DurationHistogram getScanDurations() {
+        return scanDurations;
+    }
+
     public void setScanHistorySize(int scanHistorySize) {
         synchronized (scanHistory) {
             if (scanHistorySize < 1) {
@@ -478,26 +554,84 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         }
     }
 
+    /**
+     * The statistics of one scan. The counters are updated by all threads checking for the scan.
+     */
     public static class Scan {
         private final long startTime;
         private long endTime;
         private long runtime;
 
         private boolean isFull = false;
-        private boolean isForced = false;
+        private volatile boolean isForced = false;
+
+        final AtomicInteger numResources = new AtomicInteger();
+        final AtomicInteger numGetAvailabilityCalls = new AtomicInteger();
+        final AtomicInteger numScheduledRandomly = new AtomicInteger();
+        final AtomicInteger numPushedByInterval = new AtomicInteger();
+        final AtomicInteger numAvailabilityChanges = new AtomicInteger();
+        final AtomicInteger numDeferToParent = new AtomicInteger();
+        final DurationHistogram availabilityCheckDurations = new DurationHistogram();
 
-        int numResources = 0;
-        int numGetAvailabilityCalls = 0;
-        int numScheduledRandomly = 0;
-        int numPushedByInterval = 0;
-        int numAvailabilityChanges = 0;
-        int numDeferToParent = 0;
+        long deadline; // 0 if none
+        volatile boolean timedOut;
+
+        // guarded by this
+        private int pendingSubtrees;
+        private boolean closed;
 
         public Scan(long startTime, boolean isFull) {
             this.startTime = startTime;
             this.isFull = isFull;
         }
 
+        boolean isPastDeadline() {
+            return deadline > 0L && System.currentTimeMillis() >= deadline;
+        }
+
+        synchronized void subtreeStarted() {
+            ++pendingSubtrees;
+        }
+
+        synchronized void subtreeFinished() {
+            if (--pendingSubtrees == 0) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits for the subtrees checked by the scan workers.
+         *
+         * @return false if the deadline was reached before they were all checked
+         */
+        synchronized boolean awaitSubtrees() throws InterruptedException {
+            while (pendingSubtrees > 0) {
+                if (deadline <= 0L) {
+                    wait();
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0L) {
+                        return false;
+                    }
+                    wait(remaining);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Adds the availability to the report, unless the scan is over.
+         */
+        synchronized void addAvailability(AvailabilityReport availabilityReport, Availability availability) {
+            if (!closed) {
+                availabilityReport.addAvailability(availability);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+
         public long getStartTime() {
             return startTime;
         }
@@ -527,37 +661,110 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
             this.isForced = isForced;
         }
 
+        /**
+         * @return true if the scan ran out of time before it checked all resources
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
         public int getNumResources() {
-            return numResources;
+            return numResources.get();
         }
 
         public int getNumGetAvailabilityCalls() {
-            return numGetAvailabilityCalls;
+            return numGetAvailabilityCalls.get();
         }
 
         public int getNumScheduledRandomly() {
-            return numScheduledRandomly;
+            return numScheduledRandomly.get();
         }
 
         public int getNumPushedByInterval() {
-            return numPushedByInterval;
+            return numPushedByInterval.get();
         }
 
         public int getNumAvailabilityChanges() {
-            return numAvailabilityChanges;
+            return numAvailabilityChanges.get();
         }
 
         public int getNumDeferToParent() {
-            return numDeferToParent;
+            return numDeferToParent.get();
+        }
+
+        /**
+         * @return the durations of the availability checks of the resources
+         */
+        public DurationHistogram getAvailabilityCheckDurations() {
+            return availabilityCheckDurations;
         }
 
         @Override
         public String toString() {
             return "Scan [startTime=" + startTime + ", endTime=" + endTime + ", runtime=" + runtime + ", isFull="
-                + isFull + ", isForced=" + isForced + ", numResources=" + numResources + ", numGetAvailabilityCalls="
-                + numGetAvailabilityCalls + ", numScheduledRandomly=" + numScheduledRandomly + ", numPushedByInterval="
-                + numPushedByInterval + ", numAvailabilityChanges=" + numAvailabilityChanges + ", numDeferToParent="
-                + numDeferToParent + "]";
+                + isFull + ", isForced=" + isForced + ", isTimedOut=" + timedOut + ", numResources=" + numResources
+                + ", numGetAvailabilityCalls=" + numGetAvailabilityCalls + ", numScheduledRandomly="
+                + numScheduledRandomly + ", numPushedByInterval=" + numPushedByInterval + ", numAvailabilityChanges="
+                + numAvailabilityChanges + ", numDeferToParent=" + numDeferToParent + ", availabilityCheckDurations="
+                + availabilityCheckDurations + "]";
+        }
+    }
+
+    /**
+     * Counts durations in buckets of increasing size. Durations can be added by several threads at once.
+     */
+    public static class DurationHistogram {
+        private static final long[] BUCKET_LIMITS = { 10L, 100L, 1000L, 5000L, 30000L, 60000L };
+
+        // the last bucket counts the durations above the last limit
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_LIMITS.length + 1);
+
+        public void add(long millis) {
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS.length && millis > BUCKET_LIMITS[bucket]) {
+                ++bucket;
+            }
+            counts.incrementAndGet(bucket);
+        }
+
+        /**
+         * @return the upper limits of the buckets, in millis, inclusive. There is one more bucket than limits, for the
+         * longer durations.
+         */
+        public long[] getBucketLimits() {
+            return BUCKET_LIMITS.clone();
+        }
+
+        /**
+         * @return the number of durations in each bucket
+         */
+        public long[] getCounts() {
+            long[] result = new long[counts.length()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = counts.get(i);
+            }
+            return result;
+        }
+
+        public long getCount() {
+            long count = 0L;
+            for (int i = 0; i < counts.length(); i++) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder str = new StringBuilder("[");
+            for (int i = 0; i < counts.length(); i++) {
+                if (i > 0) {
+                    str.append(", ");
+                }
+                str.append((i < BUCKET_LIMITS.length) ? "<=" + BUCKET_LIMITS[i] : ">" + BUCKET_LIMITS[i - 1]);
+                str.append("ms=").append(counts.get(i));
+            }
+            return str.append("]").toString();
         }
     }
 }
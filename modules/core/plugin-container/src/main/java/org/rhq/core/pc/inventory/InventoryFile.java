@@ -19,16 +19,31 @@
 
 package org.rhq.core.pc.inventory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.CRC32;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,23 +51,57 @@ import org.apache.commons.logging.LogFactory;
 import org.rhq.core.clientapi.agent.PluginContainerException;
 import org.rhq.core.clientapi.agent.metadata.PluginMetadataManager;
 import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
 import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.pc.PluginContainer;
+import org.rhq.core.util.MessageDigestGenerator;
 
 /**
  * Provides methods to read and write inventory data to a file.
+ * <p/>
+ * The inventory file is a snapshot of the platform and all resource containers, as of the last time the inventory
+ * was {@link #storeInventory(Resource, Map) stored in full}. The containers that were added, changed or removed since
+ * then are appended to a journal next to it by {@link #storeInventoryChanges(Resource, Map)}, one record per
+ * container, and are applied to the snapshot when the inventory is {@link #loadInventory() loaded}. Once the journal
+ * would grow past half the size of the snapshot, the inventory is stored in full again, which starts a new journal.
+ * <p/>
+ * A journal record holds its container only: the other resources it refers to, such as the parent and the children of
+ * its resource, are written as references to their UUIDs, and the resource types as references to their names, like
+ * the types in the snapshot are reconnected to those of the plugins.
  *
  * @author John Mazzitelli
  */
 public class InventoryFile {
     private static final Log log = LogFactory.getLog(InventoryFile.class);
 
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int JOURNAL_MAGIC = 0x52485149;
+    private static final int JOURNAL_VERSION = 1;
+    private static final int JOURNAL_HEADER_LENGTH = 16;
+    private static final int RECORD_OVERHEAD = 8; // length and checksum
+
+    private static final byte PLATFORM_RECORD = 1;
+    private static final byte CONTAINER_RECORD = 2;
+    private static final byte REMOVED_RECORD = 3;
+    private static final byte FINGERPRINTS_RECORD = 4;
+
+    private static final int MAX_JOURNAL_PERCENT = 50; // of the snapshot size
+
     private final File inventoryFile;
+    private final File journalFile;
     private Resource platform;
     private Map<String, ResourceContainer> resourceContainers; // keyed on UUID
 
     private final InventoryManager inventoryManager;
 
+    // what is on disk: the journal belongs to the snapshot of the same generation, the fingerprints of the containers
+    // are keyed on UUID, they are null if not known, in which case the next store is a full one
+    private long generation;
+    private String platformUuid;
+    private Map<String, Long> fingerprints;
+    private long journalLength; // the valid part, anything after it is a partly written record
+
     /**
      * Constructor for {@link InventoryFile} that will read and write inventory data to the given file.
      *
@@ -60,6 +109,7 @@ public class InventoryFile {
      */
     public InventoryFile(File inventoryFile, InventoryManager inventoryManager) {
         this.inventoryFile = inventoryFile;
+        this.journalFile = new File(inventoryFile.getPath() + JOURNAL_SUFFIX);
         this.inventoryManager = inventoryManager;
     }
 
@@ -76,6 +126,21 @@ public class InventoryFile {
         return inventoryFile;
     }
 
+    /**
+     * @return true if there is an inventory to {@link #loadInventory() load}, which is the case as well when only the
+     *         new inventory file of an interrupted {@link #storeInventory(Resource, Map) store} is left
+     */
+    public boolean exists() {
+        return inventoryFile.exists() || temporaryFile(inventoryFile).exists();
+    }
+
+    /**
+     * @return the file with the changes since the inventory file was written, it may not exist
+     */
+    public File getJournalFile() {
+        return journalFile;
+    }
+
     /**
      * Returns the platform resource found in the inventory file.
      *
@@ -105,8 +170,10 @@ public class InventoryFile {
     }
 
     /**
-     * Reads in the inventory found in the file. Once this returns, {@link #getPlatform()} and
-     * {@link #getResourceContainers()} will return non-<code>null</code> objects as found in the file.
+     * Reads in the inventory found in the file and applies the changes found in the journal, if any. Once this
+     * returns, {@link #getPlatform()} and {@link #getResourceContainers()} will return non-<code>null</code> objects as
+     * found in the files. A damaged journal does not fail the load, the changes in it that can still be read are
+     * applied.
      *
      * @throws PluginContainerException if some error occurred that did not allow this method to fully load the
      *                                  inventory
@@ -114,15 +181,17 @@ public class InventoryFile {
     public void loadInventory() throws PluginContainerException {
         FileInputStream fis = null;
         try {
-            fis = new FileInputStream(inventoryFile);
-            ObjectInputStream ois = new ObjectInputStream(fis);
+            fis = new FileInputStream(finishReplace(inventoryFile));
+            ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(fis));
 
             // this list will contain UUIDs of resources that we should ignore usually due to disabled plugins
             Set<String> uuidsToIgnore = new HashSet<String>();
 
             this.platform = (Resource) ois.readObject();
-            connectTypes(this.platform, uuidsToIgnore);
             this.resourceContainers = (Map<String, ResourceContainer>) ois.readObject();
+            loadJournal(readGeneration(ois));
+
+            connectTypes(this.platform, uuidsToIgnore);
             for (ResourceContainer resourceContainer : this.resourceContainers.values()) {
                 connectTypes(resourceContainer.getResource(), uuidsToIgnore);
             }
@@ -146,6 +215,170 @@ public class InventoryFile {
         }
     }
 
+    private static long readGeneration(ObjectInputStream ois) throws IOException {
+        try {
+            return ois.readLong();
+        } catch (EOFException e) {
+            return 0L; // written before there were journals
+        }
+    }
+
+    private void loadJournal(long snapshotGeneration) {
+        this.generation = snapshotGeneration;
+        this.platformUuid = (this.platform != null) ? this.platform.getUuid() : null;
+        this.fingerprints = null;
+        this.journalLength = 0L;
+
+        File file = finishReplace(journalFile);
+        if (!file.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        int records = 0;
+        Set<String> removedUuids = new HashSet<String>();
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != JOURNAL_MAGIC || in.readInt() != JOURNAL_VERSION
+                || in.readLong() != snapshotGeneration) {
+                log.info("Inventory journal [" + file + "] does not belong to the inventory file - ignoring it");
+                return;
+            }
+            this.journalLength = JOURNAL_HEADER_LENGTH;
+
+            long remaining = file.length() - JOURNAL_HEADER_LENGTH;
+            byte[] record;
+            while ((record = readRecord(in, remaining)) != null) {
+                applyRecord(record, removedUuids);
+                this.journalLength += RECORD_OVERHEAD + record.length;
+                remaining -= RECORD_OVERHEAD + record.length;
+                ++records;
+            }
+        } catch (Exception e) {
+            log.warn("Inventory journal [" + file + "] is damaged after [" + records
+                + "] records - the changes after those are lost: " + e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+
+        if (records > 0) {
+            relinkResources(removedUuids);
+        }
+    }
+
+    /**
+     * @return the record, or null if there are no more complete records
+     */
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        if (remaining < RECORD_OVERHEAD) {
+            return null;
+        }
+        int length = in.readInt();
+        if (length <= 0 || length > remaining - RECORD_OVERHEAD) {
+            throw new IOException("Invalid record length [" + length + "]");
+        }
+        byte[] record = new byte[length];
+        in.readFully(record);
+        if (in.readInt() != checksum(record, length)) {
+            throw new IOException("Invalid record checksum");
+        }
+        return record;
+    }
+
+    private void applyRecord(byte[] record, Set<String> removedUuids) throws IOException, ClassNotFoundException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        switch (type) {
+        case PLATFORM_RECORD:
+            this.platformUuid = in.readUTF();
+            break;
+        case CONTAINER_RECORD: {
+            String uuid = in.readUTF();
+            long fingerprint = in.readLong();
+            ResourceContainer container = (ResourceContainer) new JournalInputStream(in, this.resourceContainers)
+                .readObject();
+            this.resourceContainers.put(uuid, container);
+            removedUuids.remove(uuid);
+            if (this.fingerprints != null) {
+                this.fingerprints.put(uuid, fingerprint);
+            }
+            break;
+        }
+        case REMOVED_RECORD: {
+            String uuid = in.readUTF();
+            this.resourceContainers.remove(uuid);
+            removedUuids.add(uuid);
+            if (this.fingerprints != null) {
+                this.fingerprints.remove(uuid);
+            }
+            break;
+        }
+        case FINGERPRINTS_RECORD: {
+            int count = in.readInt();
+            this.fingerprints = new HashMap<String, Long>(count * 2);
+            for (int i = 0; i < count; i++) {
+                this.fingerprints.put(in.readUTF(), in.readLong());
+            }
+            break;
+        }
+        default:
+            throw new IOException("Unknown record type [" + type + "]");
+        }
+    }
+
+    /**
+     * Points the parents and children of the resources at the resources of the containers, which the journal may have
+     * replaced, and drops the children that were removed.
+     */
+    private void relinkResources(Set<String> removedUuids) {
+        for (ResourceContainer container : this.resourceContainers.values()) {
+            Resource resource = container.getResource();
+
+            Resource parent = resource.getParentResource();
+            if (parent != null) {
+                Resource current = getContainerResource(parent.getUuid());
+                if (current != null && current != parent) {
+                    resource.setParentResourceWithoutAncestry(current);
+                }
+            }
+
+            Set<Resource> children = resource.getChildResources();
+            boolean relink = false;
+            for (Resource child : children) {
+                if (getContainerResource(child.getUuid()) != child) {
+                    relink = true;
+                    break;
+                }
+            }
+            if (relink) {
+                List<Resource> relinked = new ArrayList<Resource>(children.size());
+                for (Resource child : children) {
+                    if (!removedUuids.contains(child.getUuid())) {
+                        Resource current = getContainerResource(child.getUuid());
+                        relinked.add((current != null) ? current : child);
+                    }
+                }
+                children.clear();
+                children.addAll(relinked);
+            }
+        }
+
+        Resource currentPlatform = getContainerResource(this.platformUuid);
+        if (currentPlatform != null) {
+            this.platform = currentPlatform;
+        }
+    }
+
+    private Resource getContainerResource(String uuid) {
+        ResourceContainer container = (uuid != null) ? this.resourceContainers.get(uuid) : null;
+        return (container != null) ? container.getResource() : null;
+    }
+
     private void removeIgnoredResourcesFromChildren(Resource resource, Set<String> uuidsToIgnore) {
         Set<Resource> children = inventoryManager.getContainerChildren(resource);
         if (!children.isEmpty() && !uuidsToIgnore.isEmpty()) {
@@ -163,7 +396,7 @@ public class InventoryFile {
     }
 
     private void connectTypes(Resource resource, Set<String> uuidsToIgnore) {
-        PluginMetadataManager metadataManager = PluginContainer.getInstance().getPluginManager().getMetadataManager();
+        PluginMetadataManager metadataManager = inventoryManager.getPluginManager().getMetadataManager();
         ResourceType resourceType = resource.getResourceType();
 
         if (resourceType != null) {
@@ -200,8 +433,11 @@ public class InventoryFile {
 
     /**
      * Given a platform and map of resource containers (keyed on UUID strings), this persists that inventory to the
-     * {@link #getInventoryFile() inventory file}. This object's {@link #getPlatform() platform} and
-     * {@link #getResourceContainers() resource containers} will be set to those passed to this method.
+     * {@link #getInventoryFile() inventory file} and starts a new, empty journal. This object's
+     * {@link #getPlatform() platform} and {@link #getResourceContainers() resource containers} will be set to those
+     * passed to this method.
+     *
+     * <p>The inventory file is replaced only once the new one is completely written.</p>
      *
      * @param  platformResource
      * @param  containers
@@ -209,20 +445,335 @@ public class InventoryFile {
      * @throws IOException
      */
     public void storeInventory(Resource platformResource, Map<String, ResourceContainer> containers) throws IOException {
-        FileOutputStream fos = new FileOutputStream(inventoryFile);
+        long newGeneration = Math.max(System.currentTimeMillis(), this.generation + 1);
+
+        File newInventoryFile = temporaryFile(inventoryFile);
+        FileOutputStream fos = new FileOutputStream(newInventoryFile);
         try {
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
+            ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos));
             try {
                 oos.writeObject(platformResource);
                 oos.writeObject(containers);
-
-                this.platform = platformResource;
-                this.resourceContainers = containers;
+                oos.writeLong(newGeneration);
+                oos.flush();
+                fos.getFD().sync();
             } finally {
                 oos.close();
             }
         } finally {
             fos.close();
         }
+        replaceFile(newInventoryFile, inventoryFile);
+
+        this.platform = platformResource;
+        this.resourceContainers = containers;
+        this.generation = newGeneration;
+        this.platformUuid = (platformResource != null) ? platformResource.getUuid() : null;
+        this.fingerprints = null; // until the new journal is written
+        this.journalLength = 0L;
+
+        MessageDigestGenerator digest = new MessageDigestGenerator();
+        RecordBuffer containerBuffer = new RecordBuffer();
+        Map<String, Long> newFingerprints = new HashMap<String, Long>(containers.size() * 2);
+        for (Map.Entry<String, ResourceContainer> entry : containers.entrySet()) {
+            containerBuffer.reset();
+            writeContainer(entry.getValue(), containerBuffer);
+            newFingerprints.put(entry.getKey(), containerBuffer.fingerprint(digest));
+        }
+
+        RecordBuffer journal = new RecordBuffer();
+        DataOutputStream out = new DataOutputStream(journal);
+        out.writeInt(JOURNAL_MAGIC);
+        out.writeInt(JOURNAL_VERSION);
+        out.writeLong(newGeneration);
+        RecordBuffer record = new RecordBuffer();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        recordOut.writeByte(FINGERPRINTS_RECORD);
+        recordOut.writeInt(newFingerprints.size());
+        for (Map.Entry<String, Long> entry : newFingerprints.entrySet()) {
+            recordOut.writeUTF(entry.getKey());
+            recordOut.writeLong(entry.getValue());
+        }
+        record.writeRecordTo(out);
+        out.flush();
+
+        File newJournalFile = temporaryFile(journalFile);
+        fos = new FileOutputStream(newJournalFile);
+        try {
+            journal.writeTo(fos);
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        replaceFile(newJournalFile, journalFile);
+
+        this.fingerprints = newFingerprints;
+        this.journalLength = journal.size();
+    }
+
+    /**
+     * Given a platform and map of resource containers (keyed on UUID strings), this persists the containers that were
+     * added, changed or removed since the inventory was last loaded or stored by appending them to the
+     * {@link #getJournalFile() journal}. The inventory is {@link #storeInventory(Resource, Map) stored in full} instead
+     * if the journal would get too large, or if it is not known what is on disk. This object's
+     * {@link #getPlatform() platform} and {@link #getResourceContainers() resource containers} will be set to those
+     * passed to this method.
+     *
+     * @param  platformResource
+     * @param  containers
+     *
+     * @return the number of containers written
+     *
+     * @throws IOException
+     */
+    public int storeInventoryChanges(Resource platformResource, Map<String, ResourceContainer> containers)
+        throws IOException {
+        if (this.fingerprints == null || !inventoryFile.exists() || !journalFile.exists()) {
+            storeInventory(platformResource, containers);
+            return containers.size();
+        }
+
+        long maxRecordsLength = (inventoryFile.length() * MAX_JOURNAL_PERCENT / 100) - this.journalLength;
+        MessageDigestGenerator digest = new MessageDigestGenerator();
+        RecordBuffer containerBuffer = new RecordBuffer();
+        RecordBuffer record = new RecordBuffer();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        RecordBuffer records = new RecordBuffer();
+        Map<String, Long> changed = new HashMap<String, Long>();
+        List<String> removed = new ArrayList<String>();
+
+        for (Map.Entry<String, ResourceContainer> entry : containers.entrySet()) {
+            containerBuffer.reset();
+            writeContainer(entry.getValue(), containerBuffer);
+            long fingerprint = containerBuffer.fingerprint(digest);
+            Long storedFingerprint = this.fingerprints.get(entry.getKey());
+            if (storedFingerprint == null || storedFingerprint.longValue() != fingerprint) {
+                record.reset();
+                recordOut.writeByte(CONTAINER_RECORD);
+                recordOut.writeUTF(entry.getKey());
+                recordOut.writeLong(fingerprint);
+                containerBuffer.writeTo(recordOut);
+                recordOut.flush();
+                record.writeRecordTo(records);
+                changed.put(entry.getKey(), fingerprint);
+
+                if (records.size() > maxRecordsLength) {
+                    storeInventory(platformResource, containers);
+                    return containers.size();
+                }
+            }
+        }
+
+        for (String uuid : this.fingerprints.keySet()) {
+            if (!containers.containsKey(uuid)) {
+                record.reset();
+                recordOut.writeByte(REMOVED_RECORD);
+                recordOut.writeUTF(uuid);
+                recordOut.flush();
+                record.writeRecordTo(records);
+                removed.add(uuid);
+            }
+        }
+
+        String newPlatformUuid = (platformResource != null) ? platformResource.getUuid() : null;
+        if (newPlatformUuid != null && !newPlatformUuid.equals(this.platformUuid)) {
+            record.reset();
+            recordOut.writeByte(PLATFORM_RECORD);
+            recordOut.writeUTF(newPlatformUuid);
+            recordOut.flush();
+            record.writeRecordTo(records);
+        }
+
+        if (records.size() > maxRecordsLength) {
+            storeInventory(platformResource, containers);
+            return containers.size();
+        }
+
+        if (records.size() > 0) {
+            appendToJournal(records);
+        }
+
+        this.fingerprints.putAll(changed);
+        for (String uuid : removed) {
+            this.fingerprints.remove(uuid);
+        }
+        if (newPlatformUuid != null) {
+            this.platformUuid = newPlatformUuid;
+        }
+        this.platform = platformResource;
+        this.resourceContainers = containers;
+
+        if (log.isDebugEnabled()) {
+            log.debug("Appended [" + changed.size() + "] changed and [" + removed.size()
+                + "] removed resource containers to inventory journal [" + journalFile + "]");
+        }
+        return changed.size() + removed.size();
+    }
+
+    private void appendToJournal(RecordBuffer records) throws IOException {
+        if (journalFile.length() != this.journalLength) {
+            // drop what is left of a record that was not completely written
+            RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+            try {
+                file.setLength(this.journalLength);
+            } finally {
+                file.close();
+            }
+        }
+
+        FileOutputStream fos = new FileOutputStream(journalFile, true);
+        try {
+            records.writeTo(fos);
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        this.journalLength += records.size();
+    }
+
+    private static void writeContainer(ResourceContainer container, OutputStream out) throws IOException {
+        ObjectOutputStream oos = new JournalOutputStream(out, container.getResource());
+        oos.writeObject(container);
+        oos.flush();
+    }
+
+    private static File temporaryFile(File target) {
+        return new File(target.getPath() + TEMPORARY_SUFFIX);
+    }
+
+    private static void replaceFile(File source, File target) throws IOException {
+        // renaming over an existing file does not work everywhere
+        if (!source.renameTo(target) && !(target.delete() && source.renameTo(target))) {
+            throw new IOException("Failed to rename [" + source + "] to [" + target + "]");
+        }
+    }
+
+    /**
+     * Finishes a {@link #replaceFile(File, File) replace} that was interrupted after the target was deleted. The
+     * temporary file is complete then, it is synced before it replaces the target.
+     *
+     * @return the file to read, which is the temporary file if it could not be renamed to the target
+     */
+    private static File finishReplace(File target) {
+        File source = temporaryFile(target);
+        if (target.exists() || !source.exists()) {
+            return target;
+        }
+        log.warn("[" + target + "] is missing, restoring it from [" + source + "] of an interrupted store");
+        return source.renameTo(target) ? target : source;
+    }
+
+    private static int checksum(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * A byte buffer that writes itself as a journal record.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        void writeRecordTo(OutputStream out) throws IOException {
+            DataOutputStream dataOut = new DataOutputStream(out);
+            dataOut.writeInt(count);
+            dataOut.write(buf, 0, count);
+            dataOut.writeInt(checksum(buf, count));
+            dataOut.flush();
+        }
+
+        long fingerprint(MessageDigestGenerator digest) {
+            digest.add(buf, 0, count);
+            byte[] bytes = digest.getDigest();
+            long fingerprint = 0L;
+            for (int i = 0; i < 8; i++) {
+                fingerprint = (fingerprint << 8) | (bytes[i] & 0xFF);
+            }
+            return fingerprint;
+        }
+    }
+
+    /**
+     * Writes a container without the rest of the inventory: the resources other than the container's own, and the
+     * resource types, are replaced by references.
+     */
+    private static final class JournalOutputStream extends ObjectOutputStream {
+        private final Resource resource;
+
+        JournalOutputStream(OutputStream out, Resource resource) throws IOException {
+            super(out);
+            this.resource = resource;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof Resource && obj != resource) {
+                return new ResourceReference((Resource) obj);
+            }
+            if (obj instanceof ResourceType) {
+                return new ResourceTypeReference((ResourceType) obj);
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * Reads a container written by a {@link JournalOutputStream}. Resource references are resolved to the resources of
+     * the containers read so far, or to a resource with just the UUID if there is no container for it yet.
+     */
+    private static final class JournalInputStream extends ObjectInputStream {
+        private final Map<String, ResourceContainer> containers;
+
+        JournalInputStream(InputStream in, Map<String, ResourceContainer> containers) throws IOException {
+            super(in);
+            this.containers = containers;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof ResourceReference) {
+                ResourceReference reference = (ResourceReference) obj;
+                ResourceContainer container = containers.get(reference.uuid);
+                if (container != null) {
+                    return container.getResource();
+                }
+                Resource resource = new Resource(reference.id);
+                resource.setUuid(reference.uuid);
+                return resource;
+            }
+            if (obj instanceof ResourceTypeReference) {
+                ResourceTypeReference reference = (ResourceTypeReference) obj;
+                // reconnected to the plugin's type like the types in the snapshot
+                return new ResourceType(reference.name, reference.plugin, reference.category, null);
+            }
+            return obj;
+        }
+    }
+
+    private static final class ResourceReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int id;
+        private final String uuid;
+
+        ResourceReference(Resource resource) {
+            this.id = resource.getId();
+            this.uuid = resource.getUuid();
+        }
+    }
+
+    private static final class ResourceTypeReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String plugin;
+        private final ResourceCategory category;
+
+        ResourceTypeReference(ResourceType resourceType) {
+            this.name = resourceType.getName();
+            this.plugin = resourceType.getPlugin();
+            this.category = resourceType.getCategory();
+        }
     }
 }
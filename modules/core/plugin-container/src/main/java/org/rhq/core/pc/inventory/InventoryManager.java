@@ -45,6 +45,8 @@ import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -156,6 +158,7 @@ public class InventoryManager extends AgentService implements ContainerService,
     private static final String INVENTORY_THREAD_POOL_NAME = "InventoryManager.discovery";
     private static final String AVAIL_THREAD_POOL_NAME = "InventoryManager.availability";
     private static final int AVAIL_THREAD_POOL_CORE_POOL_SIZE = 1;
+    private static final String AVAIL_SCAN_WORKER_THREAD_POOL_NAME = "InventoryManager.availability.worker";
 
     private static final int COMPONENT_START_TIMEOUT = 60 * 1000; // 60 seconds
     private static final int COMPONENT_STOP_TIMEOUT = 5 * 1000; // 5 seconds
@@ -177,6 +180,7 @@ public class InventoryManager extends AgentService implements ContainerService,
 
     private ScheduledThreadPoolExecutor inventoryThreadPoolExecutor;
     private ScheduledThreadPoolExecutor availabilityThreadPoolExecutor;
+    private ThreadPoolExecutor availabilityScanWorkers; // null if avail scans are not parallel
 
     // The executors are Callable
     private final AutoDiscoveryExecutor serverScanExecutor;
@@ -227,6 +231,11 @@ public class InventoryManager extends AgentService implements ContainerService,
 
     private final PluginManager pluginManager;
 
+    /**
+     * The inventory on disk, as loaded at startup or last persisted. Null if there was none.
+     */
+    private InventoryFile inventoryFile;
+
     private final DiscoveryComponentProxyFactory discoveryComponentProxyFactory;
 
     /**
@@ -294,6 +303,16 @@ public class InventoryManager extends AgentService implements ContainerService,
             availabilityThreadPoolExecutor = new ScheduledThreadPoolExecutor(AVAIL_THREAD_POOL_CORE_POOL_SIZE,
                 new LoggingThreadFactory(AVAIL_THREAD_POOL_NAME, true));
 
+            // The avail check helps itself to these to check parts of the resource tree concurrently. Subtrees are
+            // only handed over to an idle thread, otherwise the scanning thread checks them itself.
+            int availScanParallelism = configuration.getAvailabilityScanParallelism();
+            if (availScanParallelism > 1) {
+                availabilityScanWorkers = new ThreadPoolExecutor(availScanParallelism - 1, availScanParallelism - 1,
+                    60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new LoggingThreadFactory(
+                        AVAIL_SCAN_WORKER_THREAD_POOL_NAME, true));
+                availabilityScanWorkers.allowCoreThreadTimeOut(true);
+            }
+
             // Never run more than one discovery scan at a time (service and service scans share the same pool).
             inventoryThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, new LoggingThreadFactory(
                 INVENTORY_THREAD_POOL_NAME, true));
@@ -330,6 +349,9 @@ public class InventoryManager extends AgentService implements ContainerService,
     public void shutdown() {
         PluginContainer.shutdownExecutorService(this.inventoryThreadPoolExecutor, true);
         PluginContainer.shutdownExecutorService(this.availabilityThreadPoolExecutor, true);
+        if (this.availabilityScanWorkers != null) {
+            PluginContainer.shutdownExecutorService(this.availabilityScanWorkers, true);
+        }
         if (this.configuration.isInsideAgent()) {
             this.persistToDisk();
         }
@@ -1110,6 +1132,22 @@ public class InventoryManager extends AgentService implements ContainerService,
         return resource;
     }
 
+    /**
+     * @return the threads that check parts of the resource tree during an availability scan besides the scanning
+     * thread, or null if the scan is not parallel
+     */
+    @Nullable
+    ThreadPoolExecutor getAvailabilityScanWorkers() {
+        return availabilityScanWorkers;
+    }
+
+    /**
+     * @return the time an availability scan may take, in millis, or 0 if there is no limit
+     */
+    long getAvailabilityScanTimeout() {
+        return configuration.getAvailabilityScanTimeout() * 1000L;
+    }
+
     /**
      * Returns the known availability for the resource. If the availability is not known, <code>null</code> is returned.
      *
@@ -2311,7 +2349,7 @@ public class InventoryManager extends AgentService implements ContainerService,
     //    }
 
     /**
-     * Tries to load an existing inventory from the file data/inventory.dat
+     * Tries to load an existing inventory from the file data/inventory.dat and its journal
      */
     private void loadFromDisk() {
         this.inventoryLock.writeLock().lock();
@@ -2319,12 +2357,13 @@ public class InventoryManager extends AgentService implements ContainerService,
         File file = null;
         try {
             file = new File(this.configuration.getDataDirectory(), "inventory.dat");
-            if (file.exists()) {
+            InventoryFile inventoryFile = new InventoryFile(file, this);
+            if (inventoryFile.exists()) {
                 long start = System.currentTimeMillis();
                 log.info("Loading inventory from data file [" + file + "]...");
 
-                InventoryFile inventoryFile = new InventoryFile(file, this);
                 inventoryFile.loadInventory();
+                this.inventoryFile = inventoryFile;
 
                 this.platform = inventoryFile.getPlatform();
                 this.resourceContainersByUUID.clear();
@@ -2342,10 +2381,13 @@ public class InventoryManager extends AgentService implements ContainerService,
             }
         } catch (Exception e) {
             this.platform = null;
+            this.inventoryFile = null;
             this.resourceContainersByUUID.clear();
             this.resourceContainerByResourceId.clear();
             if (file != null) {
                 file.renameTo(new File(file.getAbsolutePath() + ".invalid")); // move it out of the way if we can, retain it for later analysis
+                File journalFile = new InventoryFile(file, this).getJournalFile();
+                journalFile.renameTo(new File(journalFile.getAbsolutePath() + ".invalid"));
             }
             log.error(
                 "Could not load inventory from data file. The agent has lost knowledge of its previous inventory - "
@@ -2402,8 +2444,17 @@ public class InventoryManager extends AgentService implements ContainerService,
                 }
             }
             File file = new File(dataDir, "inventory.dat");
-            InventoryFile inventoryFile = new InventoryFile(file, this);
-            inventoryFile.storeInventory(this.platform, this.resourceContainersByUUID);
+            if (this.inventoryFile == null || !this.inventoryFile.getInventoryFile().equals(file)) {
+                this.inventoryFile = new InventoryFile(file, this);
+            }
+            // only the containers that changed since the inventory was loaded are written, unless it is time to
+            // compact the journal
+            long start = System.currentTimeMillis();
+            int written = this.inventoryFile.storeInventoryChanges(this.platform, this.resourceContainersByUUID);
+            if (log.isDebugEnabled()) {
+                log.debug("Persisted [" + written + "] of [" + this.resourceContainersByUUID.size()
+                    + "] resource containers to disk in [" + (System.currentTimeMillis() - start) + "ms]");
+            }
         } catch (Exception e) {
             log.error("Could not persist inventory data to disk", e);
         }
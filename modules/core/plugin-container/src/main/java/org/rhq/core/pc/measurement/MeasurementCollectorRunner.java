@@ -22,6 +22,9 @@ package org.rhq.core.pc.measurement;
 import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 
@@ -34,14 +37,16 @@ import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.pc.inventory.InventoryManager;
 import org.rhq.core.pc.inventory.ResourceContainer;
-import org.rhq.core.pc.util.ComponentUtil;
 import org.rhq.core.pc.util.FacetLockType;
+import org.rhq.core.pluginapi.measurement.BatchMeasurementFacet;
+import org.rhq.core.pluginapi.measurement.BatchMeasurementRequest;
 import org.rhq.core.pluginapi.measurement.MeasurementFacet;
 import org.rhq.core.util.exception.ThrowableUtil;
 
 /**
 * Executes the collection of measurements. Every call results in one new batch of measurements collected. Each batch is
-* limited to a single resource and the measurements that are due to be collected at that time.
+* limited to a single resource, or to the descendants of a single {@link BatchMeasurementFacet batch collector}, and
+* the measurements that are due to be collected at that time. Calls may run concurrently, each with a different batch.
 *
 * @author Greg Hinkle
 */
@@ -50,7 +55,8 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
 
     private final MeasurementManager measurementManager;
 
-    // this is only kept when in debug mode to help figure out which metrics are slowing things down.
+    // this is only kept when in debug mode to help figure out which metrics are slowing things down. Collections run
+    // on several threads, so access is synchronized on the history.
     private final ScheduleHistory scheduleHistory = new ScheduleHistory();
 
     public MeasurementCollectorRunner(MeasurementManager measurementManager) {
@@ -78,9 +84,11 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
                         log.debug("Measurement collection is falling behind... Missed requested time by ["
                             + (System.currentTimeMillis() - requests.iterator().next().getNextCollection()) + "ms]");
 
-                        if (!scheduleHistory.isEmpty()) {
-                            log.debug("The most recent measurement requests prior to this detected delay: "
-                                + scheduleHistory);
+                        synchronized (scheduleHistory) {
+                            if (!scheduleHistory.isEmpty()) {
+                                log.debug("The most recent measurement requests prior to this detected delay: "
+                                    + scheduleHistory);
+                            }
                         }
                     }
 
@@ -89,26 +97,52 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
                     return report;
                 }
 
-                Integer resourceId = next.getResourceId();
-                ResourceContainer container = im.getResourceContainer(resourceId);
-                if (container.getResourceComponentState() != ResourceContainer.ResourceComponentState.STARTED
-                    || container.getAvailability() == null
-                    || container.getAvailability().getAvailabilityType() == AvailabilityType.DOWN) {
-                    // Don't collect metrics for resources that are down
-                    if (log.isDebugEnabled()) {
-                        log.debug("Measurements not collected for inactive resource component: "
-                            + container.getResource());
+                if (log.isDebugEnabled()) {
+                    synchronized (scheduleHistory) {
+                        scheduleHistory.addRequests(requests);
                     }
-                } else {
-                    MeasurementFacet measurementComponent = ComponentUtil
-                        .getComponent(resourceId, MeasurementFacet.class, FacetLockType.READ,
-                            MeasurementManager.FACET_METHOD_TIMEOUT, true, true, true);
+                }
 
-                    if (log.isDebugEnabled()) {
-                        scheduleHistory.addRequests(requests);
+                // the set holds the requests of one resource, or of descendants of one batch collector
+                Map<Integer, Set<ScheduledMeasurementInfo>> requestsByResource = new HashMap<Integer, Set<ScheduledMeasurementInfo>>();
+                for (ScheduledMeasurementInfo request : requests) {
+                    Set<ScheduledMeasurementInfo> resourceRequests = requestsByResource.get(request.getResourceId());
+                    if (resourceRequests == null) {
+                        resourceRequests = new HashSet<ScheduledMeasurementInfo>();
+                        requestsByResource.put(request.getResourceId(), resourceRequests);
                     }
+                    resourceRequests.add(request);
+                }
 
-                    getValues(measurementComponent, report, requests, container.getResource());
+                Map<ResourceContainer, Set<BatchMeasurementRequest>> batches = new HashMap<ResourceContainer, Set<BatchMeasurementRequest>>();
+                for (Map.Entry<Integer, Set<ScheduledMeasurementInfo>> entry : requestsByResource.entrySet()) {
+                    ResourceContainer container = im.getResourceContainer(entry.getKey());
+                    if (!isCollectable(container)) {
+                        continue;
+                    }
+                    ResourceContainer batchCollector = this.measurementManager.getBatchCollector(entry.getKey());
+                    if (batchCollector != null && isCollectable(batchCollector)) {
+                        Set<BatchMeasurementRequest> batch = batches.get(batchCollector);
+                        if (batch == null) {
+                            batch = new HashSet<BatchMeasurementRequest>();
+                            batches.put(batchCollector, batch);
+                        }
+                        Resource resource = container.getResource();
+                        batch.add(new BatchMeasurementRequest(resource.getId(), resource.getResourceKey(), resource
+                            .getResourceType(), resource.getPluginConfiguration(),
+                            new HashSet<MeasurementScheduleRequest>(entry.getValue())));
+                    } else {
+                        getValues(container, report, entry.getValue());
+                    }
+                }
+
+                for (Map.Entry<ResourceContainer, Set<BatchMeasurementRequest>> entry : batches.entrySet()) {
+                    Set<BatchMeasurementRequest> unserved = getBatchValues(entry.getKey(), report, entry.getValue());
+                    if (unserved != null) {
+                        for (BatchMeasurementRequest request : unserved) {
+                            getValues(im.getResourceContainer(request.getResourceId()), report, request.getMetrics());
+                        }
+                    }
                 }
 
                 this.measurementManager.reschedule(requests);
@@ -124,6 +158,86 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
         return report;
     }
 
+    /**
+     * @return false if metrics should not be collected for the resource, e.g. because it is down
+     */
+    private static boolean isCollectable(ResourceContainer container) {
+        if (container == null) {
+            return false;
+        }
+        if (container.getResourceComponentState() != ResourceContainer.ResourceComponentState.STARTED
+            || container.getAvailability() == null
+            || container.getAvailability().getAvailabilityType() == AvailabilityType.DOWN) {
+            // Don't collect metrics for resources that are down
+            if (log.isDebugEnabled()) {
+                log.debug("Measurements not collected for inactive resource component: " + container.getResource());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void getValues(ResourceContainer container, MeasurementReport report,
+        Set<? extends MeasurementScheduleRequest> requests) {
+        if (container == null) {
+            return;
+        }
+        MeasurementFacet measurementComponent;
+        try {
+            measurementComponent = container.createResourceComponentProxy(MeasurementFacet.class, FacetLockType.READ,
+                MeasurementManager.FACET_METHOD_TIMEOUT, true, true, true);
+        } catch (Throwable t) {
+            this.measurementManager.incrementFailedCollections(requests.size());
+            log.warn("Failure to collect measurement data for " + container.getResource() + " - cause: "
+                + ThrowableUtil.getAllMessages(t));
+            return;
+        }
+        getValues(measurementComponent, report, requests, container.getResource());
+    }
+
+    /**
+     * Collects the requests of the descendants of the batch collector in one call.
+     *
+     * @return the requests that the batch collector did not serve, or null
+     */
+    private Set<BatchMeasurementRequest> getBatchValues(ResourceContainer batchCollector, MeasurementReport report,
+        Set<BatchMeasurementRequest> requests) {
+        Resource resource = batchCollector.getResource();
+        BatchMeasurementFacet batchComponent = null;
+        try {
+            batchComponent = batchCollector.createResourceComponentProxy(BatchMeasurementFacet.class,
+                FacetLockType.READ, MeasurementManager.FACET_METHOD_TIMEOUT, true, true, true);
+            long start = System.currentTimeMillis();
+            Set<BatchMeasurementRequest> unserved = batchComponent.getValues(report,
+                Collections.unmodifiableSet(requests));
+            long duration = (System.currentTimeMillis() - start);
+            if (duration > 2000L || log.isTraceEnabled()) {
+                String message = "[PERF] Batch collection of measurements of [" + requests.size()
+                    + "] resources by [" + resource + "] (component=[" + batchComponent + "]) took [" + duration
+                    + "]ms";
+                if (log.isDebugEnabled()) {
+                    message += " for requests: " + requests;
+                }
+                log.info(message);
+            }
+            return unserved;
+        } catch (Throwable t) {
+            int count = 0;
+            for (BatchMeasurementRequest request : requests) {
+                count += request.getMetrics().size();
+            }
+            this.measurementManager.incrementFailedCollections(count);
+            if (log.isDebugEnabled()) {
+                log.warn("Failure to collect measurement data in a batch by " + resource + ", requests=" + requests
+                    + ", report.size()=" + report.getDataCount(), t);
+            } else {
+                log.warn("Failure to collect measurement data in a batch by " + resource + " - cause: "
+                    + ThrowableUtil.getAllMessages(t));
+            }
+            return null;
+        }
+    }
+
     private void getValues(MeasurementFacet measurementComponent, MeasurementReport report,
         Set<? extends MeasurementScheduleRequest> requests, Resource resource) {
         try {
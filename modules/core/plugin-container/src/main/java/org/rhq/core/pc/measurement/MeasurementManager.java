@@ -26,10 +26,11 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -45,6 +46,7 @@ import org.rhq.core.clientapi.agent.measurement.MeasurementAgentService;
 import org.rhq.core.domain.measurement.DataType;
 import org.rhq.core.domain.measurement.MeasurementData;
 import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.core.domain.measurement.MeasurementDataNumericBuffer;
 import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.MeasurementSchedule;
 import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
@@ -62,6 +64,7 @@ import org.rhq.core.pc.inventory.ResourceContainer;
 import org.rhq.core.pc.util.ComponentUtil;
 import org.rhq.core.pc.util.FacetLockType;
 import org.rhq.core.pc.util.LoggingThreadFactory;
+import org.rhq.core.pluginapi.measurement.BatchMeasurementFacet;
 import org.rhq.core.pluginapi.measurement.MeasurementFacet;
 
 /**
@@ -85,6 +88,15 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
     static final int FACET_METHOD_TIMEOUT = 30 * 1000; // 30 seconds
 
+    /**
+     * The length of a tick of the schedule wheel. Schedules are collected on the first tick at or after their next
+     * collection time.
+     */
+    private static final long SCHEDULE_TICK_MILLIS = 1000L;
+
+    /** The number of ticks of one round of the schedule wheel, longer intervals take several rounds. */
+    private static final int SCHEDULE_WHEEL_SIZE = 1024;
+
     static final Log LOG = LogFactory.getLog(MeasurementManager.class);
 
     private final ScheduledThreadPoolExecutor collectorThreadPool;
@@ -95,8 +107,10 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
     private final PluginContainerConfiguration configuration;
 
-    private final PriorityQueue<ScheduledMeasurementInfo> scheduledRequests = new PriorityQueue<ScheduledMeasurementInfo>(
-        10000);
+    private final MeasurementScheduleWheel scheduledRequests;
+
+    // limits the collections handed to the collector thread pool to the threads it has besides the requester
+    private final Semaphore collectorPermits;
 
     private final InventoryManager inventoryManager;
 
@@ -133,6 +147,16 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
         this.inventoryManager = inventoryManager;
 
+        // the due schedules of descendants of a batch collector are handed out together with those of its other
+        // descendants, see MeasurementCollectorRunner
+        this.scheduledRequests = new MeasurementScheduleWheel(SCHEDULE_TICK_MILLIS, SCHEDULE_WHEEL_SIZE,
+            System.currentTimeMillis(), new MeasurementScheduleWheel.Grouping() {
+                public int getGroupId(int resourceId) {
+                    ResourceContainer batchCollector = getBatchCollector(resourceId);
+                    return (batchCollector != null) ? batchCollector.getResource().getId() : resourceId;
+                }
+            });
+
         int threadPoolSize = configuration.getMeasurementCollectionThreadPoolSize();
         long collectionInitialDelaySecs = configuration.getMeasurementCollectionInitialDelay();
 
@@ -146,6 +170,9 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             this.measurementSenderRunner = new MeasurementSenderRunner(this);
             this.measurementCollectorRunner = new MeasurementCollectorRunner(this);
 
+            // one of the threads runs the requester
+            this.collectorPermits = (threadPoolSize > 1) ? new Semaphore(threadPoolSize - 1) : null;
+
             // Schedule the measurement sender to send measurement reports periodically.
             this.senderThreadPool.scheduleAtFixedRate(measurementSenderRunner, collectionInitialDelaySecs, 30,
                 TimeUnit.SECONDS);
@@ -164,29 +191,43 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             collectorThreadPool = null;
             measurementSenderRunner = null;
             measurementCollectorRunner = null;
+            collectorPermits = null;
         }
 
 
         LOG.info("Measurement Manager initialized.");
     }
 
+    /**
+     * Advances the schedule wheel once a tick and hands the collections that are due to the other threads of the
+     * collector thread pool, as many at a time as there are threads. With a single thread, the requester collects them
+     * itself.
+     */
     class MeasurementCollectionRequester implements Runnable {
         @Override
         public void run() {
             try {
                 while (!collectorThreadPool.isShutdown()) {
-                    long next = getNextExpectedCollectionTime();
-                    if (next == Long.MIN_VALUE) {
-                        Thread.sleep(10000);
+                    long now = System.currentTimeMillis();
+                    scheduledRequests.advance(now);
+                    if (scheduledRequests.getReadyCount() == 0) {
+                        Thread.sleep(scheduledRequests.getDelayToNextTick(now));
+                    } else if (collectorPermits == null) {
+                        measurementCollectorRunner.call();
                     } else {
-                        long delay = next - System.currentTimeMillis();
-                        if (delay <= 0) {
-                            //                  collectorThreadPool.execute(measurementCollectorRunner);
-                            measurementCollectorRunner.call();
-                        } else {
-                            if (!collectorThreadPool.isShutdown()) {
-                                Thread.sleep(delay);
-                            }
+                        collectorPermits.acquire();
+                        try {
+                            collectorThreadPool.execute(new Runnable() {
+                                public void run() {
+                                    try {
+                                        measurementCollectorRunner.run();
+                                    } finally {
+                                        collectorPermits.release();
+                                    }
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            collectorPermits.release(); // shutting down
                         }
                     }
                 }
@@ -273,18 +314,17 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     }
 
     public void perMinuteItizeData(MeasurementReport report) {
-        Iterator<MeasurementDataNumeric> iter = report.getNumericData().iterator();
-        while (iter.hasNext()) {
-            MeasurementData d = iter.next();
-            MeasurementDataNumeric numeric = (MeasurementDataNumeric) d;
-            if (numeric.isPerMinuteCollection()) {
-                Double perMinuteValue = updatePerMinuteMetric(numeric);
+        MeasurementDataNumericBuffer.Cursor cursor = report.getNumericDataBuffer().cursor();
+        while (cursor.next()) {
+            if (cursor.isPerMinuteCollection()) {
+                Double perMinuteValue = updatePerMinuteMetric(cursor.getScheduleId(), cursor.getTimestamp(),
+                    cursor.getValue(), cursor.getRawNumericType());
                 if (perMinuteValue == null) {
                     // This is the first collection, don't return the value yet
-                    iter.remove();
+                    cursor.remove();
                 } else {
                     // set the value to the transformed rate value
-                    numeric.setValue(perMinuteValue);
+                    cursor.setValue(perMinuteValue);
                 }
             }
         }
@@ -347,7 +387,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         // TODO GH: Should I kick the pool or should I just go with the 30 second granularity on collections?
         // If I get much more granular then the server could end up with too many small reports from many agents
         // This may be another reason to have a separate sending mechanism from the collection mechanism.
-        clearDuplicateSchedules();
 
     }
 
@@ -384,7 +423,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         // TODO GH: Should I kick the pool or should I just go with the 30 second granularity on collections?
         // If I get much more granular then the server could end up with too many small reports from many agents
         // This may be another reason to have a separate sending mechanism from the collection mechanism.
-        clearDuplicateSchedules();
     }
 
     /**
@@ -393,7 +431,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      * @param resourceId The resource to collect on
      * @param requests   The measurements to collect
      */
-    public synchronized void scheduleCollection(int resourceId, Set<MeasurementScheduleRequest> requests) {
+    public void scheduleCollection(int resourceId, Set<MeasurementScheduleRequest> requests) {
         // This ensures that all the schedules for a single resource start at the same time
         // This will enable them to be collected at the same time
         long firstCollection = System.currentTimeMillis();
@@ -409,36 +447,20 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
             info.setNextCollection(firstCollection);
 
-            this.scheduledRequests.remove(info);
-
             // Don't add it if collection is disabled for this resource
             if (info.isEnabled()) {
-                this.scheduledRequests.offer(info);
+                this.scheduledRequests.schedule(info);
+            } else {
+                this.scheduledRequests.unschedule(info.getScheduleId());
             }
         }
     }
 
     @Override
-    public synchronized void unscheduleCollection(Set<Integer> resourceIds) {
-        Iterator<ScheduledMeasurementInfo> itr = this.scheduledRequests.iterator();
-        while (itr.hasNext()) {
-            ScheduledMeasurementInfo info = itr.next();
+    public void unscheduleCollection(Set<Integer> resourceIds) {
+        for (ScheduledMeasurementInfo info : this.scheduledRequests.getSchedules()) {
             if (resourceIds.contains(info.getResourceId())) {
-                itr.remove();
-            }
-        }
-    }
-
-    private void clearDuplicateSchedules() {
-        HashSet<Integer> set = new HashSet<Integer>(this.scheduledRequests.size());
-        Iterator<ScheduledMeasurementInfo> iter = this.scheduledRequests.iterator();
-        while (iter.hasNext()) {
-            ScheduledMeasurementInfo info = iter.next();
-            if (set.contains(info.getScheduleId())) {
-                LOG.debug("Found duplicate schedule - will remove it: " + info);
-                iter.remove();
-            } else {
-                set.add(info.getScheduleId());
+                this.scheduledRequests.unschedule(info.getScheduleId());
             }
         }
     }
@@ -482,7 +504,9 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             return Collections.emptySet();
         }
 
-        Iterator<MeasurementDataNumeric> iterator = report.getNumericData().iterator();
+        // a snapshot of the report, which is dropped once the values are returned
+        Set<MeasurementDataNumeric> numericData = report.getNumericData();
+        Iterator<MeasurementDataNumeric> iterator = numericData.iterator();
         while (iterator.hasNext()) {
             MeasurementDataNumeric numeric = iterator.next();
             if (numeric.isPerMinuteCollection()) {
@@ -490,48 +514,59 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
                 if (currentValue == null) {
                     iterator.remove();
                 } else {
-                    numeric.setValue(calculatePerMinuteValue(numeric, currentValue));
+                    numeric.setValue(calculatePerMinuteValue(numeric.getTimestamp(), numeric.getValue(),
+                        numeric.getRawNumericType(), currentValue));
                 }
             }
         }
 
         Set<MeasurementData> values = new HashSet<MeasurementData>();
-        values.addAll(report.getNumericData());
+        values.addAll(numericData);
         values.addAll(report.getTraitData());
         return values;
     }
 
     @Override
     public long getNextExpectedCollectionTime() {
-        ScheduledMeasurementInfo nextScheduledMeasurement = this.scheduledRequests.peek();
-        if (nextScheduledMeasurement == null) {
-            return Long.MIN_VALUE;
-        } else {
-            return nextScheduledMeasurement.getNextCollection();
-        }
+        return this.scheduledRequests.getNextCollection();
     }
 
     /**
-     * Returns the complete set of scheduled measurement collections.
+     * Returns the next set of measurement collections that are due, all of the same collection time and either of the
+     * same resource or of descendants of the same {@link #getBatchCollector(int) batch collector}. Each set is returned
+     * once; hand it back with {@link #reschedule(Set)} or {@link #rescheduleLateCollections(Set)} when done.
      *
-     * @return all measurement schedules
+     * @return the due measurement schedules, or null if none are due
      */
-    public synchronized Set<ScheduledMeasurementInfo> getNextScheduledSet() {
-        ScheduledMeasurementInfo first = this.scheduledRequests.peek();
-        if ((first == null) || (first.getNextCollection() > System.currentTimeMillis())) {
-            return null;
+    public Set<ScheduledMeasurementInfo> getNextScheduledSet() {
+        Set<ScheduledMeasurementInfo> next = this.scheduledRequests.poll();
+        if (next == null) {
+            this.scheduledRequests.advance(System.currentTimeMillis());
+            next = this.scheduledRequests.poll();
         }
+        return next;
+    }
 
-        Set<ScheduledMeasurementInfo> nextScheduledSet = new HashSet<ScheduledMeasurementInfo>();
-
-        ScheduledMeasurementInfo next = this.scheduledRequests.peek();
-        while ((next != null) && (next.getResourceId() == first.getResourceId())
-            && (next.getNextCollection() == first.getNextCollection())) {
-            nextScheduledSet.add(this.scheduledRequests.poll());
-            next = this.scheduledRequests.peek();
+    /**
+     * Returns the container of the nearest ancestor of the resource whose component implements
+     * {@link BatchMeasurementFacet}, which collects the metrics of the resource together with those of its other
+     * descendants.
+     *
+     * @param resourceId the resource whose metrics are to be collected
+     *
+     * @return the container of the batch collector, or null if the resource has none
+     */
+    ResourceContainer getBatchCollector(int resourceId) {
+        ResourceContainer container = this.inventoryManager.getResourceContainer(resourceId);
+        Resource parent = (container != null) ? container.getResource().getParentResource() : null;
+        while (parent != null) {
+            ResourceContainer parentContainer = this.inventoryManager.getResourceContainer(parent);
+            if (parentContainer != null && parentContainer.supportsFacet(BatchMeasurementFacet.class)) {
+                return parentContainer;
+            }
+            parent = parent.getParentResource();
         }
-
-        return nextScheduledSet;
+        return null;
     }
 
     /**
@@ -541,12 +576,12 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      *
      * @param scheduledMeasurementInfos the schedules to reschedule
      */
-    public synchronized void reschedule(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
+    public void reschedule(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
 
         for (ScheduledMeasurementInfo scheduledMeasurement : scheduledMeasurementInfos) {
             long interval = scheduledMeasurement.getInterval();
             scheduledMeasurement.setNextCollection(scheduledMeasurement.getNextCollection() + interval);
-            this.scheduledRequests.offer(scheduledMeasurement);
+            this.scheduledRequests.reschedule(scheduledMeasurement);
         }
     }
 
@@ -563,7 +598,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      *
      * @param scheduledMeasurementInfos the late schedules to reschedule
      */
-    synchronized void rescheduleLateCollections(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
+    void rescheduleLateCollections(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Rescheduling [" + scheduledMeasurementInfos.size() + "] late collections: "
@@ -589,7 +624,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             }
 
             scheduledMeasurement.setNextCollection(nextCollection);
-            this.scheduledRequests.offer(scheduledMeasurement);
+            this.scheduledRequests.reschedule(scheduledMeasurement);
         }
     }
 
@@ -612,18 +647,19 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         }
     }
 
-    private Double updatePerMinuteMetric(MeasurementDataNumeric numeric) {
-        CachedValue previousValue = this.perMinuteCache.get(numeric.getScheduleId());
-        this.perMinuteCache.put(numeric.getScheduleId(), new CachedValue(numeric.getTimestamp(), numeric.getValue()));
-        return calculatePerMinuteValue(numeric, previousValue);
+    private Double updatePerMinuteMetric(int scheduleId, long timestamp, double value, NumericType rawNumericType) {
+        CachedValue previousValue = this.perMinuteCache.get(scheduleId);
+        this.perMinuteCache.put(scheduleId, new CachedValue(timestamp, value));
+        return calculatePerMinuteValue(timestamp, value, rawNumericType, previousValue);
     }
 
-    private Double calculatePerMinuteValue(MeasurementDataNumeric numeric, CachedValue currentValue) {
+    private Double calculatePerMinuteValue(long timestamp, double value, NumericType rawNumericType,
+        CachedValue currentValue) {
         Double perMinuteValue = null;
         if (currentValue != null) {
-            long timeDifference = numeric.getTimestamp() - currentValue.timestamp;
-            perMinuteValue = (60000D / timeDifference) * (numeric.getValue() - currentValue.value);
-            if (numeric.getRawNumericType() == NumericType.TRENDSDOWN)
+            long timeDifference = timestamp - currentValue.timestamp;
+            perMinuteValue = (60000D / timeDifference) * (value - currentValue.value);
+            if (rawNumericType == NumericType.TRENDSDOWN)
                 perMinuteValue *= -1D; // Multiply by -1, so per-minute value is positive.
             if (perMinuteValue < 0)
                 // A negative value means the raw metric must have been reset, which means we can't accurately
@@ -637,7 +673,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     public Map<String, Object> getMeasurementScheduleInfoForResource(int resourceId) {
         Map<String, Object> results = null;
 
-        for (ScheduledMeasurementInfo info : new PriorityQueue<ScheduledMeasurementInfo>(scheduledRequests)) {
+        for (ScheduledMeasurementInfo info : scheduledRequests.getSchedules()) {
             if (info.getResourceId() == resourceId) {
                 if (results == null) {
                     results = new HashMap<String, Object>();
@@ -740,6 +776,16 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         return lateCollections.get();
     }
 
+    @Override
+    public long getCollectionQueueDepth() {
+        return this.scheduledRequests.getReadyCount();
+    }
+
+    @Override
+    public long getCollectionLag() {
+        return this.scheduledRequests.getLag(System.currentTimeMillis());
+    }
+
     public MeasurementReport swapReport() {
         try {
             this.measurementLock.writeLock().lock();
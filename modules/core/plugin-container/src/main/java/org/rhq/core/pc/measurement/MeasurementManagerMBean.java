@@ -39,4 +39,14 @@ public interface MeasurementManagerMBean {
     long getLateCollections();
 
     long getFailedCollections();
+
+    /**
+     * @return the number of collections that are due but wait for a collector thread
+     */
+    long getCollectionQueueDepth();
+
+    /**
+     * @return how long the next collection that waits for a collector thread is overdue, in milliseconds
+     */
+    long getCollectionLag();
 }
\ No newline at end of file
@@ -0,0 +1,318 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The measurement schedules of the agent, ordered by their next collection in a hashed timing wheel. Each slot of the
+ * wheel holds the schedules due in one tick, or in the same tick of a later round, in a lock-free queue, so scheduling
+ * and rescheduling never wait for each other or for the collectors.
+ *
+ * The wheel is advanced by a single thread at a time, see {@link #advance(long)}. The schedules that are due are
+ * grouped into sets of the same collection time and {@link Grouping group}, by default the resource, which are handed
+ * out to the collectors with {@link #poll()}. A schedule is due on the first tick at or after its next collection
+ * time.
+ *
+ * There is one current {@link ScheduledMeasurementInfo} per schedule id. Replaced or removed ones are not searched for
+ * in the wheel, they are dropped when their slot comes up.
+ */
+final class MeasurementScheduleWheel {
+
+    /**
+     * Decides which resources' schedules are collected together.
+     */
+    interface Grouping {
+        /**
+         * @return the id of the group of the resource, schedules of resources of the same group that are due at the
+         * same time are handed out in one set
+         */
+        int getGroupId(int resourceId);
+    }
+
+    private static final Grouping BY_RESOURCE = new Grouping() {
+        public int getGroupId(int resourceId) {
+            return resourceId;
+        }
+    };
+
+    private final long tickMillis;
+    private final Grouping grouping;
+    private final ConcurrentLinkedQueue<Entry>[] slots;
+    private final int mask;
+
+    private final ConcurrentHashMap<Integer, ScheduledMeasurementInfo> schedules = new ConcurrentHashMap<Integer, ScheduledMeasurementInfo>();
+
+    // entries that were added to a slot that was just being advanced past
+    private final ConcurrentLinkedQueue<Entry> overdue = new ConcurrentLinkedQueue<Entry>();
+
+    private final ConcurrentLinkedQueue<Set<ScheduledMeasurementInfo>> ready = new ConcurrentLinkedQueue<Set<ScheduledMeasurementInfo>>();
+    private final AtomicInteger readyCount = new AtomicInteger();
+
+    private final ReentrantLock advanceLock = new ReentrantLock();
+    private volatile long currentTick; // the ticks before this one have been handed out
+
+    /**
+     * @param wheelSize the number of slots, rounded up to a power of two
+     */
+    MeasurementScheduleWheel(long tickMillis, int wheelSize, long now) {
+        this(tickMillis, wheelSize, now, BY_RESOURCE);
+    }
+
+    /**
+     * @param wheelSize the number of slots, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    MeasurementScheduleWheel(long tickMillis, int wheelSize, long now, Grouping grouping) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.grouping = grouping;
+        this.slots = new ConcurrentLinkedQueue[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ConcurrentLinkedQueue<Entry>();
+        }
+        this.mask = size - 1;
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * Makes the schedule the current one for its schedule id, replacing the previous one, if any, and adds it to the
+     * wheel at its next collection time.
+     */
+    void schedule(ScheduledMeasurementInfo info) {
+        schedules.put(info.getScheduleId(), info);
+        add(info);
+    }
+
+    /**
+     * Removes the schedule with the id, if any.
+     */
+    void unschedule(int scheduleId) {
+        schedules.remove(scheduleId);
+    }
+
+    /**
+     * Adds a schedule that has been handed out back to the wheel, at its new next collection time, unless it has been
+     * replaced or removed in the meantime.
+     */
+    void reschedule(ScheduledMeasurementInfo info) {
+        if (isCurrent(info)) {
+            add(info);
+        }
+    }
+
+    /**
+     * @return the current schedules, in no particular order
+     */
+    Collection<ScheduledMeasurementInfo> getSchedules() {
+        return Collections.unmodifiableCollection(schedules.values());
+    }
+
+    int size() {
+        return schedules.size();
+    }
+
+    /**
+     * Moves the schedules that are due at the given time to the ready sets. If another thread is advancing the wheel,
+     * this returns right away.
+     */
+    void advance(long now) {
+        if (!advanceLock.tryLock()) {
+            return;
+        }
+        try {
+            long nowTick = now / tickMillis;
+            List<ScheduledMeasurementInfo> due = new ArrayList<ScheduledMeasurementInfo>();
+
+            Entry entry;
+            while ((entry = overdue.poll()) != null) {
+                if (isCurrent(entry.info)) {
+                    due.add(entry.info);
+                }
+            }
+
+            List<Entry> later = new ArrayList<Entry>();
+            for (long tick = currentTick; tick <= nowTick; tick++) {
+                // advance before draining, see add(), so that nothing added to the slot is missed
+                currentTick = tick + 1;
+                ConcurrentLinkedQueue<Entry> slot = slots[(int) (tick & mask)];
+                while ((entry = slot.poll()) != null) {
+                    if (!isCurrent(entry.info)) {
+                        continue; // replaced or removed
+                    }
+                    if (entry.tick <= nowTick) {
+                        due.add(entry.info);
+                    } else {
+                        later.add(entry); // a later round
+                    }
+                }
+                slot.addAll(later);
+                later.clear();
+            }
+            addReadySets(due);
+        } finally {
+            advanceLock.unlock();
+        }
+    }
+
+    /**
+     * @return the next set of due schedules, all of the same group and collection time, or null if none are due
+     */
+    Set<ScheduledMeasurementInfo> poll() {
+        Set<ScheduledMeasurementInfo> next = ready.poll();
+        if (next != null) {
+            readyCount.decrementAndGet();
+        }
+        return next;
+    }
+
+    /**
+     * @return the number of sets of due schedules waiting for a collector
+     */
+    int getReadyCount() {
+        return readyCount.get();
+    }
+
+    /**
+     * @return how long the next ready set is overdue, in millis, or 0 if there is none
+     */
+    long getLag(long now) {
+        Set<ScheduledMeasurementInfo> next = ready.peek();
+        if (next == null || next.isEmpty()) {
+            return 0L;
+        }
+        return Math.max(0L, now - next.iterator().next().getNextCollection());
+    }
+
+    /**
+     * @return the time until the next tick, in millis
+     */
+    long getDelayToNextTick(long now) {
+        return ((now / tickMillis) + 1) * tickMillis - now;
+    }
+
+    /**
+     * @return the earliest next collection time, or {@link Long#MIN_VALUE} if there are no schedules. This looks at
+     * all schedules.
+     */
+    long getNextCollection() {
+        long next = Long.MAX_VALUE;
+        for (ScheduledMeasurementInfo info : schedules.values()) {
+            next = Math.min(next, info.getNextCollection());
+        }
+        return (next == Long.MAX_VALUE) ? Long.MIN_VALUE : next;
+    }
+
+    private boolean isCurrent(ScheduledMeasurementInfo info) {
+        return schedules.get(info.getScheduleId()) == info;
+    }
+
+    private void add(ScheduledMeasurementInfo info) {
+        long tick = Math.max(tickOf(info.getNextCollection()), currentTick);
+        Entry entry = new Entry(info, tick);
+        ConcurrentLinkedQueue<Entry> slot = slots[(int) (tick & mask)];
+        slot.offer(entry);
+        // if the wheel advanced past the tick meanwhile, the slot may have been drained before the entry got in
+        if (currentTick > tick && slot.remove(entry)) {
+            overdue.offer(entry);
+        }
+    }
+
+    /**
+     * @return the tick in which the time falls, rounded up so that nothing is handed out before its time
+     */
+    private long tickOf(long time) {
+        long tick = time / tickMillis;
+        return (tick * tickMillis == time) ? tick : tick + 1;
+    }
+
+    private void addReadySets(List<ScheduledMeasurementInfo> due) {
+        if (due.isEmpty()) {
+            return;
+        }
+
+        final Map<Integer, Integer> groupIds = new HashMap<Integer, Integer>();
+        for (ScheduledMeasurementInfo info : due) {
+            if (!groupIds.containsKey(info.getResourceId())) {
+                groupIds.put(info.getResourceId(), grouping.getGroupId(info.getResourceId()));
+            }
+        }
+
+        // by collection time, then by group
+        Collections.sort(due, new Comparator<ScheduledMeasurementInfo>() {
+            public int compare(ScheduledMeasurementInfo a, ScheduledMeasurementInfo b) {
+                if (a.getNextCollection() != b.getNextCollection()) {
+                    return (a.getNextCollection() < b.getNextCollection()) ? -1 : 1;
+                }
+                int groupA = groupIds.get(a.getResourceId());
+                int groupB = groupIds.get(b.getResourceId());
+                if (groupA != groupB) {
+                    return (groupA < groupB) ? -1 : 1;
+                }
+                return a.compareTo(b);
+            }
+        });
+        Set<ScheduledMeasurementInfo> set = null;
+        ScheduledMeasurementInfo first = null;
+        for (ScheduledMeasurementInfo info : due) {
+            if (first == null || !groupIds.get(info.getResourceId()).equals(groupIds.get(first.getResourceId()))
+                || info.getNextCollection() != first.getNextCollection()) {
+                addReadySet(set);
+                set = new HashSet<ScheduledMeasurementInfo>();
+                first = info;
+            }
+            set.add(info);
+        }
+        addReadySet(set);
+    }
+
+    private void addReadySet(Set<ScheduledMeasurementInfo> set) {
+        if (set != null) {
+            ready.offer(set);
+            readyCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * A schedule in a slot. Entries are only equal to themselves, so that removing one from a slot never removes
+     * another entry for an equal schedule.
+     */
+    private static final class Entry {
+        private final ScheduledMeasurementInfo info;
+        private final long tick;
+
+        private Entry(ScheduledMeasurementInfo info, long tick) {
+            this.info = info;
+            this.tick = tick;
+        }
+    }
+}
@@ -19,14 +19,13 @@
 package org.rhq.core.pc.measurement;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.core.domain.measurement.MeasurementDataNumericBuffer;
 import org.rhq.core.domain.measurement.MeasurementDataTrait;
 import org.rhq.core.domain.measurement.MeasurementReport;
 
@@ -50,6 +49,8 @@ public class MeasurementSenderRunner implements Callable<MeasurementReport>, Run
         }
 
         filterUnchangedTraits(report);
+        // a value collected twice for the same time would make its per-minute rate NaN
+        report.getNumericDataBuffer().removeDuplicates();
         cleanseInvalidNumericValues(report);
         this.measurementManager.perMinuteItizeData(report);
 
@@ -85,33 +86,31 @@ public class MeasurementSenderRunner implements Callable<MeasurementReport>, Run
     }
 
     private void cleanseInvalidNumericValues(MeasurementReport report) {
-        Iterator<MeasurementDataNumeric> iter = report.getNumericData().iterator();
-        while (iter.hasNext()) {
-            MeasurementDataNumeric numeric = iter.next();
-            Double value = numeric.getValue();
-            if (value == null || value.isInfinite() || value.isNaN()) {
+        // the collected numeric data is only in the buffer, go over it without creating objects for the data
+        MeasurementDataNumericBuffer.Cursor cursor = report.getNumericDataBuffer().cursor();
+        while (cursor.next()) {
+            double value = cursor.getValue();
+            if (Double.isInfinite(value) || Double.isNaN(value)) {
                 if (LOG.isDebugEnabled()) {
                     String stringValue = getStringValue(value);
-                    LOG.debug("Numeric metric [" + numeric.getName() + "] with schedule id [" + numeric.getScheduleId()
+                    LOG.debug("Numeric metric [" + cursor.getName() + "] with schedule id [" + cursor.getScheduleId()
                         + "] is invalid - value is [" + stringValue + "].");
                 }
-                iter.remove();
+                cursor.remove();
             }
         }
     }
 
-    private String getStringValue(Double value) {
+    private String getStringValue(double value) {
         String stringValue;
-        if (value == null) {
-            stringValue = "null";
-        } else if (value.isNaN()) {
+        if (Double.isNaN(value)) {
             stringValue = "Double.NaN";
         } else if (value == Double.POSITIVE_INFINITY) {
             stringValue = "Double.POSITIVE_INFINITY";
         } else if (value == Double.NEGATIVE_INFINITY) {
             stringValue = "Double.NEGATIVE_INFINITY";
         } else {
-            stringValue = value.toString();
+            stringValue = String.valueOf(value);
         }
         return stringValue;
     }
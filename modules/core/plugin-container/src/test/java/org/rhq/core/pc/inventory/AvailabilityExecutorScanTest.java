@@ -0,0 +1,221 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.inventory;
+
+import static org.rhq.core.domain.measurement.AvailabilityType.DOWN;
+import static org.rhq.core.domain.measurement.AvailabilityType.UP;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.discovery.AvailabilityReport;
+import org.rhq.core.domain.measurement.Availability;
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.pc.inventory.ResourceContainer.ResourceComponentState;
+import org.rhq.core.pc.inventory.ResourceContainer.SynchronizationState;
+import org.rhq.core.pluginapi.availability.AvailabilityFacet;
+
+/**
+ * Scans a small inventory in which every availability check sleeps {@link #CHECK_MILLIS}, so the checks running at the
+ * same time show whether the servers below the platform are scanned concurrently.
+ */
+@Test
+public class AvailabilityExecutorScanTest {
+
+    private static final long CHECK_MILLIS = 50L;
+    private static final int WORKERS = 3;
+
+    private final Map<Integer, ResourceContainer> containers = new HashMap<Integer, ResourceContainer>();
+    private final Map<Integer, AvailabilityType> availabilities = new HashMap<Integer, AvailabilityType>();
+    private final AtomicInteger runningChecks = new AtomicInteger();
+    private final AtomicInteger maxRunningChecks = new AtomicInteger();
+
+    private Resource platform;
+    private InventoryManager inventoryManager;
+    private ThreadPoolExecutor workers;
+
+    @BeforeMethod
+    public void setUp() {
+        containers.clear();
+        availabilities.clear();
+        runningChecks.set(0);
+        maxRunningChecks.set(0);
+
+        inventoryManager = Mockito.mock(InventoryManager.class);
+        Mockito.when(inventoryManager.getResourceContainer(Mockito.anyInt())).thenAnswer(
+            new Answer<ResourceContainer>() {
+                public ResourceContainer answer(InvocationOnMock invocation) throws Throwable {
+                    return containers.get(invocation.getArguments()[0]);
+                }
+            });
+        Mockito.when(
+            inventoryManager.getContainerChildren(Mockito.any(Resource.class), Mockito.any(ResourceContainer.class)))
+            .thenAnswer(new Answer<Set<Resource>>() {
+                public Set<Resource> answer(InvocationOnMock invocation) throws Throwable {
+                    return ((Resource) invocation.getArguments()[0]).getChildResources();
+                }
+            });
+        Mockito.when(
+            inventoryManager.updateAvailability(Mockito.any(Resource.class), Mockito.any(AvailabilityType.class)))
+            .thenAnswer(new Answer<Availability>() {
+                public Availability answer(InvocationOnMock invocation) throws Throwable {
+                    return new Availability((Resource) invocation.getArguments()[0],
+                        (AvailabilityType) invocation.getArguments()[1]);
+                }
+            });
+
+        // servers 10 to 13, each with services <server id>0 to <server id>2
+        platform = checkedResource(1, null);
+        for (int serverId = 10; serverId < 14; serverId++) {
+            Resource server = checkedResource(serverId, platform);
+            for (int serviceId = serverId * 10; serviceId < (serverId * 10) + 3; serviceId++) {
+                checkedResource(serviceId, server);
+            }
+        }
+    }
+
+    @AfterMethod
+    public void shutdownWorkers() {
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+    }
+
+    public void testSubtreesAreCheckedConcurrently() {
+        workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        Mockito.when(inventoryManager.getAvailabilityScanWorkers()).thenReturn(workers);
+
+        AvailabilityExecutor executor = new AvailabilityExecutor(inventoryManager);
+        AvailabilityReport report = new AvailabilityReport("agent");
+        executor.startScan(platform, report, false);
+
+        AvailabilityExecutor.Scan scan = executor.getMostRecentScanHistory();
+        assert !scan.isTimedOut() : scan;
+        assert report.getResourceAvailability().size() == containers.size() : report;
+        assert scan.getNumGetAvailabilityCalls() == containers.size() : scan;
+        assert scan.getAvailabilityCheckDurations().getCount() == containers.size() : scan;
+        assert maxRunningChecks.get() > 1 : maxRunningChecks;
+    }
+
+    public void testChildrenOfDownResourceAreNotChecked() {
+        workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        Mockito.when(inventoryManager.getAvailabilityScanWorkers()).thenReturn(workers);
+        availabilities.put(11, DOWN);
+
+        AvailabilityExecutor executor = new AvailabilityExecutor(inventoryManager);
+        AvailabilityReport report = new AvailabilityReport("agent");
+        executor.startScan(platform, report, false);
+
+        AvailabilityExecutor.Scan scan = executor.getMostRecentScanHistory();
+        assert report.getResourceAvailability().size() == containers.size() : report;
+        // services 110 to 112 take the availability of their server without being checked
+        assert scan.getNumGetAvailabilityCalls() == containers.size() - 3 : scan;
+        assert scan.getNumDeferToParent() == 3 : scan;
+        for (AvailabilityReport.Datum datum : report.getResourceAvailability()) {
+            int id = datum.getResourceId();
+            boolean belowDownServer = (id == 11) || (id >= 110 && id < 120);
+            assert datum.getAvailabilityType() == (belowDownServer ? DOWN : UP) : datum;
+        }
+    }
+
+    public void testScanStopsAtTimeout() {
+        Mockito.when(inventoryManager.getAvailabilityScanTimeout()).thenReturn(CHECK_MILLIS * 3);
+
+        AvailabilityExecutor executor = new AvailabilityExecutor(inventoryManager);
+        AvailabilityReport report = new AvailabilityReport("agent");
+        executor.startScan(platform, report, false);
+
+        AvailabilityExecutor.Scan scan = executor.getMostRecentScanHistory();
+        assert scan.isTimedOut() : scan;
+        assert report.getResourceAvailability().size() < containers.size() : report;
+        assert scan.getNumGetAvailabilityCalls() < containers.size() : scan;
+        assert executor.getScanDurations().getCount() == 1L;
+    }
+
+    public void testDurationHistogram() {
+        AvailabilityExecutor.DurationHistogram histogram = new AvailabilityExecutor.DurationHistogram();
+        histogram.add(0L);
+        histogram.add(10L);
+        histogram.add(11L);
+        histogram.add(60000L);
+        histogram.add(60001L);
+
+        long[] counts = histogram.getCounts();
+        assert counts.length == histogram.getBucketLimits().length + 1;
+        assert counts[0] == 2L;
+        assert counts[1] == 1L;
+        assert counts[counts.length - 2] == 1L;
+        assert counts[counts.length - 1] == 1L;
+        assert histogram.getCount() == 5L;
+    }
+
+    /**
+     * Adds a started resource whose availability check sleeps {@link #CHECK_MILLIS} and then returns the availability
+     * put in {@link #availabilities}, or UP.
+     */
+    private Resource checkedResource(final int id, Resource parent) {
+        Resource resource = new Resource(id);
+        resource.setUuid("uuid-" + id); // children are kept in a set, which needs distinct resources
+        resource.setInventoryStatus(InventoryStatus.COMMITTED);
+        if (parent != null) {
+            parent.addChildResource(resource);
+        }
+
+        AvailabilityFacet proxy = new AvailabilityFacet() {
+            public AvailabilityType getAvailability() {
+                int running = runningChecks.incrementAndGet();
+                try {
+                    int max;
+                    while (running > (max = maxRunningChecks.get())) {
+                        maxRunningChecks.compareAndSet(max, running);
+                    }
+                    Thread.sleep(CHECK_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    runningChecks.decrementAndGet();
+                }
+                AvailabilityType type = availabilities.get(id);
+                return (type != null) ? type : UP;
+            }
+        };
+
+        ResourceContainer container = Mockito.mock(ResourceContainer.class);
+        Mockito.when(container.getSynchronizationState()).thenReturn(SynchronizationState.SYNCHRONIZED);
+        Mockito.when(container.getResourceComponentState()).thenReturn(ResourceComponentState.STARTED);
+        Mockito.when(container.getAvailabilityProxy()).thenReturn(proxy);
+        containers.put(id, container);
+        return resource;
+    }
+}
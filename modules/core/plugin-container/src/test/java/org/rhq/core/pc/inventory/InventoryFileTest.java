@@ -0,0 +1,277 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.inventory;
+
+import static org.apache.commons.io.FileUtils.copyFile;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.clientapi.agent.metadata.PluginMetadataManager;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.pc.plugin.PluginManager;
+
+/**
+ * Stores an inventory of a platform with 50 servers of 10 services each, which makes the snapshot large compared to
+ * the journal of a few changes, and loads it back after changing it.
+ */
+@Test
+public class InventoryFileTest {
+
+    private final Map<String, ResourceType> types = new HashMap<String, ResourceType>();
+    private File file;
+    private InventoryManager inventoryManager;
+    private int resourceCount;
+
+    @BeforeMethod
+    public void storeInventory() throws Exception {
+        File dir = new File("target/InventoryFileTest");
+        deleteDirectory(dir);
+        dir.mkdirs();
+        file = new File(dir, "inventory.dat");
+
+        ResourceType platformType = addType(new ResourceType("Linux", "Platforms", ResourceCategory.PLATFORM, null));
+        ResourceType serverType = addType(new ResourceType("Server", "test", ResourceCategory.SERVER, platformType));
+        ResourceType serviceType = addType(new ResourceType("Service", "test", ResourceCategory.SERVICE, serverType));
+
+        // the loaded resources are connected to the types of the plugin metadata
+        PluginMetadataManager metadataManager = Mockito.mock(PluginMetadataManager.class);
+        Mockito.when(metadataManager.getType(Mockito.any(ResourceType.class))).thenAnswer(new Answer<ResourceType>() {
+            public ResourceType answer(InvocationOnMock invocation) throws Throwable {
+                return types.get(((ResourceType) invocation.getArguments()[0]).getName());
+            }
+        });
+        PluginManager pluginManager = Mockito.mock(PluginManager.class);
+        Mockito.when(pluginManager.getMetadataManager()).thenReturn(metadataManager);
+        inventoryManager = Mockito.mock(InventoryManager.class);
+        Mockito.when(inventoryManager.getPluginManager()).thenReturn(pluginManager);
+        Mockito.when(inventoryManager.getContainerChildren(Mockito.any(Resource.class))).thenAnswer(
+            new Answer<Object>() {
+                public Object answer(InvocationOnMock invocation) throws Throwable {
+                    return ((Resource) invocation.getArguments()[0]).getChildResources();
+                }
+            });
+
+        // servers 100 to 149, each with services <server id>0 to <server id>9
+        Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+        Resource platform = addResource(1, platformType, null, containers);
+        for (int serverId = 100; serverId < 150; serverId++) {
+            Resource server = addResource(serverId, serverType, platform, containers);
+            for (int serviceId = serverId * 10; serviceId < (serverId * 10) + 10; serviceId++) {
+                addResource(serviceId, serviceType, server, containers);
+            }
+        }
+        resourceCount = containers.size();
+        new InventoryFile(file, inventoryManager).storeInventory(platform, containers);
+    }
+
+    public void testChangesAreAppendedToJournal() throws Exception {
+        InventoryFile inventory = load();
+        inventory.storeInventory(inventory.getPlatform(), inventory.getResourceContainers());
+        long inventoryLength = file.length();
+        long journalLength = inventory.getJournalFile().length();
+
+        Map<String, ResourceContainer> containers = inventory.getResourceContainers();
+        getResource(inventory, 1000).setName("renamed");
+        Resource server = getResource(inventory, 100);
+        int services = server.getChildResources().size();
+        Resource removed = getResource(inventory, 1001);
+        server.removeChildResource(removed);
+        containers.remove(removed.getUuid());
+        addResource(9999, types.get("Service"), server, containers);
+
+        // the renamed service, the added service, their server and the removed service
+        assert inventory.storeInventoryChanges(inventory.getPlatform(), containers) == 4;
+        assert file.length() == inventoryLength;
+        assert inventory.getJournalFile().length() > journalLength;
+
+        inventory = load();
+        assert inventory.getResourceContainers().size() == resourceCount;
+        assert "renamed".equals(getResource(inventory, 1000).getName());
+        assert !inventory.getResourceContainers().containsKey(removed.getUuid());
+        server = getResource(inventory, 100);
+        assert server.getChildResources().size() == services;
+        assert server.getChildResources().contains(getResource(inventory, 9999));
+        assert !server.getChildResources().contains(removed);
+        assertLinked(inventory);
+    }
+
+    public void testUnchangedInventoryIsNotWritten() throws Exception {
+        InventoryFile inventory = load();
+        inventory.storeInventory(inventory.getPlatform(), inventory.getResourceContainers());
+        long journalLength = inventory.getJournalFile().length();
+
+        assert inventory.storeInventoryChanges(inventory.getPlatform(), inventory.getResourceContainers()) == 0;
+        assert inventory.getJournalFile().length() == journalLength;
+    }
+
+    public void testInventoryIsStoredInFullWhenJournalGrowsLarge() throws Exception {
+        InventoryFile inventory = load();
+        inventory.storeInventory(inventory.getPlatform(), inventory.getResourceContainers());
+        long journalLength = inventory.getJournalFile().length();
+
+        for (ResourceContainer container : inventory.getResourceContainers().values()) {
+            container.getResource().setName(container.getResource().getName() + " renamed");
+        }
+        assert inventory.storeInventoryChanges(inventory.getPlatform(), inventory.getResourceContainers())
+            == resourceCount;
+        assert inventory.getJournalFile().length() == journalLength; // just the fingerprints
+
+        inventory = load();
+        assert "Resource 1 renamed".equals(inventory.getPlatform().getName());
+        assertLinked(inventory);
+    }
+
+    public void testDamagedJournalEndIsDropped() throws Exception {
+        InventoryFile inventory = load();
+        inventory.storeInventory(inventory.getPlatform(), inventory.getResourceContainers());
+        getResource(inventory, 1000).setName("renamed");
+        assert inventory.storeInventoryChanges(inventory.getPlatform(), inventory.getResourceContainers()) == 1;
+
+        // a record that was not completely written
+        FileOutputStream out = new FileOutputStream(inventory.getJournalFile(), true);
+        try {
+            out.write(new byte[] { 0, 0, 1, 0, 42, 42, 42, 42, 42, 42, 42, 42, 42 });
+        } finally {
+            out.close();
+        }
+
+        inventory = load();
+        assert "renamed".equals(getResource(inventory, 1000).getName());
+        getResource(inventory, 1001).setName("renamed too");
+        assert inventory.storeInventoryChanges(inventory.getPlatform(), inventory.getResourceContainers()) >= 1;
+
+        inventory = load();
+        assert "renamed".equals(getResource(inventory, 1000).getName());
+        assert "renamed too".equals(getResource(inventory, 1001).getName());
+        assertLinked(inventory);
+    }
+
+    public void testJournalOfOtherInventoryFileIsIgnored() throws Exception {
+        InventoryFile inventory = load();
+        inventory.storeInventory(inventory.getPlatform(), inventory.getResourceContainers());
+        getResource(inventory, 1000).setName("renamed");
+        assert inventory.storeInventoryChanges(inventory.getPlatform(), inventory.getResourceContainers()) == 1;
+        File oldJournal = new File(file.getParentFile(), "old.journal");
+        copyFile(inventory.getJournalFile(), oldJournal);
+
+        getResource(inventory, 1000).setName("renamed again");
+        inventory.storeInventory(inventory.getPlatform(), inventory.getResourceContainers());
+        copyFile(oldJournal, inventory.getJournalFile());
+
+        inventory = load();
+        assert "renamed again".equals(getResource(inventory, 1000).getName());
+        // what is on disk is not known, so the next store is a full one
+        assert inventory.storeInventoryChanges(inventory.getPlatform(), inventory.getResourceContainers())
+            == resourceCount;
+    }
+
+    public void testInventoryOfInterruptedStoreIsLoaded() throws Exception {
+        InventoryFile inventory = load();
+        getResource(inventory, 1000).setName("renamed");
+        inventory.storeInventory(inventory.getPlatform(), inventory.getResourceContainers());
+        // the store was interrupted after the old file was deleted, before the new one was renamed
+        File newFile = new File(file.getPath() + ".tmp");
+        assert file.renameTo(newFile);
+
+        inventory = new InventoryFile(file, inventoryManager);
+        assert inventory.exists();
+        inventory.loadInventory();
+        assert file.exists();
+        assert !newFile.exists();
+        assert inventory.getResourceContainers().size() == resourceCount;
+        assert "renamed".equals(getResource(inventory, 1000).getName());
+        assertLinked(inventory);
+    }
+
+    public void testJournalOfInterruptedStoreIsLoaded() throws Exception {
+        InventoryFile inventory = load();
+        inventory.storeInventory(inventory.getPlatform(), inventory.getResourceContainers());
+        File newJournal = new File(inventory.getJournalFile().getPath() + ".tmp");
+        assert inventory.getJournalFile().renameTo(newJournal);
+
+        inventory = load();
+        assert inventory.getJournalFile().exists();
+        assert !newJournal.exists();
+        // the fingerprints in the journal are known, so nothing needs to be stored
+        assert inventory.storeInventoryChanges(inventory.getPlatform(), inventory.getResourceContainers()) == 0;
+    }
+
+    public void testMissingInventoryDoesNotExist() throws Exception {
+        assert !new InventoryFile(new File(file.getParentFile(), "missing.dat"), inventoryManager).exists();
+    }
+
+    private InventoryFile load() throws Exception {
+        InventoryFile inventory = new InventoryFile(file, inventoryManager);
+        inventory.loadInventory();
+        return inventory;
+    }
+
+    private void assertLinked(InventoryFile inventory) {
+        assert inventory.getPlatform() == getResource(inventory, 1);
+        for (ResourceContainer container : inventory.getResourceContainers().values()) {
+            Resource resource = container.getResource();
+            assert resource.getResourceType() == types.get(resource.getResourceType().getName()) : resource;
+            Resource parent = resource.getParentResource();
+            if (parent != null) {
+                assert parent == getResource(inventory, parent.getId()) : resource;
+                assert parent.getChildResources().contains(resource) : resource;
+            }
+            for (Resource child : resource.getChildResources()) {
+                assert child == getResource(inventory, child.getId()) : child;
+            }
+        }
+    }
+
+    private ResourceType addType(ResourceType type) {
+        types.put(type.getName(), type);
+        return type;
+    }
+
+    private static Resource getResource(InventoryFile inventory, int id) {
+        return inventory.getResourceContainers().get("uuid-" + id).getResource();
+    }
+
+    private static Resource addResource(int id, ResourceType type, Resource parent,
+        Map<String, ResourceContainer> containers) {
+        Resource resource = new Resource(id);
+        resource.setUuid("uuid-" + id);
+        resource.setName("Resource " + id);
+        resource.setResourceKey("key-" + id);
+        resource.setResourceType(type);
+        resource.setInventoryStatus(InventoryStatus.COMMITTED);
+        if (parent != null) {
+            parent.addChildResource(resource);
+        }
+        containers.put(resource.getUuid(), new ResourceContainer(resource, null));
+        return resource;
+    }
+}
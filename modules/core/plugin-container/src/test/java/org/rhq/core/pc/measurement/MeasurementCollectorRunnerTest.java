@@ -0,0 +1,287 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.measurement;
+
+import static org.rhq.core.domain.measurement.AvailabilityType.DOWN;
+import static org.rhq.core.domain.measurement.AvailabilityType.UP;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.Availability;
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementReport;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.pc.inventory.InventoryManager;
+import org.rhq.core.pc.inventory.ResourceContainer;
+import org.rhq.core.pc.inventory.ResourceContainer.ResourceComponentState;
+import org.rhq.core.pc.util.FacetLockType;
+import org.rhq.core.pluginapi.measurement.BatchMeasurementFacet;
+import org.rhq.core.pluginapi.measurement.BatchMeasurementRequest;
+import org.rhq.core.pluginapi.measurement.MeasurementFacet;
+
+/**
+ * Collects the metrics of resources 101 and 102, whose batch collector is resource 100, of resource 201, whose batch
+ * collector is resource 200, and of resource 10, which has no batch collector.
+ */
+@Test
+public class MeasurementCollectorRunnerTest {
+
+    private final Map<Integer, ResourceContainer> containers = new HashMap<Integer, ResourceContainer>();
+    private final Map<Integer, MeasurementFacet> facets = new HashMap<Integer, MeasurementFacet>();
+    private final Map<Integer, BatchMeasurementFacet> batchFacets = new HashMap<Integer, BatchMeasurementFacet>();
+    private final Map<Integer, Integer> scheduleResources = new HashMap<Integer, Integer>();
+
+    private MeasurementManager measurementManager;
+    private MeasurementReport report;
+
+    @BeforeMethod
+    public void initCollectors() throws Exception {
+        containers.clear();
+        facets.clear();
+        batchFacets.clear();
+        scheduleResources.clear();
+
+        report = new MeasurementReport();
+        InventoryManager inventoryManager = Mockito.mock(InventoryManager.class);
+        measurementManager = Mockito.mock(MeasurementManager.class);
+        Mockito.when(measurementManager.getLock()).thenReturn(new ReentrantReadWriteLock());
+        Mockito.when(measurementManager.getActiveReport()).thenReturn(report);
+        Mockito.when(measurementManager.getInventoryManager()).thenReturn(inventoryManager);
+
+        addBatchCollector(100, ResourceComponentState.STARTED, UP);
+        addBatchCollector(200, ResourceComponentState.STARTED, UP);
+        addMeasuredResource(101, 100);
+        addMeasuredResource(102, 100);
+        addMeasuredResource(201, 200);
+        addMeasuredResource(10, 0);
+        for (Map.Entry<Integer, ResourceContainer> entry : containers.entrySet()) {
+            Mockito.when(inventoryManager.getResourceContainer(entry.getKey())).thenReturn(entry.getValue());
+        }
+    }
+
+    public void testRequestsAreGroupedByBatchCollector() throws Exception {
+        collect(info(1, 101), info(2, 101), info(3, 102), info(4, 201), info(5, 10));
+
+        assert batchRequests(100).equals(scheduleIds(1, 2, 3)) : batchRequests(100);
+        assert batchRequests(200).equals(scheduleIds(4)) : batchRequests(200);
+        assert requests(10).equals(ids(5)) : requests(10);
+        Mockito.verify(facets.get(101), Mockito.never()).getValues(Mockito.any(MeasurementReport.class),
+            Mockito.anySetOf(MeasurementScheduleRequest.class));
+        Mockito.verify(facets.get(102), Mockito.never()).getValues(Mockito.any(MeasurementReport.class),
+            Mockito.anySetOf(MeasurementScheduleRequest.class));
+        Mockito.verify(facets.get(201), Mockito.never()).getValues(Mockito.any(MeasurementReport.class),
+            Mockito.anySetOf(MeasurementScheduleRequest.class));
+        Mockito.verify(measurementManager, Mockito.never()).incrementFailedCollections(Mockito.anyInt());
+    }
+
+    public void testUnservedRequestsAreCollectedPerResource() throws Exception {
+        Mockito.when(batchFacets.get(100).getValues(Mockito.any(MeasurementReport.class),
+            Mockito.anySetOf(BatchMeasurementRequest.class))).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Set<BatchMeasurementRequest> unserved = new HashSet<BatchMeasurementRequest>();
+                for (Object request : (Set<?>) invocation.getArguments()[1]) {
+                    if (((BatchMeasurementRequest) request).getResourceId() == 102) {
+                        unserved.add((BatchMeasurementRequest) request);
+                    }
+                }
+                return unserved;
+            }
+        });
+
+        collect(info(1, 101), info(2, 102), info(3, 102));
+
+        assert batchRequests(100).equals(scheduleIds(1, 2, 3)) : batchRequests(100);
+        assert requests(102).equals(ids(2, 3)) : requests(102);
+        Mockito.verify(facets.get(101), Mockito.never()).getValues(Mockito.any(MeasurementReport.class),
+            Mockito.anySetOf(MeasurementScheduleRequest.class));
+        Mockito.verify(measurementManager, Mockito.never()).incrementFailedCollections(Mockito.anyInt());
+    }
+
+    public void testFailedBatchIsCountedAndNotCollectedPerResource() throws Exception {
+        Mockito.when(batchFacets.get(100).getValues(Mockito.any(MeasurementReport.class),
+            Mockito.anySetOf(BatchMeasurementRequest.class))).thenThrow(new RuntimeException("batch failure"));
+
+        collect(info(1, 101), info(2, 101), info(3, 102));
+
+        Mockito.verify(measurementManager).incrementFailedCollections(3);
+        Mockito.verify(facets.get(101), Mockito.never()).getValues(Mockito.any(MeasurementReport.class),
+            Mockito.anySetOf(MeasurementScheduleRequest.class));
+        Mockito.verify(facets.get(102), Mockito.never()).getValues(Mockito.any(MeasurementReport.class),
+            Mockito.anySetOf(MeasurementScheduleRequest.class));
+    }
+
+    public void testResourcesAreCollectedPerResourceWhenBatchCollectorIsNotStarted() throws Exception {
+        addBatchCollector(100, ResourceComponentState.STOPPED, UP);
+
+        collect(info(1, 101), info(2, 102));
+
+        assertCollectedPerResource();
+    }
+
+    public void testResourcesAreCollectedPerResourceWhenBatchCollectorIsDown() throws Exception {
+        addBatchCollector(100, ResourceComponentState.STARTED, DOWN);
+
+        collect(info(1, 101), info(2, 102));
+
+        assertCollectedPerResource();
+    }
+
+    public void testFailedResourceCollectionIsCounted() throws Exception {
+        addBatchCollector(100, ResourceComponentState.STARTED, DOWN);
+        Mockito.doThrow(new RuntimeException("collection failure")).when(facets.get(101)).getValues(
+            Mockito.any(MeasurementReport.class), Mockito.anySetOf(MeasurementScheduleRequest.class));
+
+        collect(info(1, 101), info(2, 101), info(3, 102));
+
+        Mockito.verify(measurementManager).incrementFailedCollections(2);
+        assert requests(102).equals(ids(3)) : requests(102);
+    }
+
+    private void assertCollectedPerResource() throws Exception {
+        assert requests(101).equals(ids(1)) : requests(101);
+        assert requests(102).equals(ids(2)) : requests(102);
+        Mockito.verify(batchFacets.get(100), Mockito.never()).getValues(Mockito.any(MeasurementReport.class),
+            Mockito.anySetOf(BatchMeasurementRequest.class));
+    }
+
+    private void collect(ScheduledMeasurementInfo... infos) {
+        Set<ScheduledMeasurementInfo> requests = new LinkedHashSet<ScheduledMeasurementInfo>();
+        Collections.addAll(requests, infos);
+        Mockito.when(measurementManager.getNextScheduledSet()).thenReturn(requests);
+
+        assert new MeasurementCollectorRunner(measurementManager).call() == report;
+        Mockito.verify(measurementManager).reschedule(requests);
+    }
+
+    /**
+     * @return the schedule ids of the requests the batch collector was called with, as "resourceId:scheduleId"
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> batchRequests(int batchCollectorId) throws Exception {
+        ArgumentCaptor<Set> captor = ArgumentCaptor.forClass(Set.class);
+        Mockito.verify(batchFacets.get(batchCollectorId)).getValues(Mockito.eq(report), captor.capture());
+        Set<String> result = new HashSet<String>();
+        for (BatchMeasurementRequest request : (Set<BatchMeasurementRequest>) captor.getValue()) {
+            for (MeasurementScheduleRequest metric : request.getMetrics()) {
+                result.add(request.getResourceId() + ":" + metric.getScheduleId());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the schedule ids the measurement facet of the resource was called with
+     */
+    @SuppressWarnings("unchecked")
+    private Set<Integer> requests(int resourceId) throws Exception {
+        ArgumentCaptor<Set> captor = ArgumentCaptor.forClass(Set.class);
+        Mockito.verify(facets.get(resourceId)).getValues(Mockito.eq(report), captor.capture());
+        Set<Integer> result = new HashSet<Integer>();
+        for (MeasurementScheduleRequest request : (Set<MeasurementScheduleRequest>) captor.getValue()) {
+            result.add(request.getScheduleId());
+        }
+        return result;
+    }
+
+    /**
+     * @return the schedule ids as "resourceId:scheduleId", see {@link #batchRequests(int)}
+     */
+    private Set<String> scheduleIds(int... scheduleIds) {
+        Set<String> result = new HashSet<String>();
+        for (int scheduleId : scheduleIds) {
+            result.add(scheduleResources.get(scheduleId) + ":" + scheduleId);
+        }
+        return result;
+    }
+
+    private ScheduledMeasurementInfo info(int scheduleId, int resourceId) {
+        scheduleResources.put(scheduleId, resourceId);
+        ScheduledMeasurementInfo info = new ScheduledMeasurementInfo(new MeasurementScheduleRequest(scheduleId,
+            "metric" + scheduleId, 30000L, true, DataType.MEASUREMENT), resourceId);
+        info.setNextCollection(System.currentTimeMillis());
+        return info;
+    }
+
+    private static Set<Integer> ids(Integer... ids) {
+        Set<Integer> result = new HashSet<Integer>();
+        Collections.addAll(result, ids);
+        return result;
+    }
+
+    private void addBatchCollector(int id, ResourceComponentState state, AvailabilityType availability)
+        throws Exception {
+        BatchMeasurementFacet batchFacet = Mockito.mock(BatchMeasurementFacet.class);
+        ResourceContainer container = addContainer(id, state, availability);
+        Mockito.when(
+            container.createResourceComponentProxy(Mockito.eq(BatchMeasurementFacet.class),
+                Mockito.any(FacetLockType.class), Mockito.anyLong(), Mockito.anyBoolean(), Mockito.anyBoolean(),
+                Mockito.anyBoolean())).thenReturn(batchFacet);
+        batchFacets.put(id, batchFacet);
+    }
+
+    /**
+     * Adds a started resource with a measurement facet, collected by the batch collector with the given id, or by
+     * itself if the id is 0.
+     */
+    private void addMeasuredResource(int id, int batchCollectorId) throws Exception {
+        MeasurementFacet facet = Mockito.mock(MeasurementFacet.class);
+        ResourceContainer container = addContainer(id, ResourceComponentState.STARTED, UP);
+        Mockito.when(
+            container.createResourceComponentProxy(Mockito.eq(MeasurementFacet.class),
+                Mockito.any(FacetLockType.class), Mockito.anyLong(), Mockito.anyBoolean(), Mockito.anyBoolean(),
+                Mockito.anyBoolean())).thenReturn(facet);
+        facets.put(id, facet);
+        if (batchCollectorId != 0) {
+            // the collector is looked up when the runner is called, so it may be replaced after this
+            final int collectorId = batchCollectorId;
+            Mockito.when(measurementManager.getBatchCollector(id)).thenAnswer(
+                new Answer<ResourceContainer>() {
+                    public ResourceContainer answer(InvocationOnMock invocation) {
+                        return containers.get(collectorId);
+                    }
+                });
+        }
+    }
+
+    private ResourceContainer addContainer(int id, ResourceComponentState state, AvailabilityType availability) {
+        Resource resource = new Resource(id);
+        resource.setResourceKey("key-" + id);
+        ResourceContainer container = Mockito.mock(ResourceContainer.class);
+        Mockito.when(container.getResource()).thenReturn(resource);
+        Mockito.when(container.getResourceComponentState()).thenReturn(state);
+        Mockito.when(container.getAvailability()).thenReturn(new Availability(resource, availability));
+        containers.put(id, container);
+        return container;
+    }
+}
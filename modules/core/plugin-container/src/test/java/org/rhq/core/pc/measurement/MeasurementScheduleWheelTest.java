@@ -0,0 +1,210 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.core.pc.measurement;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+
+@Test
+public class MeasurementScheduleWheelTest {
+
+    public void testDueSetsPerResourceAndTime() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(1000L, 16, 0L);
+        wheel.schedule(info(1, 10, 30000L, 5000L));
+        wheel.schedule(info(2, 10, 30000L, 5000L));
+        wheel.schedule(info(3, 20, 30000L, 5000L));
+        wheel.schedule(info(4, 10, 60000L, 5500L));
+
+        wheel.advance(4999L);
+        assert wheel.poll() == null;
+
+        wheel.advance(5000L);
+        assert wheel.getReadyCount() == 2;
+        assert scheduleIds(wheel.poll()).equals(ids(1, 2));
+        assert scheduleIds(wheel.poll()).equals(ids(3));
+        assert wheel.poll() == null;
+
+        // collection times are rounded up to the next tick
+        wheel.advance(5999L);
+        assert wheel.poll() == null;
+        wheel.advance(6000L);
+        assert scheduleIds(wheel.poll()).equals(ids(4));
+    }
+
+    public void testDueSetsPerGroup() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(1000L, 16, 0L,
+            new MeasurementScheduleWheel.Grouping() {
+                public int getGroupId(int resourceId) {
+                    return (resourceId < 100) ? resourceId : 100; // the resources from 100 on are batched
+                }
+            });
+        wheel.schedule(info(1, 100, 30000L, 5000L));
+        wheel.schedule(info(2, 101, 30000L, 5000L));
+        wheel.schedule(info(3, 102, 30000L, 5000L));
+        wheel.schedule(info(4, 10, 30000L, 5000L));
+        wheel.schedule(info(5, 103, 30000L, 6000L));
+
+        wheel.advance(6000L);
+        assert scheduleIds(wheel.poll()).equals(ids(4));
+        assert scheduleIds(wheel.poll()).equals(ids(1, 2, 3));
+        assert scheduleIds(wheel.poll()).equals(ids(5));
+        assert wheel.poll() == null;
+    }
+
+    public void testRescheduleAfterCollection() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(1000L, 16, 0L);
+        ScheduledMeasurementInfo info = info(1, 10, 30000L, 1000L);
+        wheel.schedule(info);
+
+        wheel.advance(1000L);
+        assert wheel.poll().contains(info);
+
+        info.setNextCollection(info.getNextCollection() + info.getInterval());
+        wheel.reschedule(info);
+        wheel.advance(30000L);
+        assert wheel.poll() == null;
+        wheel.advance(31000L);
+        assert wheel.poll().contains(info);
+    }
+
+    public void testReplacedAndRemovedSchedulesAreDropped() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(1000L, 16, 0L);
+        ScheduledMeasurementInfo original = info(1, 10, 30000L, 2000L);
+        wheel.schedule(original);
+        ScheduledMeasurementInfo replacement = info(1, 10, 60000L, 3000L);
+        wheel.schedule(replacement);
+        wheel.schedule(info(2, 10, 30000L, 2000L));
+        wheel.unschedule(2);
+        assert wheel.size() == 1;
+
+        wheel.advance(2000L);
+        assert wheel.poll() == null;
+        wheel.advance(3000L);
+        Set<ScheduledMeasurementInfo> due = wheel.poll();
+        assert due.size() == 1 && due.iterator().next() == replacement;
+
+        // a schedule that was replaced while it was being collected does not come back
+        original.setNextCollection(32000L);
+        wheel.reschedule(original);
+        wheel.advance(40000L);
+        assert wheel.poll() == null;
+    }
+
+    public void testIntervalsLongerThanOneRound() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(1000L, 8, 0L);
+        wheel.schedule(info(1, 10, 3600000L, 20000L));
+        wheel.schedule(info(2, 10, 30000L, 4000L));
+
+        // both are in the same slot
+        wheel.advance(4000L);
+        assert scheduleIds(wheel.poll()).equals(ids(2));
+        wheel.advance(12000L);
+        assert wheel.poll() == null;
+        wheel.advance(20000L);
+        assert scheduleIds(wheel.poll()).equals(ids(1));
+    }
+
+    public void testCatchUpAfterPause() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(1000L, 8, 0L);
+        for (int i = 0; i < 100; i++) {
+            wheel.schedule(info(i, i, 30000L, 1000L + (i * 500L)));
+        }
+        wheel.advance(100000L);
+        Set<Integer> handedOut = new HashSet<Integer>();
+        Set<ScheduledMeasurementInfo> due;
+        while ((due = wheel.poll()) != null) {
+            handedOut.addAll(scheduleIds(due));
+        }
+        assert handedOut.size() == 100;
+        assert wheel.getLag(100000L) == 0L;
+    }
+
+    /**
+     * Schedules added while the wheel advances are handed out exactly once.
+     */
+    public void testConcurrentScheduling() throws Exception {
+        final long start = System.currentTimeMillis();
+        final MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(10L, 64, start);
+        final int threads = 4;
+        final int schedulesPerThread = 2000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int first = t * schedulesPerThread;
+            new Thread() {
+                public void run() {
+                    for (int i = first; i < first + schedulesPerThread; i++) {
+                        wheel.schedule(info(i, i, 60000L, System.currentTimeMillis() + (i % 50)));
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        final ConcurrentHashMap<Integer, Boolean> handedOut = new ConcurrentHashMap<Integer, Boolean>();
+        final AtomicBoolean duplicate = new AtomicBoolean();
+        long deadline = start + 10000L;
+        while ((done.getCount() > 0 || handedOut.size() < threads * schedulesPerThread)
+            && System.currentTimeMillis() < deadline) {
+            wheel.advance(System.currentTimeMillis());
+            Set<ScheduledMeasurementInfo> due;
+            while ((due = wheel.poll()) != null) {
+                for (ScheduledMeasurementInfo info : due) {
+                    if (handedOut.put(info.getScheduleId(), Boolean.TRUE) != null) {
+                        duplicate.set(true);
+                    }
+                }
+            }
+            Thread.sleep(1L);
+        }
+
+        assert !duplicate.get();
+        assert handedOut.size() == threads * schedulesPerThread : handedOut.size();
+    }
+
+    private static ScheduledMeasurementInfo info(int scheduleId, int resourceId, long interval, long nextCollection) {
+        ScheduledMeasurementInfo info = new ScheduledMeasurementInfo(new MeasurementScheduleRequest(scheduleId,
+            "metric" + scheduleId, interval, true, DataType.MEASUREMENT), resourceId);
+        info.setNextCollection(nextCollection);
+        return info;
+    }
+
+    private static Set<Integer> scheduleIds(Set<ScheduledMeasurementInfo> infos) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (ScheduledMeasurementInfo info : infos) {
+            ids.add(info.getScheduleId());
+        }
+        return ids;
+    }
+
+    private static Set<Integer> ids(Integer... ids) {
+        Set<Integer> set = new HashSet<Integer>();
+        for (Integer id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+}
@@ -1148,6 +1148,13 @@ public class AgentConfiguration {
             AgentConfigurationConstants.PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE,
             AgentConfigurationConstants.DEFAULT_PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE);
 
+        // get how many threads walk the resource tree during an avail scan, and for how long
+        int avail_scan_parallelism = m_preferences.getInt(
+            AgentConfigurationConstants.PLUGINS_AVAILABILITY_SCAN_PARALLELISM,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_AVAILABILITY_SCAN_PARALLELISM);
+        long avail_scan_timeout = m_preferences.getLong(AgentConfigurationConstants.PLUGINS_AVAILABILITY_SCAN_TIMEOUT,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_AVAILABILITY_SCAN_TIMEOUT);
+
         // get the initial delay before measurement collections begin
         long meas_scan_initial_delay = m_preferences.getLong(
             AgentConfigurationConstants.PLUGINS_MEASUREMENT_COLLECTION_INITIAL_DELAY,
@@ -1265,6 +1272,8 @@ public class AgentConfiguration {
         config.setAvailabilityScanInitialDelay(avail_scan_initial_delay);
         config.setAvailabilityScanPeriod(avail_scan_period);
         config.setAvailabilityScanThreadPoolSize(avail_scan_threadpool_size);
+        config.setAvailabilityScanParallelism(avail_scan_parallelism);
+        config.setAvailabilityScanTimeout(avail_scan_timeout);
         config.setMeasurementCollectionThreadPoolSize(meas_threadpool_size);
         config.setMeasurementCollectionInitialDelay(meas_scan_initial_delay);
         config.setDriftDetectionInitialDelay(drift_initial_delay);
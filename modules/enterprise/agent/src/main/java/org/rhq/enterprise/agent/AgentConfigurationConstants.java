@@ -655,6 +655,27 @@ public interface AgentConfigurationConstants {
      */
     int DEFAULT_PLUGINS_AVAILABILITY_SCAN_THREADPOOL_SIZE = PluginContainerConfiguration.AVAILABILITY_SCAN_THREADPOOL_SIZE_DEFAULT;
 
+    /**
+     * Defines how many threads, including the one running the scan, check parts of the resource tree concurrently
+     * during an availability scan.
+     */
+    String PLUGINS_AVAILABILITY_SCAN_PARALLELISM = PROPERTY_NAME_PREFIX + "plugins.availability-scan.parallelism";
+
+    /**
+     * The default parallelism of an availability scan.
+     */
+    int DEFAULT_PLUGINS_AVAILABILITY_SCAN_PARALLELISM = PluginContainerConfiguration.AVAILABILITY_SCAN_PARALLELISM_DEFAULT;
+
+    /**
+     * Defines how long an availability scan may take, in seconds. 0 means no limit.
+     */
+    String PLUGINS_AVAILABILITY_SCAN_TIMEOUT = PROPERTY_NAME_PREFIX + "plugins.availability-scan.timeout-secs";
+
+    /**
+     * The default time an availability scan may take, in seconds.
+     */
+    long DEFAULT_PLUGINS_AVAILABILITY_SCAN_TIMEOUT = PluginContainerConfiguration.AVAILABILITY_SCAN_TIMEOUT_DEFAULT;
+
     /**
      * If defined, this is to be the size of the measurement collection thread pool. If not defined, the plugin
      * container should default to something it considers appropriate.
@@ -34,7 +34,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.StatelessSession;
 
-import org.rhq.server.metrics.domain.AggregateType;
 import org.rhq.server.metrics.domain.MetricsTable;
 import org.rhq.server.metrics.migrator.DataMigrator;
 import org.rhq.server.metrics.migrator.DataMigrator.DataMigratorConfiguration;
@@ -223,22 +222,15 @@ public class AggregateDataMigrator extends AbstractMigrationWorker implements Ca
                 int scheduleId = Integer.parseInt(rawMeasurement[MigrationQuery.SCHEDULE_INDEX].toString());
                 Date time = new Date(creationTimeMillis);
 
-                batch.add(QueryBuilder.insertInto(metricsTable.toString()).value("schedule_id", scheduleId)
-                    .value("time", time).value("type", AggregateType.AVG.ordinal())
-                    .value("value", Double.parseDouble(rawMeasurement[MigrationQuery.VALUE_INDEX].toString()))
+                batch.add(QueryBuilder.insertInto(metricsTable.getAggregateTableName())
+                    .value("schedule_id", scheduleId)
+                    .value("time", time)
+                    .value("min", Double.parseDouble(rawMeasurement[MigrationQuery.MIN_VALUE_INDEX].toString()))
+                    .value("max", Double.parseDouble(rawMeasurement[MigrationQuery.MAX_VALUE_INDEX].toString()))
+                    .value("avg", Double.parseDouble(rawMeasurement[MigrationQuery.VALUE_INDEX].toString()))
                     .using(ttl((int) itemTTLSeconds)));
 
-                batch.add(QueryBuilder.insertInto(metricsTable.toString()).value("schedule_id", scheduleId)
-                    .value("time", time).value("type", AggregateType.MIN.ordinal())
-                    .value("value", Double.parseDouble(rawMeasurement[MigrationQuery.MIN_VALUE_INDEX].toString()))
-                    .using(ttl((int) itemTTLSeconds)));
-
-                batch.add(QueryBuilder.insertInto(metricsTable.toString()).value("schedule_id", scheduleId)
-                    .value("time", time).value("type", AggregateType.MAX.ordinal())
-                    .value("value", Double.parseDouble(rawMeasurement[MigrationQuery.MAX_VALUE_INDEX].toString()))
-                    .using(ttl((int) itemTTLSeconds)));
-
-                batchSize += 3;
+                batchSize++;
 
                 metricsIndexAccumulator.add(scheduleId, creationTimeMillis);
             }
@@ -54,6 +54,7 @@ import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.alert.AlertDefinitionManagerLocal;
 import org.rhq.enterprise.server.alert.AlertManagerLocal;
+import org.rhq.enterprise.server.alert.engine.internal.AlertConditionCacheCoordinator;
 import org.rhq.enterprise.server.measurement.AvailabilityManagerLocal;
 import org.rhq.enterprise.server.measurement.MeasurementDataManagerLocal;
 import org.rhq.enterprise.server.resource.metadata.test.UpdatePluginMetadataTestBase;
@@ -122,6 +123,31 @@ public class AlertConditionTest extends UpdatePluginMetadataTestBase {
         return;
     }
 
+    @Test(enabled = ENABLED)
+    public void testUpdateAgentCacheAfterDefinitionChange() throws Exception {
+        MeasurementDefinition metricDef = createResourceWithMetricSchedule();
+        AlertDefinition alertDefinition = createAlertDefinitionWithOneInsideRangeCondition(metricDef,
+            resource.getId());
+
+        int agentId = resource.getAgent().getId();
+        assert getMeasurementDataCacheSize() == 1 : "the range condition should be cached after a full reload";
+
+        // an update without changes must leave the cache as it is
+        LookupUtil.getAlertConditionCacheManager().updateCachesForAgent(agentId);
+        assert getMeasurementDataCacheSize() == 1 : "an update without changes should not modify the cache";
+
+        // disabling the definition must remove its condition with an incremental update
+        LookupUtil.getAlertDefinitionManager().disableAlertDefinitions(getOverlord(),
+            new int[] { alertDefinition.getId() });
+        LookupUtil.getAlertConditionCacheManager().updateCachesForAgent(agentId);
+        assert getMeasurementDataCacheSize() == 0 : "the condition of the disabled definition should be removed";
+
+        LookupUtil.getAlertDefinitionManager().enableAlertDefinitions(getOverlord(),
+            new int[] { alertDefinition.getId() });
+        LookupUtil.getAlertConditionCacheManager().updateCachesForAgent(agentId);
+        assert getMeasurementDataCacheSize() == 1 : "the condition of the enabled definition should be added again";
+    }
+
     @Test(enabled = ENABLED)
     public void testBZ735262_OutsideRangeCondition() throws Exception {
         // create our resource with alert definition
@@ -855,6 +881,11 @@ public class AlertConditionTest extends UpdatePluginMetadataTestBase {
         return System.currentTimeMillis() - (secondsAgo * 1000);
     }
 
+    private int getMeasurementDataCacheSize() {
+        return AlertConditionCacheCoordinator.getInstance().getCacheSize(
+            AlertConditionCacheCoordinator.Cache.MeasurementDataCache);
+    }
+
     private void reloadAllAlertConditionCaches() {
         LookupUtil.getAlertConditionCacheManager().reloadAllCaches();
     }
@@ -33,7 +33,6 @@ import static org.rhq.test.AssertUtils.assertPropertiesMatch;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -89,7 +88,6 @@ import org.rhq.enterprise.server.util.ResourceTreeHelper;
 import org.rhq.server.metrics.MetricsDAO;
 import org.rhq.server.metrics.StorageSession;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
-import org.rhq.server.metrics.domain.AggregateType;
 import org.rhq.server.metrics.domain.MetricsTable;
 import org.rhq.test.AssertUtils;
 
@@ -521,6 +519,9 @@ public class MeasurementDataManagerBeanTest extends AbstractEJB3Test {
             session.execute("TRUNCATE " + MetricsTable.ONE_HOUR);
             session.execute("TRUNCATE " + MetricsTable.SIX_HOUR);
             session.execute("TRUNCATE " + MetricsTable.TWENTY_FOUR_HOUR);
+            session.execute("TRUNCATE " + MetricsTable.ONE_HOUR.getAggregateTableName());
+            session.execute("TRUNCATE " + MetricsTable.SIX_HOUR.getAggregateTableName());
+            session.execute("TRUNCATE " + MetricsTable.TWENTY_FOUR_HOUR.getAggregateTableName());
             session.execute("TRUNCATE " + MetricsTable.INDEX);
         } catch (NoHostAvailableException e) {
             throw new RuntimeException("An error occurred while purging metrics tables", e);
@@ -528,14 +529,9 @@ public class MeasurementDataManagerBeanTest extends AbstractEJB3Test {
     }
 
     private void insert1HourData(List<AggregateTestData> data) {
-        List<AggregateNumericMetric> metrics = new ArrayList<AggregateNumericMetric>(data.size());
         for (AggregateTestData datum : data) {
-            metricsDAO.insertOneHourData(datum.getScheduleId(), datum.getTimestamp(), AggregateType.MIN,
-                datum.getMin());
-            metricsDAO.insertOneHourData(datum.getScheduleId(), datum.getTimestamp(), AggregateType.AVG,
-                datum.getAvg());
-            metricsDAO.insertOneHourData(datum.getScheduleId(), datum.getTimestamp(), AggregateType.MAX,
-                datum.getMax());
+            metricsDAO.insertOneHourData(new AggregateNumericMetric(datum.getScheduleId(), datum.getAvg(),
+                datum.getMin(), datum.getMax(), datum.getTimestamp()));
         }
     }
 
@@ -53,7 +53,6 @@ import org.rhq.enterprise.server.util.LookupUtil;
 import org.rhq.server.metrics.MetricsDAO;
 import org.rhq.server.metrics.StorageSession;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
-import org.rhq.server.metrics.domain.AggregateType;
 import org.rhq.server.metrics.domain.MetricsTable;
 
 @Test
@@ -627,9 +626,7 @@ public class MeasurementBaselineManagerTest extends AbstractEJB3Test {
     private void insertMeasurementDataNumeric1H(long timeStamp, MeasurementSchedule schedule, double value, double min,
         double max) {
         AggregateNumericMetric metric = new AggregateNumericMetric(schedule.getId(), value, min, max, timeStamp);
-        metricsDAO.insertOneHourData(schedule.getId(), timeStamp, AggregateType.MIN, min);
-        metricsDAO.insertOneHourData(schedule.getId(), timeStamp, AggregateType.MAX, max);
-        metricsDAO.insertOneHourData(schedule.getId(), timeStamp, AggregateType.AVG, value);
+        metricsDAO.insertOneHourData(metric);
 
 //        String sql = "INSERT INTO RHQ_measurement_data_num_1h "
 //            + "(time_stamp, schedule_id, value, minvalue, maxvalue) " + "VALUES (" + timeStamp + "," + schedule.getId()
@@ -143,6 +143,38 @@ public class AlertConditionLogManagerBean implements AlertConditionLogManagerLoc
         }
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.MANDATORY)
+    public void updateUnmatchedLogByAlertConditionIdInCurrentTransaction(int alertConditionId, long ctime,
+        String value) {
+        try {
+            AlertConditionLog alertConditionLog = this.getUnmatchedLogByAlertConditionId(alertConditionId);
+
+            // another positive event associated against the same alertCondition, see above
+            alertConditionLog.setCtime(ctime);
+            alertConditionLog.setValue(value);
+            if (log.isDebugEnabled()) {
+                log.debug("Updating unmatched alert condition log: " + alertConditionLog);
+            }
+        } catch (NoResultException nre) {
+            AlertCondition condition = entityManager.getReference(AlertCondition.class, alertConditionId);
+
+            AlertConditionLog conditionLog = new AlertConditionLog(condition, ctime);
+            conditionLog.setValue(value);
+
+            if (log.isDebugEnabled()) {
+                log.debug("Inserting unmatched alert condition log: " + conditionLog);
+            }
+
+            // no flush, the insert goes out with the next query that needs it or at commit
+            entityManager.persist(conditionLog);
+        } catch (NonUniqueResultException nure) {
+            // serious bug in the processing logic
+            log.debug("Found multiple unmatched results for alertConditionId of " + alertConditionId
+                + " while performing activation.  There should only be one.");
+        }
+    }
+
     @Override
     public void removeUnmatchedLogByAlertConditionId(int alertConditionId) {
         try {
@@ -174,6 +206,11 @@ public class AlertConditionLogManagerBean implements AlertConditionLogManagerLoc
         Integer alertDefinitionId = alertConditionManager
             .getAlertDefinitionByConditionIdInNewTransaction(alertConditionId);
 
+        return checkForCompletedAlertConditionSet(alertConditionId, alertDefinitionId);
+    }
+
+    @Override
+    public Alert checkForCompletedAlertConditionSet(int alertConditionId, int alertDefinitionId) {
         // ok, so figure out whether all of the conditions have been met
         boolean conditionSetResult = evaluateConditionSet(alertDefinitionId);
 
@@ -38,6 +38,13 @@ public interface AlertConditionLogManagerLocal {
 
     void updateUnmatchedLogByAlertConditionId(int alertConditionId, long ctime, String value);
 
+    /**
+     * Same as {@link #updateUnmatchedLogByAlertConditionId(int, long, String)}, but as part of the current transaction,
+     * for processing many condition messages at once. Any failure, including for a condition that was deleted in the
+     * meantime, is left to the caller.
+     */
+    void updateUnmatchedLogByAlertConditionIdInCurrentTransaction(int alertConditionId, long ctime, String value);
+
     void removeUnmatchedLogByAlertConditionId(int alertConditionId);
 
     /**
@@ -46,6 +53,12 @@ public interface AlertConditionLogManagerLocal {
      */
     Alert checkForCompletedAlertConditionSet(int alertConditionId);
 
+    /**
+     * Same as {@link #checkForCompletedAlertConditionSet(int)}, for callers that already know the alert definition of
+     * the condition.
+     */
+    Alert checkForCompletedAlertConditionSet(int alertConditionId, int alertDefinitionId);
+
     /**
      * Used for internal processing, exposed here so the tiniest amount of data can be gotten in a new transaction
      *
@@ -90,6 +90,14 @@ public class AlertConditionManagerBean implements AlertConditionManagerLocal {
     @Override
     public PageList<? extends AbstractAlertConditionCategoryComposite> getAlertConditionComposites(Subject user,
         Integer agentId, AlertConditionCategory category, PageControl pageControl) {
+        return getAlertConditionComposites(user, agentId, category, 0L, pageControl);
+    }
+
+    @SuppressWarnings("unchecked")
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    @Override
+    public PageList<? extends AbstractAlertConditionCategoryComposite> getAlertConditionComposites(Subject user,
+        Integer agentId, AlertConditionCategory category, long changedSince, PageControl pageControl) {
         if (authorizationManager.isOverlord(user) == false) {
             throw new PermissionException("User [" + user.getName() + "] does not have permission to call "
                 + "getAlertConditionComposites; only the overlord has that right");
@@ -153,6 +161,8 @@ public class AlertConditionManagerBean implements AlertConditionManagerLocal {
         }
         query.setParameter("agentId", agentId);
         queryCount.setParameter("agentId", agentId);
+        query.setParameter("changedSince", changedSince);
+        queryCount.setParameter("changedSince", changedSince);
 
         long totalCount = (Long) queryCount.getSingleResult();
         List<? extends AbstractAlertConditionCategoryComposite> list = query.getResultList();
@@ -161,6 +171,20 @@ public class AlertConditionManagerBean implements AlertConditionManagerLocal {
         return new PageList<AbstractAlertConditionCategoryComposite>(list, (int) totalCount, pageControl);
     }
 
+    @SuppressWarnings("unchecked")
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    @Override
+    public List<Integer> getAlertConditionIds(Subject user, int agentId) {
+        if (authorizationManager.isOverlord(user) == false) {
+            throw new PermissionException("User [" + user.getName() + "] does not have permission to call "
+                + "getAlertConditionIds; only the overlord has that right");
+        }
+
+        Query query = entityManager.createNamedQuery(AlertCondition.QUERY_FIND_IDS_BY_AGENT);
+        query.setParameter("agentId", agentId);
+        return query.getResultList();
+    }
+
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     @Override
     public InventoryStatus getResourceStatusByConditionId(int alertConditionId) {
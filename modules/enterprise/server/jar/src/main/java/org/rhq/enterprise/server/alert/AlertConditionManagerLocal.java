@@ -18,6 +18,8 @@
  */
 package org.rhq.enterprise.server.alert;
 
+import java.util.List;
+
 import javax.ejb.Local;
 
 import org.rhq.core.domain.alert.AlertCondition;
@@ -42,6 +44,22 @@ public interface AlertConditionManagerLocal {
     PageList<? extends AbstractAlertConditionCategoryComposite> getAlertConditionComposites(Subject user,
         Integer agentId, AlertConditionCategory category, PageControl pageControl);
 
+    /**
+     * Like {@link #getAlertConditionComposites(Subject, Integer, AlertConditionCategory, PageControl)}, but only
+     * returns the conditions of alert definitions that were modified at or after the given time. Conditions of
+     * recovery definitions are also returned if their target definition was modified.
+     *
+     * @param changedSince epoch millis, 0 returns all conditions
+     */
+    PageList<? extends AbstractAlertConditionCategoryComposite> getAlertConditionComposites(Subject user,
+        Integer agentId, AlertConditionCategory category, long changedSince, PageControl pageControl);
+
+    /**
+     * @return the ids of all conditions of the enabled resource-level alert definitions for the agent, i.e. the ids of
+     * all conditions the agent's alert condition cache should contain
+     */
+    List<Integer> getAlertConditionIds(Subject user, int agentId);
+
     InventoryStatus getResourceStatusByConditionId(int alertConditionId);
 
     int purgeOrphanedAlertConditions();
@@ -18,6 +18,10 @@
  */
 package org.rhq.enterprise.server.alert;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
@@ -60,6 +64,24 @@ public class CachedConditionManagerBean implements CachedConditionManagerLocal {
     @Override
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public Alert processCachedConditionMessage(AbstractAlertConditionMessage conditionMessage, Integer definitionId) {
+        return process(conditionMessage, definitionId, false);
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<Alert> processCachedConditionMessages(List<AbstractAlertConditionMessage> conditionMessages,
+        Map<Integer, Integer> definitionIds) {
+        List<Alert> results = new ArrayList<Alert>();
+        for (AbstractAlertConditionMessage conditionMessage : conditionMessages) {
+            Alert result = process(conditionMessage, definitionIds.get(conditionMessage.getAlertConditionId()), true);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private Alert process(AbstractAlertConditionMessage conditionMessage, Integer definitionId, boolean inBatch) {
         Alert result = null;
 
         /*
@@ -81,11 +103,22 @@ public class CachedConditionManagerBean implements CachedConditionManagerLocal {
                 return result;
             }
 
-            alertConditionLogManager.updateUnmatchedLogByAlertConditionId(activeConditionMessage.getAlertConditionId(),
-                activeConditionMessage.getTimestamp(), activeConditionMessage.getValue());
-
-            result = alertConditionLogManager.checkForCompletedAlertConditionSet(activeConditionMessage
-                .getAlertConditionId());
+            if (inBatch) {
+                // the whole batch shares one transaction, rather than one per log update
+                alertConditionLogManager.updateUnmatchedLogByAlertConditionIdInCurrentTransaction(
+                    activeConditionMessage.getAlertConditionId(), activeConditionMessage.getTimestamp(),
+                    activeConditionMessage.getValue());
+
+                result = alertConditionLogManager.checkForCompletedAlertConditionSet(
+                    activeConditionMessage.getAlertConditionId(), definitionId);
+            } else {
+                alertConditionLogManager.updateUnmatchedLogByAlertConditionId(
+                    activeConditionMessage.getAlertConditionId(), activeConditionMessage.getTimestamp(),
+                    activeConditionMessage.getValue());
+
+                result = alertConditionLogManager.checkForCompletedAlertConditionSet(activeConditionMessage
+                    .getAlertConditionId());
+            }
 
         } else if (conditionMessage instanceof InactiveAlertConditionMessage) {
             // first do some bookkeeping by removing partially matched condition logs
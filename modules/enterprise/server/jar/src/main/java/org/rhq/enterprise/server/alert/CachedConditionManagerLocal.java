@@ -18,6 +18,9 @@
  */
 package org.rhq.enterprise.server.alert;
 
+import java.util.List;
+import java.util.Map;
+
 import javax.ejb.Local;
 import javax.ejb.TransactionAttributeType;
 
@@ -42,4 +45,16 @@ public interface CachedConditionManagerLocal {
      * @return the newly fired alert resulting from the condition message, or null if no alert was fired.
      */
     Alert processCachedConditionMessage(AbstractAlertConditionMessage conditionMessage, Integer definitionId);
+
+    /**
+     * Same as {@link #processCachedConditionMessage(AbstractAlertConditionMessage, Integer)} for many messages, in
+     * order, all in one new transaction. If any of them fails, none of them is processed. The caller must hold the
+     * locks of all definitions involved.
+     *
+     * @param conditionMessages
+     * @param definitionIds the definition id for the condition of each message, by condition id
+     * @return the newly fired alerts, in the order they were fired
+     */
+    List<Alert> processCachedConditionMessages(List<AbstractAlertConditionMessage> conditionMessages,
+        Map<Integer, Integer> definitionIds);
 }
@@ -60,6 +60,10 @@ public class AlertConditionCacheManagerBean implements AlertConditionCacheManage
         return stats;
     }
 
+    public boolean queueConditionChecks(MeasurementData... measurementData) {
+        return AlertConditionCacheCoordinator.getInstance().queueConditionChecks(measurementData);
+    }
+
     public AlertConditionCacheStats checkConditions(CallTimeData... callTimeData) {
         AlertConditionCacheStats stats;
         stats = AlertConditionCacheCoordinator.getInstance().checkConditions(callTimeData);
@@ -90,6 +94,12 @@ public class AlertConditionCacheManagerBean implements AlertConditionCacheManage
         return stats;
     }
 
+    public AlertConditionCacheStats conditionMessageProcessed(int alertConditionId) {
+        AlertConditionCacheStats stats;
+        stats = AlertConditionCacheCoordinator.getInstance().conditionMessageProcessed(alertConditionId);
+        return stats;
+    }
+
     public AlertConditionCacheStats checkConditions(ResourceConfigurationUpdate update) {
         AlertConditionCacheStats stats;
         stats = AlertConditionCacheCoordinator.getInstance().checkConditions(update);
@@ -106,6 +116,10 @@ public class AlertConditionCacheManagerBean implements AlertConditionCacheManage
         AlertConditionCacheCoordinator.getInstance().reloadCachesForAgent(agentId);
     }
 
+    public void updateCachesForAgent(int agentId) {
+        AlertConditionCacheCoordinator.getInstance().updateCachesForAgent(agentId);
+    }
+
     public void reloadGlobalCache() {
         AlertConditionCacheCoordinator.getInstance().reloadGlobalCache();
     }
@@ -51,6 +51,15 @@ public interface AlertConditionCacheManagerLocal {
      */
     AlertConditionCacheStats checkConditions(MeasurementData... measurementData);
 
+    /**
+     * Like {@link #checkConditions(MeasurementData...)}, but queues the data to be checked on the alert condition
+     * evaluation threads. The calling thread never blocks. If the evaluation threads can't keep up, the data is rejected
+     * and not checked.
+     *
+     * @return false if the data was rejected
+     */
+    boolean queueConditionChecks(MeasurementData... measurementData);
+
     /**
      * A MeasurementReport is full of CallTimeData objects. Each of these could potentially match against one of the
      * cache's conditions. So, each must be checked against it, to see whether it fires against any of the conditions.
@@ -97,6 +106,16 @@ public interface AlertConditionCacheManagerLocal {
      */
     AlertConditionCacheStats checkConditions(EventSource source, Event... events);
 
+    /**
+     * Must be called once the alert condition message of the condition has been processed, including the cache
+     * reload that an alert fired by it may need. Events that were reported after an event matching the condition
+     * are only checked from then on, so that an event matching a recovery condition is never checked before the
+     * recovery definition was enabled by the problem alert.
+     *
+     * @return the number of conditions that were true against the events that were checked as a consequence
+     */
+    AlertConditionCacheStats conditionMessageProcessed(int alertConditionId);
+
     /**
      * ResourceConfiguration changes can be made through the UI or on the managed resource.  Whenever a new
      * ResourceConfigurationUpdate is created, it should be passed to this method
@@ -115,6 +134,12 @@ public interface AlertConditionCacheManagerLocal {
 
     void reloadCachesForAgent(int agentId);
 
+    /**
+     * Applies the alert definitions of the agent that changed since its cache was last loaded or updated, rather than
+     * reloading the whole cache.
+     */
+    void updateCachesForAgent(int agentId);
+
     void reloadGlobalCache();
 
     void reloadAllCaches();
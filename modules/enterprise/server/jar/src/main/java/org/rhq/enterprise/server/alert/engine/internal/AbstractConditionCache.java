@@ -21,15 +21,22 @@ package org.rhq.enterprise.server.alert.engine.internal;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.rhq.core.domain.alert.AlertConditionOperator;
+import org.rhq.core.domain.event.EventSeverity;
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
 import org.rhq.enterprise.server.alert.engine.jms.CachedConditionProducerLocal;
+import org.rhq.enterprise.server.alert.engine.jms.model.ActiveAlertConditionMessage;
+import org.rhq.enterprise.server.alert.engine.jms.model.AlertConditionMessageBatch;
+import org.rhq.enterprise.server.alert.engine.jms.model.InactiveAlertConditionMessage;
 import org.rhq.enterprise.server.alert.engine.model.AbstractCacheElement;
 import org.rhq.enterprise.server.alert.engine.model.CacheElementActivity;
+import org.rhq.enterprise.server.alert.engine.model.EventCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.NumericDoubleCacheElement;
 import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
@@ -43,72 +50,189 @@ abstract class AbstractConditionCache {
     private CachedConditionProducerLocal cachedConditionProducer;
 
     public AbstractConditionCache() {
-        cachedConditionProducer = LookupUtil.getCachedConditionProducerLocal();
+        this(LookupUtil.getCachedConditionProducerLocal());
     }
 
-    <T extends AbstractCacheElement<S>, S> void processCacheElements(List<T> cacheElements, S providedValue,
-        long timestamp, AlertConditionCacheStats stats, Object... extraParams) {
+    /**
+     * @param cachedConditionProducer receives the messages of matched and unmatched conditions
+     */
+    AbstractConditionCache(CachedConditionProducerLocal cachedConditionProducer) {
+        this.cachedConditionProducer = cachedConditionProducer;
+    }
+
+    CachedConditionProducerLocal getCachedConditionProducer() {
+        return cachedConditionProducer;
+    }
+
+    <T extends AbstractCacheElement<S>, S> void processCacheElements(AlertConditionMessageBatch batch,
+        List<T> cacheElements, S providedValue, long timestamp, AlertConditionCacheStats stats, Object... extraParams) {
         if (cacheElements == null) {
             return; // nothing to do
         }
 
-        int errors = 0;
+        for (T cacheElement : cacheElements) {
+            if (cacheElement.process(providedValue, extraParams)) {
+                addActivation(batch, cacheElement, providedValue, timestamp, stats, extraParams);
+            } else {
+                addDeactivation(batch, cacheElement, timestamp);
+            }
+        }
+    }
+
+    <T extends AbstractCacheElement<S>, S> void processCacheElements(AlertConditionMessageBatch batch,
+        T[] cacheElements, S providedValue, long timestamp, AlertConditionCacheStats stats, Object... extraParams) {
+        if (cacheElements == null) {
+            return; // nothing to do
+        }
 
         for (T cacheElement : cacheElements) {
-            boolean matched = cacheElement.process(providedValue, extraParams);
-
-            if (matched) // send positive event in case of a match
-            {
-                try {
-                    /*
-                     * Set the active property for alertCondition-based cache elements, and send it on its way;
-                     * Thus, even if the element is already active, we're going to send another message with the new
-                     * value
-                     */
-                    cacheElement.setActivity(CacheElementActivity.ACTIVE); // no harm to always set active (though, technically, STATELESS operators don't need it)
-                    cachedConditionProducer.sendActivateAlertConditionMessage(
-                        cacheElement.getAlertConditionTriggerId(), timestamp,
-                        cacheElement.convertValueToString(providedValue), extraParams);
-
-                    stats.matched++;
-                } catch (Exception e) {
-                    log.error("Error processing matched cache element '" + cacheElement + "': " + e.getMessage());
-                    errors++;
-                }
-            } else // no match, negative event
-            {
-                /*
-                 * but only send negative events if we're, 1) a type of operator that supports STATEFUL events, and
-                 * 2) currently active
-                 */
-                if (cacheElement.isType(AlertConditionOperator.Type.STATEFUL) && cacheElement.getActivity().maybeActive()) {
-                    cacheElement.setActivity(CacheElementActivity.INACTIVE);
-
-                    try {
-                        // send negative message
-                        cachedConditionProducer.sendDeactivateAlertConditionMessage(
-                            cacheElement.getAlertConditionTriggerId(), timestamp);
-                    } catch (Exception e) {
-                        log.error("Error sending deactivation message for cache element '" + cacheElement + "': "
-                            + e.getMessage());
-                        errors++;
-                    }
-                } else {
-                    /*
-                     * negative message, but nothing was active...so do nothing.
-                     *
-                     * this will occur in the overwhelming majority of cases.  in theory, since most of the time
-                     * conditions exist to alert people of non-ideal system state, it will not fire in the POSITIVE very
-                     * often.  thus, we suppress the firing of negative events unless we know we've already sent a
-                     * POSITIVE event that we need to compensate for.
-                     */
-                }
+            if (cacheElement.process(providedValue, extraParams)) {
+                addActivation(batch, cacheElement, providedValue, timestamp, stats, extraParams);
+            } else {
+                addDeactivation(batch, cacheElement, timestamp);
+            }
+        }
+    }
+
+    /**
+     * Same as
+     * {@link #processCacheElements(AlertConditionMessageBatch, AbstractCacheElement[], Object, long, AlertConditionCacheStats, Object...)}
+     * for numeric measurements, which are by far the most frequent data. The value stays unboxed, and nothing is
+     * allocated unless an element matches. Threshold conditions are looked up with the evaluator rather than compared
+     * one by one, but every element is activated or deactivated exactly as if it had been.
+     */
+    void processNumericCacheElements(AlertConditionMessageBatch batch, NumericConditionEvaluator evaluator,
+        double providedValue, long timestamp, AlertConditionCacheStats stats) {
+        if (evaluator == null) {
+            return; // nothing to do
+        }
+
+        for (NumericDoubleCacheElement cacheElement : evaluator.getUnindexed()) {
+            if (cacheElement.process(providedValue)) {
+                addActivation(batch, cacheElement, Double.valueOf(providedValue), timestamp, stats);
+            } else {
+                addDeactivation(batch, cacheElement, timestamp);
+            }
+        }
+
+        NumericDoubleCacheElement[] greaterThan = evaluator.getGreaterThan();
+        processMatchedRange(batch, greaterThan, 0, evaluator.getGreaterThanMatchEnd(providedValue), providedValue,
+            timestamp, stats);
+
+        NumericDoubleCacheElement[] lessThan = evaluator.getLessThan();
+        processMatchedRange(batch, lessThan, evaluator.getLessThanMatchStart(providedValue), lessThan.length,
+            providedValue, timestamp, stats);
+
+        NumericDoubleCacheElement[] equalTo = evaluator.getEqualTo();
+        processMatchedRange(batch, equalTo, evaluator.getEqualToMatchStart(providedValue),
+            evaluator.getEqualToMatchEnd(providedValue), providedValue, timestamp, stats);
+    }
+
+    /**
+     * Same as
+     * {@link #processCacheElements(AlertConditionMessageBatch, AbstractCacheElement[], Object, long, AlertConditionCacheStats, Object...)}
+     * for events, with the details of the event as the first extra param. The details are searched for the literals
+     * of all details patterns at once, and the patterns of elements whose literal is missing are not run at all.
+     */
+    void processEventCacheElements(AlertConditionMessageBatch batch, EventConditionEvaluator evaluator,
+        EventSeverity providedValue, String details, long timestamp, AlertConditionCacheStats stats,
+        Object... extraParams) {
+        if (evaluator == null) {
+            return; // nothing to do
+        }
+
+        EventCacheElement[] cacheElements = evaluator.getElements();
+        boolean[] candidates = evaluator.findCandidates(details);
+        for (int i = 0; i < cacheElements.length; i++) {
+            EventCacheElement cacheElement = cacheElements[i];
+            if (!candidates[i]) {
+                cacheElement.processSeverity(providedValue);
+                addDeactivation(batch, cacheElement, timestamp);
+            } else if (cacheElement.process(providedValue, extraParams)) {
+                addActivation(batch, cacheElement, providedValue, timestamp, stats, extraParams);
+            } else {
+                addDeactivation(batch, cacheElement, timestamp);
+            }
+        }
+    }
+
+    /**
+     * Activates the elements in [matchStart, matchEnd), which are known to match the value, and deactivates the
+     * others.
+     */
+    private void processMatchedRange(AlertConditionMessageBatch batch, NumericDoubleCacheElement[] cacheElements,
+        int matchStart, int matchEnd, double providedValue, long timestamp, AlertConditionCacheStats stats) {
+        for (int i = 0; i < cacheElements.length; i++) {
+            if (i >= matchStart && i < matchEnd) {
+                addActivation(batch, cacheElements[i], Double.valueOf(providedValue), timestamp, stats);
+            } else {
+                addDeactivation(batch, cacheElements[i], timestamp);
             }
         }
+    }
+
+    /**
+     * Adds a positive event for a matched element to the batch.
+     */
+    private <S> void addActivation(AlertConditionMessageBatch batch, AbstractCacheElement<S> cacheElement,
+        S providedValue, long timestamp, AlertConditionCacheStats stats, Object... extraParams) {
+        /*
+         * Set the active property for alertCondition-based cache elements, and send it on its way;
+         * Thus, even if the element is already active, we're going to send another message with the new
+         * value
+         */
+        cacheElement.setActivity(CacheElementActivity.ACTIVE); // no harm to always set active (though, technically, STATELESS operators don't need it)
+        batch.add(new ActiveAlertConditionMessage(cacheElement.getAlertConditionTriggerId(), timestamp, cacheElement
+            .convertValueToString(providedValue), extraParams));
+
+        stats.matched++;
+    }
+
+    /**
+     * Adds a negative event for an element that did not match to the batch.
+     */
+    private void addDeactivation(AlertConditionMessageBatch batch, AbstractCacheElement<?> cacheElement,
+        long timestamp) {
+        /*
+         * but only send negative events if we're, 1) a type of operator that supports STATEFUL events, and
+         * 2) currently active
+         */
+        if (cacheElement.isType(AlertConditionOperator.Type.STATEFUL) && cacheElement.getActivity().maybeActive()) {
+            cacheElement.setActivity(CacheElementActivity.INACTIVE);
+
+            // send negative message
+            batch.add(new InactiveAlertConditionMessage(cacheElement.getAlertConditionTriggerId(), timestamp));
+        } else {
+            /*
+             * negative message, but nothing was active...so do nothing.
+             *
+             * this will occur in the overwhelming majority of cases.  in theory, since most of the time
+             * conditions exist to alert people of non-ideal system state, it will not fire in the POSITIVE very
+             * often.  thus, we suppress the firing of negative events unless we know we've already sent a
+             * POSITIVE event that we need to compensate for.
+             */
+        }
+    }
+
+    /**
+     * Sends the messages that one check of the cache has added to the batch, all at once. Call this once the check is
+     * done, whether or not it completed.
+     *
+     * @return false if the messages could not be sent, in which case the matches are taken back out of the stats
+     */
+    boolean sendBatch(AlertConditionMessageBatch batch, AlertConditionCacheStats stats) {
+        if (batch.isEmpty()) {
+            return true;
+        }
 
-        if (errors != 0) {
-            log.error("There were " + errors + " alert conditions that did not fire. "
-                + "Please check the configuration of the JMS subsystem and try again. ");
+        try {
+            cachedConditionProducer.sendAlertConditionMessages(batch);
+            return true;
+        } catch (Exception e) {
+            stats.matched -= batch.getActiveCount();
+            log.error("There were " + batch.size() + " alert conditions that did not fire: " + e.getMessage()
+                + ". Please check the configuration of the JMS subsystem and try again. ");
+            return false;
         }
     }
 
@@ -141,5 +265,48 @@ abstract class AbstractConditionCache {
         return success;
     }
 
+    <T extends AbstractCacheElement<?>> boolean addTo(String mapName, CacheElementIndex<T> cache, int key,
+        T cacheElement, int alertConditionId, AlertConditionCacheStats stats) {
+        if (cacheElement == null) {
+            log.warn("Cannot insert null cache element in '" + mapName + "' element: " + "key=" + key);
+            return false;
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace("Inserting '" + mapName + "' element: " + "key=" + key + ", " + "value=" + cacheElement);
+        }
+
+        cache.add(key, cacheElement);
+        stats.created++;
+        return true;
+    }
+
+    /**
+     * Removes the cache elements of conditions that are no longer active or that changed. The latter are expected to
+     * be re-inserted by the caller.
+     */
+    <T extends AbstractCacheElement<?>> void removeFrom(String mapName, CacheElementIndex<T> cache,
+        Set<Integer> activeConditionIds, Set<Integer> changedConditionIds, AlertConditionCacheStats stats) {
+        for (int key : cache.keys()) {
+            T[] cacheElements = cache.get(key);
+            List<T> remaining = new ArrayList<T>(cacheElements.length);
+            for (T cacheElement : cacheElements) {
+                int alertConditionId = cacheElement.getAlertConditionTriggerId();
+                if (!activeConditionIds.contains(alertConditionId) || changedConditionIds.contains(alertConditionId)) {
+                    if (log.isTraceEnabled()) {
+                        log.trace("Removing '" + mapName + "' element: " + "key=" + key + ", " + "value="
+                            + cacheElement);
+                    }
+                    stats.deleted++;
+                } else {
+                    remaining.add(cacheElement);
+                }
+            }
+            if (remaining.size() < cacheElements.length) {
+                cache.put(key, remaining);
+            }
+        }
+    }
+
     public abstract int getCacheSize(AlertConditionCacheCoordinator.Cache cache);
 }
@@ -23,9 +23,10 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.rhq.core.domain.alert.AlertCondition;
@@ -55,6 +56,10 @@ import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.alert.AlertConditionManagerLocal;
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
 import org.rhq.enterprise.server.alert.engine.internal.AlertConditionCacheCoordinator.Cache;
+import org.rhq.enterprise.server.alert.engine.jms.CachedConditionProducerLocal;
+import org.rhq.enterprise.server.alert.engine.jms.model.AbstractAlertConditionMessage;
+import org.rhq.enterprise.server.alert.engine.jms.model.ActiveAlertConditionMessage;
+import org.rhq.enterprise.server.alert.engine.jms.model.AlertConditionMessageBatch;
 import org.rhq.enterprise.server.alert.engine.mbean.AlertConditionCacheMonitor;
 import org.rhq.enterprise.server.alert.engine.model.CallTimeDataCacheElement;
 import org.rhq.enterprise.server.alert.engine.model.CallTimeDataCacheElement.CallTimeElementValue;
@@ -65,7 +70,6 @@ import org.rhq.enterprise.server.alert.engine.model.MeasurementBaselineCacheElem
 import org.rhq.enterprise.server.alert.engine.model.MeasurementNumericCacheElement;
 import org.rhq.enterprise.server.alert.engine.model.MeasurementRangeNumericCacheElement;
 import org.rhq.enterprise.server.alert.engine.model.MeasurementTraitCacheElement;
-import org.rhq.enterprise.server.alert.engine.model.NumericDoubleCacheElement;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.measurement.MeasurementDataManagerLocal;
 import org.rhq.enterprise.server.plugin.pc.drift.DriftChangeSetSummary;
@@ -76,11 +80,34 @@ import org.rhq.enterprise.server.util.LookupUtil;
  */
 class AgentConditionCache extends AbstractConditionCache {
 
-    private Map<Integer, List<NumericDoubleCacheElement>> measurementDataCache; // key: schedule ID
-    private Map<Integer, List<MeasurementTraitCacheElement>> measurementTraitCache; // key: schedule ID
-    private Map<Integer, List<CallTimeDataCacheElement>> callTimeCache; // key: schedule ID
-    private Map<Integer, List<EventCacheElement>> eventsCache; // key: resource ID
-    private Map<Integer, List<DriftCacheElement>> driftCache; // key: resource ID
+    /**
+     * Alert definitions are considered changed if their mtime is no older than the last load or update of this cache
+     * minus this many millis. The overlap covers clock differences between the servers of the cloud and changes that
+     * were committed after they were stamped. Re-applying an unchanged definition is harmless.
+     */
+    private static final long UPDATE_OVERLAP;
+
+    static {
+        long updateOverlap = 60000L;
+        try {
+            updateOverlap = Long.parseLong(System.getProperty("rhq.server.alert-condition-cache.update-overlap",
+                "60000"));
+        } catch (Throwable t) {
+            //
+        }
+        UPDATE_OVERLAP = updateOverlap;
+    }
+
+    private static final EnumSet<AlertConditionCategory> SUPPORTED_CATEGORIES = EnumSet.of(
+        AlertConditionCategory.BASELINE, AlertConditionCategory.CHANGE, AlertConditionCategory.TRAIT,
+        AlertConditionCategory.THRESHOLD, AlertConditionCategory.EVENT, AlertConditionCategory.DRIFT,
+        AlertConditionCategory.RANGE);
+
+    private NumericCacheElementIndex measurementDataCache; // key: schedule ID
+    private CacheElementIndex<MeasurementTraitCacheElement> measurementTraitCache; // key: schedule ID
+    private CacheElementIndex<CallTimeDataCacheElement> callTimeCache; // key: schedule ID
+    private EventCacheElementIndex eventsCache; // key: resource ID
+    private CacheElementIndex<DriftCacheElement> driftCache; // key: resource ID
 
     private AlertConditionManagerLocal alertConditionManager;
     private MeasurementDataManagerLocal measurementDataManager;
@@ -88,24 +115,59 @@ class AgentConditionCache extends AbstractConditionCache {
 
     private int agentId;
 
+    private long loadTime; // when the last load or update started
+
     public AgentConditionCache(int agentId) {
-        super();
+        this(agentId, LookupUtil.getCachedConditionProducerLocal(), LookupUtil.getAlertConditionManager(), LookupUtil
+            .getMeasurementDataManager(), LookupUtil.getSubjectManager());
+    }
+
+    /**
+     * Loads the cache with the given collaborators rather than the session beans, so that it can be built outside of
+     * the server, e.g. by benchmarks.
+     */
+    AgentConditionCache(int agentId, CachedConditionProducerLocal cachedConditionProducer,
+        AlertConditionManagerLocal alertConditionManager, MeasurementDataManagerLocal measurementDataManager,
+        SubjectManagerLocal subjectManager) {
+        super(cachedConditionProducer);
 
         this.agentId = agentId;
 
-        measurementDataCache = new HashMap<Integer, List<NumericDoubleCacheElement>>();
-        measurementTraitCache = new HashMap<Integer, List<MeasurementTraitCacheElement>>();
-        callTimeCache = new HashMap<Integer, List<CallTimeDataCacheElement>>();
-        eventsCache = new HashMap<Integer, List<EventCacheElement>>();
-        driftCache = new HashMap<Integer, List<DriftCacheElement>>();
+        measurementDataCache = new NumericCacheElementIndex();
+        measurementTraitCache = new CacheElementIndex<MeasurementTraitCacheElement>(
+            MeasurementTraitCacheElement.class);
+        callTimeCache = new CacheElementIndex<CallTimeDataCacheElement>(CallTimeDataCacheElement.class);
+        eventsCache = new EventCacheElementIndex();
+        driftCache = new CacheElementIndex<DriftCacheElement>(DriftCacheElement.class);
 
-        alertConditionManager = LookupUtil.getAlertConditionManager();
-        measurementDataManager = LookupUtil.getMeasurementDataManager();
-        subjectManager = LookupUtil.getSubjectManager();
+        this.alertConditionManager = alertConditionManager;
+        this.measurementDataManager = measurementDataManager;
+        this.subjectManager = subjectManager;
 
         loadCachesForAgent(agentId);
     }
 
+    /**
+     * Creates a copy of the given cache that can be updated while the original is still in use. The cache elements
+     * themselves are shared, so the ones that are not affected by the update keep their state.
+     */
+    AgentConditionCache(AgentConditionCache original) {
+        super(original.getCachedConditionProducer());
+
+        this.agentId = original.agentId;
+        this.loadTime = original.loadTime;
+
+        measurementDataCache = new NumericCacheElementIndex(original.measurementDataCache);
+        measurementTraitCache = new CacheElementIndex<MeasurementTraitCacheElement>(original.measurementTraitCache);
+        callTimeCache = new CacheElementIndex<CallTimeDataCacheElement>(original.callTimeCache);
+        eventsCache = new EventCacheElementIndex(original.eventsCache);
+        driftCache = new CacheElementIndex<DriftCacheElement>(original.driftCache);
+
+        alertConditionManager = original.alertConditionManager;
+        measurementDataManager = original.measurementDataManager;
+        subjectManager = original.subjectManager;
+    }
+
     /**
      * This method is used to do the initial loading from the database for a particular agent. In the high availability
      * infrastructure each server instance in the cloud will only be responsible for monitoring a select number of
@@ -122,41 +184,18 @@ class AgentConditionCache extends AbstractConditionCache {
                 log.debug("Loading Alert Condition Caches for agent[id=" + agentId + "]...");
             }
 
+            loadTime = System.currentTimeMillis();
             Subject overlord = subjectManager.getOverlord();
 
-            EnumSet<AlertConditionCategory> supportedCategories = EnumSet.of(AlertConditionCategory.BASELINE,
-                AlertConditionCategory.CHANGE, AlertConditionCategory.TRAIT, AlertConditionCategory.THRESHOLD,
-                AlertConditionCategory.EVENT, AlertConditionCategory.DRIFT, AlertConditionCategory.RANGE);
-
-            for (AlertConditionCategory nextCategory : supportedCategories) {
-                // page thru all alert definitions
-                int rowsProcessed = 0;
-                PageControl pc = new PageControl();
-                pc.setPageNumber(0);
-                pc.setPageSize(PAGE_SIZE); // condition composites are small so we can grab alot; use the setter, constructor limits this to 100
-
-                while (true) {
-                    PageList<? extends AbstractAlertConditionCategoryComposite> alertConditions = null;
-                    alertConditions = alertConditionManager.getAlertConditionComposites(overlord, agentId,
-                        nextCategory, pc);
-
-                    if (alertConditions.isEmpty()) {
-                        break; // didn't get any rows back, must not have any data or no more rows left to process
-                    }
-
-                    for (AbstractAlertConditionCategoryComposite nextComposite : alertConditions) {
-                        insertAlertConditionComposite(agentId, nextComposite, stats);
-                    }
-
-                    rowsProcessed += alertConditions.size();
-                    if (rowsProcessed >= alertConditions.getTotalSize()) {
-                        break; // we've processed all data, we can stop now
-                    }
-
-                    pc.setPageNumber(pc.getPageNumber() + 1);
+            for (AlertConditionCategory nextCategory : SUPPORTED_CATEGORIES) {
+                List<AbstractAlertConditionCategoryComposite> alertConditions = findAlertConditionComposites(
+                    overlord, nextCategory, 0L);
+                for (AbstractAlertConditionCategoryComposite nextComposite : alertConditions) {
+                    insertAlertConditionComposite(agentId, nextComposite, stats);
                 }
                 if (log.isDebugEnabled()) {
-                    log.debug("Loaded " + rowsProcessed + " Alert Condition Composites of type '" + nextCategory + "'");
+                    log.debug("Loaded " + alertConditions.size() + " Alert Condition Composites of type '"
+                        + nextCategory + "'");
                 }
             }
 
@@ -170,6 +209,82 @@ class AgentConditionCache extends AbstractConditionCache {
         return stats;
     }
 
+    /**
+     * Applies the alert definitions of this agent that changed since this cache was loaded or last updated, instead of
+     * reloading all of them. The conditions of changed definitions are replaced, and the conditions that are no longer
+     * active, e.g. because their definition was deleted, disabled, or got new conditions, are removed. All other cache
+     * elements are left alone.
+     *
+     * Unlike the initial load, failures are not swallowed so that the caller can fall back to a full reload.
+     *
+     * @return the number of cache elements that were created and deleted
+     */
+    AlertConditionCacheStats updateCachesForAgent() {
+        AlertConditionCacheStats stats = new AlertConditionCacheStats();
+
+        long updateTime = System.currentTimeMillis();
+        long changedSince = loadTime - UPDATE_OVERLAP;
+        Subject overlord = subjectManager.getOverlord();
+
+        List<AbstractAlertConditionCategoryComposite> changedConditions = new ArrayList<AbstractAlertConditionCategoryComposite>();
+        for (AlertConditionCategory nextCategory : SUPPORTED_CATEGORIES) {
+            changedConditions.addAll(findAlertConditionComposites(overlord, nextCategory, changedSince));
+        }
+        Set<Integer> changedConditionIds = new HashSet<Integer>();
+        for (AbstractAlertConditionCategoryComposite nextComposite : changedConditions) {
+            changedConditionIds.add(nextComposite.getCondition().getId());
+        }
+        Set<Integer> activeConditionIds = new HashSet<Integer>(alertConditionManager.getAlertConditionIds(overlord,
+            agentId));
+
+        removeFrom("measurementDataCache", measurementDataCache, activeConditionIds, changedConditionIds, stats);
+        removeFrom("measurementTraitCache", measurementTraitCache, activeConditionIds, changedConditionIds, stats);
+        removeFrom("callTimeDataCache", callTimeCache, activeConditionIds, changedConditionIds, stats);
+        removeFrom("eventsCache", eventsCache, activeConditionIds, changedConditionIds, stats);
+        removeFrom("driftCache", driftCache, activeConditionIds, changedConditionIds, stats);
+
+        for (AbstractAlertConditionCategoryComposite nextComposite : changedConditions) {
+            insertAlertConditionComposite(agentId, nextComposite, stats);
+        }
+
+        loadTime = updateTime;
+
+        if (log.isDebugEnabled()) {
+            log.debug("Updated Alert Condition Caches for agent[id=" + agentId + "] with "
+                + changedConditionIds.size() + " conditions changed since " + changedSince + " - " + stats);
+        }
+        return stats;
+    }
+
+    private List<AbstractAlertConditionCategoryComposite> findAlertConditionComposites(Subject overlord,
+        AlertConditionCategory category, long changedSince) {
+        List<AbstractAlertConditionCategoryComposite> results = new ArrayList<AbstractAlertConditionCategoryComposite>();
+
+        // page thru all alert definitions
+        PageControl pc = new PageControl();
+        pc.setPageNumber(0);
+        pc.setPageSize(PAGE_SIZE); // condition composites are small so we can grab alot; use the setter, constructor limits this to 100
+
+        while (true) {
+            PageList<? extends AbstractAlertConditionCategoryComposite> alertConditions = null;
+            alertConditions = alertConditionManager.getAlertConditionComposites(overlord, agentId, category,
+                changedSince, pc);
+
+            if (alertConditions.isEmpty()) {
+                break; // didn't get any rows back, must not have any data or no more rows left to process
+            }
+
+            results.addAll(alertConditions);
+
+            if (results.size() >= alertConditions.getTotalSize()) {
+                break; // we've processed all data, we can stop now
+            }
+
+            pc.setPageNumber(pc.getPageNumber() + 1);
+        }
+        return results;
+    }
+
     private void insertAlertConditionComposite(int agentId, AbstractAlertConditionCategoryComposite composite,
         AlertConditionCacheStats stats) {
 
@@ -379,20 +494,28 @@ class AgentConditionCache extends AbstractConditionCache {
         }
 
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
+        AlertConditionMessageBatch batch = new AlertConditionMessageBatch();
         try {
             for (MeasurementData datum : measurementData) {
                 int scheduleId = datum.getScheduleId();
 
                 if (datum instanceof MeasurementDataNumeric) {
-                    List<? extends NumericDoubleCacheElement> conditionCacheElements = lookupMeasurementDataCacheElements(scheduleId);
+                    NumericConditionEvaluator evaluator = lookupMeasurementDataEvaluator(scheduleId);
+                    if (evaluator == null) {
+                        continue; // the common case, no conditions on this schedule
+                    }
 
+                    /*
+                     * a null value does not match any element, just like NaN, but may still deactivate elements
+                     */
                     Double providedValue = ((MeasurementDataNumeric) datum).getValue();
 
-                    processCacheElements(conditionCacheElements, providedValue, datum.getTimestamp(), stats);
+                    processNumericCacheElements(batch, evaluator, (providedValue == null) ? Double.NaN
+                        : providedValue.doubleValue(), datum.getTimestamp(), stats);
                 } else if (datum instanceof MeasurementDataTrait) {
-                    List<MeasurementTraitCacheElement> cacheElements = lookupMeasurementTraitCacheElements(scheduleId);
+                    MeasurementTraitCacheElement[] cacheElements = lookupMeasurementTraitCacheElements(scheduleId);
 
-                    processCacheElements(cacheElements, ((MeasurementDataTrait) datum).getValue(),
+                    processCacheElements(batch, cacheElements, ((MeasurementDataTrait) datum).getValue(),
                         datum.getTimestamp(), stats);
                 } else {
                     log.error(getClass().getSimpleName() + " does not support " + "checking conditions against "
@@ -400,7 +523,6 @@ class AgentConditionCache extends AbstractConditionCache {
                 }
             }
 
-            AlertConditionCacheMonitor.getMBean().incrementMeasurementCacheElementMatches(stats.matched);
             AlertConditionCacheMonitor.getMBean().incrementMeasurementProcessingTime(stats.getAge());
             if (log.isDebugEnabled())
                 log.debug("Check Measurements[size=" + measurementData.length + "] - " + stats);
@@ -408,6 +530,9 @@ class AgentConditionCache extends AbstractConditionCache {
             // don't let any exceptions bubble up to the calling SLSB layer
             log.error("Error during measurement data cache processing for agent[id=" + agentId + "]", t);
         }
+        sendBatch(batch, stats);
+        // only after sending, a batch that can't be sent lowers the matches
+        AlertConditionCacheMonitor.getMBean().incrementMeasurementCacheElementMatches(stats.matched);
         return stats;
     }
 
@@ -417,23 +542,25 @@ class AgentConditionCache extends AbstractConditionCache {
         }
 
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
+        AlertConditionMessageBatch batch = new AlertConditionMessageBatch();
         try {
             HashMap<Integer, HashMap<String, ArrayList<CallTimeDataValue>>> order = produceOrderedCallTimeDataStructure(callTime);
             for (Integer scheduleId : order.keySet()) {
-                List<? extends CallTimeDataCacheElement> conditionCacheElements = lookupCallTimeDataCacheElements(scheduleId);
+                CallTimeDataCacheElement[] conditionCacheElements = lookupCallTimeDataCacheElements(scheduleId);
                 for (String callDest : order.get(scheduleId).keySet()) {
                     for (CallTimeDataValue provided : order.get(scheduleId).get(callDest)) {
-                        processCacheElements(conditionCacheElements, provided, provided.getBeginTime(), stats, callDest);
+                        processCacheElements(batch, conditionCacheElements, provided, provided.getBeginTime(),
+                            stats, callDest);
                     }
                 }
             }
-            AlertConditionCacheMonitor.getMBean().incrementCallTimeCacheElementMatches(stats.matched);
             AlertConditionCacheMonitor.getMBean().incrementCallTimeProcessingTime(stats.getAge());
         } catch (Throwable t) {
             // don't let any exceptions bubble up to the calling SLSB layer
             log.error("Error during calltime cache processing for agent[id=" + agentId + "]", t);
         }
-
+        sendBatch(batch, stats);
+        AlertConditionCacheMonitor.getMBean().incrementCallTimeCacheElementMatches(stats.matched);
         return stats;
     }
 
@@ -503,38 +630,38 @@ class AgentConditionCache extends AbstractConditionCache {
 
     /**
      * This operates differently from the other {{checkConditions()}} methods.  Because it's possible that one
-     * batch of events may contain both an event triggering a problem event and also an event triggering its
+     * batch of events may contain both an event triggering a problem alert and also an event triggering its
      * recovery alert, we return after a matched condition to allow for the caller to check remaining
-     * events only after a cache refresh has been performed.
+     * events only after the matched conditions have been processed, see {@link EventSequencer}.
      *
-     * @param stats not null. the stats object to update
      * @param source
-     * @param events
-     * @return the number of eventsProcessed until a match was found or all events were processed.
+     * @param events processed events are removed from this list; the remaining ones follow the matching event
+     * @param matchedConditionIds not null. the ids of the conditions that matched are added to this list
+     * @return the stats for the events processed until a match was found or all events were processed.
      */
-    public AlertConditionCacheStats checkConditions(EventSource source, List<Event> events) {
+    public AlertConditionCacheStats checkConditions(EventSource source, List<Event> events,
+        List<Integer> matchedConditionIds) {
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
         if ((events == null) || events.isEmpty()) {
             return stats;
         }
 
         int initialSize = events.size();
+        AlertConditionMessageBatch batch = new AlertConditionMessageBatch();
         try {
             Resource resource = source.getResource();
-            List<EventCacheElement> cacheElements = lookupEventCacheElements(resource.getId());
+            EventConditionEvaluator evaluator = lookupEventConditionEvaluator(resource.getId());
 
             for (Iterator<Event> i = events.iterator(); i.hasNext();) {
                 Event event = i.next();
                 i.remove();
-                int matched = stats.matched;
-                processCacheElements(cacheElements, event.getSeverity(), event.getTimestamp(), stats,
-                    event.getDetail(), "sourceLocation=" + source.getLocation());
-                if (matched < stats.matched) {
+                processEventCacheElements(batch, evaluator, event.getSeverity(), event.getDetail(),
+                    event.getTimestamp(), stats, event.getDetail(), "sourceLocation=" + source.getLocation());
+                if (batch.getActiveCount() > 0) {
                     break;
                 }
             }
 
-            AlertConditionCacheMonitor.getMBean().incrementEventCacheElementMatches(stats.matched);
             AlertConditionCacheMonitor.getMBean().incrementEventProcessingTime(stats.getAge());
             if (log.isDebugEnabled()) {
                 log.debug("Check Events[size=" + (initialSize - events.size()) + "] - " + stats);
@@ -543,19 +670,27 @@ class AgentConditionCache extends AbstractConditionCache {
             // don't let any exceptions bubble up to the calling SLSB layer
             log.error("Error during event cache processing for agent[id=" + agentId + "]", t);
         }
+        if (sendBatch(batch, stats)) {
+            for (AbstractAlertConditionMessage message : batch.getMessages()) {
+                if (message instanceof ActiveAlertConditionMessage) {
+                    matchedConditionIds.add(message.getAlertConditionId());
+                }
+            }
+        }
+        AlertConditionCacheMonitor.getMBean().incrementEventCacheElementMatches(stats.matched);
         return stats;
     }
 
     public AlertConditionCacheStats checkConditions(DriftChangeSetSummary driftChangeSetSummary) {
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
+        AlertConditionMessageBatch batch = new AlertConditionMessageBatch();
         try {
             int resourceId = driftChangeSetSummary.getResourceId();
-            List<DriftCacheElement> cacheElements = lookupDriftCacheElements(resourceId);
+            DriftCacheElement[] cacheElements = lookupDriftCacheElements(resourceId);
 
-            processCacheElements(cacheElements, DriftCacheElement.UNUSED_CONDITION_VALUE,
+            processCacheElements(batch, cacheElements, DriftCacheElement.UNUSED_CONDITION_VALUE,
                 driftChangeSetSummary.getCreatedTime(), stats, driftChangeSetSummary);
 
-            AlertConditionCacheMonitor.getMBean().incrementDriftCacheElementMatches(stats.matched);
             AlertConditionCacheMonitor.getMBean().incrementDriftProcessingTime(stats.getAge());
             if (log.isDebugEnabled()) {
                 log.debug("Check Drift[resourceId=" + resourceId + "] - " + stats);
@@ -564,26 +699,28 @@ class AgentConditionCache extends AbstractConditionCache {
             // don't let any exceptions bubble up to the calling SLSB layer
             log.error("Error during drift cache processing for agent[id=" + agentId + "]", t);
         }
+        sendBatch(batch, stats);
+        AlertConditionCacheMonitor.getMBean().incrementDriftCacheElementMatches(stats.matched);
         return stats;
     }
 
-    private List<? extends NumericDoubleCacheElement> lookupMeasurementDataCacheElements(int scheduleId) {
-        return measurementDataCache.get(scheduleId); // yup, might be null
+    private NumericConditionEvaluator lookupMeasurementDataEvaluator(int scheduleId) {
+        return measurementDataCache.getEvaluator(scheduleId); // yup, might be null
     }
 
-    private List<? extends CallTimeDataCacheElement> lookupCallTimeDataCacheElements(int scheduleId) {
+    private CallTimeDataCacheElement[] lookupCallTimeDataCacheElements(int scheduleId) {
         return callTimeCache.get(scheduleId); // yup, might be null
     }
 
-    private List<MeasurementTraitCacheElement> lookupMeasurementTraitCacheElements(int scheduleId) {
+    private MeasurementTraitCacheElement[] lookupMeasurementTraitCacheElements(int scheduleId) {
         return measurementTraitCache.get(scheduleId); // yup, might be null
     }
 
-    private List<EventCacheElement> lookupEventCacheElements(int resourceId) {
-        return eventsCache.get(resourceId); // yup, might be null
+    private EventConditionEvaluator lookupEventConditionEvaluator(int resourceId) {
+        return eventsCache.getEvaluator(resourceId); // yup, might be null
     }
 
-    private List<DriftCacheElement> lookupDriftCacheElements(int resourceId) {
+    private DriftCacheElement[] lookupDriftCacheElements(int resourceId) {
         return driftCache.get(resourceId); // yup, might be null
     }
 
@@ -622,18 +759,48 @@ class AgentConditionCache extends AbstractConditionCache {
         return threshold * baselineValue;
     }
 
+    /**
+     * @return the ids of the schedules that have measurement, trait or call-time conditions in this cache; an id may
+     *         appear more than once
+     */
+    int[] getScheduleIds() {
+        return concat(measurementDataCache.keys(), measurementTraitCache.keys(), callTimeCache.keys());
+    }
+
+    /**
+     * @return the ids of the resources that have event or drift conditions in this cache; an id may appear more than
+     *         once
+     */
+    int[] getResourceIds() {
+        return concat(eventsCache.keys(), driftCache.keys());
+    }
+
+    private static int[] concat(int[]... arrays) {
+        int length = 0;
+        for (int[] array : arrays) {
+            length += array.length;
+        }
+        int[] result = new int[length];
+        int offset = 0;
+        for (int[] array : arrays) {
+            System.arraycopy(array, 0, result, offset, array.length);
+            offset += array.length;
+        }
+        return result;
+    }
+
     @Override
     public int getCacheSize(Cache cache) {
         if (cache == AlertConditionCacheCoordinator.Cache.MeasurementDataCache) {
-            return AlertConditionCacheUtils.getMapListCount(measurementDataCache);
+            return measurementDataCache.size();
         } else if (cache == AlertConditionCacheCoordinator.Cache.MeasurementTraitCache) {
-            return AlertConditionCacheUtils.getMapListCount(measurementTraitCache);
+            return measurementTraitCache.size();
         } else if (cache == AlertConditionCacheCoordinator.Cache.CallTimeDataCache) {
-            return AlertConditionCacheUtils.getMapListCount(callTimeCache);
+            return callTimeCache.size();
         } else if (cache == AlertConditionCacheCoordinator.Cache.EventsCache) {
-            return AlertConditionCacheUtils.getMapListCount(eventsCache);
+            return eventsCache.size();
         } else if (cache == AlertConditionCacheCoordinator.Cache.DriftCache) {
-            return AlertConditionCacheUtils.getMapListCount(driftCache);
+            return driftCache.size();
         } else {
             throw new IllegalArgumentException("The " + AgentConditionCache.class.getSimpleName()
                 + " either does not manage caches of type " + cache.type + ", or does not support obtaining their size");
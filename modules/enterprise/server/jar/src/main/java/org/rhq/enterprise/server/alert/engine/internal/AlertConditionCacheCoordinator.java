@@ -19,7 +19,6 @@
 package org.rhq.enterprise.server.alert.engine.internal;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,12 +36,15 @@ import org.rhq.core.domain.measurement.Availability;
 import org.rhq.core.domain.measurement.MeasurementData;
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
 import org.rhq.core.domain.operation.OperationHistory;
+import org.rhq.core.util.collection.IntHashMap;
+import org.rhq.core.util.exception.ThrowableUtil;
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+import org.rhq.enterprise.server.alert.engine.mbean.AlertConditionCacheMonitor;
 import org.rhq.enterprise.server.alert.engine.model.AbstractCacheElement;
 import org.rhq.enterprise.server.alert.engine.model.AvailabilityDurationComposite;
 import org.rhq.enterprise.server.cloud.StatusManagerLocal;
-import org.rhq.enterprise.server.core.AgentManagerLocal;
 import org.rhq.enterprise.server.plugin.pc.drift.DriftChangeSetSummary;
+import org.rhq.enterprise.server.util.LoggingThreadFactory;
 import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
@@ -54,33 +56,47 @@ import org.rhq.enterprise.server.util.LookupUtil;
  *
  * This manager forms a centralized interface through which to interact with the children caches.
  *
+ * Agent-side data is routed to the cache of its agent with an in-memory index from schedule and resource ids to agent
+ * ids. The index only holds the schedules and resources that have conditions in one of the agent caches, and is
+ * maintained whenever an agent cache is reloaded or updated, so routing needs no database access. Data for anything
+ * that is not in the index cannot match a condition and is dropped right away.
+ *
+ * Measurement data can also be queued for a {@link MeasurementEvaluationStage}, see
+ * {@link #queueConditionChecks(MeasurementData...)}, which checks it on worker threads of its own. The number of
+ * workers and the number of submissions each of them holds are set with the
+ * rhq.server.alert-condition-cache.evaluation-threads and rhq.server.alert-condition-cache.evaluation-queue-size
+ * system properties. The workers are stopped with {@link #shutdown()} when the server shuts down.
+ *
  * @author Joseph Marques
  */
 public final class AlertConditionCacheCoordinator {
 
     private static final Log log = LogFactory.getLog(AlertConditionCacheCoordinator.class);
 
-    private static final AlertConditionCacheCoordinator instance = new AlertConditionCacheCoordinator();
-
-    /**
-     * When processing EventReport, we may hit an event that triggers problem alert and event that triggers recovery alert within the same report. Firing alert 
-     * is asynchronous task, so if processing events too fast, problem alert is fired after we process recovery event, so we miss recovery alert at all.
-     * To workaround that, we slow down event processing in case we hit any event that triggers alert. When such event exists, we sleep given amount of milis 
-     * to wait for alert to get fired. There is no performance impact on processing events without alert fired, and this delay is set to 500 by default.
-     * Recommended value is from 500 to 1500milis, 500 was tested as reliable enough for low server load cases.
-     */
-    private static final long ALERTED_EVENT_PROCESSING_DELAY;
-
+    private static final int EVALUATION_THREADS;
+    private static final int EVALUATION_QUEUE_SIZE;
     static {
-        long alertedEventProcessingDelay = 500L;
+        int evaluationThreads = 4;
+        try {
+            evaluationThreads = Integer.parseInt(System.getProperty(
+                "rhq.server.alert-condition-cache.evaluation-threads", "4"));
+        } catch (Throwable t) {
+            //
+        }
+        EVALUATION_THREADS = Math.max(1, evaluationThreads);
+
+        int evaluationQueueSize = 1000;
         try {
-            alertedEventProcessingDelay = Long.parseLong(System.getProperty("rhq.server.alerted.event.process.delay", "500"));
+            evaluationQueueSize = Integer.parseInt(System.getProperty(
+                "rhq.server.alert-condition-cache.evaluation-queue-size", "1000"));
         } catch (Throwable t) {
             //
         }
-        ALERTED_EVENT_PROCESSING_DELAY = alertedEventProcessingDelay;
+        EVALUATION_QUEUE_SIZE = Math.max(1, evaluationQueueSize);
     }
 
+    private static final AlertConditionCacheCoordinator instance = new AlertConditionCacheCoordinator();
+
     public enum Cache {
         MeasurementDataCache(Type.Agent), //
         MeasurementTraitCache(Type.Agent), //
@@ -107,20 +123,39 @@ public final class AlertConditionCacheCoordinator {
     private volatile GlobalConditionCache globalCache;
     private Map<Integer, AgentConditionCache> agentCaches;
 
+    private IntHashMap scheduleAgentIds; // schedule id -> agent id, guarded by agentReadWriteLock
+    private IntHashMap resourceAgentIds; // resource id -> agent id, guarded by agentReadWriteLock
+
     private ReentrantReadWriteLock agentReadWriteLock;
 
-    private AgentManagerLocal agentManager;
+    private final EventSequencer eventSequencer;
+    private final MeasurementEvaluationStage measurementEvaluationStage;
+
     private StatusManagerLocal statusManager;
 
     private AlertConditionCacheCoordinator() {
-        agentManager = LookupUtil.getAgentManager();
         statusManager = LookupUtil.getStatusManager();
 
         globalCache = new GlobalConditionCache();
 
         // create the collections ahead of time
         agentCaches = new HashMap<Integer, AgentConditionCache>();
+        scheduleAgentIds = new IntHashMap();
+        resourceAgentIds = new IntHashMap();
         agentReadWriteLock = new ReentrantReadWriteLock();
+
+        eventSequencer = new EventSequencer(new EventSequencer.EventMatcher() {
+            public AlertConditionCacheStats checkConditions(EventSource source, List<Event> events,
+                List<Integer> matchedConditionIds) {
+                return checkEventConditions(source, events, matchedConditionIds);
+            }
+        });
+
+        measurementEvaluationStage = new MeasurementEvaluationStage(new MeasurementEvaluationStage.Evaluator() {
+            public AlertConditionCacheStats evaluate(int agentId, MeasurementData[] data) {
+                return checkConditions(agentId, data);
+            }
+        }, EVALUATION_THREADS, EVALUATION_QUEUE_SIZE, new LoggingThreadFactory("AlertConditionEvaluation", true));
     }
 
     public static AlertConditionCacheCoordinator getInstance() {
@@ -163,7 +198,10 @@ public final class AlertConditionCacheCoordinator {
             if (log.isDebugEnabled()) {
                 log.debug("Start reloading cache for agent[id=" + agentId + "]");
             }
+            long startTime = System.currentTimeMillis();
             agentCache = new AgentConditionCache(agentId);
+            AlertConditionCacheMonitor.getMBean().incrementAgentCacheReloadTime(
+                System.currentTimeMillis() - startTime);
             if (log.isDebugEnabled()) {
                 log.debug("Finished reloading cache for agent[id=" + agentId + "]");
             }
@@ -195,7 +233,7 @@ public final class AlertConditionCacheCoordinator {
             agentReadWriteLock.writeLock().lock();
             try {
                 // simply "forget" about the old cache, let the JVM release the memory in time
-                agentCaches.put(agentId, agentCache);
+                putAgentCache(agentId, agentCache);
                 log.debug("Reloaded agent[id=" + agentId + "] cache");
             } catch (Throwable t) {
                 log.error("Error reloading cache for agent[id=" + agentId + "]", t); // don't let any exceptions bubble up to the calling SLSB layer
@@ -205,18 +243,136 @@ public final class AlertConditionCacheCoordinator {
         }
     }
 
+    /**
+     * Applies the alert definition changes since the last load or update of the agent's cache, see
+     * {@link AgentConditionCache#updateCachesForAgent()}. The update works on a copy of the cache that replaces the
+     * current one when done, so conditions can be checked in the meantime. The agent's cache is reloaded instead if it
+     * has not been loaded yet, and it is marked for a full reload if the update fails.
+     */
+    public void updateCachesForAgent(int agentId) {
+        AgentConditionCache currentCache = null;
+        agentReadWriteLock.readLock().lock();
+        try {
+            currentCache = agentCaches.get(agentId);
+        } finally {
+            agentReadWriteLock.readLock().unlock();
+        }
+
+        if (currentCache == null) {
+            reloadCachesForAgent(agentId);
+            return;
+        }
+
+        AgentConditionCache agentCache = null;
+        try {
+            if (log.isDebugEnabled()) {
+                log.debug("Start updating cache for agent[id=" + agentId + "]");
+            }
+            long startTime = System.currentTimeMillis();
+            agentCache = new AgentConditionCache(currentCache);
+            AlertConditionCacheStats stats = agentCache.updateCachesForAgent();
+            AlertConditionCacheMonitor.getMBean().incrementAgentCacheUpdateTime(
+                System.currentTimeMillis() - startTime);
+            AlertConditionCacheMonitor.getMBean().incrementAgentCacheUpdateElements(stats.created + stats.deleted);
+            if (log.isDebugEnabled()) {
+                log.debug("Finished updating cache for agent[id=" + agentId + "] - " + stats);
+            }
+        } catch (Throwable t) {
+            try {
+                // the next cache consistency check will reload the whole cache
+                statusManager.updateByAgent(agentId);
+                log.warn("Error updating cache for agent[id=" + agentId + "], it will be reloaded: "
+                    + ThrowableUtil.getRootMessage(t));
+                if (log.isDebugEnabled()) {
+                    log.debug("Error updating cache for agent[id=" + agentId + "]", t);
+                }
+            } catch (Throwable inner) {
+                // again, don't let any exceptions bubble up to the calling SLSB layer
+                log.error("Error while resetting agent status bit during failed cache update attempt for agent[id="
+                    + agentId + "]", inner);
+            }
+            return;
+        }
+
+        agentReadWriteLock.writeLock().lock();
+        try {
+            if (agentCaches.get(agentId) == currentCache) {
+                putAgentCache(agentId, agentCache);
+                log.debug("Updated agent[id=" + agentId + "] cache");
+            } else {
+                // the cache was reloaded while we were updating it, and the reload already has all changes
+                log.debug("Discarding update of agent[id=" + agentId + "] cache, it was reloaded concurrently");
+            }
+        } finally {
+            agentReadWriteLock.writeLock().unlock();
+        }
+    }
+
     public AlertConditionCacheStats checkConditions(MeasurementData... measurementData) {
         if (measurementData == null || measurementData.length == 0) {
             return new AlertConditionCacheStats();
         }
 
-        MeasurementData datum = measurementData[0];
-        Integer agentId = getAgentId(datum);
+        Integer agentId = getAgentId(measurementData);
         if (agentId == null) {
-            log.error("Could not find agent for scheduleId = " + datum.getScheduleId());
-            return new AlertConditionCacheStats();
+            return new AlertConditionCacheStats(); // none of the schedules has conditions
+        }
+
+        return checkConditions(agentId, measurementData);
+    }
+
+    /**
+     * Queues the data to be checked by the {@link MeasurementEvaluationStage} without blocking. The data of an agent is
+     * checked in the order it was queued. If the worker of the agent already holds as many submissions as its queue
+     * size, the data is rejected and not checked.
+     *
+     * @return false if the data was rejected
+     */
+    public boolean queueConditionChecks(MeasurementData... measurementData) {
+        if (measurementData == null || measurementData.length == 0) {
+            return true;
+        }
+
+        Integer agentId = getAgentId(measurementData);
+        if (agentId == null) {
+            return true; // none of the schedules has conditions
         }
 
+        return measurementEvaluationStage.submit(agentId, measurementData);
+    }
+
+    /**
+     * Stops the measurement evaluation threads. Measurement data that is queued afterwards is rejected.
+     */
+    public void shutdown() {
+        measurementEvaluationStage.shutdown();
+    }
+
+    public int getEvaluationQueueDepth() {
+        return measurementEvaluationStage.getQueueDepth();
+    }
+
+    public long getEvaluationQueuedCount() {
+        return measurementEvaluationStage.getQueuedCount();
+    }
+
+    public long getEvaluationCoalescedCount() {
+        return measurementEvaluationStage.getCoalescedCount();
+    }
+
+    public long getEvaluationRejectedCount() {
+        return measurementEvaluationStage.getRejectedCount();
+    }
+
+    public long getEvaluationCompletedCount() {
+        return measurementEvaluationStage.getEvaluatedCount();
+    }
+
+    public int getEvaluationThreadCount() {
+        return measurementEvaluationStage.getWorkerCount();
+    }
+
+    private AlertConditionCacheStats checkConditions(int agentId, MeasurementData[] measurementData) {
         AlertConditionCacheStats stats = null;
         AgentConditionCache agentCache = null;
         agentReadWriteLock.readLock().lock();
@@ -241,11 +397,9 @@ public final class AlertConditionCacheCoordinator {
             return new AlertConditionCacheStats();
         }
 
-        CallTimeData datum = callTimeData[0];
-        Integer agentId = getAgentId(datum);
+        Integer agentId = getAgentId(callTimeData);
         if (agentId == null) {
-            log.error("Could not find agent for scheduleId = " + datum.getScheduleId());
-            return new AlertConditionCacheStats();
+            return new AlertConditionCacheStats(); // none of the schedules has conditions
         }
 
         AlertConditionCacheStats stats = null;
@@ -300,38 +454,40 @@ public final class AlertConditionCacheCoordinator {
 
         Integer agentId = getAgentId(source);
         if (agentId == null) {
-            log.error("Could not find agent for resourceId = " + source.getResource().getId());
-            return new AlertConditionCacheStats();
+            return new AlertConditionCacheStats(); // the resource has no event conditions
         }
 
-        AlertConditionCacheStats stats = new AlertConditionCacheStats();
-        List<Event> unprocessedEvents = new ArrayList(Arrays.asList(events)); // need a List that supports iterator remove
-        while (!unprocessedEvents.isEmpty()) {
-            AgentConditionCache agentCache = null;
-            agentReadWriteLock.readLock().lock();
-            try {
-                agentCache = agentCaches.get(agentId);
-            } catch (Throwable t) {
-                log.error("Error during checkConditions", t); // don't let any exceptions bubble up to the calling SLSB layer
-            } finally {
-                agentReadWriteLock.readLock().unlock();
-            }
-            if (agentCache != null) {
-                stats.add(agentCache.checkConditions(source, unprocessedEvents));
-                if (!unprocessedEvents.isEmpty()) {
-                    // delay for a brief time to allow for the matched conditions to potentially fire an alert and
-                    // activate recovery alerts, in case the remaining events match the pending recovery conditions
-                    try {
-                        Thread.sleep(ALERTED_EVENT_PROCESSING_DELAY);
-                    } catch (InterruptedException e) {
-                        // just continue as a best effort
-                    }
-                }
-            } else {
-                break;
-            }
+        return eventSequencer.submit(source, events);
+    }
+
+    /**
+     * Resumes the events that wait for the alert condition message of the condition to be processed, see
+     * {@link EventSequencer}.
+     */
+    public AlertConditionCacheStats conditionMessageProcessed(int alertConditionId) {
+        return eventSequencer.conditionProcessed(alertConditionId);
+    }
+
+    private AlertConditionCacheStats checkEventConditions(EventSource source, List<Event> events,
+        List<Integer> matchedConditionIds) {
+        Integer agentId = getAgentId(source);
+        if (agentId == null) {
+            return new AlertConditionCacheStats(); // the resource has no event conditions (anymore)
         }
-        return stats;
+
+        AgentConditionCache agentCache = null;
+        agentReadWriteLock.readLock().lock();
+        try {
+            agentCache = agentCaches.get(agentId);
+        } catch (Throwable t) {
+            log.error("Error during checkConditions", t); // don't let any exceptions bubble up to the calling SLSB layer
+        } finally {
+            agentReadWriteLock.readLock().unlock();
+        }
+        if (agentCache == null) {
+            return new AlertConditionCacheStats();
+        }
+        return agentCache.checkConditions(source, events, matchedConditionIds);
     }
 
     public AlertConditionCacheStats checkConditions(DriftChangeSetSummary driftChangeSetSummary) {
@@ -341,8 +497,7 @@ public final class AlertConditionCacheCoordinator {
 
         Integer agentId = getAgentId(driftChangeSetSummary);
         if (agentId == null) {
-            log.error("Could not find agent for resourceId = " + driftChangeSetSummary.getResourceId());
-            return new AlertConditionCacheStats();
+            return new AlertConditionCacheStats(); // the resource has no drift conditions
         }
 
         AlertConditionCacheStats stats = null;
@@ -389,46 +544,91 @@ public final class AlertConditionCacheCoordinator {
         return stats;
     }
 
-    private Integer getAgentId(DriftChangeSetSummary driftChangeSetSummary) {
-        try {
-            int resourceId = driftChangeSetSummary.getResourceId();
-            Integer agentId = agentManager.getAgentIdByResourceId(resourceId);
-            return agentId;
-        } catch (Throwable t) {
-            log.error("Error looking up agent by DriftChangeSet", t);
+    /**
+     * Replaces the cache of the agent and updates the routing index accordingly. Must be called with the write lock
+     * held.
+     */
+    private void putAgentCache(int agentId, AgentConditionCache agentCache) {
+        Integer agentKey = Integer.valueOf(agentId); // shared by all index entries of the agent
+
+        AgentConditionCache oldCache = agentCaches.put(agentKey, agentCache);
+        if (oldCache != null) {
+            unindex(scheduleAgentIds, oldCache.getScheduleIds(), agentKey);
+            unindex(resourceAgentIds, oldCache.getResourceIds(), agentKey);
         }
-        return null;
+
+        index(scheduleAgentIds, agentCache.getScheduleIds(), agentKey);
+        index(resourceAgentIds, agentCache.getResourceIds(), agentKey);
+    }
+
+    private static void index(IntHashMap agentIds, int[] ids, Integer agentId) {
+        for (int id : ids) {
+            agentIds.put(id, agentId);
+        }
+    }
+
+    private static void unindex(IntHashMap agentIds, int[] ids, Integer agentId) {
+        for (int id : ids) {
+            // leave ids alone that a cache of another agent has claimed in the meantime
+            if (agentId.equals(agentIds.get(id))) {
+                agentIds.remove(id);
+            }
+        }
+    }
+
+    private Integer getAgentId(DriftChangeSetSummary driftChangeSetSummary) {
+        return getAgentIdByResourceId(driftChangeSetSummary.getResourceId());
     }
 
     private Integer getAgentId(EventSource source) {
+        return getAgentIdByResourceId(source.getResource().getId());
+    }
+
+    /*
+     * all data of a report comes from the same agent, so the first schedule with conditions decides
+     */
+    private Integer getAgentId(MeasurementData[] measurementData) {
+        agentReadWriteLock.readLock().lock();
         try {
-            int resourceId = source.getResource().getId();
-            Integer agentId = agentManager.getAgentIdByResourceId(resourceId);
-            return agentId;
+            for (MeasurementData datum : measurementData) {
+                Integer agentId = (Integer) scheduleAgentIds.get(datum.getScheduleId());
+                if (agentId != null) {
+                    return agentId;
+                }
+            }
         } catch (Throwable t) {
-            log.error("Error looking up agent by EventSource", t);
+            log.error("Error looking up agent by MeasurementData", t);
+        } finally {
+            agentReadWriteLock.readLock().unlock();
         }
         return null;
     }
 
-    private Integer getAgentId(MeasurementData datum) {
+    private Integer getAgentId(CallTimeData[] callTimeData) {
+        agentReadWriteLock.readLock().lock();
         try {
-            int scheduleId = datum.getScheduleId();
-            Integer agentId = agentManager.getAgentIdByScheduleId(scheduleId);
-            return agentId;
+            for (CallTimeData datum : callTimeData) {
+                Integer agentId = (Integer) scheduleAgentIds.get(datum.getScheduleId());
+                if (agentId != null) {
+                    return agentId;
+                }
+            }
         } catch (Throwable t) {
-            log.error("Error looking up agent by MeasurementData", t);
+            log.error("Error looking up agent by CallTimeData", t);
+        } finally {
+            agentReadWriteLock.readLock().unlock();
         }
         return null;
     }
 
-    private Integer getAgentId(CallTimeData datum) {
+    private Integer getAgentIdByResourceId(int resourceId) {
+        agentReadWriteLock.readLock().lock();
         try {
-            int scheduleId = datum.getScheduleId();
-            Integer agentId = agentManager.getAgentIdByScheduleId(scheduleId);
-            return agentId;
+            return (Integer) resourceAgentIds.get(resourceId);
         } catch (Throwable t) {
-            log.error("Error looking up agent by CallTimeData", t);
+            log.error("Error looking up agent by resource id", t);
+        } finally {
+            agentReadWriteLock.readLock().unlock();
         }
         return null;
     }
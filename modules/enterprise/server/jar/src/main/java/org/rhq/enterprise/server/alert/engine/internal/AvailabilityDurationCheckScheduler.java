@@ -0,0 +1,197 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.domain.alert.AlertConditionOperator;
+import org.rhq.enterprise.server.scheduler.jobs.AlertAvailabilityDurationJob;
+import org.rhq.enterprise.server.util.LoggingThreadFactory;
+
+/**
+ * Runs the availability duration checks, see {@link AlertAvailabilityDurationJob}, once the duration of their
+ * condition has passed. The pending checks are kept in a {@link TimingWheel} that is advanced once a second, rather
+ * than in one timer per check, and the checks that are due are run on a small pool of threads.
+ *
+ * There is at most one pending check per condition and resource. A check verifies that the availability of the
+ * resource did not change for the whole duration, so when the availability goes down again while a check is pending,
+ * the pending check can't fire anymore and is replaced by the check for the new change. Flapping resources therefore
+ * don't pile up checks.
+ *
+ * Like the non-persistent timers this replaces, pending checks only live in memory and are lost when the server goes
+ * down. The threads are started with the first check and stopped with {@link #stop()} when the server shuts down.
+ */
+public final class AvailabilityDurationCheckScheduler {
+
+    private static final Log log = LogFactory.getLog(AvailabilityDurationCheckScheduler.class);
+
+    private static final long TICK_MILLIS = 1000L;
+    private static final int WHEEL_SIZE = 4096;
+
+    // how long stop() waits for the running checks to finish
+    private static final long STOP_TIMEOUT = 10000L;
+
+    private static final int CHECK_THREADS;
+    static {
+        int checkThreads = 2;
+        try {
+            checkThreads = Integer.parseInt(System.getProperty(
+                "rhq.server.alert-condition-cache.availability-duration-threads", "2"));
+        } catch (Throwable t) {
+            //
+        }
+        CHECK_THREADS = Math.max(1, checkThreads);
+    }
+
+    private static final AvailabilityDurationCheckScheduler instance = new AvailabilityDurationCheckScheduler();
+
+    private final TimingWheel<Long, HashMap<String, String>> wheel; // guarded by itself
+
+    private ScheduledExecutorService ticker; // guarded by this, started with the first check
+    private ExecutorService checkExecutor; // guarded by this
+    private volatile boolean stopped;
+
+    private AvailabilityDurationCheckScheduler() {
+        wheel = new TimingWheel<Long, HashMap<String, String>>(TICK_MILLIS, WHEEL_SIZE, System.currentTimeMillis());
+    }
+
+    public static AvailabilityDurationCheckScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * Schedules the availability duration check of the condition for the resource, replacing the pending check for
+     * the same condition and resource, if any.
+     *
+     * @param durationSeconds the duration of the condition, in seconds
+     */
+    public void schedule(int alertConditionId, int resourceId, AlertConditionOperator operator, long durationSeconds) {
+        if (stopped) {
+            return; // the server shuts down
+        }
+
+        HashMap<String, String> infoMap = new HashMap<String, String>();
+        // the condition id is needed to ensure we limit the future avail checking to the one relevant alert condition
+        infoMap.put(AlertAvailabilityDurationJob.DATAMAP_CONDITION_ID, String.valueOf(alertConditionId));
+        infoMap.put(AlertAvailabilityDurationJob.DATAMAP_RESOURCE_ID, String.valueOf(resourceId));
+        infoMap.put(AlertAvailabilityDurationJob.DATAMAP_OPERATOR, operator.name());
+        infoMap.put(AlertAvailabilityDurationJob.DATAMAP_DURATION, String.valueOf(durationSeconds)); // in seconds
+
+        long deadline = System.currentTimeMillis() + (durationSeconds * 1000L);
+        Long key = (((long) alertConditionId) << 32) | (resourceId & 0xFFFFFFFFL);
+        synchronized (wheel) {
+            wheel.schedule(key, infoMap, deadline);
+        }
+        start();
+    }
+
+    /**
+     * @return the number of availability duration checks that wait for their duration to pass
+     */
+    public int getPendingCount() {
+        synchronized (wheel) {
+            return wheel.size();
+        }
+    }
+
+    /**
+     * Stops the threads and waits a bounded time for the running checks to finish. Pending checks are not run anymore,
+     * and checks that are scheduled afterwards are ignored.
+     */
+    public void stop() {
+        ScheduledExecutorService ticker;
+        ExecutorService checkExecutor;
+        synchronized (this) {
+            stopped = true;
+            ticker = this.ticker;
+            checkExecutor = this.checkExecutor;
+            this.ticker = null;
+            this.checkExecutor = null;
+        }
+        if (ticker == null) {
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+        try {
+            // the ticker hands due checks to the check threads, so it has to stop first
+            ticker.shutdownNow();
+            ticker.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+            checkExecutor.shutdown();
+            if (!checkExecutor.awaitTermination(Math.max(0L, deadline - System.currentTimeMillis()),
+                TimeUnit.MILLISECONDS)) {
+                log.warn("Availability duration checks did not finish in time, interrupting them");
+                checkExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            checkExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void start() {
+        if (ticker != null || stopped) {
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(CHECK_THREADS, new LoggingThreadFactory(
+            "AvailabilityDurationCheck", true));
+        checkExecutor = executor;
+        ticker = Executors.newSingleThreadScheduledExecutor(new LoggingThreadFactory("AvailabilityDurationTicker",
+            true));
+        ticker.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                tick(executor);
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick(ExecutorService checkExecutor) {
+        List<HashMap<String, String>> dueChecks;
+        try {
+            synchronized (wheel) {
+                dueChecks = wheel.expire(System.currentTimeMillis());
+            }
+        } catch (Throwable t) {
+            // don't let an exception cancel the ticker
+            log.error("Failed to collect due availability duration checks", t);
+            return;
+        }
+
+        for (final HashMap<String, String> infoMap : dueChecks) {
+            checkExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        AlertAvailabilityDurationJob.execute(infoMap);
+                    } catch (Throwable t) {
+                        log.error("Failed to handle availability duration check " + infoMap + ". Cause: " + t);
+                    }
+                }
+            });
+        }
+    }
+}
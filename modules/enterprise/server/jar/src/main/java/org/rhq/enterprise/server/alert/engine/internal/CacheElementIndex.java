@@ -0,0 +1,246 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.lang.reflect.Array;
+import java.util.List;
+
+import org.rhq.enterprise.server.alert.engine.model.AbstractCacheElement;
+
+/**
+ * Maps an int key, e.g. a schedule or resource id, to the cache elements for that key. Keys are kept in an open
+ * addressing table with linear probing, and the elements of a key in a flat array, so that looking up the elements
+ * for an incoming datum neither boxes the key nor allocates an iterator.
+ *
+ * Element arrays are never modified once they are in the index; adding or removing elements replaces the array of the
+ * key. Hence a copy of the index only needs to copy the table, and arrays handed out by {@link #get(int)} stay valid.
+ *
+ * Subclasses can attach a structure compiled from the elements of a key, see {@link #compile(AbstractCacheElement[])}.
+ *
+ * Like the maps it replaces, this class is not thread-safe. The caches are only modified while they are loaded or
+ * updated, before they are published to other threads.
+ */
+class CacheElementIndex<T extends AbstractCacheElement<?>> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final Class<T> elementType;
+
+    private int[] keys;
+    private Object[] values; // T[] per slot, null if the slot is free
+    private Object[] compiled; // the result of compile(T[]) per slot
+    private int mask;
+    private int keyCount;
+    private int elementCount;
+
+    CacheElementIndex(Class<T> elementType) {
+        this.elementType = elementType;
+        allocate(MIN_CAPACITY);
+    }
+
+    CacheElementIndex(CacheElementIndex<T> original) {
+        this.elementType = original.elementType;
+        this.keys = original.keys.clone();
+        this.values = original.values.clone();
+        this.compiled = original.compiled.clone();
+        this.mask = original.mask;
+        this.keyCount = original.keyCount;
+        this.elementCount = original.elementCount;
+    }
+
+    /**
+     * @return the elements for the key, or null if there are none; the array must not be modified
+     */
+    @SuppressWarnings("unchecked")
+    T[] get(int key) {
+        int slot = hash(key) & mask;
+        Object value;
+        while ((value = values[slot]) != null) {
+            if (keys[slot] == key) {
+                return (T[]) value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    void add(int key, T element) {
+        T[] current = get(key);
+        T[] elements;
+        if (current == null) {
+            elements = newArray(1);
+        } else {
+            elements = newArray(current.length + 1);
+            System.arraycopy(current, 0, elements, 0, current.length);
+        }
+        elements[elements.length - 1] = element;
+        put(key, elements);
+    }
+
+    /**
+     * Replaces the elements for the key; an empty list removes the key.
+     */
+    void put(int key, List<T> elements) {
+        if (elements.isEmpty()) {
+            remove(key);
+        } else {
+            put(key, elements.toArray(newArray(elements.size())));
+        }
+    }
+
+    void remove(int key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                elementCount -= ((Object[]) values[slot]).length;
+                keyCount--;
+                values[slot] = null;
+                compiled[slot] = null;
+                closeGap(slot);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return a snapshot of the keys, in no particular order
+     */
+    int[] keys() {
+        int[] result = new int[keyCount];
+        int i = 0;
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                result[i++] = keys[slot];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of elements over all keys
+     */
+    int size() {
+        return elementCount;
+    }
+
+    /**
+     * Called whenever the elements of a key are replaced.
+     *
+     * @return a structure derived from the elements that {@link #getCompiled(int)} returns, null by default
+     */
+    Object compile(T[] elements) {
+        return null;
+    }
+
+    /**
+     * @return what {@link #compile(AbstractCacheElement[])} returned for the current elements of the key, or null if
+     *         there are none
+     */
+    Object getCompiled(int key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return compiled[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private void put(int key, T[] elements) {
+        int slot = hash(key) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                elementCount += elements.length - ((Object[]) values[slot]).length;
+                values[slot] = elements;
+                compiled[slot] = compile(elements);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = elements;
+        compiled[slot] = compile(elements);
+        keyCount++;
+        elementCount += elements.length;
+
+        // keep the table at most half full so that probe sequences stay short
+        if (keyCount * 2 > values.length) {
+            rehash(values.length * 2);
+        }
+    }
+
+    /*
+     * backward shift deletion: moves the following entries of the probe sequence into the freed slot unless their
+     * home slot lies cyclically between the gap and their current slot, which keeps lookups tombstone-free
+     */
+    private void closeGap(int gap) {
+        int slot = (gap + 1) & mask;
+        while (values[slot] != null) {
+            int home = hash(keys[slot]) & mask;
+            boolean movable = (slot > gap) ? (home <= gap || home > slot) : (home <= gap && home > slot);
+            if (movable) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                compiled[gap] = compiled[slot];
+                values[slot] = null;
+                compiled[slot] = null;
+                gap = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        Object[] oldCompiled = compiled;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                compiled[slot] = oldCompiled[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        compiled = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T[] newArray(int length) {
+        return (T[]) Array.newInstance(elementType, length);
+    }
+
+    private static int hash(int key) {
+        // ids are sequential, so spread them over the table
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
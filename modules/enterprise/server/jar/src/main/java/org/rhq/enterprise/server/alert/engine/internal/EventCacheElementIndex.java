@@ -0,0 +1,48 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import org.rhq.enterprise.server.alert.engine.model.EventCacheElement;
+
+/**
+ * A {@link CacheElementIndex} for event conditions that keeps an {@link EventConditionEvaluator} per resource,
+ * recompiled whenever the conditions of the resource change.
+ */
+final class EventCacheElementIndex extends CacheElementIndex<EventCacheElement> {
+
+    EventCacheElementIndex() {
+        super(EventCacheElement.class);
+    }
+
+    EventCacheElementIndex(EventCacheElementIndex original) {
+        super(original);
+    }
+
+    @Override
+    Object compile(EventCacheElement[] elements) {
+        return new EventConditionEvaluator(elements);
+    }
+
+    /**
+     * @return the evaluator for the conditions of the resource, or null if there are none
+     */
+    EventConditionEvaluator getEvaluator(int resourceId) {
+        return (EventConditionEvaluator) getCompiled(resourceId);
+    }
+}
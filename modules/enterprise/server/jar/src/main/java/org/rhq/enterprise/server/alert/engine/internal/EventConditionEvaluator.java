@@ -0,0 +1,89 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.rhq.enterprise.server.alert.engine.model.EventCacheElement;
+
+/**
+ * The event conditions of a resource, with a {@link LiteralMatcher} over the required literals of their details
+ * patterns. One pass over the details of an event finds the conditions whose pattern can't match it, so that only the
+ * patterns of the remaining conditions have to be run. Conditions with the same literal share it.
+ *
+ * Like the element arrays it is built from, an evaluator is never modified once built.
+ */
+final class EventConditionEvaluator {
+
+    private final EventCacheElement[] elements;
+    private final int[] literalIndexes; // per element, the index of its literal in the matcher, or -1
+    private final LiteralMatcher matcher; // null if no element has a literal
+    private final boolean[] allCandidates;
+
+    EventConditionEvaluator(EventCacheElement[] elements) {
+        this.elements = elements;
+        this.literalIndexes = new int[elements.length];
+
+        Map<String, Integer> literalIndexesByLiteral = new HashMap<String, Integer>();
+        List<String> literals = new ArrayList<String>();
+        for (int i = 0; i < elements.length; i++) {
+            String literal = elements[i].getRequiredLiteral();
+            if (literal == null) {
+                literalIndexes[i] = -1;
+                continue;
+            }
+            Integer literalIndex = literalIndexesByLiteral.get(literal);
+            if (literalIndex == null) {
+                literalIndex = literals.size();
+                literals.add(literal);
+                literalIndexesByLiteral.put(literal, literalIndex);
+            }
+            literalIndexes[i] = literalIndex;
+        }
+
+        this.matcher = literals.isEmpty() ? null : new LiteralMatcher(literals.toArray(new String[literals.size()]));
+        this.allCandidates = new boolean[elements.length];
+        Arrays.fill(allCandidates, true);
+    }
+
+    EventCacheElement[] getElements() {
+        return elements;
+    }
+
+    /**
+     * @return per element, false if the details lack the literal that its details pattern requires, in which case
+     *         the element can't match; the array must not be modified
+     */
+    boolean[] findCandidates(String details) {
+        if (matcher == null || details == null) {
+            return allCandidates;
+        }
+
+        boolean[] found = matcher.findAll(details);
+        boolean[] candidates = new boolean[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            candidates[i] = (literalIndexes[i] < 0) || found[literalIndexes[i]];
+        }
+        return candidates;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.domain.event.Event;
+import org.rhq.core.domain.event.EventSource;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+
+/**
+ * Checks events against the event conditions strictly in the order they were reported, per resource, without holding
+ * up the reporting thread.
+ *
+ * One batch of events may contain both an event that fires a problem alert and an event that fires its recovery alert.
+ * The recovery definition only gets enabled, and into the cache, once the alert condition message of the problem
+ * event has been processed, which happens asynchronously. So once an event matches a condition, the remaining events
+ * of the resource are queued until the messages of all conditions that matched have been processed, see
+ * {@link #conditionProcessed(int)}. Whoever completes the last of those messages resumes the queue on its own thread.
+ * Events of the resource that are reported in the meantime are appended to the queue, so they are never checked
+ * ahead of events that were reported earlier. Event conditions, and recovery definitions, belong to a single resource,
+ * so ordering per resource orders the events of every alert definition.
+ *
+ * A queue whose messages are not processed within {@link #MAX_WAIT} is resumed anyway with the next event or
+ * processed message, so that a lost message can't hold back the events of a resource for good.
+ */
+final class EventSequencer {
+
+    private static final Log log = LogFactory.getLog(EventSequencer.class);
+
+    static final long MAX_WAIT = 60 * 1000L;
+
+    /**
+     * Checks events against the event conditions of a resource.
+     */
+    interface EventMatcher {
+        /**
+         * Checks the events in order, and returns right after the first event that matched a condition.
+         *
+         * @param events the checked events are removed from this list
+         * @param matchedConditionIds the ids of the conditions that matched are added to this list
+         */
+        AlertConditionCacheStats checkConditions(EventSource source, List<Event> events,
+            List<Integer> matchedConditionIds);
+    }
+
+    private static final class Batch {
+        private final EventSource source;
+        private final List<Event> events;
+
+        private Batch(EventSource source, List<Event> events) {
+            this.source = source;
+            this.events = events;
+        }
+    }
+
+    private static final class ResourceQueue {
+        private final int resourceId;
+        private final LinkedList<Batch> batches = new LinkedList<Batch>();
+
+        // a thread is checking the events of this queue, only that thread takes batches off the queue
+        private boolean draining;
+
+        // the conditions whose messages have to be processed before the queue can resume
+        private final Set<Integer> awaitedConditionIds = new HashSet<Integer>();
+        private long awaitingSince;
+
+        // messages that were processed while a batch was being checked, they may belong to its matches
+        private final Set<Integer> processedConditionIds = new HashSet<Integer>();
+
+        private ResourceQueue(int resourceId) {
+            this.resourceId = resourceId;
+        }
+
+        private boolean isIdle() {
+            return !draining && awaitedConditionIds.isEmpty();
+        }
+    }
+
+    private final EventMatcher matcher;
+
+    // resource id -> queue, only resources with events being checked or waiting have one; guarded by this
+    private final Map<Integer, ResourceQueue> queues = new HashMap<Integer, ResourceQueue>();
+
+    EventSequencer(EventMatcher matcher) {
+        this.matcher = matcher;
+    }
+
+    /**
+     * Checks the events right away, unless earlier events of the resource are still queued, in which case they are
+     * only queued.
+     *
+     * @return the stats of the events that were checked by this call
+     */
+    AlertConditionCacheStats submit(EventSource source, Event... events) {
+        List<ResourceQueue> resumable = new ArrayList<ResourceQueue>(1);
+        synchronized (this) {
+            int resourceId = source.getResource().getId();
+            ResourceQueue queue = queues.get(resourceId);
+            if (queue == null) {
+                queue = new ResourceQueue(resourceId);
+                queues.put(resourceId, queue);
+            }
+            // need a List that supports iterator remove
+            queue.batches.add(new Batch(source, new ArrayList<Event>(Arrays.asList(events))));
+
+            if (queue.isIdle()) {
+                queue.draining = true;
+                resumable.add(queue);
+            }
+            resumeExpired(resumable);
+        }
+        return drain(resumable);
+    }
+
+    /**
+     * To be called once the alert condition message of the condition has been processed, including the cache updates
+     * that an alert fired by it caused.
+     *
+     * @return the stats of the events that were resumed by this call
+     */
+    AlertConditionCacheStats conditionProcessed(int alertConditionId) {
+        List<ResourceQueue> resumable = new ArrayList<ResourceQueue>(1);
+        synchronized (this) {
+            if (queues.isEmpty()) {
+                return new AlertConditionCacheStats();
+            }
+            Integer conditionId = alertConditionId;
+            for (ResourceQueue queue : queues.values()) {
+                if (queue.draining) {
+                    queue.processedConditionIds.add(conditionId);
+                } else if (queue.awaitedConditionIds.remove(conditionId) && queue.awaitedConditionIds.isEmpty()) {
+                    queue.draining = true;
+                    resumable.add(queue);
+                }
+            }
+            resumeExpired(resumable);
+        }
+        return drain(resumable);
+    }
+
+    /**
+     * @return the number of resources whose events are being checked or are waiting
+     */
+    synchronized int getQueueCount() {
+        return queues.size();
+    }
+
+    private void resumeExpired(List<ResourceQueue> resumable) {
+        long expired = System.currentTimeMillis() - MAX_WAIT;
+        for (ResourceQueue queue : queues.values()) {
+            if (!queue.draining && !queue.awaitedConditionIds.isEmpty() && queue.awaitingSince < expired) {
+                log.warn("Alert condition messages " + queue.awaitedConditionIds + " were not processed within "
+                    + MAX_WAIT + "ms, resuming events for Resource[id=" + queue.resourceId + "]");
+                queue.awaitedConditionIds.clear();
+                queue.draining = true;
+                resumable.add(queue);
+            }
+        }
+    }
+
+    private AlertConditionCacheStats drain(List<ResourceQueue> resumable) {
+        AlertConditionCacheStats stats = new AlertConditionCacheStats();
+        for (ResourceQueue queue : resumable) {
+            stats.add(drain(queue));
+        }
+        return stats;
+    }
+
+    private AlertConditionCacheStats drain(ResourceQueue queue) {
+        AlertConditionCacheStats stats = new AlertConditionCacheStats();
+        while (true) {
+            Batch batch;
+            synchronized (this) {
+                batch = queue.batches.peek();
+                if (batch == null) {
+                    queue.draining = false;
+                    queues.remove(queue.resourceId);
+                    return stats;
+                }
+                queue.processedConditionIds.clear();
+            }
+
+            List<Integer> matchedConditionIds = new ArrayList<Integer>(1);
+            try {
+                stats.add(matcher.checkConditions(batch.source, batch.events, matchedConditionIds));
+            } catch (Throwable t) {
+                log.error("Error checking events for Resource[id=" + queue.resourceId + "]", t);
+                matchedConditionIds.clear(); // drop the batch rather than check it over and over
+            }
+
+            synchronized (this) {
+                // without a match the matcher has checked all events it could
+                if (batch.events.isEmpty() || matchedConditionIds.isEmpty()) {
+                    queue.batches.poll();
+                }
+                matchedConditionIds.removeAll(queue.processedConditionIds);
+                if (!matchedConditionIds.isEmpty()) {
+                    queue.awaitedConditionIds.addAll(matchedConditionIds);
+                    queue.awaitingSince = System.currentTimeMillis();
+                    queue.draining = false;
+                    return stats;
+                }
+            }
+        }
+    }
+}
@@ -45,6 +45,8 @@ import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.alert.AlertConditionManagerLocal;
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
 import org.rhq.enterprise.server.alert.engine.internal.AlertConditionCacheCoordinator.Cache;
+import org.rhq.enterprise.server.alert.engine.jms.CachedConditionProducerLocal;
+import org.rhq.enterprise.server.alert.engine.jms.model.AlertConditionMessageBatch;
 import org.rhq.enterprise.server.alert.engine.mbean.AlertConditionCacheMonitor;
 import org.rhq.enterprise.server.alert.engine.model.AvailabilityCacheElement;
 import org.rhq.enterprise.server.alert.engine.model.AvailabilityDurationCacheElement;
@@ -69,15 +71,25 @@ class GlobalConditionCache extends AbstractConditionCache {
     private SubjectManagerLocal subjectManager;
 
     public GlobalConditionCache() {
-        super();
+        this(LookupUtil.getCachedConditionProducerLocal(), LookupUtil.getAlertConditionManager(), LookupUtil
+            .getSubjectManager());
+    }
+
+    /**
+     * Loads the cache with the given collaborators rather than the session beans, so that it can be built outside of
+     * the server, e.g. by benchmarks.
+     */
+    GlobalConditionCache(CachedConditionProducerLocal cachedConditionProducer,
+        AlertConditionManagerLocal alertConditionManager, SubjectManagerLocal subjectManager) {
+        super(cachedConditionProducer);
 
         resourceOperationCache = new HashMap<Integer, Map<Integer, List<ResourceOperationCacheElement>>>();
         availabilityCache = new HashMap<Integer, List<AvailabilityCacheElement>>();
         availabilityDurationCache = new HashMap<Integer, List<AvailabilityDurationCacheElement>>();
         resourceConfigurationCache = new HashMap<Integer, List<ResourceConfigurationCacheElement>>();
 
-        alertConditionManager = LookupUtil.getAlertConditionManager();
-        subjectManager = LookupUtil.getSubjectManager();
+        this.alertConditionManager = alertConditionManager;
+        this.subjectManager = subjectManager;
 
         loadCaches();
     }
@@ -210,6 +222,7 @@ class GlobalConditionCache extends AbstractConditionCache {
 
     public AlertConditionCacheStats checkConditions(OperationHistory operationHistory) {
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
+        AlertConditionMessageBatch batch = new AlertConditionMessageBatch();
         try {
             if (operationHistory instanceof ResourceOperationHistory) {
                 ResourceOperationHistory resourceOperationHistory = (ResourceOperationHistory) operationHistory;
@@ -221,14 +234,14 @@ class GlobalConditionCache extends AbstractConditionCache {
                 List<ResourceOperationCacheElement> cacheElements = lookupResourceOperationHistoryCacheElements(
                     resource.getId(), operationDefinition.getId());
 
-                processCacheElements(cacheElements, operationStatus, resourceOperationHistory.getModifiedTime(), stats);
+                processCacheElements(batch, cacheElements, operationStatus,
+                    resourceOperationHistory.getModifiedTime(), stats);
             } else {
                 if (log.isDebugEnabled())
                     log.debug(getClass().getSimpleName() + " does not support checking conditions against "
                         + operationHistory.getClass().getSimpleName() + " types");
             }
 
-            AlertConditionCacheMonitor.getMBean().incrementOperationCacheElementMatches(stats.matched);
             AlertConditionCacheMonitor.getMBean().incrementOperationProcessingTime(stats.getAge());
             if (log.isDebugEnabled())
                 log.debug("Check OperationHistory[size=1] - " + stats);
@@ -236,6 +249,8 @@ class GlobalConditionCache extends AbstractConditionCache {
             // don't let any exceptions bubble up to the calling SLSB layer
             log.error("Error during global cache processing: ", t);
         }
+        sendBatch(batch, stats);
+        AlertConditionCacheMonitor.getMBean().incrementOperationCacheElementMatches(stats.matched);
         return stats;
     }
 
@@ -245,15 +260,15 @@ class GlobalConditionCache extends AbstractConditionCache {
         }
 
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
+        AlertConditionMessageBatch batch = new AlertConditionMessageBatch();
         try {
             Resource resource = update.getResource();
 
             List<ResourceConfigurationCacheElement> cacheElements = lookupResourceConfigurationCacheElements(resource
                 .getId());
 
-            processCacheElements(cacheElements, update.getConfiguration(), update.getCreatedTime(), stats);
+            processCacheElements(batch, cacheElements, update.getConfiguration(), update.getCreatedTime(), stats);
 
-            AlertConditionCacheMonitor.getMBean().incrementResourceConfigurationCacheElementMatches(stats.matched);
             AlertConditionCacheMonitor.getMBean().incrementResourceConfigurationProcessingTime(stats.getAge());
             if (log.isDebugEnabled())
                 log.debug("Check " + update + " - " + stats);
@@ -261,6 +276,8 @@ class GlobalConditionCache extends AbstractConditionCache {
             // don't let any exceptions bubble up to the calling SLSB layer
             log.error("Error during global cache processing: ", t);
         }
+        sendBatch(batch, stats);
+        AlertConditionCacheMonitor.getMBean().incrementResourceConfigurationCacheElementMatches(stats.matched);
         return stats;
     }
 
@@ -270,6 +287,7 @@ class GlobalConditionCache extends AbstractConditionCache {
         }
 
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
+        AlertConditionMessageBatch batch = new AlertConditionMessageBatch();
         try {
             for (Availability availability : availabilities) {
                 Resource resource = availability.getResource();
@@ -277,7 +295,7 @@ class GlobalConditionCache extends AbstractConditionCache {
 
                 List<AvailabilityCacheElement> cacheElements = lookupAvailabilityCacheElements(resource.getId());
 
-                processCacheElements(cacheElements, availabilityType, availability.getStartTime(), stats);
+                processCacheElements(batch, cacheElements, availabilityType, availability.getStartTime(), stats);
 
                 // Avail Duration conditions are evaluated in two parts:
                 // 1) First, an avail change to the that starts the clock ticking.
@@ -288,7 +306,6 @@ class GlobalConditionCache extends AbstractConditionCache {
                 AvailabilityDurationCacheElement.checkCacheElements(durationCacheElements, resource, availabilityType);
             }
 
-            AlertConditionCacheMonitor.getMBean().incrementAvailabilityCacheElementMatches(stats.matched);
             AlertConditionCacheMonitor.getMBean().incrementAvailabilityProcessingTime(stats.getAge());
             if (log.isDebugEnabled())
                 log.debug("Check Availability[size=" + availabilities.length + "] - " + stats);
@@ -296,6 +313,8 @@ class GlobalConditionCache extends AbstractConditionCache {
             // don't let any exceptions bubble up to the calling SLSB layer
             log.error("Error during global cache processing: ", t);
         }
+        sendBatch(batch, stats);
+        AlertConditionCacheMonitor.getMBean().incrementAvailabilityCacheElementMatches(stats.matched);
         return stats;
     }
 
@@ -310,6 +329,7 @@ class GlobalConditionCache extends AbstractConditionCache {
         }
 
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
+        AlertConditionMessageBatch batch = new AlertConditionMessageBatch();
         try {
             for (AvailabilityDurationComposite composite : composites) {
 
@@ -325,7 +345,7 @@ class GlobalConditionCache extends AbstractConditionCache {
                                 1);
                             cacheElementAsList.add(cacheElement);
 
-                            processCacheElements(cacheElementAsList, composite.getAvailabilityType(),
+                            processCacheElements(batch, cacheElementAsList, composite.getAvailabilityType(),
                                 System.currentTimeMillis(), stats);
                             break;
                         }
@@ -333,7 +353,6 @@ class GlobalConditionCache extends AbstractConditionCache {
                 }
             }
 
-            AlertConditionCacheMonitor.getMBean().incrementAvailabilityDurationCacheElementMatches(stats.matched);
             AlertConditionCacheMonitor.getMBean().incrementAvailabilityDurationProcessingTime(stats.getAge());
             if (log.isDebugEnabled())
                 log.debug("Check AvailabilityDuration[size=" + composites.length + "] - " + stats);
@@ -341,6 +360,8 @@ class GlobalConditionCache extends AbstractConditionCache {
             // don't let any exceptions bubble up to the calling SLSB layer
             log.error("Error during global cache processing: ", t);
         }
+        sendBatch(batch, stats);
+        AlertConditionCacheMonitor.getMBean().incrementAvailabilityDurationCacheElementMatches(stats.matched);
         return stats;
     }
 
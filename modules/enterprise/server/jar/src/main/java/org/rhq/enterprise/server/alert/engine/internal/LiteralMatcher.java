@@ -0,0 +1,165 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.rhq.enterprise.server.alert.engine.model.RegexPatterns;
+
+/**
+ * Finds which of a set of literals a text contains in a single pass over the text, with an Aho-Corasick automaton.
+ * Like the expressions the literals come from, the case of US-ASCII characters is ignored, see
+ * {@link RegexPatterns#fold(char)}.
+ *
+ * Instances are immutable once built and can be used by several threads.
+ */
+final class LiteralMatcher {
+
+    private static final int[] NONE = new int[0];
+
+    // per state: the characters of its transitions, sorted, and the states they lead to
+    private final char[][] transitionChars;
+    private final int[][] transitionTargets;
+    // per state: the state for the longest proper suffix of its path that is also a path
+    private final int[] failures;
+    // per state: the literals that end at it, including those that end at its failure states
+    private final int[][] outputs;
+
+    private final int literalCount;
+
+    /**
+     * @param literals folded literals, none of them empty
+     */
+    LiteralMatcher(String[] literals) {
+        literalCount = literals.length;
+
+        // the trie
+        List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+        List<List<Integer>> ends = new ArrayList<List<Integer>>();
+        trie.add(new TreeMap<Character, Integer>());
+        ends.add(new ArrayList<Integer>(0));
+        for (int literal = 0; literal < literals.length; literal++) {
+            int state = 0;
+            for (char c : literals[literal].toCharArray()) {
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<Character, Integer>());
+                    ends.add(new ArrayList<Integer>(0));
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            ends.get(state).add(literal);
+        }
+
+        int stateCount = trie.size();
+        transitionChars = new char[stateCount][];
+        transitionTargets = new int[stateCount][];
+        failures = new int[stateCount];
+        outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            TreeMap<Character, Integer> transitions = trie.get(state);
+            transitionChars[state] = new char[transitions.size()];
+            transitionTargets[state] = new int[transitions.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                transitionChars[state][i] = transition.getKey();
+                transitionTargets[state][i] = transition.getValue();
+                i++;
+            }
+        }
+
+        // failure states, breadth first so that the failure state of a state is done before the state itself
+        outputs[0] = NONE;
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int target : transitionTargets[0]) {
+            failures[target] = 0;
+            outputs[target] = toArray(ends.get(target), NONE);
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.removeFirst();
+            for (int i = 0; i < transitionChars[state].length; i++) {
+                char c = transitionChars[state][i];
+                int target = transitionTargets[state][i];
+
+                int failure = failures[state];
+                int next;
+                while ((next = transition(failure, c)) < 0 && failure != 0) {
+                    failure = failures[failure];
+                }
+                failures[target] = (next < 0) ? 0 : next;
+                outputs[target] = toArray(ends.get(target), outputs[failures[target]]);
+                queue.add(target);
+            }
+        }
+    }
+
+    /**
+     * @return per literal, whether the text contains it
+     */
+    boolean[] findAll(String text) {
+        boolean[] found = new boolean[literalCount];
+        int remaining = literalCount;
+
+        int state = 0;
+        for (int i = 0, length = text.length(); i < length && remaining > 0; i++) {
+            char c = RegexPatterns.fold(text.charAt(i));
+            int next;
+            while ((next = transition(state, c)) < 0 && state != 0) {
+                state = failures[state];
+            }
+            state = (next < 0) ? 0 : next;
+
+            for (int literal : outputs[state]) {
+                if (!found[literal]) {
+                    found[literal] = true;
+                    remaining--;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the target of the transition, or -1 if there is none
+     */
+    private int transition(int state, char c) {
+        int i = Arrays.binarySearch(transitionChars[state], c);
+        return (i < 0) ? -1 : transitionTargets[state][i];
+    }
+
+    private static int[] toArray(List<Integer> own, int[] inherited) {
+        if (own.isEmpty()) {
+            return inherited;
+        }
+        int[] result = new int[own.size() + inherited.length];
+        for (int i = 0; i < own.size(); i++) {
+            result[i] = own.get(i);
+        }
+        System.arraycopy(inherited, 0, result, own.size(), inherited.length);
+        return result;
+    }
+}
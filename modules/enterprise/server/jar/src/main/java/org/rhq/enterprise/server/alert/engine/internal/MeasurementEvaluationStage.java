@@ -0,0 +1,280 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.domain.measurement.MeasurementData;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+
+/**
+ * Checks measurement data against the conditions of the agent caches on worker threads of its own, so that the threads
+ * that store the data don't do any alert work.
+ *
+ * All data of an agent goes to the same worker, so the data of an agent is checked in the order it was submitted, and
+ * a busy agent only holds up the agents that share its worker. Submitting never blocks. Data that is submitted for an
+ * agent whose earlier data still waits is coalesced with it, so the worker checks everything that is pending for an
+ * agent with one evaluation. The data of each submission is checked in timestamp order. Every worker holds at most
+ * queue capacity submissions. When that is reached, the data is rejected, counted, see {@link #getRejectedCount()},
+ * and not checked at all, since checking it on the submitting thread would block the thread that stores the data.
+ */
+final class MeasurementEvaluationStage {
+
+    private static final Log log = LogFactory.getLog(MeasurementEvaluationStage.class);
+
+    private static final Comparator<MeasurementData> TIMESTAMP_ORDER = new Comparator<MeasurementData>() {
+        public int compare(MeasurementData d1, MeasurementData d2) {
+            return (d1.getTimestamp() < d2.getTimestamp()) ? -1 : ((d1.getTimestamp() == d2.getTimestamp()) ? 0 : 1);
+        }
+    };
+
+    // the rejections between two warnings, to not flood the log while the stage is overloaded
+    private static final long REJECTION_WARNING_INTERVAL = 1000L;
+
+    // how long shutdown() waits for a worker to finish the data it is checking
+    private static final long SHUTDOWN_TIMEOUT = 10000L;
+
+    /**
+     * Checks measurement data against the conditions of an agent cache.
+     */
+    interface Evaluator {
+        AlertConditionCacheStats evaluate(int agentId, MeasurementData[] data);
+    }
+
+    /**
+     * The data that waits to be checked for the agents of one worker. The data of an agent is kept per submission, in
+     * the order it was submitted.
+     */
+    private final class Worker implements Runnable {
+        private final int capacity;
+        // the agents with pending data, in the order their data was first submitted
+        private final Queue<Integer> agents = new LinkedList<Integer>();
+        private final Map<Integer, List<MeasurementData[]>> pending = new HashMap<Integer, List<MeasurementData[]>>();
+        private int size;
+
+        private Worker(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private synchronized boolean offer(int agentId, MeasurementData[] data) {
+            if (size >= capacity) {
+                return false;
+            }
+
+            List<MeasurementData[]> submissions = pending.get(agentId);
+            if (submissions == null) {
+                submissions = new ArrayList<MeasurementData[]>();
+                pending.put(agentId, submissions);
+                agents.add(agentId);
+                notify();
+            } else {
+                coalescedCount.incrementAndGet();
+            }
+            submissions.add(data);
+            size++;
+            return true;
+        }
+
+        private synchronized int size() {
+            return size;
+        }
+
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                int agentId;
+                List<MeasurementData[]> submissions;
+                synchronized (this) {
+                    try {
+                        while (agents.isEmpty()) {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    agentId = agents.remove();
+                    submissions = pending.remove(agentId);
+                    size -= submissions.size();
+                }
+
+                evaluate(agentId, submissions);
+            }
+        }
+    }
+
+    private final Evaluator evaluator;
+    private final List<Worker> workers;
+    private final List<Thread> workerThreads;
+    private volatile boolean shutdown;
+
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong evaluatedCount = new AtomicLong();
+
+    /**
+     * @param queueCapacity the number of submissions a worker holds before it rejects data
+     */
+    MeasurementEvaluationStage(Evaluator evaluator, int workerCount, int queueCapacity, ThreadFactory threadFactory) {
+        if (workerCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("workerCount and queueCapacity must be positive, was [" + workerCount
+                + "] and [" + queueCapacity + "]");
+        }
+
+        this.evaluator = evaluator;
+        this.workers = new ArrayList<Worker>(workerCount);
+        this.workerThreads = new ArrayList<Thread>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            Worker worker = new Worker(queueCapacity);
+            workers.add(worker);
+            workerThreads.add(threadFactory.newThread(worker));
+        }
+        for (Thread workerThread : workerThreads) {
+            workerThread.start();
+        }
+    }
+
+    /**
+     * Queues the data for the worker of the agent without blocking. If the worker already holds queue capacity
+     * submissions, or the stage is shut down, the data is rejected and not checked.
+     *
+     * @return false if the data was rejected
+     */
+    boolean submit(int agentId, MeasurementData[] data) {
+        if (!shutdown && workers.get((agentId & Integer.MAX_VALUE) % workers.size()).offer(agentId, data)) {
+            queuedCount.incrementAndGet();
+            return true;
+        }
+
+        long rejected = rejectedCount.incrementAndGet();
+        if (!shutdown && rejected % REJECTION_WARNING_INTERVAL == 1) {
+            log.warn("Alert condition evaluation can't keep up, " + data.length + " measurement data for agent[id="
+                + agentId + "] are not checked against alert conditions; " + rejected
+                + " submissions have been rejected in total");
+        }
+        return false;
+    }
+
+    /**
+     * Stops the workers and waits a bounded time for them to finish the data they are checking. Data that is still
+     * queued is not checked anymore, data submitted afterwards is rejected.
+     */
+    void shutdown() {
+        shutdown = true;
+        for (Thread workerThread : workerThreads) {
+            workerThread.interrupt();
+        }
+
+        long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+        try {
+            for (Thread workerThread : workerThreads) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining > 0) {
+                    workerThread.join(remaining);
+                }
+                if (workerThread.isAlive()) {
+                    log.warn("Alert condition evaluation thread [" + workerThread.getName() + "] did not stop in time");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * @return the number of submissions that wait to be checked by all workers
+     */
+    int getQueueDepth() {
+        int depth = 0;
+        for (Worker worker : workers) {
+            depth += worker.size();
+        }
+        return depth;
+    }
+
+    long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * @return the number of queued submissions that were added to the pending data of their agent
+     */
+    long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return the number of queued submissions that were checked
+     */
+    long getEvaluatedCount() {
+        return evaluatedCount.get();
+    }
+
+    private void evaluate(int agentId, List<MeasurementData[]> submissions) {
+        try {
+            MeasurementData[] data;
+            if (submissions.size() == 1) {
+                data = submissions.get(0);
+                // a stable sort, so data of the same time keeps the order it was reported in
+                Arrays.sort(data, TIMESTAMP_ORDER);
+            } else {
+                int length = 0;
+                for (MeasurementData[] submission : submissions) {
+                    length += submission.length;
+                }
+                data = new MeasurementData[length];
+                int offset = 0;
+                for (MeasurementData[] submission : submissions) {
+                    Arrays.sort(submission, TIMESTAMP_ORDER);
+                    System.arraycopy(submission, 0, data, offset, submission.length);
+                    offset += submission.length;
+                }
+            }
+
+            AlertConditionCacheStats stats = evaluator.evaluate(agentId, data);
+            if (log.isDebugEnabled()) {
+                log.debug("Checked measurement data of " + submissions.size() + " submissions for agent[id=" + agentId
+                    + "]: " + stats);
+            }
+        } catch (Throwable t) {
+            log.error("Error checking measurement data for agent[id=" + agentId + "]", t);
+        } finally {
+            evaluatedCount.addAndGet(submissions.size());
+        }
+    }
+}
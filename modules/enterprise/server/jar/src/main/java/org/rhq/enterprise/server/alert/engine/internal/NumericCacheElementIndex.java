@@ -0,0 +1,48 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import org.rhq.enterprise.server.alert.engine.model.NumericDoubleCacheElement;
+
+/**
+ * A {@link CacheElementIndex} for numeric measurement conditions that keeps a {@link NumericConditionEvaluator} per
+ * schedule, recompiled whenever the conditions of the schedule change.
+ */
+final class NumericCacheElementIndex extends CacheElementIndex<NumericDoubleCacheElement> {
+
+    NumericCacheElementIndex() {
+        super(NumericDoubleCacheElement.class);
+    }
+
+    NumericCacheElementIndex(NumericCacheElementIndex original) {
+        super(original);
+    }
+
+    @Override
+    Object compile(NumericDoubleCacheElement[] elements) {
+        return new NumericConditionEvaluator(elements);
+    }
+
+    /**
+     * @return the evaluator for the conditions of the schedule, or null if there are none
+     */
+    NumericConditionEvaluator getEvaluator(int scheduleId) {
+        return (NumericConditionEvaluator) getCompiled(scheduleId);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.rhq.core.domain.alert.AlertConditionOperator;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementBaselineCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.NumericDoubleCacheElement;
+
+/**
+ * The numeric conditions of one schedule, compiled so that a single binary search per operator finds all threshold
+ * conditions that a value matches, instead of comparing the value against each condition.
+ *
+ * Threshold and baseline conditions with the &lt;, &gt; or = operator and a fixed, finite value are kept in arrays
+ * sorted by that value. A value matches a prefix of the &gt; conditions, a suffix of the &lt; conditions, and a run of
+ * the = conditions. Values are ordered like {@link Double#compare(double, double)}, which is how
+ * {@link NumericDoubleCacheElement#matches(double)} compares them. All other conditions, i.e. changes, ranges and
+ * conditions whose value is not a finite number, are not indexed and are evaluated one by one.
+ *
+ * The caller still visits every element: the matched ones to activate them, the others to deactivate them if they
+ * might be active. Only the comparisons are saved, so the activity of the elements, and with it the events that feed
+ * dampening, is exactly the same as when every element is evaluated on its own.
+ *
+ * Instances are immutable, the state of the elements lives in the elements themselves.
+ */
+final class NumericConditionEvaluator {
+
+    private static final NumericDoubleCacheElement[] NO_ELEMENTS = new NumericDoubleCacheElement[0];
+
+    private static final Comparator<NumericDoubleCacheElement> BY_VALUE = new Comparator<NumericDoubleCacheElement>() {
+        public int compare(NumericDoubleCacheElement e1, NumericDoubleCacheElement e2) {
+            return Double.compare(e1.getAlertConditionValue(), e2.getAlertConditionValue());
+        }
+    };
+
+    private final NumericDoubleCacheElement[] unindexed;
+
+    private final NumericDoubleCacheElement[] greaterThan;
+    private final double[] greaterThanValues;
+
+    private final NumericDoubleCacheElement[] lessThan;
+    private final double[] lessThanValues;
+
+    private final NumericDoubleCacheElement[] equalTo;
+    private final double[] equalToValues;
+
+    NumericConditionEvaluator(NumericDoubleCacheElement[] elements) {
+        List<NumericDoubleCacheElement> unindexed = new ArrayList<NumericDoubleCacheElement>();
+        List<NumericDoubleCacheElement> greaterThan = new ArrayList<NumericDoubleCacheElement>();
+        List<NumericDoubleCacheElement> lessThan = new ArrayList<NumericDoubleCacheElement>();
+        List<NumericDoubleCacheElement> equalTo = new ArrayList<NumericDoubleCacheElement>();
+
+        for (NumericDoubleCacheElement element : elements) {
+            if (!isIndexable(element)) {
+                unindexed.add(element);
+            } else if (element.getAlertConditionOperator() == AlertConditionOperator.GREATER_THAN) {
+                greaterThan.add(element);
+            } else if (element.getAlertConditionOperator() == AlertConditionOperator.LESS_THAN) {
+                lessThan.add(element);
+            } else {
+                equalTo.add(element);
+            }
+        }
+
+        this.unindexed = unindexed.isEmpty() ? NO_ELEMENTS : unindexed.toArray(NO_ELEMENTS);
+        this.greaterThan = sortByValue(greaterThan);
+        this.greaterThanValues = valuesOf(this.greaterThan);
+        this.lessThan = sortByValue(lessThan);
+        this.lessThanValues = valuesOf(this.lessThan);
+        this.equalTo = sortByValue(equalTo);
+        this.equalToValues = valuesOf(this.equalTo);
+    }
+
+    /**
+     * Only exact classes whose matching is known to be {@link NumericDoubleCacheElement#matches(double)} can be
+     * indexed; subclasses may override it, like ranges do.
+     */
+    private static boolean isIndexable(NumericDoubleCacheElement element) {
+        Class<?> type = element.getClass();
+        if (type != MeasurementNumericCacheElement.class && type != MeasurementBaselineCacheElement.class) {
+            return false;
+        }
+
+        AlertConditionOperator operator = element.getAlertConditionOperator();
+        if (operator != AlertConditionOperator.GREATER_THAN && operator != AlertConditionOperator.LESS_THAN
+            && operator != AlertConditionOperator.EQUALS) {
+            return false;
+        }
+
+        Double value = element.getAlertConditionValue();
+        return value != null && !value.isNaN() && !value.isInfinite();
+    }
+
+    private static NumericDoubleCacheElement[] sortByValue(List<NumericDoubleCacheElement> elements) {
+        if (elements.isEmpty()) {
+            return NO_ELEMENTS;
+        }
+        Collections.sort(elements, BY_VALUE); // stable, so equal values keep the order the conditions were added in
+        return elements.toArray(NO_ELEMENTS);
+    }
+
+    private static double[] valuesOf(NumericDoubleCacheElement[] elements) {
+        double[] values = new double[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            values[i] = elements[i].getAlertConditionValue();
+        }
+        return values;
+    }
+
+    /**
+     * @return the conditions that have to be evaluated one by one
+     */
+    NumericDoubleCacheElement[] getUnindexed() {
+        return unindexed;
+    }
+
+    /**
+     * @return the &gt; conditions, ordered by value
+     */
+    NumericDoubleCacheElement[] getGreaterThan() {
+        return greaterThan;
+    }
+
+    /**
+     * @return the end of the &gt; conditions that the value matches, which start at 0
+     */
+    int getGreaterThanMatchEnd(double providedValue) {
+        if (!isComparable(providedValue)) {
+            return 0;
+        }
+        return firstNotBelow(greaterThanValues, providedValue);
+    }
+
+    /**
+     * @return the &lt; conditions, ordered by value
+     */
+    NumericDoubleCacheElement[] getLessThan() {
+        return lessThan;
+    }
+
+    /**
+     * @return the start of the &lt; conditions that the value matches, which end at the last one
+     */
+    int getLessThanMatchStart(double providedValue) {
+        if (!isComparable(providedValue)) {
+            return lessThan.length;
+        }
+        return firstAbove(lessThanValues, providedValue);
+    }
+
+    /**
+     * @return the = conditions, ordered by value
+     */
+    NumericDoubleCacheElement[] getEqualTo() {
+        return equalTo;
+    }
+
+    /**
+     * @return the start of the = conditions that the value matches
+     */
+    int getEqualToMatchStart(double providedValue) {
+        if (!isComparable(providedValue)) {
+            return 0;
+        }
+        return firstNotBelow(equalToValues, providedValue);
+    }
+
+    /**
+     * @return the end of the = conditions that the value matches
+     */
+    int getEqualToMatchEnd(double providedValue) {
+        if (!isComparable(providedValue)) {
+            return 0;
+        }
+        return firstAbove(equalToValues, providedValue);
+    }
+
+    /*
+     * like the elements themselves, never match NaN or infinite values
+     */
+    private static boolean isComparable(double providedValue) {
+        return !Double.isNaN(providedValue) && !Double.isInfinite(providedValue);
+    }
+
+    private static int firstNotBelow(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Double.compare(values[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int firstAbove(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Double.compare(values[mid], key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
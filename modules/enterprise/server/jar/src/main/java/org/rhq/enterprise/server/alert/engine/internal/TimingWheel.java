@@ -0,0 +1,154 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hashed timing wheel of keyed deadlines. Scheduling, replacing and cancelling a deadline take constant time, and
+ * advancing the wheel only looks at the deadlines that hash to the ticks that passed, so it stays cheap with a large
+ * number of pending deadlines.
+ *
+ * There is at most one pending deadline per key, scheduling a key again replaces its pending deadline. Deadlines are
+ * rounded up to the next tick, so they expire up to one tick late but never early.
+ *
+ * This class is not thread safe.
+ */
+final class TimingWheel<K, V> {
+
+    private static final class Entry<K, V> {
+        private final K key;
+        private final V value;
+        private final long deadlineTick;
+        private boolean cancelled;
+
+        private Entry(K key, V value, long deadlineTick) {
+            this.key = key;
+            this.value = value;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    private final long tickMillis;
+    private final List<List<Entry<K, V>>> slots;
+    private final int mask;
+    private final Map<K, Entry<K, V>> pending = new HashMap<K, Entry<K, V>>();
+
+    // the last tick that was expired
+    private long currentTick;
+
+    /**
+     * @param wheelSize the number of slots, rounded up to a power of two
+     * @param now the current time, in millis
+     */
+    TimingWheel(long tickMillis, int wheelSize, long now) {
+        if (tickMillis < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("tickMillis and wheelSize must be positive, was [" + tickMillis
+                + "] and [" + wheelSize + "]");
+        }
+
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.slots = new ArrayList<List<Entry<K, V>>>(size);
+        for (int i = 0; i < size; i++) {
+            slots.add(new ArrayList<Entry<K, V>>(0));
+        }
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * Schedules the value to expire at the deadline, replacing the pending deadline of the key, if any. A deadline that
+     * has passed already expires with the next tick.
+     */
+    void schedule(K key, V value, long deadline) {
+        cancel(key);
+
+        long deadlineTick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick + 1);
+        Entry<K, V> entry = new Entry<K, V>(key, value, deadlineTick);
+        slots.get((int) (deadlineTick & mask)).add(entry);
+        pending.put(key, entry);
+    }
+
+    /**
+     * @return true if the key had a pending deadline
+     */
+    boolean cancel(K key) {
+        Entry<K, V> entry = pending.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        entry.cancelled = true; // removed from its slot once the wheel passes it
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the current time.
+     *
+     * @return the values whose deadline has passed, in deadline order per slot
+     */
+    List<V> expire(long now) {
+        List<V> expired = new ArrayList<V>();
+        long nowTick = now / tickMillis;
+        if (nowTick <= currentTick) {
+            return expired;
+        }
+
+        // one round over all slots is enough to catch up, the deadlines are checked rather than assumed
+        long lastTick = Math.min(nowTick, currentTick + slots.size());
+        for (long tick = currentTick + 1; tick <= lastTick; tick++) {
+            expireSlot(slots.get((int) (tick & mask)), nowTick, expired);
+        }
+        currentTick = nowTick;
+        return expired;
+    }
+
+    /**
+     * @return the number of pending deadlines
+     */
+    int size() {
+        return pending.size();
+    }
+
+    private void expireSlot(List<Entry<K, V>> slot, long nowTick, List<V> expired) {
+        int kept = 0;
+        for (int i = 0, size = slot.size(); i < size; i++) {
+            Entry<K, V> entry = slot.get(i);
+            if (entry.cancelled) {
+                continue;
+            }
+            if (entry.deadlineTick <= nowTick) {
+                pending.remove(entry.key);
+                expired.add(entry.value);
+            } else {
+                slot.set(kept++, entry); // a later round
+            }
+        }
+        for (int i = slot.size() - 1; i >= kept; i--) {
+            slot.remove(i);
+        }
+    }
+}
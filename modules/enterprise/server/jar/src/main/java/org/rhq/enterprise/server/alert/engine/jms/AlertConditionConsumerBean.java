@@ -18,6 +18,16 @@
  */
 package org.rhq.enterprise.server.alert.engine.jms;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
 import javax.ejb.ActivationConfigProperty;
 import javax.ejb.EJB;
 import javax.ejb.MessageDriven;
@@ -33,7 +43,10 @@ import org.rhq.core.domain.resource.InventoryStatus;
 import org.rhq.enterprise.server.alert.AlertConditionManagerLocal;
 import org.rhq.enterprise.server.alert.AlertManagerLocal;
 import org.rhq.enterprise.server.alert.CachedConditionManagerLocal;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheManagerLocal;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
 import org.rhq.enterprise.server.alert.engine.jms.model.AbstractAlertConditionMessage;
+import org.rhq.enterprise.server.alert.engine.jms.model.AlertConditionMessageBatch;
 import org.rhq.enterprise.server.cloud.instance.CacheConsistencyManagerLocal;
 import org.rhq.enterprise.server.util.concurrent.AlertSerializer;
 
@@ -59,84 +72,225 @@ public class AlertConditionConsumerBean implements MessageListener {
     private CachedConditionManagerLocal cachedConditionManager;
     @EJB
     private CacheConsistencyManagerLocal cacheConsistencyManager;
+    @EJB
+    private AlertConditionCacheManagerLocal alertConditionCacheManager;
 
     @Override
     public void onMessage(Message message) {
-        AbstractAlertConditionMessage conditionMessage = null;
+        Object content = null;
 
         try {
             ObjectMessage objectMessage = (ObjectMessage) message;
-            conditionMessage = (AbstractAlertConditionMessage) objectMessage.getObject();
+            content = objectMessage.getObject();
         } catch (Throwable t) {
             log.error("Error getting content of jms message", t);
             return;
         }
 
-        Integer definitionId = null;
+        if (content instanceof AlertConditionMessageBatch) {
+            onBatch((AlertConditionMessageBatch) content);
+        } else {
+            AbstractAlertConditionMessage conditionMessage = (AbstractAlertConditionMessage) content;
+            try {
+                if (log.isDebugEnabled()) {
+                    log.debug("Received message: " + conditionMessage);
+                }
+
+                Integer definitionId = getDefinitionId(conditionMessage.getAlertConditionId());
+                if (definitionId != null) {
+                    process(conditionMessage, definitionId);
+                }
+            } catch (Throwable t) {
+                log.error("Error handling " + conditionMessage + " - " + t.toString());
+            } finally {
+                resumeEvents(conditionMessage.getAlertConditionId());
+            }
+        }
+    }
+
+    /**
+     * Processes all messages of the batch in one transaction. Each condition is looked up only once, no matter how
+     * many of its messages are in the batch, but every message is processed, in order, since each of them counts
+     * towards dampening. If the transaction fails, the messages are processed one by one, like single messages.
+     */
+    private void onBatch(AlertConditionMessageBatch batch) {
+        if (log.isDebugEnabled()) {
+            log.debug("Received message: " + batch);
+        }
+
+        // condition id -> definition id, or null if the messages for the condition are to be discarded
+        Map<Integer, Integer> definitionIds = new HashMap<Integer, Integer>();
+        List<AbstractAlertConditionMessage> conditionMessages = new ArrayList<AbstractAlertConditionMessage>();
         try {
-            if (log.isDebugEnabled()) {
-                log.debug("Received message: " + conditionMessage);
+            for (AbstractAlertConditionMessage conditionMessage : batch.getMessages()) {
+                int alertConditionId = conditionMessage.getAlertConditionId();
+                Integer definitionId;
+                if (definitionIds.containsKey(alertConditionId)) {
+                    definitionId = definitionIds.get(alertConditionId);
+                } else {
+                    definitionId = getDefinitionId(alertConditionId);
+                    definitionIds.put(alertConditionId, definitionId);
+                }
+                if (definitionId != null) {
+                    conditionMessages.add(conditionMessage);
+                }
             }
 
-            int alertConditionId = conditionMessage.getAlertConditionId();
-            InventoryStatus status = alertConditionManager.getResourceStatusByConditionId(alertConditionId);
-            if (status != InventoryStatus.COMMITTED) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Resource for AlertCondition[id=" + alertConditionId
-                        + "] is no longer COMMITTED, status was '" + status + "'; this message will be discarded");
+            if (!conditionMessages.isEmpty()) {
+                processBatch(batch, conditionMessages, definitionIds);
+            }
+        } catch (Throwable t) {
+            log.error("Error handling " + batch + " - " + t.toString());
+        } finally {
+            Set<Integer> alertConditionIds = new LinkedHashSet<Integer>();
+            for (AbstractAlertConditionMessage conditionMessage : batch.getMessages()) {
+                alertConditionIds.add(conditionMessage.getAlertConditionId());
+            }
+            for (Integer alertConditionId : alertConditionIds) {
+                resumeEvents(alertConditionId);
+            }
+        }
+    }
+
+    private void processBatch(AlertConditionMessageBatch batch, List<AbstractAlertConditionMessage> conditionMessages,
+        Map<Integer, Integer> definitionIds) {
+        // always lock in the same order, so that concurrent batches can't deadlock
+        SortedSet<Integer> sortedDefinitionIds = new TreeSet<Integer>();
+        for (Integer definitionId : definitionIds.values()) {
+            if (definitionId != null) {
+                sortedDefinitionIds.add(definitionId);
+            }
+        }
+
+        List<Integer> lockedDefinitionIds = new ArrayList<Integer>(sortedDefinitionIds.size());
+        List<Alert> newAlerts = null;
+        try {
+            for (Integer definitionId : sortedDefinitionIds) {
+                AlertSerializer.getSingleton().lock(definitionId);
+                lockedDefinitionIds.add(definitionId);
+            }
+
+            try {
+                newAlerts = cachedConditionManager.processCachedConditionMessages(conditionMessages, definitionIds);
+            } catch (Throwable t) {
+                log.warn("Error handling " + batch + " in a single transaction, handling its messages one by one - "
+                    + t.toString());
+            }
+
+            if (newAlerts != null) {
+                alertsFired(newAlerts);
+            }
+        } finally {
+            for (Integer definitionId : lockedDefinitionIds) {
+                try {
+                    AlertSerializer.getSingleton().unlock(definitionId);
+                } catch (Throwable t) {
+                }
+            }
+        }
+
+        if (newAlerts == null) {
+            for (AbstractAlertConditionMessage conditionMessage : conditionMessages) {
+                try {
+                    process(conditionMessage, definitionIds.get(conditionMessage.getAlertConditionId()));
+                } catch (Throwable t) {
+                    log.error("Error handling " + conditionMessage + " - " + t.toString());
                 }
-                return;
             }
+        }
+    }
 
-            definitionId = alertConditionManager.getAlertDefinitionByConditionIdInNewTransaction(alertConditionId);
-            if (definitionId == null) {
-                log.info("AlertCondition[id=" + alertConditionId
-                    + "] has been removed after it was triggered; this message will be discarded");
-                return;
+    /**
+     * @return the definition of the condition, or null if messages for the condition are to be discarded
+     */
+    private Integer getDefinitionId(int alertConditionId) {
+        InventoryStatus status = alertConditionManager.getResourceStatusByConditionId(alertConditionId);
+        if (status != InventoryStatus.COMMITTED) {
+            if (log.isDebugEnabled()) {
+                log.debug("Resource for AlertCondition[id=" + alertConditionId
+                    + "] is no longer COMMITTED, status was '" + status + "'; this message will be discarded");
             }
+            return null;
+        }
 
-            AlertSerializer.getSingleton().lock(definitionId);
+        Integer definitionId = alertConditionManager.getAlertDefinitionByConditionIdInNewTransaction(alertConditionId);
+        if (definitionId == null) {
+            log.info("AlertCondition[id=" + alertConditionId
+                + "] has been removed after it was triggered; this message will be discarded");
+        }
+        return definitionId;
+    }
 
+    private void process(AbstractAlertConditionMessage conditionMessage, int definitionId) {
+        AlertSerializer.getSingleton().lock(definitionId);
+        try {
             /*
              * must be executed in a new, nested transaction so that by it completes and unlocks, the next thread
              * will see all of its results.
              */
             Alert newAlert = cachedConditionManager.processCachedConditionMessage(conditionMessage, definitionId);
 
-            /*
-             * In general it's not required to reload the caches directly. Changes made via the AlertDefinitionManager
-             * will update the cache indirectly via the status fields on the server (for the global cache) and
-             * owning agent (for the agent cache) and the periodic job that checks it.  But, for recovery alert
-             * handling (see BZ 1003132) the delay of up to 30s is unacceptably long and can cause recovery to be
-             * missed.  There may be non-recovery issues like this as well. So, when any alert is fired, for the server
-             * in question, perform an immediate cache reload check. This ensures the recovery semantics are quickly
-             * put in place, minimizing the window of vulnerability.  Note that other HA nodes will be updated via the
-             * scheduled check, which should be fine, as that is mainly to handle an agent failover use case.
-             *
-             * Note that we must do this *after* the alert firing transaction completes.
-             *
-             * As of 4.10 we've moved the alert notification handling out of the alert firing transaction and
-             * after the cache reload.  This ensures that the cache, and in particular, recovery alert defs are
-             * updated before executing notifications that could initiate recovery processing (like an automated
-             * restart of a down resource).  It also makes the alert firing transaction more lean.
-             */
             if (null != newAlert) {
-                log.debug("Checking for cache reload due to alert firing");
-                cacheConsistencyManager.reloadServerCacheIfNeeded();
-
-                //  the alert is already persisted, now process notifications
-                alertManager.sendAlertNotifications(newAlert);
+                alertsFired(Collections.singletonList(newAlert));
             }
-
-        } catch (Throwable t) {
-            log.error("Error handling " + conditionMessage + " - " + t.toString());
         } finally {
             try {
-                if (definitionId != null) {
-                    AlertSerializer.getSingleton().unlock(definitionId);
-                }
+                AlertSerializer.getSingleton().unlock(definitionId);
             } catch (Throwable t) {
             }
         }
     }
-}
\ No newline at end of file
+
+    private void alertsFired(List<Alert> newAlerts) {
+        if (newAlerts.isEmpty()) {
+            return;
+        }
+
+        /*
+         * In general it's not required to reload the caches directly. Changes made via the AlertDefinitionManager
+         * will update the cache indirectly via the status fields on the server (for the global cache) and
+         * owning agent (for the agent cache) and the periodic job that checks it.  But, for recovery alert
+         * handling (see BZ 1003132) the delay of up to 30s is unacceptably long and can cause recovery to be
+         * missed.  There may be non-recovery issues like this as well. So, when any alert is fired, for the server
+         * in question, perform an immediate cache reload check. This ensures the recovery semantics are quickly
+         * put in place, minimizing the window of vulnerability.  Note that other HA nodes will be updated via the
+         * scheduled check, which should be fine, as that is mainly to handle an agent failover use case.
+         *
+         * Note that we must do this *after* the alert firing transaction completes.
+         *
+         * As of 4.10 we've moved the alert notification handling out of the alert firing transaction and
+         * after the cache reload.  This ensures that the cache, and in particular, recovery alert defs are
+         * updated before executing notifications that could initiate recovery processing (like an automated
+         * restart of a down resource).  It also makes the alert firing transaction more lean.
+         *
+         * One reload covers all alerts fired by a batch.
+         */
+        log.debug("Checking for cache reload due to alert firing");
+        cacheConsistencyManager.reloadServerCacheIfNeeded();
+
+        //  the alerts are already persisted, now process notifications
+        for (Alert newAlert : newAlerts) {
+            try {
+                alertManager.sendAlertNotifications(newAlert);
+            } catch (Throwable t) {
+                log.error("Error sending notifications for " + newAlert + " - " + t.toString());
+            }
+        }
+    }
+
+    /*
+     * events reported after the one that triggered this condition have been held back until now, so that
+     * an event matching a recovery condition is only checked once the cache reload above has enabled it.
+     * this must happen however the message was handled, otherwise those events would wait in vain.
+     */
+    private void resumeEvents(int alertConditionId) {
+        try {
+            AlertConditionCacheStats stats = alertConditionCacheManager.conditionMessageProcessed(alertConditionId);
+            if (log.isDebugEnabled() && stats.matched > 0) {
+                log.debug("Resumed events after AlertCondition[id=" + alertConditionId + "] - " + stats);
+            }
+        } catch (Throwable t) {
+            log.error("Error resuming events after AlertCondition[id=" + alertConditionId + "] - " + t.toString());
+        }
+    }
+}
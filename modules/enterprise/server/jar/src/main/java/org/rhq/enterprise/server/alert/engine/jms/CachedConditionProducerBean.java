@@ -31,6 +31,7 @@ import javax.jms.Queue;
 import javax.jms.Session;
 
 import org.rhq.enterprise.server.alert.engine.jms.model.ActiveAlertConditionMessage;
+import org.rhq.enterprise.server.alert.engine.jms.model.AlertConditionMessageBatch;
 import org.rhq.enterprise.server.alert.engine.jms.model.InactiveAlertConditionMessage;
 
 /**
@@ -43,6 +44,11 @@ import org.rhq.enterprise.server.alert.engine.jms.model.InactiveAlertConditionMe
  */
 @Stateless
 public class CachedConditionProducerBean implements CachedConditionProducerLocal {
+    /*
+     * keeps the JMS messages, and the transactions that process them, at a reasonable size
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
     /*
      * Get the transactional connection factory
      */
@@ -88,4 +94,21 @@ public class CachedConditionProducerBean implements CachedConditionProducerLocal
 
         connection.close();
     }
-}
\ No newline at end of file
+
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void sendAlertConditionMessages(AlertConditionMessageBatch batch) throws JMSException {
+        Connection connection = factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer sender = session.createProducer(alertConditionQueue);
+
+            for (AlertConditionMessageBatch part : batch.split(MAX_BATCH_SIZE)) {
+                ObjectMessage message = session.createObjectMessage(part);
+
+                sender.send(message);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
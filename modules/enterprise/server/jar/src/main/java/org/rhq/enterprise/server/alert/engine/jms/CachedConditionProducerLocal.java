@@ -21,6 +21,7 @@ package org.rhq.enterprise.server.alert.engine.jms;
 import javax.ejb.Local;
 import javax.jms.JMSException;
 
+import org.rhq.enterprise.server.alert.engine.jms.model.AlertConditionMessageBatch;
 import org.rhq.enterprise.server.alert.engine.model.AbstractCacheElement;
 
 /**
@@ -37,4 +38,10 @@ public interface CachedConditionProducerLocal {
         S value, Object... extraParams) throws JMSException;
 
     void sendDeactivateAlertConditionMessage(int alertConditionId, long timestamp) throws JMSException;
+
+    /**
+     * Send the messages of the batch, in order, as a single message (or a few, for very large batches) to the same
+     * destination. The consumer processes each of them in a single transaction.
+     */
+    void sendAlertConditionMessages(AlertConditionMessageBatch batch) throws JMSException;
 }
\ No newline at end of file
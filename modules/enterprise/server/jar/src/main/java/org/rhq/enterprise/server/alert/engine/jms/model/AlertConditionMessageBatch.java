@@ -0,0 +1,90 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.jms.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The alert condition messages that one check of the alert condition cache produced, in the order they were produced.
+ * They are sent as a single JMS message and processed in a single transaction, rather than one by one.
+ */
+public class AlertConditionMessageBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<AbstractAlertConditionMessage> messages;
+    private int activeCount;
+
+    public AlertConditionMessageBatch() {
+        this.messages = new ArrayList<AbstractAlertConditionMessage>();
+    }
+
+    public void add(AbstractAlertConditionMessage message) {
+        messages.add(message);
+        if (message instanceof ActiveAlertConditionMessage) {
+            activeCount++;
+        }
+    }
+
+    public List<AbstractAlertConditionMessage> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    /**
+     * @return the number of {@link ActiveAlertConditionMessage}s in this batch
+     */
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    /**
+     * @return the batches of at most maxSize messages each that together hold the messages of this batch, in order
+     */
+    public List<AlertConditionMessageBatch> split(int maxSize) {
+        if (messages.size() <= maxSize) {
+            return Collections.singletonList(this);
+        }
+
+        List<AlertConditionMessageBatch> batches = new ArrayList<AlertConditionMessageBatch>();
+        AlertConditionMessageBatch batch = null;
+        for (AbstractAlertConditionMessage message : messages) {
+            if (batch == null || batch.size() == maxSize) {
+                batch = new AlertConditionMessageBatch();
+                batches.add(batch);
+            }
+            batch.add(message);
+        }
+        return batches;
+    }
+
+    @Override
+    public String toString() {
+        return "AlertConditionMessageBatch" + "[ " + "size=" + messages.size() + ", " + "active=" + activeCount + " ]";
+    }
+}
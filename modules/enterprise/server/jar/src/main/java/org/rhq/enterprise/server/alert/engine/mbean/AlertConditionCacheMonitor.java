@@ -38,6 +38,7 @@ import javax.management.ObjectName;
 
 import org.rhq.core.util.ObjectNameFactory;
 import org.rhq.enterprise.server.alert.engine.internal.AlertConditionCacheCoordinator;
+import org.rhq.enterprise.server.alert.engine.internal.AvailabilityDurationCheckScheduler;
 import org.rhq.enterprise.server.util.JMXUtil;
 import org.rhq.enterprise.server.util.LookupUtil;
 
@@ -74,6 +75,12 @@ public class AlertConditionCacheMonitor implements AlertConditionCacheMonitorMBe
     public AtomicLong driftProcessingTime = new AtomicLong();
     public AtomicLong totalProcessingTime = new AtomicLong();
 
+    public AtomicInteger agentCacheReloads = new AtomicInteger();
+    public AtomicLong agentCacheReloadTime = new AtomicLong();
+    public AtomicInteger agentCacheUpdates = new AtomicInteger();
+    public AtomicLong agentCacheUpdateTime = new AtomicLong();
+    public AtomicLong agentCacheUpdateElements = new AtomicLong();
+
     private static MBeanServer mbeanServer;
     private static ObjectName objectName;
 
@@ -299,6 +306,68 @@ public class AlertConditionCacheMonitor implements AlertConditionCacheMonitorMBe
         totalProcessingTime.addAndGet(moreMillis);
     }
 
+    public int getAgentCacheReloads() {
+        return agentCacheReloads.get();
+    }
+
+    public long getAgentCacheReloadTime() {
+        return agentCacheReloadTime.get();
+    }
+
+    public int getAgentCacheUpdates() {
+        return agentCacheUpdates.get();
+    }
+
+    public long getAgentCacheUpdateTime() {
+        return agentCacheUpdateTime.get();
+    }
+
+    public long getAgentCacheUpdateElements() {
+        return agentCacheUpdateElements.get();
+    }
+
+    public void incrementAgentCacheReloadTime(long moreMillis) {
+        agentCacheReloads.incrementAndGet();
+        agentCacheReloadTime.addAndGet(moreMillis);
+    }
+
+    public void incrementAgentCacheUpdateTime(long moreMillis) {
+        agentCacheUpdates.incrementAndGet();
+        agentCacheUpdateTime.addAndGet(moreMillis);
+    }
+
+    public void incrementAgentCacheUpdateElements(int elements) {
+        agentCacheUpdateElements.addAndGet(elements);
+    }
+
+    public int getEvaluationThreadCount() {
+        return AlertConditionCacheCoordinator.getInstance().getEvaluationThreadCount();
+    }
+
+    public int getEvaluationQueueDepth() {
+        return AlertConditionCacheCoordinator.getInstance().getEvaluationQueueDepth();
+    }
+
+    public long getEvaluationQueuedCount() {
+        return AlertConditionCacheCoordinator.getInstance().getEvaluationQueuedCount();
+    }
+
+    public long getEvaluationCoalescedCount() {
+        return AlertConditionCacheCoordinator.getInstance().getEvaluationCoalescedCount();
+    }
+
+    public long getEvaluationRejectedCount() {
+        return AlertConditionCacheCoordinator.getInstance().getEvaluationRejectedCount();
+    }
+
+    public long getEvaluationCompletedCount() {
+        return AlertConditionCacheCoordinator.getInstance().getEvaluationCompletedCount();
+    }
+
+    public int getAvailabilityDurationPendingChecks() {
+        return AvailabilityDurationCheckScheduler.getInstance().getPendingCount();
+    }
+
     public void reloadCaches() {
         LookupUtil.getAlertConditionCacheManager().reloadAllCaches();
     }
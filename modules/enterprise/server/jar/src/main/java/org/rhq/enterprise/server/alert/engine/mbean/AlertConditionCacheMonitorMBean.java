@@ -122,6 +122,58 @@ public interface AlertConditionCacheMonitorMBean {
 
     public void incrementDriftCacheElementMatches(int matches);
 
+    /*
+     * for agent cache reloads and incremental updates
+     */
+    public int getAgentCacheReloads();
+
+    public long getAgentCacheReloadTime();
+
+    public int getAgentCacheUpdates();
+
+    public long getAgentCacheUpdateTime();
+
+    /**
+     * @return the total number of cache elements created or deleted by incremental updates
+     */
+    public long getAgentCacheUpdateElements();
+
+    public void incrementAgentCacheReloadTime(long moreMillis);
+
+    public void incrementAgentCacheUpdateTime(long moreMillis);
+
+    public void incrementAgentCacheUpdateElements(int elements);
+
+    /*
+     * for the measurement data that is queued for the alert condition evaluation threads
+     */
+    public int getEvaluationThreadCount();
+
+    /**
+     * @return the number of measurement reports that currently wait to be checked
+     */
+    public int getEvaluationQueueDepth();
+
+    public long getEvaluationQueuedCount();
+
+    /**
+     * @return the number of queued measurement reports that were checked together with earlier reports of their agent
+     */
+    public long getEvaluationCoalescedCount();
+
+    /**
+     * @return the number of measurement reports that were rejected by the full queues of the evaluation threads and
+     *         not checked
+     */
+    public long getEvaluationRejectedCount();
+
+    public long getEvaluationCompletedCount();
+
+    /**
+     * @return the number of availability duration checks that wait for their duration to pass
+     */
+    public int getAvailabilityDurationPendingChecks();
+
     /*
      * cache contents
      */
@@ -30,6 +30,7 @@ import org.rhq.core.domain.event.EventSeverity;
 public class EventCacheElement extends AbstractEnumCacheElement<EventSeverity> {
 
     private final Pattern eventDetailsPattern;
+    private final String requiredLiteral; // see RegexPatterns#getRequiredLiteral(String)
 
     private String fixPattern(String regex) {
         boolean sw = regex.startsWith(".*");
@@ -40,14 +41,31 @@ public class EventCacheElement extends AbstractEnumCacheElement<EventSeverity> {
     public EventCacheElement(AlertConditionOperator operator, EventSeverity value, int conditionTriggerId) {
         super(operator, value, conditionTriggerId);
         eventDetailsPattern = null;
+        requiredLiteral = null;
     }
 
     public EventCacheElement(AlertConditionOperator operator, String eventDetails, EventSeverity value,
         int conditionTriggerId) {
         super(operator, eventDetails, value, conditionTriggerId);
         eventDetails = fixPattern(eventDetails);
-        eventDetailsPattern = Pattern.compile(eventDetails, Pattern.CASE_INSENSITIVE | Pattern.MULTILINE
-            | Pattern.DOTALL);
+        eventDetailsPattern = RegexPatterns.compile(eventDetails);
+        requiredLiteral = RegexPatterns.getRequiredLiteral(eventDetails);
+    }
+
+    /**
+     * @return the literal that event details must contain to match the details pattern, folded with
+     *         {@link RegexPatterns#fold(char)}, or null if there is none
+     */
+    public String getRequiredLiteral() {
+        return requiredLiteral;
+    }
+
+    /**
+     * To be called instead of {@link #process(Enum, Object...)} for events whose details are known not to contain
+     * the {@link #getRequiredLiteral() required literal}. Only keeps track of the severity, the event can't match.
+     */
+    public void processSeverity(EventSeverity providedValue) {
+        super.matches(providedValue);
     }
 
     @Override
@@ -60,7 +78,12 @@ public class EventCacheElement extends AbstractEnumCacheElement<EventSeverity> {
                 log.error(getClass().getSimpleName() + " expected a String, but received a "
                     + extraParams.getClass().getSimpleName());
             } else {
-                matches = matches && eventDetailsPattern.matcher((String) firstParam).matches();
+                String details = (String) firstParam;
+                if (requiredLiteral != null && !RegexPatterns.containsLiteral(details, requiredLiteral)) {
+                    matches = false;
+                } else {
+                    matches = eventDetailsPattern.matcher(details).matches();
+                }
             }
         }
 
@@ -29,7 +29,7 @@ public class MeasurementRangeNumericCacheElement extends MeasurementNumericCache
     }
 
     @Override
-    public boolean matches(Double providedValue, Object... extraParams) {
+    public boolean matches(double providedValue) {
         // this.alertConditionValue is the low value of the range
         // this.alertConditionOperationOption is the high value of the range
         // both must be specified, if either are null, return false (non-match)
@@ -41,10 +41,13 @@ public class MeasurementRangeNumericCacheElement extends MeasurementNumericCache
             return false;
         }
 
-        if (providedValue == null || providedValue.isNaN() || providedValue.isInfinite()) {
+        if (Double.isNaN(providedValue) || Double.isInfinite(providedValue)) {
             return false;
         }
 
+        double loValue = this.alertConditionValue.doubleValue();
+        double hiValue = ((Double) this.alertConditionOperatorOption).doubleValue();
+
         // there are two ways we can check the value compared to the range, each with either inclusivness or exclusivness.
         // inclusive means if value equals either the lo or hi, it is considered inside the range.
         // exclusive means if value equals either the lo or hi, it is NOT considered inside the range, it is outside the range
@@ -60,23 +63,19 @@ public class MeasurementRangeNumericCacheElement extends MeasurementNumericCache
         //   >= (outside, inclusive) - NO match - 20 is considered inside the range but we are looking for values outside the range 
 
         if (alertConditionOperator == AlertConditionOperator.LESS_THAN) {
-            if ((providedValue.compareTo(this.alertConditionValue) > 0)
-                && (providedValue.compareTo((Double) this.alertConditionOperatorOption) < 0)) {
+            if ((Double.compare(providedValue, loValue) > 0) && (Double.compare(providedValue, hiValue) < 0)) {
                 return true;
             }
         } else if (alertConditionOperator == AlertConditionOperator.GREATER_THAN) {
-            if (!((providedValue.compareTo(this.alertConditionValue) > 0) && (providedValue
-                .compareTo((Double) this.alertConditionOperatorOption) < 0))) {
+            if (!((Double.compare(providedValue, loValue) > 0) && (Double.compare(providedValue, hiValue) < 0))) {
                 return true;
             }
         } else if (alertConditionOperator == AlertConditionOperator.LESS_THAN_OR_EQUAL_TO) {
-            if ((providedValue.compareTo(this.alertConditionValue) >= 0)
-                && (providedValue.compareTo((Double) this.alertConditionOperatorOption) <= 0)) {
+            if ((Double.compare(providedValue, loValue) >= 0) && (Double.compare(providedValue, hiValue) <= 0)) {
                 return true;
             }
         } else if (alertConditionOperator == AlertConditionOperator.GREATER_THAN_OR_EQUAL_TO) {
-            if (!((providedValue.compareTo(this.alertConditionValue) >= 0) && (providedValue
-                .compareTo((Double) this.alertConditionOperatorOption) <= 0))) {
+            if (!((Double.compare(providedValue, loValue) >= 0) && (Double.compare(providedValue, hiValue) <= 0))) {
                 return true;
             }
         }
@@ -32,8 +32,26 @@ public abstract class NumericDoubleCacheElement extends AbstractCacheElement<Dou
         super(operator, value, conditionTriggerId);
     }
 
+    /**
+     * Same as {@link AbstractCacheElement#process(Object, Object...)} without boxing the value or allocating the
+     * varargs array, which adds up when checking every incoming measurement.
+     */
+    public final boolean process(double providedValue) {
+        if (log.isDebugEnabled()) {
+            return super.process(Double.valueOf(providedValue)); // for its logging of the comparison
+        }
+        return matches(providedValue);
+    }
+
     @Override
     public boolean matches(Double providedValue, Object... extraParams) {
+        if (providedValue == null) {
+            return false;
+        }
+        return matches(providedValue.doubleValue());
+    }
+
+    public boolean matches(double providedValue) {
         /*
          * allow null/NaN/infinite Numeric elements to be processed;
          *
@@ -43,25 +61,29 @@ public abstract class NumericDoubleCacheElement extends AbstractCacheElement<Dou
             return false;
         }
 
-        if (providedValue == null || providedValue.isNaN() || providedValue.isInfinite()) {
+        if (Double.isNaN(providedValue) || Double.isInfinite(providedValue)) {
             return false;
         }
 
+        double conditionValue = alertConditionValue.doubleValue();
+
         if (alertConditionOperator == AlertConditionOperator.GREATER_THAN) {
-            return (providedValue.compareTo(alertConditionValue) > 0);
+            return (Double.compare(providedValue, conditionValue) > 0);
 
         } else if (alertConditionOperator == AlertConditionOperator.LESS_THAN) {
-            return (providedValue.compareTo(alertConditionValue) < 0);
+            return (Double.compare(providedValue, conditionValue) < 0);
 
         } else if (alertConditionOperator == AlertConditionOperator.EQUALS) {
-            return (providedValue.compareTo(alertConditionValue) == 0);
+            return (Double.compare(providedValue, conditionValue) == 0);
 
         } else if (alertConditionOperator == AlertConditionOperator.CHANGES) {
             boolean result;
 
-            result = (alertConditionValue.compareTo(providedValue) != 0);
+            result = (Double.compare(conditionValue, providedValue) != 0);
 
-            alertConditionValue = providedValue;
+            if (result) {
+                alertConditionValue = providedValue; // only box when the value actually changed
+            }
 
             return result;
 
@@ -0,0 +1,264 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Support for the regular expressions of string and event conditions, which are all compiled with
+ * {@link #FLAGS}.
+ *
+ * Compiled patterns are shared, so that the conditions of many alert definitions with the same expression, e.g.
+ * definitions created from a template, hold a single {@link Pattern}.
+ *
+ * Most expressions contain a literal that every match must contain, see {@link #getRequiredLiteral(String)}. Looking
+ * for the literal is much cheaper than running the expression, and text that does not contain it can't match.
+ */
+public final class RegexPatterns {
+
+    public static final int FLAGS = Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL;
+
+    private static final int MAX_SHARED_PATTERNS = 1024;
+
+    // the escapes that match a single character, or no character, of some class, and take no arguments
+    private static final String CLASS_ESCAPES = "dDsSwWbBAGZzhHvVRXtnrfae";
+
+    private static final Map<String, Pattern> patterns = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+            return size() > MAX_SHARED_PATTERNS;
+        }
+    };
+
+    private RegexPatterns() {
+    }
+
+    /**
+     * @return the compiled expression, shared with all other callers that compile the same expression
+     */
+    public static Pattern compile(String regex) {
+        synchronized (patterns) {
+            Pattern pattern = patterns.get(regex);
+            if (pattern == null) {
+                pattern = Pattern.compile(regex, FLAGS);
+                patterns.put(regex, pattern);
+            }
+            return pattern;
+        }
+    }
+
+    /**
+     * Finds the longest literal that all text matched by the expression contains. Only top level literals are
+     * considered, and expressions that use constructs that aren't understood here have no required literal.
+     *
+     * @param regex a valid expression, to be compiled with {@link #FLAGS}
+     * @return the literal, folded with {@link #fold(char)}, or null if there is none
+     */
+    public static String getRequiredLiteral(String regex) {
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        boolean lastAtomInRun = false;
+
+        int i = 0;
+        int length = regex.length();
+        while (i < length) {
+            char c = regex.charAt(i);
+            switch (c) {
+            case '\\':
+                if (i + 1 >= length) {
+                    return null;
+                }
+                char escaped = regex.charAt(i + 1);
+                i += 2;
+                if (Character.isLetterOrDigit(escaped)) {
+                    if (CLASS_ESCAPES.indexOf(escaped) < 0) {
+                        return null; // back references, quoting, escapes with arguments
+                    }
+                    longest = longer(longest, run);
+                    lastAtomInRun = false;
+                } else {
+                    run.append(fold(escaped));
+                    lastAtomInRun = true;
+                }
+                break;
+            case '*':
+            case '?':
+            case '{':
+            case '+':
+                if (c != '+' && lastAtomInRun) {
+                    // the atom is optional, it may be a supplementary character
+                    int end = run.length() - 1;
+                    if (end > 0 && Character.isLowSurrogate(run.charAt(end))
+                        && Character.isHighSurrogate(run.charAt(end - 1))) {
+                        end--;
+                    }
+                    run.setLength(end);
+                }
+                longest = longer(longest, run);
+                lastAtomInRun = false;
+                if (c == '{') {
+                    i = regex.indexOf('}', i);
+                    if (i < 0) {
+                        return null;
+                    }
+                }
+                i++;
+                // reluctant and possessive quantifiers
+                if (i < length && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+                    i++;
+                }
+                break;
+            case '[':
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return null;
+                }
+                longest = longer(longest, run);
+                lastAtomInRun = false;
+                break;
+            case '(':
+                if (i + 1 < length && regex.charAt(i + 1) == '?' && i + 2 < length
+                    && ":=!<".indexOf(regex.charAt(i + 2)) < 0) {
+                    return null; // inline flags may change how the rest of the expression matches
+                }
+                i = skipGroup(regex, i);
+                if (i < 0) {
+                    return null;
+                }
+                longest = longer(longest, run);
+                lastAtomInRun = false;
+                break;
+            case '|':
+            case ')':
+                return null; // alternatives at the top level
+            case '.':
+            case '^':
+            case '$':
+                i++;
+                longest = longer(longest, run);
+                lastAtomInRun = false;
+                break;
+            default:
+                i++;
+                run.append(fold(c));
+                lastAtomInRun = true;
+            }
+        }
+        longest = longer(longest, run);
+
+        return (longest.length() == 0) ? null : longest;
+    }
+
+    /**
+     * @param literal a literal folded with {@link #fold(char)}
+     * @return true if the text contains the literal, ignoring the case of US-ASCII characters like the expressions do
+     */
+    public static boolean containsLiteral(String text, String literal) {
+        int literalLength = literal.length();
+        int last = text.length() - literalLength;
+        char first = literal.charAt(0);
+        for (int start = 0; start <= last; start++) {
+            if (fold(text.charAt(start)) != first) {
+                continue;
+            }
+            int i = 1;
+            while (i < literalLength && fold(text.charAt(start + i)) == literal.charAt(i)) {
+                i++;
+            }
+            if (i == literalLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Folds the case of US-ASCII characters, which is all that {@link Pattern#CASE_INSENSITIVE} does without
+     * {@link Pattern#UNICODE_CASE}.
+     */
+    public static char fold(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static String longer(String longest, StringBuilder run) {
+        String result = (run.length() > longest.length()) ? run.toString() : longest;
+        run.setLength(0);
+        return result;
+    }
+
+    /**
+     * @return the index after the closing bracket, or -1 if the class is not understood
+     */
+    private static int skipClass(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++; // a leading bracket is a literal
+        }
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '[') {
+                return -1; // unions and intersections
+            } else if (c == ']') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index after the closing parenthesis, or -1 if the group is not understood
+     */
+    private static int skipGroup(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    return -1;
+                }
+                i += 2;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else {
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')' && --depth == 0) {
+                    return i + 1;
+                }
+                i++;
+            }
+        }
+        return -1;
+    }
+}
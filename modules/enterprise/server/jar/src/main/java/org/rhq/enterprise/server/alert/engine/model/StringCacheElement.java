@@ -31,6 +31,7 @@ import org.rhq.core.domain.alert.AlertConditionOperator;
  */
 public abstract class StringCacheElement extends AbstractCacheElement<String> {
     final Pattern pattern;
+    final String requiredLiteral; // see RegexPatterns#getRequiredLiteral(String)
 
     public StringCacheElement(AlertConditionOperator operator, String value, int conditionTriggerId) {
         super(operator, value, conditionTriggerId);
@@ -45,9 +46,11 @@ public abstract class StringCacheElement extends AbstractCacheElement<String> {
             if (!value.endsWith("$")) {
                 value = value + ".*";
             }
-            pattern = Pattern.compile(value, Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
+            pattern = RegexPatterns.compile(value);
+            requiredLiteral = RegexPatterns.getRequiredLiteral(value);
         } else {
             pattern = null;
+            requiredLiteral = null;
         }
     }
 
@@ -81,6 +84,9 @@ public abstract class StringCacheElement extends AbstractCacheElement<String> {
         } else if (alertConditionOperator == AlertConditionOperator.EQUALS) {
             return result == 0;
         } else if (alertConditionOperator == AlertConditionOperator.REGEX) {
+            if (requiredLiteral != null && !RegexPatterns.containsLiteral(providedValue, requiredLiteral)) {
+                return false;
+            }
             return pattern.matcher(providedValue).matches();
         } else {
             throw new UnsupportedAlertConditionOperatorException(getClass().getSimpleName() + " does not yet support "
@@ -92,6 +92,29 @@ public class StatusManagerBean implements StatusManagerLocal {
         selectQuery.setParameter("serverName", serverName);
         List<Integer> agentIds = selectQuery.getResultList();
 
+        clearStatus(agentIds, null);
+
+        return agentIds;
+    }
+
+    @SuppressWarnings("unchecked")
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public List<Integer> getAndClearAgentsWithStatusForServer(String serverName, Agent.Status status) {
+        Query selectQuery = entityManager.createNamedQuery(Agent.QUERY_FIND_ALL_WITH_GIVEN_STATUS_BY_SERVER);
+        selectQuery.setParameter("serverName", serverName);
+        selectQuery.setParameter("status", status.mask);
+        List<Integer> agentIds = selectQuery.getResultList();
+
+        /*
+         * only clear the agents whose status is still the given one; an agent whose status was escalated after the
+         * select keeps it, and will be picked up by getAndClearAgentsWithStatusForServer(String)
+         */
+        clearStatus(agentIds, status);
+
+        return agentIds;
+    }
+
+    private void clearStatus(List<Integer> agentIds, Agent.Status status) {
         if (agentIds.size() > 0) {
 
             // handle the oracle 1000 member IN clause issue
@@ -111,13 +134,17 @@ public class StatusManagerBean implements StatusManagerLocal {
                 if (fromIndex == toIndex)
                     continue;
 
-                Query updateQuery = entityManager.createNamedQuery(Agent.QUERY_UPDATE_CLEAR_STATUS_BY_IDS);
+                Query updateQuery;
+                if (status == null) {
+                    updateQuery = entityManager.createNamedQuery(Agent.QUERY_UPDATE_CLEAR_STATUS_BY_IDS);
+                } else {
+                    updateQuery = entityManager.createNamedQuery(Agent.QUERY_UPDATE_CLEAR_GIVEN_STATUS_BY_IDS);
+                    updateQuery.setParameter("status", status.mask);
+                }
                 updateQuery.setParameter("agentIds", agentIdBatch);
-                int numUpdated = updateQuery.executeUpdate();
+                updateQuery.executeUpdate();
             }
         }
-
-        return agentIds;
     }
 
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
@@ -133,6 +160,7 @@ public class StatusManagerBean implements StatusManagerLocal {
         markGlobalCache(); // use local references to execute in the same transaction
 
         Query updateAgentQuery = entityManager.createNamedQuery(Agent.QUERY_UPDATE_STATUS_BY_RESOURCE);
+        updateAgentQuery.setParameter("status", Agent.Status.ALERT_DEFINITION.mask);
         updateAgentQuery.setParameter("resourceId", resourceId);
         int agentsUpdated = updateAgentQuery.executeUpdate();
 
@@ -166,6 +194,7 @@ public class StatusManagerBean implements StatusManagerLocal {
         markGlobalCache(); // use local references to execute in the same transaction
 
         Query updateAgentQuery = entityManager.createNamedQuery(Agent.QUERY_UPDATE_STATUS_BY_ALERT_DEFINITION);
+        updateAgentQuery.setParameter("status", Agent.Status.ALERT_DEFINITION.mask);
         updateAgentQuery.setParameter("alertDefinitionId", alertDefinitionId);
         int agentsUpdated = updateAgentQuery.executeUpdate();
 
@@ -23,6 +23,7 @@ import java.util.List;
 import javax.ejb.Local;
 
 import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.resource.Agent;
 
 /**
  * @author Joseph Marques
@@ -32,6 +33,11 @@ public interface StatusManagerLocal {
 
     List<Integer> getAndClearAgentsWithStatusForServer(String serverName);
 
+    /**
+     * @return the agents of the given server whose status is exactly the given one
+     */
+    List<Integer> getAndClearAgentsWithStatusForServer(String serverName, Agent.Status status);
+
     void markGlobalCache();
 
     void updateByResource(Subject subject, int resourceId);
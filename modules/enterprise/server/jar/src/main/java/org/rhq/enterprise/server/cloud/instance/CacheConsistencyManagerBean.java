@@ -94,6 +94,8 @@ public class CacheConsistencyManagerBean implements CacheConsistencyManagerLocal
     public void reloadServerCacheIfNeeded() {
         // try reload the global cache separate from the agent caches for purposes of isolated failures
         reloadGlobalCacheIfNeeded();
+        // incremental updates go first, agents whose status was escalated in the meantime get reloaded right after
+        updateAgentCachesAsNeeded();
         reloadAgentCachesAsNeeded();
     }
 
@@ -122,6 +124,45 @@ public class CacheConsistencyManagerBean implements CacheConsistencyManagerLocal
         }
     }
 
+    private void updateAgentCachesAsNeeded() {
+        List<Integer> agentIds = new ArrayList<Integer>();
+        try {
+            agentIds = serverManager.getAndClearAgentsWithAlertDefinitionStatus();
+
+            // do nothing if nothing to do
+            if (agentIds.size() == 0) {
+                if (log.isDebugEnabled()) {
+                    log.debug("No agent caches need updating");
+                }
+                return;
+            }
+
+            long startTime = System.currentTimeMillis();
+            for (Integer nextAgentId : agentIds) {
+                log.debug("Agent[id=" + nextAgentId + "] has changed alert definitions ");
+                cacheManager.updateCachesForAgent(nextAgentId);
+            }
+            long endTime = System.currentTimeMillis();
+
+            String serverName = serverManager.getIdentity();
+
+            if (log.isDebugEnabled()) {
+                log.debug(serverName + " took [" + (endTime - startTime)
+                    + "]ms to update cache for the following agents: " + agentIds);
+            } else {
+                log.info(serverName + " took [" + (endTime - startTime) + "]ms to update cache for " + agentIds.size()
+                    + " agents");
+            }
+        } catch (Throwable t) {
+            if (log.isDebugEnabled()) {
+                log.debug("Failed to update caches for the following agents: " + agentIds, t);
+            } else {
+                log.error("Failed to update caches for the following agents: " + agentIds + ", cause: "
+                    + t.getMessage());
+            }
+        }
+    }
+
     private void reloadAgentCachesAsNeeded() {
         /* 
          * catch absolutely everything, so that even if this REQUIRES_NEW transaction rollback, 
@@ -151,7 +192,7 @@ public class CacheConsistencyManagerBean implements CacheConsistencyManagerLocal
 
             if (log.isDebugEnabled()) {
                 log.debug(serverName + " took [" + (endTime - startTime)
-                    + "]ms to reload cache for the follow agentIds: " + agentIds + " agents");
+                    + "]ms to reload cache for the following agents: " + agentIds);
             } else {
                 log.info(serverName + " took [" + (endTime - startTime) + "]ms to reload cache for " + agentIds.size()
                     + " agents");
@@ -156,6 +156,12 @@ public class ServerManagerBean implements ServerManagerLocal {
         return results;
     }
 
+    public List<Integer> getAndClearAgentsWithAlertDefinitionStatus() {
+        List<Integer> results = agentStatusManager.getAndClearAgentsWithStatusForServer(getIdentity(),
+            Agent.Status.ALERT_DEFINITION);
+        return results;
+    }
+
     public boolean getAndClearServerStatus() {
         String identity = getIdentity();
         Server server = topologyManager.getServerByName(identity);
@@ -75,6 +75,14 @@ public interface ServerManagerLocal {
      */
     List<Integer> getAndClearAgentsWithStatus();
 
+    /**
+     * Agents whose only pending change is an update of their alert definitions do not need their alert condition
+     * caches reloaded from scratch, the changed definitions can be applied incrementally.
+     *
+     * @return The subset of agents referencing this server whose Status is {@link Agent.Status#ALERT_DEFINITION}.
+     */
+    List<Integer> getAndClearAgentsWithAlertDefinitionStatus();
+
     /**
      * A Server can have various status settings {@link Server}.  The Status, when set, indicates
      * that this server has some necessary work pending, typically processed by a periodic job.
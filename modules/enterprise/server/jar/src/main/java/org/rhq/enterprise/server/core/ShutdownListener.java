@@ -39,6 +39,8 @@ import org.rhq.core.domain.cloud.Server.OperationMode;
 import org.rhq.core.util.file.FileUtil;
 import org.rhq.core.util.jdbc.JDBCUtil;
 import org.rhq.enterprise.server.RHQConstants;
+import org.rhq.enterprise.server.alert.engine.internal.AlertConditionCacheCoordinator;
+import org.rhq.enterprise.server.alert.engine.internal.AvailabilityDurationCheckScheduler;
 import org.rhq.enterprise.server.cloud.TopologyManagerLocal;
 import org.rhq.enterprise.server.cloud.instance.ServerManagerLocal;
 import org.rhq.enterprise.server.scheduler.SchedulerLocal;
@@ -95,6 +97,8 @@ public class ShutdownListener {
         log.info("Shutdown listener has been told we are shutting down - starting to clean up now...");
         logShutdownTime();
         stopScheduler();
+        stopAlertConditionEvaluation();
+        stopAvailabilityDurationChecks();
         updateServerOperationMode();
         stopEmbeddedDatabase();
         log.info("Shutdown listener completed its shutdown tasks. It is safe to shutdown now.");
@@ -172,6 +176,40 @@ public class ShutdownListener {
         }
     }
 
+    /**
+     * This will stop the threads that check measurement data against alert conditions.
+     */
+    private void stopAlertConditionEvaluation() {
+        try {
+            AlertConditionCacheCoordinator.getInstance().shutdown();
+            log.info("The alert condition evaluation threads have been stopped.");
+        } catch (Throwable t) {
+            // only show ugly stack traces if the user runs the server in debug mode
+            if (log.isDebugEnabled()) {
+                log.warn("Failed to stop the alert condition evaluation threads", t);
+            } else {
+                log.warn("Failed to stop the alert condition evaluation threads: " + t.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This will stop the threads that run the availability duration checks.
+     */
+    private void stopAvailabilityDurationChecks() {
+        try {
+            AvailabilityDurationCheckScheduler.getInstance().stop();
+            log.info("The availability duration check threads have been stopped.");
+        } catch (Throwable t) {
+            // only show ugly stack traces if the user runs the server in debug mode
+            if (log.isDebugEnabled()) {
+                log.warn("Failed to stop the availability duration check threads", t);
+            } else {
+                log.warn("Failed to stop the availability duration check threads: " + t.getMessage());
+            }
+        }
+    }
+
     private void updateServerOperationMode() {
         try {
             // Set the server operation mode to DOWN unless in MM
@@ -29,10 +29,6 @@ import java.util.Map;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
-import javax.ejb.Timeout;
-import javax.ejb.Timer;
-import javax.ejb.TimerConfig;
-import javax.ejb.TimerService;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
@@ -69,6 +65,7 @@ import org.rhq.core.util.StopWatch;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheManagerLocal;
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+import org.rhq.enterprise.server.alert.engine.internal.AvailabilityDurationCheckScheduler;
 import org.rhq.enterprise.server.alert.engine.model.AvailabilityDurationCacheElement;
 import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
 import org.rhq.enterprise.server.authz.PermissionException;
@@ -77,7 +74,6 @@ import org.rhq.enterprise.server.measurement.instrumentation.MeasurementMonitor;
 import org.rhq.enterprise.server.resource.ResourceAvailabilityManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
-import org.rhq.enterprise.server.scheduler.jobs.AlertAvailabilityDurationJob;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 import org.rhq.enterprise.server.util.concurrent.AvailabilityReportSerializer;
@@ -125,10 +121,6 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
     @EJB
     private AlertConditionCacheManagerLocal alertConditionCacheManager;
 
-    // For Avail Duration Alert Condition Checks
-    @javax.annotation.Resource
-    private TimerService timerService;
-
     // doing a bulk delete in here, need to be in its own tx
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     @TransactionTimeout(6 * 60 * 60)
@@ -1398,33 +1390,16 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
     @TransactionAttribute(TransactionAttributeType.NEVER)
     public void scheduleAvailabilityDurationCheck(AvailabilityDurationCacheElement cacheElement, Resource resource) {
 
-        String operator = cacheElement.getAlertConditionOperator().name();
         String durationString = (String) cacheElement.getAlertConditionOperatorOption();
-        long duration = Long.valueOf(durationString).longValue() * 1000;
+        long duration = Long.valueOf(durationString).longValue(); // in seconds
 
         if (log.isDebugEnabled()) {
-            Date jobTime = new Date(System.currentTimeMillis() + duration);
-            log.debug("Scheduling availability duration job for [" + DateFormat.getDateTimeInstance().format(jobTime)
+            Date jobTime = new Date(System.currentTimeMillis() + (duration * 1000));
+            log.debug("Scheduling availability duration check for [" + DateFormat.getDateTimeInstance().format(jobTime)
                 + "]");
         }
 
-        HashMap<String, String> infoMap = new HashMap<String, String>();
-        // the condition id is needed to ensure we limit the future avail checking to the one relevant alert condition
-        infoMap.put(AlertAvailabilityDurationJob.DATAMAP_CONDITION_ID,
-            String.valueOf(cacheElement.getAlertConditionTriggerId()));
-        infoMap.put(AlertAvailabilityDurationJob.DATAMAP_RESOURCE_ID, String.valueOf(resource.getId()));
-        infoMap.put(AlertAvailabilityDurationJob.DATAMAP_OPERATOR, operator);
-        infoMap.put(AlertAvailabilityDurationJob.DATAMAP_DURATION, durationString); // in seconds
-
-        timerService.createSingleActionTimer(duration, new TimerConfig(infoMap, false));
-    }
-
-    @Timeout
-    public void handleAvailabilityDurationCheck(Timer timer) {
-        try {
-            AlertAvailabilityDurationJob.execute((HashMap<String, String>) timer.getInfo());
-        } catch (Throwable t) {
-            log.error("Failed to handle availability duration timer - will try again later. Cause: " + t);
-        }
+        AvailabilityDurationCheckScheduler.getInstance().schedule(cacheElement.getAlertConditionTriggerId(),
+            resource.getId(), cacheElement.getAlertConditionOperator(), duration);
     }
 }
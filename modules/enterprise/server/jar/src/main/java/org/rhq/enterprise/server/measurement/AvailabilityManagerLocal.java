@@ -205,7 +205,7 @@ public interface AvailabilityManagerLocal extends AvailabilityManagerRemote {
     List<Availability> findAvailabilityWithinInterval(int resourceId, Date startDate, Date endDate);
 
     /**
-     * Create the EJB Timer to schedule a check for a single availability duration condition match.
+     * Schedule a check for a single availability duration condition match, once the duration has passed.
      * @param cacheElement
      * @param resource
      */
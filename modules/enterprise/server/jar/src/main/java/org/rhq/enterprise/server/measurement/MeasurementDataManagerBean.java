@@ -26,19 +26,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.ReentrantLock;
 
-import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
@@ -205,8 +203,9 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
          * start transactions.  by checking the null/emptiness of a collection here, by only create transactions
          * when real work will be done;
          */
-        if (report.getNumericData() != null && !report.getNumericData().isEmpty()) {
-            this.measurementDataManager.addNumericData(report.getNumericData());
+        Set<MeasurementDataNumeric> numericData = report.getNumericData(); // a copy, so only get it once
+        if (!numericData.isEmpty()) {
+            this.measurementDataManager.addNumericData(numericData);
         }
         if (report.getTraitData() != null && !report.getTraitData().isEmpty()) {
             this.measurementDataManager.addTraitData(report.getTraitData());
@@ -240,29 +239,19 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
         MetricsServer metricsServer = storageClientManager.getMetricsServer();
         metricsServer.addNumericData(data, new RawDataInsertedCallback() {
 
-            private ReentrantLock lock = new ReentrantLock();
-
-            private Set<MeasurementData> insertedData = new TreeSet<MeasurementData>(new Comparator<MeasurementData>() {
-                @Override
-                public int compare(MeasurementData d1, MeasurementData d2) {
-                    return (d1.getTimestamp() < d2.getTimestamp()) ? -1 : ((d1.getTimestamp() == d2.getTimestamp()) ? 0 : 1);
-                }
-            });
+            // the callbacks are invoked concurrently by the threads that complete the inserts
+            private Queue<MeasurementData> insertedData = new ConcurrentLinkedQueue<MeasurementData>();
 
             @Override
             public void onFinish() {
-                measurementDataManager.updateAlertConditionCache("mergeMeasurementReport",
-                    insertedData.toArray(new MeasurementData[insertedData.size()]));
+                // hand the data over to the alert condition evaluation threads, this thread must not block on them
+                alertConditionCacheManager.queueConditionChecks(insertedData.toArray(new MeasurementData[insertedData
+                    .size()]));
             }
 
             @Override
             public void onSuccess(MeasurementDataNumeric measurementDataNumeric) {
-                try {
-                    lock.lock();
-                    insertedData.add(measurementDataNumeric);
-                }  finally {
-                    lock.unlock();
-                }
+                insertedData.add(measurementDataNumeric);
             }
 
             @Override
@@ -602,13 +591,6 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
         }
     }
 
-    @Asynchronous
-    @Override
-    public void updateAlertConditionCache(String callingMethod, MeasurementData[] data) {
-        AlertConditionCacheStats stats = alertConditionCacheManager.checkConditions(data);
-        log.debug(callingMethod + ": " + stats.toString());
-    }
-
     private void notifyAlertConditionCacheManager(String callingMethod, MeasurementData[] data) {
         AlertConditionCacheStats stats = alertConditionCacheManager.checkConditions(data);
 
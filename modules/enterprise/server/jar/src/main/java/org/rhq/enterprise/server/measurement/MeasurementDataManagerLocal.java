@@ -141,6 +141,4 @@ public interface MeasurementDataManagerLocal extends MeasurementDataManagerRemot
 
     MeasurementAggregate getAggregate(Subject subject, int groupId, int definitionId, long startTime, long endTime);
 
-    void updateAlertConditionCache(String callingMethod, MeasurementData[] data);
-
 }
\ No newline at end of file
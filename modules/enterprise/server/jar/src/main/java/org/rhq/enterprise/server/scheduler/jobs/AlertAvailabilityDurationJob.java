@@ -36,8 +36,9 @@ import org.rhq.enterprise.server.alert.engine.model.AvailabilityDurationComposit
 import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
- * This was once a quartz job but now supports an EJB Timer.  It could have been merged into the EJB class with the
- * Timer code but I left it here since it calls out the fact that it is still a scheduled job.
+ * This was once a quartz job, then an EJB Timer, and is now run by the
+ * {@link org.rhq.enterprise.server.alert.engine.internal.AvailabilityDurationCheckScheduler}. It is left here since it
+ * calls out the fact that it is still a scheduled job.
  *
  * @author Jay Shaughnessy
  */
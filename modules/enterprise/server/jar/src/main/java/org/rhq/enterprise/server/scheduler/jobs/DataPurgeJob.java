@@ -109,6 +109,8 @@ public class DataPurgeJob extends AbstractStatefulJob {
         try {
             StorageClientManager storageClientManager = LookupUtil.getStorageClientManager();
             MetricsServer metricsServer = storageClientManager.getMetricsServer();
+            // Aggregation is shared with the other servers of the cloud that are running normally
+            metricsServer.setAggregationServers(LookupUtil.getTopologyManager().getNormalServerCount());
             return metricsServer.calculateAggregates();
         } catch (Exception e) {
             LOG.error("Failed to compress measurement data. Cause: " + e, e);
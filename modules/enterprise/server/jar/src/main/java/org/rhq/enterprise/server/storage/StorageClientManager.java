@@ -26,6 +26,7 @@ import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT_MIN;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DAMPENING;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DELTA;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TOPOLOGY_CHANGE_DELTA;
+import static org.rhq.server.metrics.StorageClientConstants.TOKEN_AWARE;
 
 import java.io.File;
 import java.io.IOException;
@@ -58,6 +59,7 @@ import com.datastax.driver.core.policies.DefaultRetryPolicy;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
 import com.datastax.driver.core.policies.LoggingRetryPolicy;
 import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -75,12 +77,21 @@ import org.rhq.enterprise.server.cloud.StorageNodeManagerLocal;
 import org.rhq.enterprise.server.core.CoreServer;
 import org.rhq.enterprise.server.system.SystemManagerLocal;
 import org.rhq.enterprise.server.util.JMXUtil;
+import org.rhq.enterprise.server.util.LookupUtil;
+import org.rhq.server.metrics.AdaptiveLimiter;
+import org.rhq.server.metrics.AggregateCache;
+import org.rhq.server.metrics.AggregateTableMigrator;
+import org.rhq.server.metrics.AggregationListener;
 import org.rhq.server.metrics.DateTimeService;
 import org.rhq.server.metrics.MetricsConfiguration;
 import org.rhq.server.metrics.MetricsConstants;
 import org.rhq.server.metrics.MetricsDAO;
+import org.rhq.server.metrics.MetricsIndexCache;
 import org.rhq.server.metrics.MetricsServer;
+import org.rhq.server.metrics.StorageClientThreadFactory;
 import org.rhq.server.metrics.StorageSession;
+import org.rhq.server.metrics.Workload;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
 
 /**
  * @author John Sanda
@@ -96,6 +107,8 @@ public class StorageClientManager implements StorageClientManagerMBean{
 
     private static final String RHQ_KEYSPACE = "rhq";
 
+    private static final long AGGREGATE_MIGRATION_RETRY_DELAY = 5 * 60 * 1000;
+
     @EJB
     private SubjectManagerLocal subjectManager;
     @EJB
@@ -114,6 +127,8 @@ public class StorageClientManager implements StorageClientManagerMBean{
     private MetricsServer metricsServer;
     private boolean initialized;
     private StorageClusterMonitor storageClusterMonitor;
+    private AggregateTableMigrator aggregateTableMigrator;
+    private Thread aggregateMigrationThread;
 
     private String cachedStorageUsername;
     private String cachedStoragePassword;
@@ -180,6 +195,11 @@ public class StorageClientManager implements StorageClientManagerMBean{
             metricsDAO = new MetricsDAO(session, metricsConfiguration);
 
             initMetricsServer();
+            // Aggregation is deferred until the legacy aggregates are migrated. The finished migration is recorded in
+            // the storage cluster, so later starts neither scan the legacy tables nor defer aggregation.
+            if (!new AggregateTableMigrator(session).isFinished()) {
+                migrateLegacyAggregates();
+            }
             JMXUtil.registerMBean(this, OBJECT_NAME);
             initialized = true;
 
@@ -282,6 +302,11 @@ public class StorageClientManager implements StorageClientManagerMBean{
     public synchronized void shutdown() {
         LOG.info("Shutting down storage client subsystem");
 
+        if (aggregateMigrationThread != null) {
+            aggregateMigrationThread.interrupt();
+            aggregateMigrationThread = null;
+        }
+
         if (metricsServer != null) {
             metricsServer.shutdown();
             metricsServer = null;
@@ -360,6 +385,167 @@ public class StorageClientManager implements StorageClientManagerMBean{
         persistStorageProperty(MetricsConstants.AGGREGATION_WORKERS, Integer.toString(numWorkers));
     }
 
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getGroupQueryConcurrency() {
+        return metricsServer.getGroupQueryConcurrency();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setGroupQueryConcurrency(int concurrency) {
+        metricsServer.setGroupQueryConcurrency(concurrency);
+        persistStorageProperty(MetricsConstants.GROUP_QUERY_CONCURRENCY, Integer.toString(concurrency));
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getIngestionBatchSize() {
+        return metricsServer.getIngestionBatchSize();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setIngestionBatchSize(int batchSize) {
+        metricsServer.setIngestionBatchSize(batchSize);
+        persistStorageProperty(MetricsConstants.INGESTION_BATCH_SIZE, Integer.toString(batchSize));
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getIngestionLinger() {
+        return metricsServer.getIngestionLinger();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setIngestionLinger(long linger) {
+        metricsServer.setIngestionLinger(linger);
+        persistStorageProperty(MetricsConstants.INGESTION_LINGER, Long.toString(linger));
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getIngestionPointsPerSecond() {
+        return metricsServer.getIngestionPointsPerSecond();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getIngestionBatchesPerSecond() {
+        return metricsServer.getIngestionBatchesPerSecond();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getIngestionAverageBatchSize() {
+        return metricsServer.getIngestionAverageBatchSize();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getMetricsIndexCacheSize() {
+        MetricsIndexCache indexCache = metricsServer.getIndexCache();
+        return indexCache == null ? 0 : indexCache.size();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getMetricsIndexCacheHits() {
+        MetricsIndexCache indexCache = metricsServer.getIndexCache();
+        return indexCache == null ? 0 : indexCache.getHits();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getMetricsIndexCacheMisses() {
+        MetricsIndexCache indexCache = metricsServer.getIndexCache();
+        return indexCache == null ? 0 : indexCache.getMisses();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getMetricsIndexCacheHitRate() {
+        MetricsIndexCache indexCache = metricsServer.getIndexCache();
+        return indexCache == null ? 0 : indexCache.getHitRate();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getAggregateCacheSize() {
+        AggregateCache aggregateCache = metricsServer.getAggregateCache();
+        return aggregateCache == null ? 0 : aggregateCache.size();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getAggregateCacheHits() {
+        AggregateCache aggregateCache = metricsServer.getAggregateCache();
+        return aggregateCache == null ? 0 : aggregateCache.getHits();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getAggregateCacheMisses() {
+        AggregateCache aggregateCache = metricsServer.getAggregateCache();
+        return aggregateCache == null ? 0 : aggregateCache.getMisses();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getAggregateCacheEvictions() {
+        AggregateCache aggregateCache = metricsServer.getAggregateCache();
+        return aggregateCache == null ? 0 : aggregateCache.getEvictions();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public synchronized boolean migrateLegacyAggregates() {
+        if (aggregateMigrationThread != null && aggregateMigrationThread.isAlive()) {
+            LOG.info("The migration of legacy aggregate metrics is already running");
+            return false;
+        }
+        final AggregateTableMigrator migrator = new AggregateTableMigrator(session);
+        final MetricsServer server = metricsServer;
+        aggregateTableMigrator = migrator;
+        // 6 hour and 24 hour aggregates are computed from the new tables, so they would miss the data that has not
+        // been migrated yet
+        server.setAggregationDeferred(true);
+        aggregateMigrationThread = new StorageClientThreadFactory().newThread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        migrator.migrate();
+                        if (Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+                        // Cached pages may have been read while the data was only partially migrated
+                        AggregateCache aggregateCache = server.getAggregateCache();
+                        if (aggregateCache != null) {
+                            aggregateCache.invalidateAll();
+                        }
+                        server.setAggregationDeferred(false);
+                        return;
+                    } catch (Exception e) {
+                        LOG.error("The migration of legacy aggregate metrics failed. It will be retried in " +
+                            (AGGREGATE_MIGRATION_RETRY_DELAY / 1000) + " seconds and will resume with the data " +
+                            "that has not been migrated yet. Aggregation is deferred until then: " +
+                            ThrowableUtil.getRootMessage(e));
+                        try {
+                            Thread.sleep(AGGREGATE_MIGRATION_RETRY_DELAY);
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+        aggregateMigrationThread.start();
+        return true;
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getMigratedAggregateRows() {
+        AggregateTableMigrator migrator = aggregateTableMigrator;
+        return migrator == null ? 0 : migrator.getMigratedRows();
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public double getRequestLimit() {
@@ -437,6 +623,90 @@ public class StorageClientManager implements StorageClientManagerMBean{
         return session.getTimeouts();
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getIngestionConcurrencyLimit() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.INGESTION);
+        return limiter == null ? 0 : limiter.getLimit();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getIngestionRequestsInFlight() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.INGESTION);
+        return limiter == null ? 0 : limiter.getInFlight();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getIngestionLatency() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.INGESTION);
+        return limiter == null ? 0 : limiter.getLatency();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getIngestionThrottledRequests() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.INGESTION);
+        return limiter == null ? 0 : limiter.getThrottled();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getAggregationConcurrencyLimit() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.AGGREGATION);
+        return limiter == null ? 0 : limiter.getLimit();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getAggregationRequestsInFlight() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.AGGREGATION);
+        return limiter == null ? 0 : limiter.getInFlight();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getAggregationLatency() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.AGGREGATION);
+        return limiter == null ? 0 : limiter.getLatency();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getAggregationThrottledRequests() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.AGGREGATION);
+        return limiter == null ? 0 : limiter.getThrottled();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getReadConcurrencyLimit() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.READ);
+        return limiter == null ? 0 : limiter.getLimit();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getReadRequestsInFlight() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.READ);
+        return limiter == null ? 0 : limiter.getInFlight();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getReadLatency() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.READ);
+        return limiter == null ? 0 : limiter.getLatency();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getReadThrottledRequests() {
+        AdaptiveLimiter limiter = session.getConcurrencyLimiter(Workload.READ);
+        return limiter == null ? 0 : limiter.getThrottled();
+    }
+
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public void persistStorageProperty(String key, String value) {
         if (Boolean.getBoolean("running.itests-2")) {
@@ -518,6 +788,14 @@ public class StorageClientManager implements StorageClientManagerMBean{
     }
 
     private LoadBalancingPolicy getLoadBalancingPolicy() {
+        LoadBalancingPolicy policy = getBaseLoadBalancingPolicy();
+        if (Boolean.getBoolean(TOKEN_AWARE)) {
+            return new TokenAwarePolicy(policy);
+        }
+        return policy;
+    }
+
+    private LoadBalancingPolicy getBaseLoadBalancingPolicy() {
         String policy = System.getProperty(LOAD_BALANCING);
         if (policy == null || policy.equals("RoundRobin")) {
             return new RoundRobinPolicy();
@@ -548,6 +826,14 @@ public class StorageClientManager implements StorageClientManagerMBean{
         DateTimeService dateTimeService = new DateTimeService();
         dateTimeService.setConfiguration(metricsConfiguration);
         metricsServer.setDateTimeService(dateTimeService);
+        metricsServer.setServerName(LookupUtil.getServerManager().getIdentity());
+        metricsServer.setAggregationListener(new AggregationListener() {
+            @Override
+            public void onAggregation(List<AggregateNumericMetric> oneHourData) {
+                // The coordinating server only computes OOBs for the schedules that it aggregated itself
+                LookupUtil.getOOBManager().computeOOBsForLastHour(subjectManager.getOverlord(), oneHourData);
+            }
+        });
         metricsServer.init();
     }
 }
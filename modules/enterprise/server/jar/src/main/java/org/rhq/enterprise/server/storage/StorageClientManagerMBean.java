@@ -29,4 +29,66 @@ public interface StorageClientManagerMBean {
 
     long getTotalRequests();
 
+    /**
+     * The adaptive concurrency limits of the ingestion, aggregation, and read workloads. Latencies are smoothed and in
+     * ms. All values are 0 if adaptive concurrency limits are disabled.
+     */
+    double getIngestionConcurrencyLimit();
+
+    int getIngestionRequestsInFlight();
+
+    double getIngestionLatency();
+
+    long getIngestionThrottledRequests();
+
+    double getAggregationConcurrencyLimit();
+
+    int getAggregationRequestsInFlight();
+
+    double getAggregationLatency();
+
+    long getAggregationThrottledRequests();
+
+    double getReadConcurrencyLimit();
+
+    int getReadRequestsInFlight();
+
+    double getReadLatency();
+
+    long getReadThrottledRequests();
+
+    double getIngestionPointsPerSecond();
+
+    double getIngestionBatchesPerSecond();
+
+    double getIngestionAverageBatchSize();
+
+    int getMetricsIndexCacheSize();
+
+    long getMetricsIndexCacheHits();
+
+    long getMetricsIndexCacheMisses();
+
+    double getMetricsIndexCacheHitRate();
+
+    long getAggregateCacheSize();
+
+    long getAggregateCacheHits();
+
+    long getAggregateCacheMisses();
+
+    long getAggregateCacheEvictions();
+
+    /**
+     * Starts moving data from the legacy three rows per aggregate tables into the single row aggregate tables in the
+     * background. This is done automatically when the storage client subsystem is initialized until the migration has
+     * finished once, and a migration that fails is retried. Tables that have already been migrated are skipped.
+     * Aggregation is deferred until the migration has finished.
+     *
+     * @return false if a migration is already running
+     */
+    boolean migrateLegacyAggregates();
+
+    long getMigratedAggregateRows();
+
 }
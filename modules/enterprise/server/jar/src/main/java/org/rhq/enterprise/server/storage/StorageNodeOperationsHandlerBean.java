@@ -904,6 +904,12 @@ public class StorageNodeOperationsHandlerBean implements StorageNodeOperationsHa
         session.execute("ALTER COLUMNFAMILY rhq.one_hour_metrics WITH gc_grace_seconds = " + seconds);
         session.execute("ALTER COLUMNFAMILY rhq.six_hour_metrics WITH gc_grace_seconds = " + seconds);
         session.execute("ALTER COLUMNFAMILY rhq.twenty_four_hour_metrics WITH gc_grace_seconds = " + seconds);
+        session.execute("ALTER COLUMNFAMILY rhq.one_hour_aggregates WITH gc_grace_seconds = " + seconds);
+        session.execute("ALTER COLUMNFAMILY rhq.six_hour_aggregates WITH gc_grace_seconds = " + seconds);
+        session.execute("ALTER COLUMNFAMILY rhq.twenty_four_hour_aggregates WITH gc_grace_seconds = " + seconds);
+        session.execute("ALTER COLUMNFAMILY rhq.aggregation_checkpoints WITH gc_grace_seconds = " + seconds);
+        session.execute("ALTER COLUMNFAMILY rhq.aggregation_leases WITH gc_grace_seconds = " + seconds);
+        session.execute("ALTER COLUMNFAMILY rhq.metrics_migrations WITH gc_grace_seconds = " + seconds);
         session.execute("ALTER COLUMNFAMILY rhq.schema_version WITH gc_grace_seconds = " + seconds);
     }
 
@@ -0,0 +1,153 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.alert.AlertConditionOperator;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.NumericDoubleCacheElement;
+
+@Test
+public class CacheElementIndexTest {
+
+    public void testAddAndGet() {
+        CacheElementIndex<NumericDoubleCacheElement> index = newIndex();
+        assert index.get(1) == null;
+
+        index.add(1, newElement(10));
+        index.add(1, newElement(11));
+        index.add(0, newElement(12));
+        index.add(-5, newElement(13));
+
+        NumericDoubleCacheElement[] elements = index.get(1);
+        assert elements.length == 2;
+        assert elements[0].getAlertConditionTriggerId() == 10;
+        assert elements[1].getAlertConditionTriggerId() == 11;
+        assert index.get(0).length == 1;
+        assert index.get(-5).length == 1;
+        assert index.get(2) == null;
+        assert index.size() == 4;
+        assert index.keys().length == 3;
+    }
+
+    public void testAddDoesNotModifyHandedOutArrays() {
+        CacheElementIndex<NumericDoubleCacheElement> index = newIndex();
+        index.add(1, newElement(10));
+        NumericDoubleCacheElement[] elements = index.get(1);
+
+        index.add(1, newElement(11));
+        assert elements.length == 1;
+        assert index.get(1).length == 2;
+    }
+
+    public void testPutAndRemove() {
+        CacheElementIndex<NumericDoubleCacheElement> index = newIndex();
+        index.add(1, newElement(10));
+        index.add(1, newElement(11));
+
+        index.put(1, Collections.<NumericDoubleCacheElement> singletonList(newElement(12)));
+        assert index.get(1).length == 1;
+        assert index.size() == 1;
+
+        index.put(1, Collections.<NumericDoubleCacheElement> emptyList());
+        assert index.get(1) == null;
+        assert index.size() == 0;
+        assert index.keys().length == 0;
+
+        index.remove(42); // no-op
+    }
+
+    public void testCopyIsIndependent() {
+        CacheElementIndex<NumericDoubleCacheElement> index = newIndex();
+        index.add(1, newElement(10));
+
+        CacheElementIndex<NumericDoubleCacheElement> copy = new CacheElementIndex<NumericDoubleCacheElement>(index);
+        copy.add(1, newElement(11));
+        copy.add(2, newElement(12));
+        copy.remove(1);
+        copy.add(1, newElement(13));
+
+        assert index.get(1).length == 1;
+        assert index.get(1)[0].getAlertConditionTriggerId() == 10;
+        assert index.get(2) == null;
+        assert index.size() == 1;
+        assert copy.get(1)[0].getAlertConditionTriggerId() == 13;
+        assert copy.size() == 2;
+    }
+
+    /**
+     * Compares against a HashMap under random inserts and removals, which exercises rehashing and closing the gaps
+     * left by removals in probe sequences.
+     */
+    public void testRandomOperationsMatchHashMap() {
+        CacheElementIndex<NumericDoubleCacheElement> index = newIndex();
+        Map<Integer, List<NumericDoubleCacheElement>> expected = new HashMap<Integer, List<NumericDoubleCacheElement>>();
+        Random random = new Random(42);
+        int conditionId = 0;
+
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(2000) - 1000;
+            if (random.nextInt(3) == 0) {
+                index.remove(key);
+                expected.remove(key);
+            } else {
+                NumericDoubleCacheElement element = newElement(conditionId++);
+                index.add(key, element);
+                List<NumericDoubleCacheElement> elements = expected.get(key);
+                if (elements == null) {
+                    elements = new ArrayList<NumericDoubleCacheElement>();
+                    expected.put(key, elements);
+                }
+                elements.add(element);
+            }
+        }
+
+        int size = 0;
+        for (int key = -1000; key < 1000; key++) {
+            List<NumericDoubleCacheElement> elements = expected.get(key);
+            if (elements == null) {
+                assert index.get(key) == null : "unexpected elements for key " + key;
+            } else {
+                assert Arrays.asList(index.get(key)).equals(elements) : "wrong elements for key " + key;
+                size += elements.size();
+            }
+        }
+        assert index.size() == size;
+        assert index.keys().length == expected.size();
+    }
+
+    private CacheElementIndex<NumericDoubleCacheElement> newIndex() {
+        return new CacheElementIndex<NumericDoubleCacheElement>(NumericDoubleCacheElement.class);
+    }
+
+    private NumericDoubleCacheElement newElement(int conditionId) {
+        return new MeasurementNumericCacheElement(AlertConditionOperator.GREATER_THAN, Double.valueOf(1.0),
+            conditionId);
+    }
+}
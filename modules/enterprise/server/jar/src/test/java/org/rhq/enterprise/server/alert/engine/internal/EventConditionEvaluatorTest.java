@@ -0,0 +1,88 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.alert.AlertConditionOperator;
+import org.rhq.core.domain.event.EventSeverity;
+import org.rhq.enterprise.server.alert.engine.model.EventCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.RegexPatterns;
+
+@Test
+public class EventConditionEvaluatorTest {
+
+    public void testLiteralMatcherAgreesWithSearch() {
+        String[] literals = { "he", "she", "his", "hers", "error", "rr", "e", "disk full" };
+        LiteralMatcher matcher = new LiteralMatcher(literals);
+
+        Random random = new Random(3);
+        String alphabet = "hHeErsiokdf ul";
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = random.nextInt(20); i > 0; i--) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            boolean[] found = matcher.findAll(text.toString());
+            for (int i = 0; i < literals.length; i++) {
+                assert found[i] == RegexPatterns.containsLiteral(text.toString(), literals[i]) : "[" + literals[i]
+                    + "] in [" + text + "]";
+            }
+        }
+    }
+
+    public void testCandidates() {
+        EventCacheElement[] elements = new EventCacheElement[] {
+            new EventCacheElement(AlertConditionOperator.GREATER_THAN_OR_EQUAL_TO, "Out of memory", EventSeverity.WARN,
+                1),
+            new EventCacheElement(AlertConditionOperator.GREATER_THAN_OR_EQUAL_TO, EventSeverity.ERROR, 2),
+            new EventCacheElement(AlertConditionOperator.GREATER_THAN_OR_EQUAL_TO, "foo|bar", EventSeverity.WARN, 3),
+            new EventCacheElement(AlertConditionOperator.GREATER_THAN_OR_EQUAL_TO, "disk (\\d+) full",
+                EventSeverity.WARN, 4),
+            new EventCacheElement(AlertConditionOperator.GREATER_THAN_OR_EQUAL_TO, "OUT OF MEMORY",
+                EventSeverity.ERROR, 5) };
+        EventConditionEvaluator evaluator = new EventConditionEvaluator(elements);
+
+        assert candidates(evaluator, "java.lang.OutOfMemoryError").equals("-++--");
+        assert candidates(evaluator, "Thread died: out of memory").equals("+++-+");
+        assert candidates(evaluator, "disk 1 full").equals("-+++-");
+        assert candidates(evaluator, null).equals("+++++");
+
+        for (String details : new String[] { "java.lang.OutOfMemoryError", "Thread died: out of memory",
+            "disk 1 full" }) {
+            boolean[] candidates = evaluator.findCandidates(details);
+            for (int i = 0; i < elements.length; i++) {
+                if (!candidates[i]) {
+                    assert !elements[i].matches(EventSeverity.FATAL, details) : elements[i] + " matched " + details;
+                }
+            }
+        }
+    }
+
+    private static String candidates(EventConditionEvaluator evaluator, String details) {
+        StringBuilder result = new StringBuilder();
+        for (boolean candidate : evaluator.findCandidates(details)) {
+            result.append(candidate ? '+' : '-');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.event.Event;
+import org.rhq.core.domain.event.EventDefinition;
+import org.rhq.core.domain.event.EventSeverity;
+import org.rhq.core.domain.event.EventSource;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+
+@Test
+public class EventSequencerTest {
+
+    /**
+     * Matches events whose detail is a condition id, and records the details of all checked events.
+     */
+    private static class RecordingMatcher implements EventSequencer.EventMatcher {
+        private final List<String> checked = new ArrayList<String>();
+
+        public AlertConditionCacheStats checkConditions(EventSource source, List<Event> events,
+            List<Integer> matchedConditionIds) {
+            AlertConditionCacheStats stats = new AlertConditionCacheStats();
+            for (Iterator<Event> i = events.iterator(); i.hasNext();) {
+                Event event = i.next();
+                i.remove();
+                checked.add(event.getDetail());
+                if (Character.isDigit(event.getDetail().charAt(0))) {
+                    matchedConditionIds.add(Integer.valueOf(event.getDetail()));
+                    stats.matched++;
+                    onMatch(event);
+                    break;
+                }
+            }
+            return stats;
+        }
+
+        void onMatch(Event event) {
+        }
+    }
+
+    public void testEventsWithoutMatchesAreCheckedRightAway() {
+        RecordingMatcher matcher = new RecordingMatcher();
+        EventSequencer sequencer = new EventSequencer(matcher);
+        EventSource source = newSource(1);
+
+        sequencer.submit(source, newEvents(source, "a", "b", "c"));
+
+        assert matcher.checked.equals(Arrays.asList("a", "b", "c"));
+        assert sequencer.getQueueCount() == 0;
+    }
+
+    public void testEventsAfterMatchWaitForConditionMessage() {
+        RecordingMatcher matcher = new RecordingMatcher();
+        EventSequencer sequencer = new EventSequencer(matcher);
+        EventSource source = newSource(1);
+
+        AlertConditionCacheStats stats = sequencer.submit(source, newEvents(source, "a", "10", "b"));
+        assert stats.matched == 1;
+        assert matcher.checked.equals(Arrays.asList("a", "10"));
+
+        // later events of the same resource queue up behind the held back ones
+        sequencer.submit(source, newEvents(source, "c"));
+        assert matcher.checked.equals(Arrays.asList("a", "10"));
+
+        // other resources are not held back
+        EventSource otherSource = newSource(2);
+        sequencer.submit(otherSource, newEvents(otherSource, "x"));
+        assert matcher.checked.equals(Arrays.asList("a", "10", "x"));
+
+        // messages of other conditions don't resume the events
+        sequencer.conditionProcessed(11);
+        assert matcher.checked.equals(Arrays.asList("a", "10", "x"));
+
+        sequencer.conditionProcessed(10);
+        assert matcher.checked.equals(Arrays.asList("a", "10", "x", "b", "c"));
+        assert sequencer.getQueueCount() == 0;
+    }
+
+    public void testConditionMessageProcessedBeforeMatchReturned() {
+        final EventSequencer[] sequencer = new EventSequencer[1];
+        RecordingMatcher matcher = new RecordingMatcher() {
+            @Override
+            void onMatch(Event event) {
+                // the consumer may process the message before the matcher returns
+                sequencer[0].conditionProcessed(Integer.valueOf(event.getDetail()));
+            }
+        };
+        sequencer[0] = new EventSequencer(matcher);
+        EventSource source = newSource(1);
+
+        sequencer[0].submit(source, newEvents(source, "10", "a"));
+
+        assert matcher.checked.equals(Arrays.asList("10", "a"));
+        assert sequencer[0].getQueueCount() == 0;
+    }
+
+    public void testErrorsDropTheBatch() {
+        RecordingMatcher matcher = new RecordingMatcher() {
+            @Override
+            public AlertConditionCacheStats checkConditions(EventSource source, List<Event> events,
+                List<Integer> matchedConditionIds) {
+                if (events.get(0).getDetail().equals("bad")) {
+                    throw new IllegalStateException("expected");
+                }
+                return super.checkConditions(source, events, matchedConditionIds);
+            }
+        };
+        EventSequencer sequencer = new EventSequencer(matcher);
+        EventSource source = newSource(1);
+
+        sequencer.submit(source, newEvents(source, "bad", "a"));
+        sequencer.submit(source, newEvents(source, "b"));
+
+        assert matcher.checked.equals(Arrays.asList("b"));
+        assert sequencer.getQueueCount() == 0;
+    }
+
+    private static EventSource newSource(int resourceId) {
+        return new EventSource("location", new EventDefinition(), new Resource(resourceId));
+    }
+
+    private static Event[] newEvents(EventSource source, String... details) {
+        Event[] events = new Event[details.length];
+        for (int i = 0; i < details.length; i++) {
+            events[i] = new Event(i, EventSeverity.WARN, source, details[i]);
+        }
+        return events;
+    }
+}
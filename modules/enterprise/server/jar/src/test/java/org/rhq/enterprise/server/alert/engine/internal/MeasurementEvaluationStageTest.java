@@ -0,0 +1,212 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementData;
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+import org.rhq.enterprise.server.util.LoggingThreadFactory;
+
+@Test
+public class MeasurementEvaluationStageTest {
+
+    /**
+     * Records the schedule ids of the checked data, per agent.
+     */
+    private static class RecordingEvaluator implements MeasurementEvaluationStage.Evaluator {
+        final List<String> checked = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done;
+
+        RecordingEvaluator(int expectedData) {
+            done = new CountDownLatch(expectedData);
+        }
+
+        public AlertConditionCacheStats evaluate(int agentId, MeasurementData[] data) {
+            for (MeasurementData datum : data) {
+                checked.add(agentId + ":" + datum.getScheduleId());
+                done.countDown();
+            }
+            return new AlertConditionCacheStats();
+        }
+
+        List<String> checkedFor(int agentId) {
+            List<String> result = new ArrayList<String>();
+            synchronized (checked) {
+                for (String entry : checked) {
+                    if (entry.startsWith(agentId + ":")) {
+                        result.add(entry);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Blocks the worker on the data of agent 1 until it is released, records the data of other agents.
+     */
+    private static class BlockingEvaluator extends RecordingEvaluator {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        private final AtomicInteger evaluations = new AtomicInteger();
+
+        BlockingEvaluator(int expectedData) {
+            super(expectedData);
+        }
+
+        @Override
+        public AlertConditionCacheStats evaluate(int agentId, MeasurementData[] data) {
+            threads.add(Thread.currentThread());
+            if (agentId == 1) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new AlertConditionCacheStats();
+            }
+            evaluations.incrementAndGet();
+            return super.evaluate(agentId, data);
+        }
+    }
+
+    public void testDataIsCheckedInTimestampOrder() throws Exception {
+        RecordingEvaluator evaluator = new RecordingEvaluator(4);
+        MeasurementEvaluationStage stage = newStage(evaluator, 2, 10);
+        try {
+            // data of different schedules with the same timestamp must all be checked
+            assert stage.submit(1, new MeasurementData[] { datum(30L, 3), datum(10L, 1), datum(20L, 2),
+                datum(10L, 4) });
+
+            assert evaluator.done.await(10, TimeUnit.SECONDS);
+            assert evaluator.checked.equals(Arrays.asList("1:1", "1:4", "1:2", "1:3")) : evaluator.checked;
+        } finally {
+            stage.shutdown();
+        }
+    }
+
+    public void testDataOfAnAgentIsCheckedInSubmissionOrder() throws Exception {
+        RecordingEvaluator evaluator = new RecordingEvaluator(60);
+        MeasurementEvaluationStage stage = newStage(evaluator, 3, 100);
+        try {
+            for (int i = 0; i < 20; i++) {
+                for (int agentId = 1; agentId <= 3; agentId++) {
+                    assert stage.submit(agentId, new MeasurementData[] { datum(1000L - i, i) });
+                }
+            }
+
+            assert evaluator.done.await(10, TimeUnit.SECONDS);
+            for (int agentId = 1; agentId <= 3; agentId++) {
+                List<String> checked = evaluator.checkedFor(agentId);
+                assert checked.size() == 20;
+                for (int i = 0; i < 20; i++) {
+                    assert checked.get(i).equals(agentId + ":" + i) : checked;
+                }
+            }
+            assert stage.getQueuedCount() == 60;
+            assert stage.getRejectedCount() == 0;
+        } finally {
+            stage.shutdown();
+        }
+    }
+
+    public void testPendingDataOfAnAgentIsCoalesced() throws Exception {
+        BlockingEvaluator evaluator = new BlockingEvaluator(4);
+        MeasurementEvaluationStage stage = newStage(evaluator, 1, 10);
+        try {
+            assert stage.submit(1, new MeasurementData[] { datum(1L, 1) });
+            assert evaluator.started.await(10, TimeUnit.SECONDS);
+
+            // while the worker is busy, the data of agent 2 piles up and is checked with one evaluation
+            assert stage.submit(2, new MeasurementData[] { datum(20L, 2), datum(10L, 1) });
+            assert stage.submit(2, new MeasurementData[] { datum(5L, 3) });
+            assert stage.submit(2, new MeasurementData[] { datum(30L, 4) });
+            assert stage.getQueueDepth() == 3;
+            assert stage.getCoalescedCount() == 2;
+
+            evaluator.release.countDown();
+            assert evaluator.done.await(10, TimeUnit.SECONDS);
+            assert evaluator.evaluations.get() == 1;
+            assert evaluator.checkedFor(2).equals(Arrays.asList("2:1", "2:2", "2:3", "2:4")) : evaluator.checked;
+        } finally {
+            evaluator.release.countDown();
+            stage.shutdown();
+        }
+    }
+
+    public void testFullQueueRejectsWithoutBlockingOrCheckingOnCaller() throws Exception {
+        BlockingEvaluator evaluator = new BlockingEvaluator(2);
+        MeasurementEvaluationStage stage = newStage(evaluator, 1, 2);
+        try {
+            // the first submission occupies the worker, the next two fill its queue
+            assert stage.submit(1, new MeasurementData[] { datum(1L, 1) });
+            assert evaluator.started.await(10, TimeUnit.SECONDS);
+            assert stage.submit(2, new MeasurementData[] { datum(2L, 1) });
+            assert stage.submit(3, new MeasurementData[] { datum(3L, 1) });
+
+            assert !stage.submit(2, new MeasurementData[] { datum(4L, 2) });
+            assert !stage.submit(4, new MeasurementData[] { datum(5L, 1) });
+            assert stage.getRejectedCount() == 2;
+            assert stage.getQueueDepth() == 2;
+
+            evaluator.release.countDown();
+            assert evaluator.done.await(10, TimeUnit.SECONDS);
+            assert !evaluator.threads.contains(Thread.currentThread());
+            assert evaluator.checkedFor(2).equals(Arrays.asList("2:1")) : evaluator.checked;
+            assert evaluator.checkedFor(4).isEmpty() : evaluator.checked;
+        } finally {
+            evaluator.release.countDown();
+            stage.shutdown();
+        }
+    }
+
+    public void testDataIsRejectedAfterShutdown() throws Exception {
+        RecordingEvaluator evaluator = new RecordingEvaluator(1);
+        MeasurementEvaluationStage stage = newStage(evaluator, 2, 10);
+        stage.shutdown();
+
+        assert !stage.submit(1, new MeasurementData[] { datum(1L, 1) });
+        assert evaluator.checked.isEmpty() : evaluator.checked;
+        assert stage.getQueuedCount() == 0;
+        assert stage.getRejectedCount() == 1;
+    }
+
+    private static MeasurementEvaluationStage newStage(MeasurementEvaluationStage.Evaluator evaluator, int workers,
+        int queueSize) {
+        return new MeasurementEvaluationStage(evaluator, workers, queueSize, new LoggingThreadFactory(
+            "MeasurementEvaluationStageTest", true));
+    }
+
+    private static MeasurementData datum(long timestamp, int scheduleId) {
+        return new MeasurementDataNumeric(timestamp, scheduleId, 1.0);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.alert.AlertConditionOperator;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementBaselineCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementRangeNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.NumericDoubleCacheElement;
+
+@Test
+public class NumericConditionEvaluatorTest {
+
+    private static final double[] VALUES = { -1.0, -0.0, 0.0, 1.0, 2.5, 10.0, 10.0, 99.0 };
+
+    public void testOnlyThresholdsAreIndexed() {
+        NumericDoubleCacheElement[] elements = new NumericDoubleCacheElement[] {
+            new MeasurementNumericCacheElement(AlertConditionOperator.GREATER_THAN, 5.0, 1),
+            new MeasurementNumericCacheElement(AlertConditionOperator.CHANGES, 5.0, 2),
+            new MeasurementRangeNumericCacheElement(AlertConditionOperator.LESS_THAN, 1.0, 9.0, 3),
+            new MeasurementBaselineCacheElement(AlertConditionOperator.LESS_THAN, 5.0, 4, "mean"),
+            new MeasurementBaselineCacheElement(AlertConditionOperator.LESS_THAN, Double.NaN, 5, "mean"),
+            new MeasurementNumericCacheElement(AlertConditionOperator.EQUALS, 5.0, 6) };
+
+        NumericConditionEvaluator evaluator = new NumericConditionEvaluator(elements);
+
+        assert ids(evaluator.getUnindexed()).equals(idList(2, 3, 5));
+        assert ids(evaluator.getGreaterThan()).equals(idList(1));
+        assert ids(evaluator.getLessThan()).equals(idList(4));
+        assert ids(evaluator.getEqualTo()).equals(idList(6));
+    }
+
+    public void testMatchesAgreeWithElements() {
+        Random random = new Random(17);
+        List<NumericDoubleCacheElement> elements = new ArrayList<NumericDoubleCacheElement>();
+        AlertConditionOperator[] operators = { AlertConditionOperator.GREATER_THAN, AlertConditionOperator.LESS_THAN,
+            AlertConditionOperator.EQUALS };
+        for (int i = 0; i < 60; i++) {
+            AlertConditionOperator operator = operators[random.nextInt(operators.length)];
+            elements.add(new MeasurementNumericCacheElement(operator, VALUES[random.nextInt(VALUES.length)], i));
+        }
+        NumericConditionEvaluator evaluator = new NumericConditionEvaluator(
+            elements.toArray(new NumericDoubleCacheElement[elements.size()]));
+
+        double[] providedValues = { Double.NEGATIVE_INFINITY, -5.0, -1.0, -0.0, 0.0, 0.5, 1.0, 2.5, 10.0, 50.0, 99.0,
+            1000.0, Double.POSITIVE_INFINITY, Double.NaN };
+        for (double providedValue : providedValues) {
+            Set<Integer> expected = new HashSet<Integer>();
+            for (NumericDoubleCacheElement element : elements) {
+                if (element.matches(providedValue)) {
+                    expected.add(element.getAlertConditionTriggerId());
+                }
+            }
+
+            Set<Integer> actual = new HashSet<Integer>();
+            addIds(actual, evaluator.getGreaterThan(), 0, evaluator.getGreaterThanMatchEnd(providedValue));
+            addIds(actual, evaluator.getLessThan(), evaluator.getLessThanMatchStart(providedValue),
+                evaluator.getLessThan().length);
+            addIds(actual, evaluator.getEqualTo(), evaluator.getEqualToMatchStart(providedValue),
+                evaluator.getEqualToMatchEnd(providedValue));
+
+            assert actual.equals(expected) : "wrong matches for " + providedValue + ": " + actual + " instead of "
+                + expected;
+        }
+    }
+
+    public void testEmpty() {
+        NumericConditionEvaluator evaluator = new NumericConditionEvaluator(new NumericDoubleCacheElement[0]);
+        assert evaluator.getGreaterThanMatchEnd(1.0) == 0;
+        assert evaluator.getLessThanMatchStart(1.0) == 0;
+        assert evaluator.getEqualToMatchStart(1.0) == evaluator.getEqualToMatchEnd(1.0);
+    }
+
+    private static void addIds(Set<Integer> ids, NumericDoubleCacheElement[] elements, int start, int end) {
+        for (int i = start; i < end; i++) {
+            ids.add(elements[i].getAlertConditionTriggerId());
+        }
+    }
+
+    private static List<Integer> ids(NumericDoubleCacheElement[] elements) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (NumericDoubleCacheElement element : elements) {
+            ids.add(element.getAlertConditionTriggerId());
+        }
+        return ids;
+    }
+
+    private static List<Integer> idList(Integer... ids) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (Integer id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+}
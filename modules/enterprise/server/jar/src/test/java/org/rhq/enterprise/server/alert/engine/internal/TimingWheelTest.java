@@ -0,0 +1,96 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+@Test
+public class TimingWheelTest {
+
+    public void testExpiresAtDeadlineNotBefore() {
+        TimingWheel<Integer, String> wheel = new TimingWheel<Integer, String>(1000L, 8, 0L);
+        wheel.schedule(1, "a", 2500L);
+        wheel.schedule(2, "b", 1000L);
+
+        assert wheel.expire(999L).isEmpty();
+        assert wheel.expire(1000L).equals(Arrays.asList("b"));
+        // deadlines are rounded up to the next tick
+        assert wheel.expire(2999L).isEmpty();
+        assert wheel.expire(3000L).equals(Arrays.asList("a"));
+        assert wheel.size() == 0;
+    }
+
+    public void testDeadlinesBeyondOneRound() {
+        TimingWheel<Integer, String> wheel = new TimingWheel<Integer, String>(1000L, 4, 0L);
+        wheel.schedule(1, "far", 10000L);
+        wheel.schedule(2, "near", 2000L);
+
+        // both hash to the same slot, only the near one is due after the first round
+        assert wheel.expire(2000L).equals(Arrays.asList("near"));
+        assert wheel.expire(6000L).isEmpty();
+        assert wheel.expire(10000L).equals(Arrays.asList("far"));
+    }
+
+    public void testRescheduleReplacesPendingDeadline() {
+        TimingWheel<Integer, String> wheel = new TimingWheel<Integer, String>(1000L, 8, 0L);
+        wheel.schedule(1, "first", 2000L);
+        wheel.schedule(1, "second", 5000L);
+        assert wheel.size() == 1;
+
+        assert wheel.expire(4000L).isEmpty();
+        assert wheel.expire(5000L).equals(Arrays.asList("second"));
+
+        wheel.schedule(2, "cancelled", 7000L);
+        assert wheel.cancel(2);
+        assert !wheel.cancel(2);
+        assert wheel.expire(20000L).isEmpty();
+    }
+
+    public void testPassedDeadlineExpiresWithNextTick() {
+        TimingWheel<Integer, String> wheel = new TimingWheel<Integer, String>(1000L, 8, 5000L);
+        wheel.schedule(1, "late", 1000L);
+        assert wheel.expire(5999L).isEmpty();
+        assert wheel.expire(6000L).equals(Arrays.asList("late"));
+    }
+
+    public void testCatchUpAfterLongPause() {
+        Random random = new Random(7);
+        TimingWheel<Integer, Integer> wheel = new TimingWheel<Integer, Integer>(1000L, 16, 0L);
+        Set<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            wheel.schedule(i, i, 1000L + random.nextInt(100000));
+            expected.add(i);
+        }
+
+        assert wheel.expire(0L).isEmpty();
+        List<Integer> expired = wheel.expire(101000L);
+        assert new HashSet<Integer>(expired).equals(expected);
+        assert expired.size() == expected.size();
+        assert wheel.size() == 0;
+        assert wheel.expire(500000L).equals(Collections.emptyList());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.jms.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+@Test
+public class AlertConditionMessageBatchTest {
+
+    public void testActiveCount() {
+        AlertConditionMessageBatch batch = new AlertConditionMessageBatch();
+        assert batch.isEmpty();
+
+        batch.add(new ActiveAlertConditionMessage(1, 10L, "1.0"));
+        batch.add(new InactiveAlertConditionMessage(1, 11L));
+        batch.add(new ActiveAlertConditionMessage(2, 12L, "2.0", "extra"));
+
+        assert batch.size() == 3;
+        assert batch.getActiveCount() == 2;
+    }
+
+    public void testSplitKeepsOrder() {
+        AlertConditionMessageBatch batch = new AlertConditionMessageBatch();
+        for (int i = 0; i < 7; i++) {
+            batch.add(new InactiveAlertConditionMessage(i, i));
+        }
+
+        assert batch.split(7).size() == 1;
+        assert batch.split(7).get(0) == batch;
+
+        List<AlertConditionMessageBatch> parts = batch.split(3);
+        assert parts.size() == 3;
+        assert parts.get(0).size() == 3;
+        assert parts.get(2).size() == 1;
+
+        List<Integer> ids = new ArrayList<Integer>();
+        for (AlertConditionMessageBatch part : parts) {
+            for (AbstractAlertConditionMessage message : part.getMessages()) {
+                ids.add(message.getAlertConditionId());
+            }
+        }
+        for (int i = 0; i < 7; i++) {
+            assert ids.get(i) == i;
+        }
+    }
+
+    public void testSerialization() throws Exception {
+        AlertConditionMessageBatch batch = new AlertConditionMessageBatch();
+        batch.add(new ActiveAlertConditionMessage(1, 10L, "1.0"));
+        batch.add(new InactiveAlertConditionMessage(1, 11L));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(batch);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        AlertConditionMessageBatch copy = (AlertConditionMessageBatch) in.readObject();
+
+        assert copy.size() == 2;
+        assert copy.getActiveCount() == 1;
+        assert copy.getMessages().get(0) instanceof ActiveAlertConditionMessage;
+        assert ((ActiveAlertConditionMessage) copy.getMessages().get(0)).getValue().equals("1.0");
+    }
+}
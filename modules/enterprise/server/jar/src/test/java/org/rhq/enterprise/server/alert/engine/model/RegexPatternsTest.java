@@ -0,0 +1,81 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.model;
+
+import java.util.regex.Pattern;
+
+import org.testng.annotations.Test;
+
+@Test
+public class RegexPatternsTest {
+
+    private static final String[] REGEXES = { "error", "Out Of Memory", ".*fatal.*", "^start", "done$",
+        "conn(ection)? refused", "colou?r", "ab+c", "x{2,3}yz", "a.b", "[Ee]rror: disk", "foo|bar", "(?i)abc",
+        "(?:tim(e)?out) after \\d+ms", "port\\.\\d+", "\\Qa.b\\E", "\\p{Alpha}+xyz", "abc*?def", "gr[ae]y hound",
+        "(a|b)c", "a(?=bc)bcd" };
+
+    private static final String[] TEXTS = { "", "error", "ERROR at line 1", "java.lang.OutOfMemoryError",
+        "out of memory", "a FATAL problem", "start\nmore", "line\ndone", "connection refused", "conn refused",
+        "color", "colour", "abbbc", "ac", "xxyz", "xxxyz", "axb", "Error: disk full", "foo", "bar",
+        "timeout after 30ms", "time out after 30ms", "tim after 5ms", "port.8080", "a.b", "Alphaxyz", "abdef",
+        "abccdef", "grey hound", "gray hound", "ac", "bc", "abcd", "ABCD" };
+
+    public void testLiterals() {
+        assert "error".equals(RegexPatterns.getRequiredLiteral("Error"));
+        assert "fatal".equals(RegexPatterns.getRequiredLiteral(".*fatal.*"));
+        assert " refused".equals(RegexPatterns.getRequiredLiteral("conn(ection)? refused"));
+        assert "colo".equals(RegexPatterns.getRequiredLiteral("colou?r"));
+        assert "yz".equals(RegexPatterns.getRequiredLiteral("x{2,3}yz"));
+        assert "port.".equals(RegexPatterns.getRequiredLiteral("port\\.\\d+"));
+        assert "rror: disk".equals(RegexPatterns.getRequiredLiteral("[Ee]rror: disk"));
+        assert RegexPatterns.getRequiredLiteral("foo|bar") == null;
+        assert RegexPatterns.getRequiredLiteral("(?i)abc") == null;
+        assert RegexPatterns.getRequiredLiteral("\\Qa.b\\E") == null;
+        assert RegexPatterns.getRequiredLiteral(".*") == null;
+    }
+
+    /**
+     * The prefilter must never reject text that the expression matches.
+     */
+    public void testLiteralsOfMatchesAreFound() {
+        for (String regex : REGEXES) {
+            String decorated = ".*" + regex + ".*";
+            Pattern pattern = RegexPatterns.compile(decorated);
+            String literal = RegexPatterns.getRequiredLiteral(decorated);
+            for (String text : TEXTS) {
+                if (pattern.matcher(text).matches()) {
+                    assert literal == null || RegexPatterns.containsLiteral(text, literal) : "[" + literal
+                        + "] of [" + regex + "] was not found in matching [" + text + "]";
+                }
+            }
+        }
+    }
+
+    public void testContainsLiteralIgnoresAsciiCase() {
+        assert RegexPatterns.containsLiteral("An ERROR occurred", "error");
+        assert RegexPatterns.containsLiteral("error", "error");
+        assert !RegexPatterns.containsLiteral("erro", "error");
+        assert !RegexPatterns.containsLiteral("an eror", "error");
+    }
+
+    public void testPatternsAreShared() {
+        assert RegexPatterns.compile(".*disk full.*") == RegexPatterns.compile(".*disk full.*");
+    }
+}
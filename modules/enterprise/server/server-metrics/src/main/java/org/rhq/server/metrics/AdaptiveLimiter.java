@@ -0,0 +1,244 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A concurrency limiter that adapts to the observed request latency with additive increase, multiplicative decrease
+ * (AIMD). The limit is the number of requests allowed in flight at the same time.
+ * <ul>
+ *   <li>While the smoothed latency stays within {@link #getLatencyTolerance() tolerance} times the baseline latency,
+ *   i.e., the lowest latency recently observed, and the limit is actually being used, the limit grows by about one
+ *   for every round trip of requests.</li>
+ *   <li>When the smoothed latency exceeds that threshold or a request times out, the limit is multiplied by
+ *   {@link #BACKOFF_RATIO}. Requests that started before the last decrease cannot trigger another one, so a single
+ *   burst of slow requests shrinks the limit once rather than once per request.</li>
+ * </ul>
+ * The baseline is recomputed every {@link #WINDOW_SIZE} requests so that it can follow the cluster if it becomes
+ * permanently slower, e.g., after losing a node.
+ * <br/><br/>
+ * Callers wait at most {@link #getMaxWait() maxWait} ms for a permit and then proceed anyway. Requests are issued from
+ * driver callbacks, and waiting indefinitely on those threads for permits that only they can release would deadlock.
+ */
+public class AdaptiveLimiter {
+
+    public static final double BACKOFF_RATIO = 0.9;
+
+    public static final int WINDOW_SIZE = 1000;
+
+    private static final double SMOOTHING = 0.1;
+
+    private final String name;
+
+    private final double minLimit;
+
+    private final double maxLimit;
+
+    private volatile double latencyTolerance;
+
+    private volatile long maxWait;
+
+    private double limit;
+
+    private int inFlight;
+
+    private long baselineLatency = Long.MAX_VALUE;
+
+    private long windowMinLatency = Long.MAX_VALUE;
+
+    private int windowSamples;
+
+    private double smoothedLatency;
+
+    private long lastDecrease = System.nanoTime();
+
+    private long decreases;
+
+    private long throttled;
+
+    private long overflows;
+
+    /**
+     * @param name Used in log and JMX output
+     * @param minLimit The limit never drops below this value
+     * @param maxLimit The limit never grows above this value. It is also the initial limit.
+     * @param latencyTolerance How much the smoothed latency may exceed the baseline before the limit is decreased
+     * @param maxWait The maximum time in ms to wait for a permit
+     */
+    public AdaptiveLimiter(String name, double minLimit, double maxLimit, double latencyTolerance, long maxWait) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Expected 1 <= minLimit <= maxLimit but got minLimit = " + minLimit +
+                " and maxLimit = " + maxLimit);
+        }
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.maxWait = maxWait;
+        limit = maxLimit;
+    }
+
+    /**
+     * Waits until fewer than {@link #getLimit() limit} requests are in flight or until {@link #getMaxWait() maxWait}
+     * has elapsed. The wait is not interruptible, but the interrupted status of the thread is preserved.
+     *
+     * @return The start time of the request which must be passed to {@link #release(long, boolean)}
+     */
+    public synchronized long acquire() {
+        if (inFlight >= (int) limit) {
+            ++throttled;
+            boolean interrupted = false;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+            long remaining = deadline - System.nanoTime();
+            while (inFlight >= (int) limit && remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+            if (inFlight >= (int) limit) {
+                ++overflows;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        ++inFlight;
+        return System.nanoTime();
+    }
+
+    /**
+     * @param startTime The value returned from {@link #acquire()}
+     * @param overloaded True if the request failed because the cluster is overloaded, e.g., with a timeout
+     */
+    public synchronized void release(long startTime, boolean overloaded) {
+        long now = System.nanoTime();
+        long latency = now - startTime;
+        --inFlight;
+
+        smoothedLatency = smoothedLatency == 0 ? latency : (1 - SMOOTHING) * smoothedLatency + SMOOTHING * latency;
+        baselineLatency = Math.min(baselineLatency, latency);
+        windowMinLatency = Math.min(windowMinLatency, latency);
+        if (++windowSamples == WINDOW_SIZE) {
+            baselineLatency = windowMinLatency;
+            windowMinLatency = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+
+        if (overloaded || smoothedLatency > latencyTolerance * baselineLatency) {
+            if (startTime - lastDecrease > 0) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                lastDecrease = now;
+                ++decreases;
+            }
+        } else if (inFlight + 1 >= limit / 2) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+
+        notifyAll();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized double getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public double getMinLimit() {
+        return minLimit;
+    }
+
+    public double getMaxLimit() {
+        return maxLimit;
+    }
+
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    public void setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @return The smoothed request latency in ms
+     */
+    public synchronized double getLatency() {
+        return smoothedLatency / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return The baseline request latency in ms or 0 if no request has finished yet
+     */
+    public synchronized double getBaselineLatency() {
+        return baselineLatency == Long.MAX_VALUE ? 0 : (double) baselineLatency / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return The number of times the limit has been decreased
+     */
+    public synchronized long getDecreases() {
+        return decreases;
+    }
+
+    /**
+     * @return The number of requests that had to wait for a permit
+     */
+    public synchronized long getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return The number of requests that proceeded without a permit after waiting {@link #getMaxWait() maxWait} ms
+     */
+    public synchronized long getOverflows() {
+        return overflows;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveLimiter[name: " + name + ", limit: " + limit + ", inFlight: " + inFlight + ", latency: " +
+            getLatency() + " ms, baselineLatency: " + getBaselineLatency() + " ms]";
+    }
+
+}
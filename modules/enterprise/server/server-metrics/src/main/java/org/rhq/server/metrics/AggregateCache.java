@@ -0,0 +1,257 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+/**
+ * A bounded cache of aggregate metrics for a single schedule. Data is cached in pages of {@link #SLICES_PER_PAGE}
+ * aggregates, e.g., one day of 1 hour data. Only pages that are closed, i.e., for which aggregation has finished, are
+ * cached because aggregates do not change after they have been computed. Data after the last closed page is always
+ * read from storage.
+ * <br/><br/>
+ * Pages start and end at boundaries of the 24 hour time slices as computed by {@link DateTimeService}, i.e., in local
+ * time. Every 1 hour, 6 hour, and 24 hour time slice therefore falls into exactly one page, and a page is closed only
+ * once all of its time slices have ended.
+ * <br/><br/>
+ * The closed boundary advances with {@link #setAggregatedThrough(long)}, which is called after each aggregation run.
+ * Until then nothing is cached. Anything that rewrites past aggregates, like recomputing a range, must call
+ * {@link #invalidateAll()}.
+ */
+public class AggregateCache {
+
+    public static final int SLICES_PER_PAGE = 24;
+
+    private final Cache<PageKey, List<AggregateNumericMetric>> cache;
+
+    private final MetricsConfiguration configuration;
+
+    private final DateTimeService dtService;
+
+    private volatile long aggregatedThrough = Long.MIN_VALUE;
+
+    /**
+     * @param configuration Provides the durations of the aggregate time slices
+     * @param dtService Computes the aggregate time slices
+     * @param maxPages The maximum number of pages to keep. The least recently used pages are evicted first.
+     */
+    public AggregateCache(MetricsConfiguration configuration, DateTimeService dtService, long maxPages) {
+        this.configuration = configuration;
+        this.dtService = dtService;
+        cache = CacheBuilder.newBuilder().maximumSize(maxPages).recordStats().build();
+    }
+
+    /**
+     * @param time The end of the last raw data time slice that has been aggregated. All aggregates with a time slice
+     *             that ends at or before this time are final.
+     */
+    public void setAggregatedThrough(long time) {
+        if (time > aggregatedThrough) {
+            aggregatedThrough = time;
+        }
+    }
+
+    public long getAggregatedThrough() {
+        return aggregatedThrough;
+    }
+
+    /**
+     * Finds aggregates for a schedule. Closed pages in the range are served from the cache and loaded in full on a
+     * miss. The rest of the range is read from storage and not cached.
+     *
+     * @param table One of the aggregate tables
+     * @param scheduleId The schedule id
+     * @param beginTime The start of the range, inclusive
+     * @param endTime The end of the range, exclusive
+     * @param loader Reads aggregates for a schedule and a time range from storage
+     * @return The aggregates in the range ordered by time
+     */
+    public List<AggregateNumericMetric> find(MetricsTable table, final int scheduleId, long beginTime, long endTime,
+        final Loader loader) {
+
+        List<AggregateNumericMetric> metrics = new ArrayList<AggregateNumericMetric>();
+
+        long pageStart = getPageStart(table, beginTime);
+        while (pageStart < endTime) {
+            final long start = pageStart;
+            final long end = getPageEnd(table, pageStart);
+            if (end > aggregatedThrough) {
+                break;
+            }
+            List<AggregateNumericMetric> page;
+            try {
+                page = cache.get(new PageKey(table, scheduleId, start), new Callable<List<AggregateNumericMetric>>() {
+                    @Override
+                    public List<AggregateNumericMetric> call() throws Exception {
+                        return ImmutableList.copyOf(loader.load(scheduleId, start, end));
+                    }
+                });
+            } catch (ExecutionException e) {
+                throw new CQLException(e.getCause());
+            }
+            for (AggregateNumericMetric metric : page) {
+                if (metric.getTimestamp() >= beginTime && metric.getTimestamp() < endTime) {
+                    metrics.add(metric);
+                }
+            }
+            pageStart = end;
+        }
+
+        if (pageStart < endTime) {
+            metrics.addAll(Lists.newArrayList(loader.load(scheduleId, Math.max(beginTime, pageStart), endTime)));
+        }
+
+        return metrics;
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMisses() {
+        return cache.stats().missCount();
+    }
+
+    public long getEvictions() {
+        return cache.stats().evictionCount();
+    }
+
+    /**
+     * @return The start of the page that contains <code>time</code>
+     */
+    long getPageStart(MetricsTable table, long time) {
+        Duration unit = configuration.getSixHourTimeSliceDuration();
+        DateTime unitStart = dtService.getTimeSlice(new DateTime(time), unit);
+        long index = getLocalIndex(unitStart, unit);
+        return toInstant(unitStart.getZone(), (index - (index % getUnitsPerPage(table))) * unit.getMillis());
+    }
+
+    /**
+     * @param pageStart The start of a page as returned by {@link #getPageStart(MetricsTable, long)}
+     * @return The end of the page, exclusive
+     */
+    long getPageEnd(MetricsTable table, long pageStart) {
+        Duration unit = configuration.getSixHourTimeSliceDuration();
+        DateTime start = new DateTime(pageStart);
+        long index = getLocalIndex(start, unit);
+        return toInstant(start.getZone(), (index + getUnitsPerPage(table)) * unit.getMillis());
+    }
+
+    /**
+     * @return The number of 24 hour time slices in a page of the table
+     */
+    private long getUnitsPerPage(MetricsTable table) {
+        Duration sliceDuration;
+        switch (table) {
+        case ONE_HOUR:
+            sliceDuration = configuration.getRawTimeSliceDuration();
+            break;
+        case SIX_HOUR:
+            sliceDuration = configuration.getOneHourTimeSliceDuration();
+            break;
+        case TWENTY_FOUR_HOUR:
+            sliceDuration = configuration.getSixHourTimeSliceDuration();
+            break;
+        default:
+            throw new IllegalArgumentException(table + " is not an aggregate metrics table");
+        }
+        return Math.max(1, sliceDuration.getMillis() * SLICES_PER_PAGE /
+            configuration.getSixHourTimeSliceDuration().getMillis());
+    }
+
+    /**
+     * @return The number of time slices of the given duration between the local epoch and the local time of
+     * <code>time</code>
+     */
+    private static long getLocalIndex(DateTime time, Duration duration) {
+        return (time.getMillis() + time.getZone().getOffset(time.getMillis())) / duration.getMillis();
+    }
+
+    private static long toInstant(DateTimeZone zone, long localMillis) {
+        return new DateTime(localMillis, DateTimeZone.UTC).withZoneRetainFields(zone).getMillis();
+    }
+
+    /**
+     * Reads aggregates from storage.
+     */
+    public interface Loader {
+        Iterable<AggregateNumericMetric> load(int scheduleId, long beginTime, long endTime);
+    }
+
+    private static class PageKey {
+        final MetricsTable table;
+        final int scheduleId;
+        final long pageStart;
+
+        PageKey(MetricsTable table, int scheduleId, long pageStart) {
+            this.table = table;
+            this.scheduleId = scheduleId;
+            this.pageStart = pageStart;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            PageKey that = (PageKey) o;
+
+            return scheduleId == that.scheduleId && pageStart == that.pageStart && table == that.table;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = table.hashCode();
+            result = 31 * result + scheduleId;
+            result = 31 * result + (int) (pageStart ^ (pageStart >>> 32));
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import static com.datastax.driver.core.querybuilder.QueryBuilder.timestamp;
+import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.querybuilder.Batch;
+import com.datastax.driver.core.querybuilder.Insert;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.server.metrics.domain.AggregateType;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+/**
+ * Moves data from the legacy aggregate tables, which store min, max, and avg as three rows per schedule and time, into
+ * the single row tables returned by {@link MetricsTable#getAggregateTableName()}. The migration runs against a live
+ * cluster. Partitions are discovered by scanning the legacy tables in token order, since Cassandra 1.2 has neither
+ * native paging nor SELECT DISTINCT. Each partition is read in full, written to the new table, and then deleted from
+ * the legacy table, so the migration can be stopped and restarted at any time. A partition with incomplete aggregates,
+ * i.e., ones that are missing min, max, or avg, is kept in the legacy table since those aggregates are not migrated.
+ * <br/><br/>
+ * Once a legacy table has been scanned completely, the migration is recorded in the
+ * {@link MetricsTable#METRICS_MIGRATION metrics_migrations} table, so that the table is not scanned again. See
+ * {@link #isFinished()}.
+ * <br/><br/>
+ * Rows keep their remaining TTL and their original write time. A row that has been written to the new table by
+ * aggregation after the upgrade has a newer write time and therefore wins over the migrated one.
+ * <br/><br/>
+ * Requests are throttled as {@link Workload#AGGREGATION aggregation} so that the migration does not compete with
+ * interactive reads.
+ */
+public class AggregateTableMigrator {
+
+    private static final int DEFAULT_PAGE_SIZE = 500;
+
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static final MetricsTable[] LEGACY_TABLES = {MetricsTable.ONE_HOUR, MetricsTable.SIX_HOUR,
+        MetricsTable.TWENTY_FOUR_HOUR};
+
+    private final Log log = LogFactory.getLog(AggregateTableMigrator.class);
+
+    private StorageSession session;
+
+    private int pageSize;
+
+    private PreparedStatement findMigration;
+
+    private PreparedStatement insertMigration;
+
+    private AtomicLong migratedPartitions = new AtomicLong();
+
+    private AtomicLong migratedRows = new AtomicLong();
+
+    private AtomicLong skippedRows = new AtomicLong();
+
+    public AggregateTableMigrator(StorageSession session) {
+        this(session, DEFAULT_PAGE_SIZE);
+    }
+
+    public AggregateTableMigrator(StorageSession session, int pageSize) {
+        this.session = session;
+        this.pageSize = pageSize;
+        findMigration = session.prepare("SELECT finished FROM " + MetricsTable.METRICS_MIGRATION + " WHERE name = ?");
+        insertMigration = session.prepare("INSERT INTO " + MetricsTable.METRICS_MIGRATION + " (name, finished) " +
+            "VALUES (?, ?)");
+    }
+
+    /**
+     * @return true if the 1 hour, 6 hour, and 24 hour tables have all been migrated
+     */
+    public boolean isFinished() {
+        for (MetricsTable table : LEGACY_TABLES) {
+            if (!isFinished(table)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param table One of the aggregate buckets
+     * @return true if the legacy table of the bucket has been scanned completely by an earlier migration
+     */
+    public boolean isFinished(MetricsTable table) {
+        return session.execute(findMigration.bind(getMigrationName(table)), Workload.AGGREGATION).one() != null;
+    }
+
+    /**
+     * Migrates the 1 hour, 6 hour, and 24 hour tables in that order, skipping the ones that have already been
+     * migrated. The migration stops early if the calling thread is interrupted.
+     *
+     * @return The number of rows written to the new tables
+     */
+    public long migrate() {
+        long rows = 0;
+        for (MetricsTable table : LEGACY_TABLES) {
+            rows += migrate(table);
+        }
+        return rows;
+    }
+
+    /**
+     * @param table One of the aggregate buckets
+     * @return The number of rows written to the new table
+     */
+    public long migrate(MetricsTable table) {
+        if (table.getAggregateTableName() == null) {
+            throw new IllegalArgumentException(table + " is not an aggregate metrics table");
+        }
+        if (isFinished(table)) {
+            if (log.isDebugEnabled()) {
+                log.debug(table + " has already been migrated to " + table.getAggregateTableName());
+            }
+            return 0;
+        }
+
+        log.info("Starting migration of " + table + " to " + table.getAggregateTableName());
+        long startTime = System.currentTimeMillis();
+
+        PreparedStatement findFirstPage = session.prepare("SELECT schedule_id FROM " + table + " LIMIT " + pageSize);
+        PreparedStatement findNextPage = session.prepare("SELECT schedule_id FROM " + table +
+            " WHERE token(schedule_id) > token(?) LIMIT " + pageSize);
+        PreparedStatement findPartition = session.prepare("SELECT schedule_id, time, type, value, ttl(value), " +
+            "writetime(value) FROM " + table + " WHERE schedule_id = ?");
+        PreparedStatement deletePartition = session.prepare("DELETE FROM " + table + " WHERE schedule_id = ?");
+
+        long rows = 0;
+        long partitions = 0;
+        Integer lastScheduleId = null;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Row> page;
+            if (lastScheduleId == null) {
+                page = session.execute(findFirstPage.bind(), Workload.AGGREGATION).all();
+            } else {
+                page = session.execute(findNextPage.bind(lastScheduleId), Workload.AGGREGATION).all();
+            }
+
+            // The page has one row per (schedule_id, time, type). Rows of the same partition are adjacent since they
+            // are returned in token order.
+            Set<Integer> scheduleIds = new LinkedHashSet<Integer>();
+            for (Row row : page) {
+                scheduleIds.add(row.getInt(0));
+            }
+
+            for (Integer scheduleId : scheduleIds) {
+                rows += migratePartition(table, scheduleId, findPartition, deletePartition);
+                ++partitions;
+                lastScheduleId = scheduleId;
+            }
+
+            if (page.size() < pageSize) {
+                break;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Migrated " + partitions + " partitions of " + table + " so far");
+            }
+        }
+
+        if (Thread.currentThread().isInterrupted()) {
+            log.info("Stopped migration of " + table + " after " + partitions + " partitions and " + rows + " rows. " +
+                "It will resume with the data that has not been migrated yet.");
+            return rows;
+        }
+
+        session.execute(insertMigration.bind(getMigrationName(table), new Date()), Workload.AGGREGATION);
+        log.info("Finished migration of " + partitions + " partitions and " + rows + " rows of " + table + " in " +
+            (System.currentTimeMillis() - startTime) + " ms");
+
+        return rows;
+    }
+
+    public long getMigratedPartitions() {
+        return migratedPartitions.get();
+    }
+
+    public long getMigratedRows() {
+        return migratedRows.get();
+    }
+
+    /**
+     * @return The number of aggregates in the legacy tables that were missing min, max, or avg and were not migrated
+     */
+    public long getSkippedRows() {
+        return skippedRows.get();
+    }
+
+    private long migratePartition(MetricsTable table, int scheduleId, PreparedStatement findPartition,
+        PreparedStatement deletePartition) {
+        Map<Long, LegacyAggregate> aggregates = new TreeMap<Long, LegacyAggregate>();
+        for (Row row : session.execute(findPartition.bind(scheduleId), Workload.AGGREGATION)) {
+            long time = row.getDate(1).getTime();
+            LegacyAggregate aggregate = aggregates.get(time);
+            if (aggregate == null) {
+                aggregate = new LegacyAggregate();
+                aggregates.put(time, aggregate);
+            }
+            aggregate.add(row);
+        }
+
+        ByteBuffer routingKey = ByteBuffer.allocate(4).putInt(0, scheduleId);
+        Batch batch = QueryBuilder.unloggedBatch();
+        int batchSize = 0;
+        long rows = 0;
+        int skipped = 0;
+
+        for (Map.Entry<Long, LegacyAggregate> entry : aggregates.entrySet()) {
+            LegacyAggregate aggregate = entry.getValue();
+            if (!aggregate.isComplete()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Skipping incomplete aggregate for schedule id " + scheduleId + " at " +
+                        entry.getKey() + " in " + table);
+                }
+                ++skipped;
+                continue;
+            }
+            if (aggregate.ttl != null && aggregate.ttl <= 0) {
+                continue;
+            }
+
+            Insert insert = QueryBuilder.insertInto(table.getAggregateTableName())
+                .value("schedule_id", scheduleId)
+                .value("time", new Date(entry.getKey()))
+                .value("min", aggregate.min)
+                .value("max", aggregate.max)
+                .value("avg", aggregate.avg);
+            if (aggregate.ttl == null) {
+                insert.using(timestamp(aggregate.writeTime));
+            } else {
+                insert.using(ttl(aggregate.ttl)).and(timestamp(aggregate.writeTime));
+            }
+            batch.add(insert);
+            ++batchSize;
+            ++rows;
+
+            if (batchSize == MAX_BATCH_SIZE) {
+                execute(batch, routingKey);
+                batch = QueryBuilder.unloggedBatch();
+                batchSize = 0;
+            }
+        }
+        if (batchSize > 0) {
+            execute(batch, routingKey);
+        }
+
+        if (skipped == 0) {
+            session.execute(deletePartition.bind(scheduleId), Workload.AGGREGATION);
+        } else {
+            // Keep the incomplete aggregates. The migrated ones are left as well, they are no longer read.
+            skippedRows.addAndGet(skipped);
+            log.warn("Kept the partition of schedule id " + scheduleId + " in " + table + " since it has " + skipped +
+                " incomplete aggregates that were not migrated");
+        }
+
+        migratedPartitions.incrementAndGet();
+        migratedRows.addAndGet(rows);
+
+        return rows;
+    }
+
+    private String getMigrationName(MetricsTable table) {
+        return table.getTableName() + "_to_" + table.getAggregateTableName();
+    }
+
+    private void execute(Batch batch, ByteBuffer routingKey) {
+        SimpleStatement statement = new SimpleStatement(batch.getQueryString());
+        statement.setRoutingKey(routingKey);
+        session.execute(statement, Workload.AGGREGATION);
+    }
+
+    private static class LegacyAggregate {
+        Double min;
+        Double max;
+        Double avg;
+        Integer ttl;
+        long writeTime;
+
+        void add(Row row) {
+            double value = row.getDouble(3);
+            switch (AggregateType.valueOf(row.getInt(2))) {
+            case MIN:
+                min = value;
+                break;
+            case MAX:
+                max = value;
+                break;
+            default:
+                avg = value;
+            }
+            if (!row.isNull(4)) {
+                int rowTTL = row.getInt(4);
+                ttl = ttl == null ? rowTTL : Math.min(ttl, rowTTL);
+            }
+            writeTime = Math.max(writeTime, row.getLong(5));
+        }
+
+        boolean isComplete() {
+            return min != null && max != null && avg != null;
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.List;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+/**
+ * Receives the 1 hour aggregates that this server computed while assisting another server with a shared aggregation
+ * run. The aggregates that the coordinating server computes itself are returned by
+ * {@link MetricsServer#calculateAggregates()} instead.
+ */
+public interface AggregationListener {
+
+    void onAggregation(List<AggregateNumericMetric> oneHourData);
+
+}
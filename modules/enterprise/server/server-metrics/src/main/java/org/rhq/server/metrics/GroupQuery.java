@@ -0,0 +1,181 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.AggregateNumericMetricMapper;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+/**
+ * Queries metric data for a group of schedules. Instead of a single IN query, which is handled by one coordinator
+ * and slows down as groups grow, one async query is issued per schedule so that each is routed directly to a replica
+ * that owns the partition. At most {@link #getMaxConcurrency() maxConcurrency} queries are in flight at any time.
+ * <br/><br/>
+ * Results are passed to a {@link Merge} as each query completes so that the data for the whole group never has to be
+ * held in memory. Calls to the merge are serialized.
+ */
+public class GroupQuery {
+
+    private final MetricsDAO dao;
+
+    private volatile int maxConcurrency;
+
+    /**
+     * @param dao The DAO used to issue the per schedule queries
+     * @param maxConcurrency The maximum number of queries in flight for a single call to
+     * {@link #execute(MetricsTable, List, long, long, Merge)}
+     */
+    public GroupQuery(MetricsDAO dao, int maxConcurrency) {
+        this.dao = dao;
+        setMaxConcurrency(maxConcurrency);
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Applies to queries that start after this call. Queries that are already running keep their limit.
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be > 0");
+        }
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Fetches the data of each schedule in the time range and merges it. This method blocks until all queries have
+     * finished.
+     *
+     * @param table The table to query. Raw data is passed to the merge with the value as avg, min, and max.
+     * @param scheduleIds The schedules of the group
+     * @param beginTime The start of the range, inclusive
+     * @param endTime The end of the range, exclusive
+     * @param merge Receives the data of all schedules
+     * @throws CQLException if any of the queries fails or if the calling thread is interrupted
+     */
+    public void execute(final MetricsTable table, List<Integer> scheduleIds, long beginTime, long endTime,
+        final Merge merge) {
+
+        int concurrency = maxConcurrency;
+        final Semaphore permits = new Semaphore(concurrency);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final AggregateNumericMetricMapper mapper = new AggregateNumericMetricMapper();
+
+        try {
+            for (Integer scheduleId : scheduleIds) {
+                permits.acquire();
+                if (error.get() != null) {
+                    permits.release();
+                    break;
+                }
+                StorageResultSetFuture future;
+                try {
+                    future = findMetricsAsync(table, scheduleId, beginTime, endTime);
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+                Futures.addCallback(future, new FutureCallback<ResultSet>() {
+                    @Override
+                    public void onSuccess(ResultSet resultSet) {
+                        try {
+                            synchronized (merge) {
+                                for (Row row : resultSet) {
+                                    if (table == MetricsTable.RAW) {
+                                        double value = row.getDouble(2);
+                                        merge.add(row.getDate(1).getTime(), value, value, value);
+                                    } else {
+                                        AggregateNumericMetric metric = mapper.map(row);
+                                        merge.add(metric.getTimestamp(), metric.getAvg(), metric.getMin(),
+                                            metric.getMax());
+                                    }
+                                }
+                            }
+                        } catch (Throwable t) {
+                            error.compareAndSet(null, t);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        error.compareAndSet(null, t);
+                        permits.release();
+                    }
+                });
+            }
+            // Once every permit is available again, all of the queries have finished
+            permits.acquire(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CQLException("Interrupted while querying " + table + " for a group of " + scheduleIds.size() +
+                " schedules", e);
+        }
+
+        Throwable t = error.get();
+        if (t != null) {
+            throw new CQLException("Failed to query " + table + " for a group of " + scheduleIds.size() +
+                " schedules", t);
+        }
+    }
+
+    private StorageResultSetFuture findMetricsAsync(MetricsTable table, int scheduleId, long beginTime,
+        long endTime) {
+        switch (table) {
+        case RAW:
+            return dao.findRawMetricsAsync(scheduleId, beginTime, endTime);
+        case ONE_HOUR:
+            return dao.findOneHourMetricsAsync(scheduleId, beginTime, endTime);
+        case SIX_HOUR:
+            return dao.findSixHourMetricsAsync(scheduleId, beginTime, endTime);
+        case TWENTY_FOUR_HOUR:
+            return dao.findTwentyFourHourMetricsAsync(scheduleId, beginTime, endTime);
+        default:
+            throw new IllegalArgumentException(table + " is not a metrics data table");
+        }
+    }
+
+    /**
+     * Receives the data of a group query. Data arrives grouped by schedule, but the order of the schedules is not
+     * defined.
+     */
+    public interface Merge {
+        void add(long timestamp, double avg, double min, double max);
+    }
+
+}
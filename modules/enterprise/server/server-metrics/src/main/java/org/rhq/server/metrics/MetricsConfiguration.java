@@ -63,6 +63,11 @@ public class MetricsConfiguration {
 
     private Duration sixHourTimeSliceDuration = Duration.standardHours(24);
 
+    private int indexPageSize = Integer.parseInt(System.getProperty(MetricsConstants.INDEX_PAGE_SIZE, "1000"));
+
+    private int aggregationLeaseDuration = Integer.parseInt(System.getProperty(
+        MetricsConstants.AGGREGATION_LEASE_DURATION, "60"));
+
     public int getRawTTL() {
         return rawTTL;
     }
@@ -151,6 +156,29 @@ public class MetricsConfiguration {
         this.sixHourTimeSliceDuration = sixHourTimeSliceDuration;
     }
 
+    /**
+     * @return The maximum number of index entries fetched per query when index entries are paged
+     */
+    public int getIndexPageSize() {
+        return indexPageSize;
+    }
+
+    public void setIndexPageSize(int indexPageSize) {
+        this.indexPageSize = indexPageSize;
+    }
+
+    /**
+     * @return The number of seconds after which a server's claim on a shard of aggregation work expires unless it is
+     * renewed
+     */
+    public int getAggregationLeaseDuration() {
+        return aggregationLeaseDuration;
+    }
+
+    public void setAggregationLeaseDuration(int aggregationLeaseDuration) {
+        this.aggregationLeaseDuration = aggregationLeaseDuration;
+    }
+
     public Duration getTimeSliceDuration(MetricsTable table) {
         if (MetricsTable.RAW.equals(table)) {
             return this.getRawTimeSliceDuration();
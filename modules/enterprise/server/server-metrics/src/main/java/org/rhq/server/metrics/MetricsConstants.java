@@ -11,6 +11,26 @@ public class MetricsConstants {
 
     public static final String AGGREGATION_PARALLELISM = "rhq.metrics.aggregation.parallelism";
 
+    public static final String AGGREGATION_ASYNC = "rhq.metrics.aggregation.async";
+
+    public static final String AGGREGATION_CLUSTERED = "rhq.metrics.aggregation.clustered";
+
+    public static final String AGGREGATION_LEASE_DURATION = "rhq.metrics.aggregation.lease-duration";
+
+    public static final String INGESTION_BATCHING = "rhq.metrics.ingestion.batching";
+
+    public static final String INGESTION_BATCH_SIZE = "rhq.metrics.ingestion.batch-size";
+
+    public static final String INGESTION_LINGER = "rhq.metrics.ingestion.linger";
+
+    public static final String INDEX_CACHE = "rhq.metrics.index.cache";
+
+    public static final String INDEX_PAGE_SIZE = "rhq.metrics.index.page-size";
+
+    public static final String AGGREGATE_CACHE_SIZE = "rhq.metrics.aggregate-cache.size";
+
+    public static final String GROUP_QUERY_CONCURRENCY = "rhq.metrics.group-query.concurrency";
+
     private MetricsConstants() {
     }
 }
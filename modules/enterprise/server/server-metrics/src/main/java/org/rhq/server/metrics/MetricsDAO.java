@@ -26,6 +26,13 @@
 package org.rhq.server.metrics;
 
 
+import static com.datastax.driver.core.querybuilder.QueryBuilder.ttl;
+import static java.util.Arrays.asList;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -33,7 +40,13 @@ import java.util.Map;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.querybuilder.Batch;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -42,8 +55,8 @@ import org.rhq.core.domain.measurement.MeasurementDataNumeric;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
 import org.rhq.server.metrics.domain.AggregateNumericMetricMapper;
 import org.rhq.server.metrics.domain.AggregateSimpleNumericMetric;
-import org.rhq.server.metrics.domain.AggregateSimpleNumericMetricMapper;
 import org.rhq.server.metrics.domain.AggregateType;
+import org.rhq.server.metrics.domain.AggregationLease;
 import org.rhq.server.metrics.domain.ListPagedResult;
 import org.rhq.server.metrics.domain.MetricsIndexEntry;
 import org.rhq.server.metrics.domain.MetricsIndexEntryMapper;
@@ -54,10 +67,15 @@ import org.rhq.server.metrics.domain.SimplePagedResult;
 
 
 /**
+ * The queries that have no {@link Workload} parameter are interactive reads and run as {@link Workload#READ}. The
+ * ingestion and aggregation paths use the overloads that take the workload.
+ *
  * @author John Sanda
  */
 public class MetricsDAO {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private final Log log = LogFactory.getLog(MetricsDAO.class);
 
     private StorageSession storageSession;
@@ -76,8 +94,18 @@ public class MetricsDAO {
     private PreparedStatement findSixHourMetricsByDateRange;
     private PreparedStatement findTwentyFourHourMetricsByDateRange;
     private PreparedStatement findIndexEntries;
+    private PreparedStatement findIndexEntriesPage;
     private PreparedStatement findTimeSliceForIndex;
     private PreparedStatement deleteIndexEntries;
+    private PreparedStatement updateAggregationCheckpoint;
+    private PreparedStatement findAggregationCheckpoint;
+    private PreparedStatement deleteAggregationCheckpoint;
+    private PreparedStatement insertAggregationLease;
+    private PreparedStatement findAggregationLeases;
+    private PreparedStatement renewAggregationLease;
+    private PreparedStatement updateAggregationLeaseCheckpoint;
+    private PreparedStatement finishAggregationLease;
+    private PreparedStatement deleteAggregationLeases;
 
     public MetricsDAO(StorageSession session, MetricsConfiguration configuration) {
         this.storageSession = session;
@@ -104,14 +132,15 @@ public class MetricsDAO {
         rawMetricsQuery = storageSession.prepare("SELECT schedule_id, time, value FROM " + MetricsTable.RAW +
             " WHERE schedule_id = ? AND time >= ? AND time < ? ORDER BY time");
 
-        insertOneHourData = storageSession.prepare("INSERT INTO " + MetricsTable.ONE_HOUR + "(schedule_id, time, " +
-            "type, value) VALUES (?, ?, ?, ?) USING TTL " + configuration.getOneHourTTL());
+        insertOneHourData = storageSession.prepare("INSERT INTO " + MetricsTable.ONE_HOUR.getAggregateTableName() +
+            " (schedule_id, time, min, max, avg) VALUES (?, ?, ?, ?, ?) USING TTL " + configuration.getOneHourTTL());
 
-        insertSixHourData = storageSession.prepare("INSERT INTO " + MetricsTable.SIX_HOUR + "(schedule_id, time, " +
-            "type, value) VALUES (?, ?, ?, ?) USING TTL " + configuration.getSixHourTTL());
+        insertSixHourData = storageSession.prepare("INSERT INTO " + MetricsTable.SIX_HOUR.getAggregateTableName() +
+            " (schedule_id, time, min, max, avg) VALUES (?, ?, ?, ?, ?) USING TTL " + configuration.getSixHourTTL());
 
-        insertTwentyFourHourData = storageSession.prepare("INSERT INTO " + MetricsTable.TWENTY_FOUR_HOUR + "(schedule_id, " +
-            "time, type, value) VALUES (?, ?, ?, ?) USING TTL " + configuration.getTwentyFourHourTTL());
+        insertTwentyFourHourData = storageSession.prepare("INSERT INTO " +
+            MetricsTable.TWENTY_FOUR_HOUR.getAggregateTableName() + " (schedule_id, time, min, max, avg) " +
+            "VALUES (?, ?, ?, ?, ?) USING TTL " + configuration.getTwentyFourHourTTL());
 
         updateMetricsIndex = storageSession.prepare("INSERT INTO " + MetricsTable.INDEX + " (bucket, time, schedule_id) " +
             "VALUES (?, ?, ?)");
@@ -122,23 +151,59 @@ public class MetricsDAO {
         findRawMetrics = storageSession.prepare("SELECT schedule_id, time, value FROM " + MetricsTable.RAW +
             " WHERE schedule_id = ? AND time >= ? AND time <= ?");
 
-        findOneHourMetricsByDateRange = storageSession.prepare("SELECT schedule_id, time, type, value FROM " +
-            MetricsTable.ONE_HOUR + " WHERE schedule_id = ? AND time >= ? AND time < ?");
+        findOneHourMetricsByDateRange = storageSession.prepare("SELECT schedule_id, time, min, max, avg FROM " +
+            MetricsTable.ONE_HOUR.getAggregateTableName() + " WHERE schedule_id = ? AND time >= ? AND time < ?");
 
-        findSixHourMetricsByDateRange = storageSession.prepare("SELECT schedule_id, time, type, value FROM "
-            + MetricsTable.SIX_HOUR + " WHERE schedule_id = ? AND time >= ? AND time < ?");
+        findSixHourMetricsByDateRange = storageSession.prepare("SELECT schedule_id, time, min, max, avg FROM " +
+            MetricsTable.SIX_HOUR.getAggregateTableName() + " WHERE schedule_id = ? AND time >= ? AND time < ?");
 
-        findTwentyFourHourMetricsByDateRange = storageSession.prepare("SELECT schedule_id, time, type, value FROM " +
-            MetricsTable.TWENTY_FOUR_HOUR + " WHERE schedule_id = ? AND time >= ? AND time < ?");
+        findTwentyFourHourMetricsByDateRange = storageSession.prepare("SELECT schedule_id, time, min, max, avg FROM " +
+            MetricsTable.TWENTY_FOUR_HOUR.getAggregateTableName() + " WHERE schedule_id = ? AND time >= ? AND time < ?");
 
         findIndexEntries = storageSession.prepare("SELECT time, schedule_id FROM " + MetricsTable.INDEX +
             " WHERE bucket = ? AND time = ?");
 
+        // Cassandra 1.2 does not support native paging or a bind marker for LIMIT, so the page size is fixed when the
+        // statement is prepared. Pages are fetched by slicing on schedule_id, the clustering column.
+        findIndexEntriesPage = storageSession.prepare("SELECT time, schedule_id FROM " + MetricsTable.INDEX +
+            " WHERE bucket = ? AND time = ? AND schedule_id > ? LIMIT " + configuration.getIndexPageSize());
+
         findTimeSliceForIndex = storageSession.prepare("SELECT time FROM " + MetricsTable.INDEX +
             " WHERE bucket = ? AND time = ?");
 
         deleteIndexEntries = storageSession.prepare("DELETE FROM " + MetricsTable.INDEX + " WHERE bucket = ? AND time = ?");
 
+        updateAggregationCheckpoint = storageSession.prepare("INSERT INTO " + MetricsTable.AGGREGATION_CHECKPOINT +
+            " (bucket, time, schedule_id) VALUES (?, ?, ?) USING TTL " + MetricsTable.AGGREGATION_CHECKPOINT.getTTL());
+
+        findAggregationCheckpoint = storageSession.prepare("SELECT schedule_id FROM " +
+            MetricsTable.AGGREGATION_CHECKPOINT + " WHERE bucket = ? AND time = ?");
+
+        deleteAggregationCheckpoint = storageSession.prepare("DELETE FROM " + MetricsTable.AGGREGATION_CHECKPOINT +
+            " WHERE bucket = ? AND time = ?");
+
+        insertAggregationLease = storageSession.prepare("INSERT INTO " + MetricsTable.AGGREGATION_LEASE +
+            " (bucket, time, shard, finished) VALUES (?, ?, ?, false) USING TTL " +
+            MetricsTable.AGGREGATION_LEASE.getTTL());
+
+        findAggregationLeases = storageSession.prepare("SELECT shard, owner, checkpoint, finished FROM " +
+            MetricsTable.AGGREGATION_LEASE + " WHERE bucket = ? AND time = ?");
+
+        // The owner expires unless the lease is renewed, which frees the shard for other servers
+        renewAggregationLease = storageSession.prepare("UPDATE " + MetricsTable.AGGREGATION_LEASE + " USING TTL " +
+            configuration.getAggregationLeaseDuration() + " SET owner = ? WHERE bucket = ? AND time = ? AND shard = ?");
+
+        updateAggregationLeaseCheckpoint = storageSession.prepare("UPDATE " + MetricsTable.AGGREGATION_LEASE +
+            " USING TTL " + MetricsTable.AGGREGATION_LEASE.getTTL() + " SET checkpoint = ? WHERE bucket = ? AND " +
+            "time = ? AND shard = ?");
+
+        finishAggregationLease = storageSession.prepare("UPDATE " + MetricsTable.AGGREGATION_LEASE + " USING TTL " +
+            MetricsTable.AGGREGATION_LEASE.getTTL() + " SET finished = true WHERE bucket = ? AND time = ? AND " +
+            "shard = ?");
+
+        deleteAggregationLeases = storageSession.prepare("DELETE FROM " + MetricsTable.AGGREGATION_LEASE +
+            " WHERE bucket = ? AND time = ?");
+
         long endTime = System.currentTimeMillis();
         log.info("Finished initializing prepared statements in " + (endTime - startTime) + " ms");
     }
@@ -146,42 +211,83 @@ public class MetricsDAO {
     public StorageResultSetFuture insertRawData(MeasurementDataNumeric data) {
         BoundStatement statement = insertRawData.bind(data.getScheduleId(), new Date(data.getTimestamp()),
             data.getValue());
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.INGESTION);
+    }
+
+    /**
+     * Inserts raw data for a single schedule with one unlogged batch. Since all of the statements in the batch target
+     * the same partition, the batch is applied as a single mutation on the replicas. The schedule id is set as the
+     * routing key so that a token aware load balancing policy can send the batch directly to a replica.
+     *
+     * @param scheduleId The schedule id, i.e., the partition key, of all data in the batch
+     * @param data The raw data to insert. Every element must belong to <code>scheduleId</code>.
+     * @return A future for the batch
+     */
+    public StorageResultSetFuture insertRawDataBatch(int scheduleId, Collection<MeasurementDataNumeric> data) {
+        Batch batch = QueryBuilder.unloggedBatch();
+        for (MeasurementDataNumeric datum : data) {
+            batch.add(QueryBuilder.insertInto(MetricsTable.RAW.getTableName())
+                .value("schedule_id", scheduleId)
+                .value("time", new Date(datum.getTimestamp()))
+                .value("value", datum.getValue())
+                .using(ttl(configuration.getRawTTL())));
+        }
+        SimpleStatement statement = new SimpleStatement(batch.getQueryString());
+        statement.setRoutingKey(ByteBuffer.allocate(4).putInt(0, scheduleId));
+        return storageSession.executeAsync(statement, Workload.INGESTION);
+    }
+
+    /**
+     * Adds index entries for multiple schedules with one unlogged batch. All of the entries share the same partition
+     * key, (bucket, time), so the batch is applied as a single mutation on the replicas.
+     *
+     * @param table The bucket to update
+     * @param timeSlice The time slice of the index partition
+     * @param scheduleIds The schedules to add to the index partition
+     * @return A future for the batch
+     */
+    public StorageResultSetFuture updateMetricsIndexBatch(MetricsTable table, long timeSlice,
+        Collection<Integer> scheduleIds) {
+        Batch batch = QueryBuilder.unloggedBatch();
+        for (Integer scheduleId : scheduleIds) {
+            batch.add(QueryBuilder.insertInto(MetricsTable.INDEX.getTableName())
+                .value("bucket", table.getTableName())
+                .value("time", new Date(timeSlice))
+                .value("schedule_id", scheduleId));
+        }
+        SimpleStatement statement = new SimpleStatement(batch.getQueryString());
+        statement.setRoutingKey(ByteBuffer.wrap(table.getTableName().getBytes(UTF_8)),
+            ByteBuffer.allocate(8).putLong(0, timeSlice));
+        return storageSession.executeAsync(statement, Workload.INGESTION);
+    }
+
+    public ResultSet insertOneHourData(AggregateNumericMetric metric) {
+        return storageSession.execute(bindAggregate(insertOneHourData, metric), Workload.AGGREGATION);
     }
 
-    public ResultSet insertOneHourData(int scheduleId, long timestamp, AggregateType type, double value) {
-        BoundStatement statement = insertOneHourData.bind(scheduleId, new Date(timestamp), type.ordinal(), value);
-        return storageSession.execute(statement);
+    public StorageResultSetFuture insertOneHourDataAsync(AggregateNumericMetric metric) {
+        return storageSession.executeAsync(bindAggregate(insertOneHourData, metric), Workload.AGGREGATION);
     }
 
-    public StorageResultSetFuture insertOneHourDataAsync(int scheduleId, long timestamp, AggregateType type,
-        double value) {
-        BoundStatement statement = insertOneHourData.bind(scheduleId, new Date(timestamp), type.ordinal(), value);
-        return storageSession.executeAsync(statement);
+    public ResultSet insertSixHourData(AggregateNumericMetric metric) {
+        return storageSession.execute(bindAggregate(insertSixHourData, metric), Workload.AGGREGATION);
     }
 
-    public ResultSet insertSixHourData(int scheduleId, long timestamp, AggregateType type, double value) {
-        BoundStatement statement = insertSixHourData.bind(scheduleId, new Date(timestamp), type.ordinal(), value);
-        return storageSession.execute(statement);
+    public StorageResultSetFuture insertSixHourDataAsync(AggregateNumericMetric metric) {
+        return storageSession.executeAsync(bindAggregate(insertSixHourData, metric), Workload.AGGREGATION);
     }
 
-    public StorageResultSetFuture insertSixHourDataAsync(int scheduleId, long timestamp, AggregateType type,
-        double value) {
-        BoundStatement statement = insertSixHourData.bind(scheduleId, new Date(timestamp), type.ordinal(), value);
-        return storageSession.executeAsync(statement);
+    public ResultSet insertTwentyFourHourData(AggregateNumericMetric metric) {
+        return storageSession.execute(bindAggregate(insertTwentyFourHourData, metric), Workload.AGGREGATION);
     }
 
-    public ResultSet insertTwentyFourHourData(int scheduleId, long timestamp, AggregateType type, double value) {
-        BoundStatement statement = insertTwentyFourHourData.bind(scheduleId, new Date(timestamp), type.ordinal(),
-            value);
-        return storageSession.execute(statement);
+    public StorageResultSetFuture insertTwentyFourHourDataAsync(AggregateNumericMetric metric) {
+        return storageSession.executeAsync(bindAggregate(insertTwentyFourHourData, metric), Workload.AGGREGATION);
     }
 
-    public StorageResultSetFuture insertTwentyFourHourDataAsync(int scheduleId, long timestamp, AggregateType type,
-        double value) {
-        BoundStatement statement = insertTwentyFourHourData.bind(scheduleId, new Date(timestamp), type.ordinal(),
-            value);
-        return storageSession.executeAsync(statement);
+    private BoundStatement bindAggregate(PreparedStatement statement, AggregateNumericMetric metric) {
+        return statement.bind(metric.getScheduleId(), new Date(metric.getTimestamp()), metric.getMin(),
+            metric.getMax(), metric.getAvg());
     }
 
     public Iterable<RawNumericMetric> findRawMetrics(int scheduleId, long startTime, long endTime) {
@@ -195,19 +301,32 @@ public class MetricsDAO {
     }
 
     public ResultSet findRawMetricsSync(int scheduleId, long startTime, long endTime) {
+        return findRawMetricsSync(scheduleId, startTime, endTime, Workload.READ);
+    }
+
+    public ResultSet findRawMetricsSync(int scheduleId, long startTime, long endTime, Workload workload) {
         BoundStatement boundStatement = rawMetricsQuery.bind(scheduleId, new Date(startTime), new Date(endTime));
-        return storageSession.execute(boundStatement);
+        return storageSession.execute(boundStatement, workload);
     }
 
     public StorageResultSetFuture findRawMetricsAsync(int scheduleId, long startTime, long endTime) {
+        return findRawMetricsAsync(scheduleId, startTime, endTime, Workload.READ);
+    }
+
+    public StorageResultSetFuture findRawMetricsAsync(int scheduleId, long startTime, long endTime,
+        Workload workload) {
         BoundStatement boundStatement = rawMetricsQuery.bind(scheduleId, new Date(startTime), new Date(endTime));
-        return storageSession.executeAsync(boundStatement);
+        return storageSession.executeAsync(boundStatement, workload);
     }
 
     public RawNumericMetric findLatestRawMetric(int scheduleId) {
+        return findLatestRawMetric(scheduleId, Workload.READ);
+    }
+
+    public RawNumericMetric findLatestRawMetric(int scheduleId, Workload workload) {
         RawNumericMetricMapper mapper = new RawNumericMetricMapper(false);
         BoundStatement boundStatement = findLatestRawMetric.bind(scheduleId);
-        ResultSet resultSet = storageSession.execute(boundStatement);
+        ResultSet resultSet = storageSession.execute(boundStatement, workload);
 
         return mapper.mapOne(resultSet);
     }
@@ -224,9 +343,14 @@ public class MetricsDAO {
     }
 
     public StorageResultSetFuture findOneHourMetricsAsync(int scheduleId, long startTime, long endTime) {
+        return findOneHourMetricsAsync(scheduleId, startTime, endTime, Workload.READ);
+    }
+
+    public StorageResultSetFuture findOneHourMetricsAsync(int scheduleId, long startTime, long endTime,
+        Workload workload) {
         BoundStatement statement = findOneHourMetricsByDateRange.bind(scheduleId, new Date(startTime),
             new Date(endTime));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, workload);
     }
 
     public Iterable<AggregateNumericMetric> findSixHourMetrics(int scheduleId, long startTime, long endTime) {
@@ -236,8 +360,13 @@ public class MetricsDAO {
     }
 
     public StorageResultSetFuture findSixHourMetricsAsync(int scheduleId, long startTime, long endTime) {
+        return findSixHourMetricsAsync(scheduleId, startTime, endTime, Workload.READ);
+    }
+
+    public StorageResultSetFuture findSixHourMetricsAsync(int scheduleId, long startTime, long endTime,
+        Workload workload) {
         BoundStatement statement = findSixHourMetricsByDateRange.bind(scheduleId, new Date(startTime), new Date(endTime));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, workload);
     }
 
     public Iterable<AggregateNumericMetric> findTwentyFourHourMetrics(int scheduleId, long startTime, long endTime) {
@@ -247,17 +376,28 @@ public class MetricsDAO {
     }
 
     public StorageResultSetFuture findTwentyFourHourMetricsAsync(int scheduleId, long startTime, long endTime) {
+        return findTwentyFourHourMetricsAsync(scheduleId, startTime, endTime, Workload.READ);
+    }
+
+    public StorageResultSetFuture findTwentyFourHourMetricsAsync(int scheduleId, long startTime, long endTime,
+        Workload workload) {
         BoundStatement statement = findTwentyFourHourMetricsByDateRange.bind(scheduleId, new Date(startTime),
             new Date(endTime));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, workload);
     }
 
     public Iterable<AggregateSimpleNumericMetric> findAggregatedSimpleOneHourMetric(int scheduleId, long startTime,
         long endTime) {
-        BoundStatement statement = findOneHourMetricsByDateRange.bind(scheduleId, new Date(startTime),
-            new Date(endTime));
-        return new SimplePagedResult<AggregateSimpleNumericMetric>(statement, new AggregateSimpleNumericMetricMapper(),
-            storageSession);
+        return Iterables.concat(Iterables.transform(findOneHourMetrics(scheduleId, startTime, endTime),
+            new Function<AggregateNumericMetric, Iterable<AggregateSimpleNumericMetric>>() {
+                @Override
+                public Iterable<AggregateSimpleNumericMetric> apply(AggregateNumericMetric metric) {
+                    return asList(
+                        new AggregateSimpleNumericMetric(metric.getScheduleId(), metric.getMin(), AggregateType.MIN),
+                        new AggregateSimpleNumericMetric(metric.getScheduleId(), metric.getMax(), AggregateType.MAX),
+                        new AggregateSimpleNumericMetric(metric.getScheduleId(), metric.getAvg(), AggregateType.AVG));
+                }
+            }));
     }
 
     public Iterable<AggregateNumericMetric> findOneHourMetrics(List<Integer> scheduleIds, long startTime,
@@ -283,36 +423,140 @@ public class MetricsDAO {
         return new SimplePagedResult<MetricsIndexEntry>(statement, new MetricsIndexEntryMapper(table), storageSession);
     }
 
+    /**
+     * Fetches a single page of index entries. The page size is determined by
+     * {@link MetricsConfiguration#getIndexPageSize()}. To fetch the next page, pass the schedule id of the last entry
+     * of the current page as <code>afterScheduleId</code>. The returned list is smaller than the page size when there
+     * are no more entries.
+     *
+     * @param table The bucket
+     * @param timestamp The time slice
+     * @param afterScheduleId Only entries with a greater schedule id are returned. Use {@link Integer#MIN_VALUE} for
+     *                        the first page.
+     * @return The index entries ordered by schedule id
+     */
+    public List<MetricsIndexEntry> findMetricsIndexEntriesPage(MetricsTable table, long timestamp,
+        int afterScheduleId) {
+        BoundStatement statement = findIndexEntriesPage.bind(table.toString(), new Date(timestamp), afterScheduleId);
+        return new MetricsIndexEntryMapper(table).mapAll(storageSession.execute(statement, Workload.AGGREGATION));
+    }
+
     public StorageResultSetFuture findMetricsIndexEntriesAsync(MetricsTable table, long timestamp) {
         BoundStatement statement = findIndexEntries.bind(table.toString(), new Date(timestamp));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.AGGREGATION);
     }
 
     public ResultSet setFindTimeSliceForIndex(MetricsTable table, long timestamp) {
+        return setFindTimeSliceForIndex(table, timestamp, Workload.READ);
+    }
+
+    public ResultSet setFindTimeSliceForIndex(MetricsTable table, long timestamp, Workload workload) {
         BoundStatement statement = findTimeSliceForIndex.bind(table.toString(), new Date(timestamp));
-        return storageSession.execute(statement);
+        return storageSession.execute(statement, workload);
     }
 
     public void updateMetricsIndex(MetricsTable table, Map<Integer, Long> updates) {
             for (Integer scheduleId : updates.keySet()) {
                 BoundStatement statement = updateMetricsIndex.bind(table.getTableName(),
                     new Date(updates.get(scheduleId)), scheduleId);
-                storageSession.execute(statement);
+                storageSession.execute(statement, getIndexUpdateWorkload(table));
             }
     }
 
     public StorageResultSetFuture updateMetricsIndex(MetricsTable table, int scheduleId, long timestamp) {
         BoundStatement statement = updateMetricsIndex.bind(table.getTableName(), new Date(timestamp), scheduleId);
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, getIndexUpdateWorkload(table));
+    }
+
+    /**
+     * The 1 hour bucket is updated when raw data is stored. The other buckets are updated by aggregation.
+     */
+    private Workload getIndexUpdateWorkload(MetricsTable table) {
+        return table == MetricsTable.ONE_HOUR ? Workload.INGESTION : Workload.AGGREGATION;
     }
 
     public void deleteMetricsIndexEntries(MetricsTable table, long timestamp) {
         BoundStatement statement = deleteIndexEntries.bind(table.getTableName(), new Date(timestamp));
-        storageSession.execute(statement);
+        storageSession.execute(statement, Workload.AGGREGATION);
     }
 
     public StorageResultSetFuture deleteMetricsIndexEntriesAsync(MetricsTable table, long timestamp) {
         BoundStatement statement = deleteIndexEntries.bind(table.getTableName(), new Date(timestamp));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, Workload.AGGREGATION);
+    }
+
+    /**
+     * Records that aggregation of the index partition (bucket, timeSlice) has finished every schedule up to and
+     * including <code>scheduleId</code>.
+     */
+    public void updateAggregationCheckpoint(MetricsTable bucket, long timeSlice, int scheduleId) {
+        BoundStatement statement = updateAggregationCheckpoint.bind(bucket.getTableName(), new Date(timeSlice),
+            scheduleId);
+        storageSession.execute(statement, Workload.AGGREGATION);
+    }
+
+    /**
+     * @return The last schedule id aggregated for the index partition (bucket, timeSlice) or null if there is no
+     * checkpoint
+     */
+    public Integer findAggregationCheckpoint(MetricsTable bucket, long timeSlice) {
+        BoundStatement statement = findAggregationCheckpoint.bind(bucket.getTableName(), new Date(timeSlice));
+        Row row = storageSession.execute(statement, Workload.AGGREGATION).one();
+        return row == null ? null : row.getInt(0);
+    }
+
+    public void deleteAggregationCheckpoint(MetricsTable bucket, long timeSlice) {
+        BoundStatement statement = deleteAggregationCheckpoint.bind(bucket.getTableName(), new Date(timeSlice));
+        storageSession.execute(statement, Workload.AGGREGATION);
+    }
+
+    /**
+     * Creates one unowned lease per shard for the index partition (bucket, timeSlice).
+     */
+    public void createAggregationLeases(MetricsTable bucket, long timeSlice, int shards) {
+        for (int shard = 0; shard < shards; ++shard) {
+            BoundStatement statement = insertAggregationLease.bind(bucket.getTableName(), new Date(timeSlice), shard);
+            storageSession.execute(statement, Workload.AGGREGATION);
+        }
+    }
+
+    /**
+     * @return The leases of the index partition (bucket, timeSlice) ordered by shard or an empty list if the
+     * aggregation of the partition is not shared
+     */
+    public List<AggregationLease> findAggregationLeases(MetricsTable bucket, long timeSlice) {
+        BoundStatement statement = findAggregationLeases.bind(bucket.getTableName(), new Date(timeSlice));
+        List<AggregationLease> leases = new ArrayList<AggregationLease>();
+        for (Row row : storageSession.execute(statement, Workload.AGGREGATION)) {
+            leases.add(new AggregationLease(row.getInt(0), row.getString(1), row.isNull(2) ? null : row.getInt(2),
+                !row.isNull(3) && row.getBool(3)));
+        }
+        return leases;
+    }
+
+    /**
+     * Takes or renews the lease on a shard. The lease expires after
+     * {@link MetricsConfiguration#getAggregationLeaseDuration()} seconds.
+     */
+    public void renewAggregationLease(MetricsTable bucket, long timeSlice, int shard, String owner) {
+        BoundStatement statement = renewAggregationLease.bind(owner, bucket.getTableName(), new Date(timeSlice),
+            shard);
+        storageSession.execute(statement, Workload.AGGREGATION);
+    }
+
+    public void updateAggregationLeaseCheckpoint(MetricsTable bucket, long timeSlice, int shard, int scheduleId) {
+        BoundStatement statement = updateAggregationLeaseCheckpoint.bind(scheduleId, bucket.getTableName(),
+            new Date(timeSlice), shard);
+        storageSession.execute(statement, Workload.AGGREGATION);
+    }
+
+    public void finishAggregationLease(MetricsTable bucket, long timeSlice, int shard) {
+        BoundStatement statement = finishAggregationLease.bind(bucket.getTableName(), new Date(timeSlice), shard);
+        storageSession.execute(statement, Workload.AGGREGATION);
+    }
+
+    public void deleteAggregationLeases(MetricsTable bucket, long timeSlice) {
+        BoundStatement statement = deleteAggregationLeases.bind(bucket.getTableName(), new Date(timeSlice));
+        storageSession.execute(statement, Workload.AGGREGATION);
     }
 }
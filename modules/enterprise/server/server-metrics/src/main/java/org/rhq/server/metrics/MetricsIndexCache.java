@@ -0,0 +1,310 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks which schedules already have an entry in the {@link org.rhq.server.metrics.domain.MetricsTable#INDEX index}
+ * for the current and the previous raw data time slice. Only one index row per schedule per time slice is needed,
+ * but every raw data point would otherwise write it again.
+ * <br/><br/>
+ * Callers check {@link #contains(int, long)} before writing an index entry and skip the write if it returns true. An
+ * entry is only {@link #add(int, long) added} once its write has succeeded, so concurrent writers for the same
+ * schedule and time slice each write the entry until one of them succeeds, and a failed write never hides the entry
+ * from later writers. Time slices older than the previous one are not tracked, so late data always writes its index
+ * entry.
+ * <br/><br/>
+ * Schedule ids are stored in segmented, open addressing sets of primitive ints. The sets rotate when data for a newer
+ * time slice arrives.
+ */
+public class MetricsIndexCache {
+
+    private static final int NUM_SEGMENTS = 16;
+
+    private volatile TimeSliceSet current = new TimeSliceSet(Long.MIN_VALUE);
+
+    private volatile TimeSliceSet previous = new TimeSliceSet(Long.MIN_VALUE);
+
+    private AtomicLong hits = new AtomicLong();
+
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param scheduleId The schedule id
+     * @param timeSlice The start of the raw data time slice
+     * @return true if the index entry has already been written, false if it has to be written
+     */
+    public boolean contains(int scheduleId, long timeSlice) {
+        TimeSliceSet set = getSet(timeSlice, false);
+        if (set != null && set.contains(scheduleId)) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records that the index entry has been written. This should only be called after the write has succeeded.
+     *
+     * @param scheduleId The schedule id
+     * @param timeSlice The start of the raw data time slice
+     * @return true if the entry was not tracked yet
+     */
+    public boolean add(int scheduleId, long timeSlice) {
+        TimeSliceSet set = getSet(timeSlice, true);
+        return set == null || set.add(scheduleId);
+    }
+
+    public void remove(int scheduleId, long timeSlice) {
+        TimeSliceSet set = getSet(timeSlice, false);
+        if (set != null) {
+            set.remove(scheduleId);
+        }
+    }
+
+    /**
+     * Drops all entries for the time slice. This should be called when index entries for the time slice are deleted
+     * from storage, e.g., after aggregation.
+     */
+    public synchronized void evict(long timeSlice) {
+        if (current.timeSlice == timeSlice) {
+            current = new TimeSliceSet(timeSlice);
+        } else if (previous.timeSlice == timeSlice) {
+            previous = new TimeSliceSet(timeSlice);
+        }
+    }
+
+    /**
+     * @return The number of schedules tracked across the current and previous time slices
+     */
+    public int size() {
+        return current.size() + previous.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The fraction of lookups for which the index write was skipped
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        if (total == 0) {
+            return 0;
+        }
+        return (double) hitCount / total;
+    }
+
+    private TimeSliceSet getSet(long timeSlice, boolean rotate) {
+        TimeSliceSet set = current;
+        if (set.timeSlice == timeSlice) {
+            return set;
+        }
+        if (timeSlice > set.timeSlice) {
+            return rotate ? rotate(timeSlice) : null;
+        }
+        set = previous;
+        if (set.timeSlice == timeSlice) {
+            return set;
+        }
+        return null;
+    }
+
+    private synchronized TimeSliceSet rotate(long timeSlice) {
+        if (timeSlice > current.timeSlice) {
+            previous = current;
+            current = new TimeSliceSet(timeSlice);
+            return current;
+        }
+        // Another thread rotated in the meantime
+        return getSet(timeSlice, false);
+    }
+
+    private static class TimeSliceSet {
+
+        final long timeSlice;
+
+        final IntSet[] segments = new IntSet[NUM_SEGMENTS];
+
+        TimeSliceSet(long timeSlice) {
+            this.timeSlice = timeSlice;
+            for (int i = 0; i < NUM_SEGMENTS; ++i) {
+                segments[i] = new IntSet();
+            }
+        }
+
+        boolean add(int value) {
+            IntSet segment = segmentFor(value);
+            synchronized (segment) {
+                return segment.add(value);
+            }
+        }
+
+        boolean contains(int value) {
+            IntSet segment = segmentFor(value);
+            synchronized (segment) {
+                return segment.contains(value);
+            }
+        }
+
+        void remove(int value) {
+            IntSet segment = segmentFor(value);
+            synchronized (segment) {
+                segment.remove(value);
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (IntSet segment : segments) {
+                synchronized (segment) {
+                    size += segment.size;
+                }
+            }
+            return size;
+        }
+
+        private IntSet segmentFor(int value) {
+            return segments[(mix(value) >>> 28) & (NUM_SEGMENTS - 1)];
+        }
+    }
+
+    /**
+     * A set of ints that uses open addressing with linear probing. Zero marks an empty slot, so it is tracked
+     * separately. Not thread safe.
+     */
+    private static class IntSet {
+
+        private static final int EMPTY = 0;
+
+        int[] slots = new int[64];
+
+        int size;
+
+        boolean hasZero;
+
+        boolean add(int value) {
+            if (value == EMPTY) {
+                if (hasZero) {
+                    return false;
+                }
+                hasZero = true;
+                ++size;
+                return true;
+            }
+            int mask = slots.length - 1;
+            int i = mix(value) & mask;
+            while (slots[i] != EMPTY) {
+                if (slots[i] == value) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = value;
+            ++size;
+            if (size > (slots.length >> 1)) {
+                resize();
+            }
+            return true;
+        }
+
+        boolean contains(int value) {
+            if (value == EMPTY) {
+                return hasZero;
+            }
+            int mask = slots.length - 1;
+            int i = mix(value) & mask;
+            while (slots[i] != EMPTY) {
+                if (slots[i] == value) {
+                    return true;
+                }
+                i = (i + 1) & mask;
+            }
+            return false;
+        }
+
+        void remove(int value) {
+            if (value == EMPTY) {
+                if (hasZero) {
+                    hasZero = false;
+                    --size;
+                }
+                return;
+            }
+            int mask = slots.length - 1;
+            int i = mix(value) & mask;
+            while (slots[i] != value) {
+                if (slots[i] == EMPTY) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = EMPTY;
+            --size;
+
+            // Shift back subsequent entries of the probe sequence so that lookups do not stop at the hole
+            int j = (i + 1) & mask;
+            while (slots[j] != EMPTY) {
+                int home = mix(slots[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    slots[i] = slots[j];
+                    slots[j] = EMPTY;
+                    i = j;
+                }
+                j = (j + 1) & mask;
+            }
+        }
+
+        private void resize() {
+            int[] oldSlots = slots;
+            slots = new int[oldSlots.length << 1];
+            int mask = slots.length - 1;
+            for (int value : oldSlots) {
+                if (value != EMPTY) {
+                    int i = mix(value) & mask;
+                    while (slots[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    slots[i] = value;
+                }
+            }
+        }
+    }
+
+    private static int mix(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
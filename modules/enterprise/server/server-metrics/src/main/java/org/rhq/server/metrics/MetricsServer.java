@@ -27,12 +27,10 @@ package org.rhq.server.metrics;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -54,10 +52,10 @@ import org.joda.time.Duration;
 
 import org.rhq.core.domain.measurement.MeasurementDataNumeric;
 import org.rhq.core.domain.measurement.composite.MeasurementDataNumericHighLowComposite;
+import org.rhq.core.util.exception.ThrowableUtil;
 import org.rhq.server.metrics.aggregation.Aggregator;
+import org.rhq.server.metrics.aggregation.StreamingAggregator;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
-import org.rhq.server.metrics.domain.AggregateType;
-import org.rhq.server.metrics.domain.MetricsIndexEntry;
 import org.rhq.server.metrics.domain.MetricsTable;
 import org.rhq.server.metrics.domain.RawNumericMetric;
 
@@ -78,6 +76,8 @@ public class MetricsServer {
 
     private Long mostRecentRawDataPriorToStartup;
 
+    private List<DateTime> missedHours = new ArrayList<DateTime>();
+
     private AtomicLong totalAggregationTime = new AtomicLong();
 
     private int numAggregationWorkers = Math.min(Integer.parseInt(System.getProperty("rhq.metrics.aggregation.workers",
@@ -89,7 +89,44 @@ public class MetricsServer {
 
     private int parallelism = Integer.parseInt(System.getProperty("rhq.metrics.aggregation.parallelism", "3"));
 
-    private boolean useAsyncAggregation = Boolean.valueOf(System.getProperty("rhq.metrics.aggregation.async", "true"));
+    private boolean useAsyncAggregation = Boolean.valueOf(System.getProperty(MetricsConstants.AGGREGATION_ASYNC,
+        "true"));
+
+    private boolean useBatchedIngestion = Boolean.valueOf(System.getProperty(MetricsConstants.INGESTION_BATCHING,
+        "false"));
+
+    private int ingestionBatchSize = Integer.parseInt(System.getProperty(MetricsConstants.INGESTION_BATCH_SIZE, "50"));
+
+    private long ingestionLinger = Long.parseLong(System.getProperty(MetricsConstants.INGESTION_LINGER, "250"));
+
+    private RawDataBatcher rawDataBatcher;
+
+    private boolean useIndexCache = Boolean.valueOf(System.getProperty(MetricsConstants.INDEX_CACHE, "true"));
+
+    private MetricsIndexCache indexCache;
+
+    private long aggregateCacheSize = Long.parseLong(System.getProperty(MetricsConstants.AGGREGATE_CACHE_SIZE,
+        "5000"));
+
+    private AggregateCache aggregateCache;
+
+    private int groupQueryConcurrency = Integer.parseInt(System.getProperty(MetricsConstants.GROUP_QUERY_CONCURRENCY,
+        "20"));
+
+    private GroupQuery groupQuery;
+
+    private boolean useSharedAggregation = Boolean.valueOf(System.getProperty(MetricsConstants.AGGREGATION_CLUSTERED,
+        "false"));
+
+    private String serverName;
+
+    private int aggregationServers = 1;
+
+    private AggregationListener aggregationListener;
+
+    private ScheduledExecutorService aggregationAssistant;
+
+    private volatile boolean aggregationDeferred;
 
     public void setDAO(MetricsDAO dao) {
         this.dao = dao;
@@ -127,32 +164,213 @@ public class MetricsServer {
         this.useAsyncAggregation = useAsyncAggregation;
     }
 
+    /**
+     * Takes effect on the next call to {@link #init()}. Shared aggregation is off by default and only applies to the
+     * streaming aggregation, i.e., when async aggregation is off.
+     */
+    public void setUseSharedAggregation(boolean useSharedAggregation) {
+        this.useSharedAggregation = useSharedAggregation;
+    }
+
+    public void setUseBatchedIngestion(boolean useBatchedIngestion) {
+        this.useBatchedIngestion = useBatchedIngestion;
+    }
+
+    public void setUseIndexCache(boolean useIndexCache) {
+        this.useIndexCache = useIndexCache;
+    }
+
+    public boolean isAggregationDeferred() {
+        return aggregationDeferred;
+    }
+
+    /**
+     * While aggregation is deferred, {@link #calculateAggregates()} only records the hour that is due. The recorded
+     * hours are caught up by the first run after aggregation is no longer deferred. This is used while the legacy
+     * aggregate tables are migrated, since 6 hour and 24 hour aggregates are computed from the new tables.
+     */
+    public void setAggregationDeferred(boolean aggregationDeferred) {
+        this.aggregationDeferred = aggregationDeferred;
+    }
+
+    /**
+     * @return The cache of schedules that already have an index entry for the current raw time slice or null if the
+     * cache is disabled
+     */
+    public MetricsIndexCache getIndexCache() {
+        return indexCache;
+    }
+
+    /**
+     * Takes effect on the next call to {@link #init()}. A size of zero disables the cache.
+     *
+     * @param size The maximum number of pages of aggregate metrics to cache
+     */
+    public void setAggregateCacheSize(long size) {
+        aggregateCacheSize = size;
+    }
+
+    /**
+     * @return The cache of closed aggregate metric pages used by {@link #findDataForResource(int, long, long, int)}
+     * or null if the cache is disabled
+     */
+    public AggregateCache getAggregateCache() {
+        return aggregateCache;
+    }
+
+    /**
+     * Takes effect on the next call to {@link #init()}.
+     *
+     * @param serverName The name of this server in the cluster. Aggregation is only shared with other servers if a
+     *                   name is set and shared aggregation is enabled, see {@link #setUseSharedAggregation(boolean)}.
+     */
+    public void setServerName(String serverName) {
+        this.serverName = serverName;
+    }
+
+    /**
+     * @param servers The number of servers that share aggregation. It is read at the start of each aggregation run.
+     */
+    public void setAggregationServers(int servers) {
+        aggregationServers = servers;
+    }
+
+    public int getAggregationServers() {
+        return aggregationServers;
+    }
+
+    public void setAggregationListener(AggregationListener listener) {
+        aggregationListener = listener;
+    }
+
+    public int getGroupQueryConcurrency() {
+        return groupQueryConcurrency;
+    }
+
+    /**
+     * Group queries that are already running keep the previous limit.
+     *
+     * @param concurrency The maximum number of per schedule queries in flight for a single group query
+     */
+    public void setGroupQueryConcurrency(int concurrency) {
+        if (groupQuery != null) {
+            groupQuery.setMaxConcurrency(concurrency);
+        }
+        groupQueryConcurrency = concurrency;
+    }
+
+    public int getIngestionBatchSize() {
+        return ingestionBatchSize;
+    }
+
+    public void setIngestionBatchSize(int batchSize) {
+        ingestionBatchSize = batchSize;
+        if (rawDataBatcher != null) {
+            rawDataBatcher.setBatchSize(batchSize);
+        }
+    }
+
+    public long getIngestionLinger() {
+        return ingestionLinger;
+    }
+
+    /**
+     * Takes effect on the next call to {@link #init()}.
+     */
+    public void setIngestionLinger(long linger) {
+        ingestionLinger = linger;
+    }
+
+    /**
+     * @return The raw data points per second stored with batched ingestion or zero if batched ingestion is disabled
+     */
+    public double getIngestionPointsPerSecond() {
+        return rawDataBatcher == null ? 0 : rawDataBatcher.getPointsPerSecond();
+    }
+
+    /**
+     * @return The batches per second sent with batched ingestion or zero if batched ingestion is disabled
+     */
+    public double getIngestionBatchesPerSecond() {
+        return rawDataBatcher == null ? 0 : rawDataBatcher.getBatchesPerSecond();
+    }
+
+    /**
+     * @return The average number of statements per batch or zero if batched ingestion is disabled
+     */
+    public double getIngestionAverageBatchSize() {
+        return rawDataBatcher == null ? 0 : rawDataBatcher.getAverageBatchSize();
+    }
+
     public void init() {
         if (log.isDebugEnabled() && useAsyncAggregation) {
             log.debug("Async aggregation is enabled");
         }
         aggregationWorkers = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(numAggregationWorkers,
             new StorageClientThreadFactory()));
+        if (useIndexCache) {
+            indexCache = new MetricsIndexCache();
+        }
+        if (aggregateCacheSize > 0) {
+            aggregateCache = new AggregateCache(configuration, dateTimeService, aggregateCacheSize);
+        }
+        groupQuery = new GroupQuery(dao, groupQueryConcurrency);
+        if (useBatchedIngestion) {
+            log.info("Batched ingestion of raw data is enabled with a batch size of " + ingestionBatchSize +
+                " and linger time of " + ingestionLinger + " ms");
+            rawDataBatcher = new RawDataBatcher(dao, configuration, dateTimeService, aggregationWorkers,
+                indexCache, ingestionBatchSize, ingestionLinger);
+            rawDataBatcher.start();
+        }
         determineMostRecentRawDataSinceLastShutdown();
+        if (useSharedAggregation && !useAsyncAggregation && serverName != null) {
+            startAggregationAssistant();
+        }
+    }
+
+    /**
+     * Periodically checks whether another server has started a shared aggregation run that this server can help with.
+     * The interval is half the lease duration so that the shards of a server that died are taken over soon after their
+     * leases expire.
+     */
+    private void startAggregationAssistant() {
+        long interval = Math.max(1, configuration.getAggregationLeaseDuration() / 2);
+        aggregationAssistant = Executors.newSingleThreadScheduledExecutor(new StorageClientThreadFactory());
+        aggregationAssistant.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    assistAggregation();
+                } catch (Exception e) {
+                    log.warn("There was an error while assisting with aggregation: " +
+                        ThrowableUtil.getRootMessage(e));
+                }
+            }
+        }, interval, interval, TimeUnit.SECONDS);
     }
 
     /**
      * In normal operating mode we compute aggregates from the last hour. If the server has
-     * been down, we need to determine the most recently stored raw data so we know the
-     * starting hour for which to compute aggregates. We only need to check up to the raw
-     * retention period though since anything older than that will automatically get
-     * purged.
+     * been down, we need to determine the hours with raw data that has not been aggregated
+     * so that they can be caught up. We only need to check up to the raw retention period
+     * though since anything older than that will automatically get purged.
      */
     private void determineMostRecentRawDataSinceLastShutdown() {
         DateTime previousHour = currentHour().minus(configuration.getRawTimeSliceDuration());
         DateTime oldestRawTime = previousHour.minus(configuration.getRawRetention());
-
-        ResultSet resultSet = dao.setFindTimeSliceForIndex(MetricsTable.ONE_HOUR, previousHour.getMillis());
-        Row row = resultSet.one();
-        while (row == null && previousHour.compareTo(oldestRawTime) > 0) {
-            previousHour = previousHour.minus(configuration.getRawTimeSliceDuration());
-            resultSet = dao.setFindTimeSliceForIndex(MetricsTable.ONE_HOUR, previousHour.getMillis());
-            row = resultSet.one();
+        Row row = null;
+
+        missedHours.clear();
+        for (DateTime hour = previousHour; hour.compareTo(oldestRawTime) >= 0;
+             hour = hour.minus(configuration.getRawTimeSliceDuration())) {
+            Row hourRow = dao.setFindTimeSliceForIndex(MetricsTable.ONE_HOUR, hour.getMillis(), Workload.AGGREGATION)
+                .one();
+            if (hourRow != null) {
+                if (row == null) {
+                    row = hourRow;
+                }
+                missedHours.add(0, hour);
+            }
         }
 
         if (row == null) {
@@ -166,8 +384,9 @@ public class MetricsServer {
                 pastAggregationMissed = true;
 
                 log.info("Found the most recently inserted raw data prior to this server start up with a timestamp " +
-                    "of [" + mostRecentRawDataPriorToStartup + "]. Aggregates for this data will be computed the " +
-                    "next time the aggregation job runs.");
+                    "of [" + mostRecentRawDataPriorToStartup + "] and " + missedHours.size() + " hours of raw data " +
+                    "that has not been aggregated. Aggregates for this data will be computed the next time the " +
+                    "aggregation job runs.");
             }
         }
     }
@@ -186,6 +405,14 @@ public class MetricsServer {
     }
 
     public void shutdown() {
+        if (rawDataBatcher != null) {
+            rawDataBatcher.shutdown();
+            rawDataBatcher = null;
+        }
+        if (aggregationAssistant != null) {
+            aggregationAssistant.shutdownNow();
+            aggregationAssistant = null;
+        }
         aggregationWorkers.shutdown();
     }
 
@@ -215,11 +442,11 @@ public class MetricsServer {
 
             Iterable<AggregateNumericMetric> metrics = null;
             if (dateTimeService.isIn1HourDataRange(begin)) {
-                metrics = dao.findOneHourMetrics(scheduleId, beginTime, endTime);
+                metrics = findAggregateMetrics(MetricsTable.ONE_HOUR, scheduleId, beginTime, endTime);
             } else if (dateTimeService.isIn6HourDataRnage(begin)) {
-                metrics = dao.findSixHourMetrics(scheduleId, beginTime, endTime);
+                metrics = findAggregateMetrics(MetricsTable.SIX_HOUR, scheduleId, beginTime, endTime);
             } else if (dateTimeService.isIn24HourDataRnage(begin)) {
-                metrics = dao.findTwentyFourHourMetrics(scheduleId, beginTime, endTime);
+                metrics = findAggregateMetrics(MetricsTable.TWENTY_FOUR_HOUR, scheduleId, beginTime, endTime);
             } else {
                 throw new IllegalArgumentException("beginTime[" + beginTime + "] is outside the accepted range.");
             }
@@ -234,29 +461,40 @@ public class MetricsServer {
         }
     }
 
+    private Iterable<AggregateNumericMetric> findAggregateMetrics(final MetricsTable table, int scheduleId,
+        long beginTime, long endTime) {
+        AggregateCache.Loader loader = new AggregateCache.Loader() {
+            @Override
+            public Iterable<AggregateNumericMetric> load(int scheduleId, long beginTime, long endTime) {
+                switch (table) {
+                case ONE_HOUR:
+                    return dao.findOneHourMetrics(scheduleId, beginTime, endTime);
+                case SIX_HOUR:
+                    return dao.findSixHourMetrics(scheduleId, beginTime, endTime);
+                default:
+                    return dao.findTwentyFourHourMetrics(scheduleId, beginTime, endTime);
+                }
+            }
+        };
+        if (aggregateCache == null) {
+            return loader.load(scheduleId, beginTime, endTime);
+        }
+        return aggregateCache.find(table, scheduleId, beginTime, endTime, loader);
+    }
+
     public List<MeasurementDataNumericHighLowComposite> findDataForGroup(List<Integer> scheduleIds, long beginTime,
         long endTime, int numberOfBuckets) {
         Stopwatch stopwatch = new Stopwatch().start();
         try {
-            DateTime begin = new DateTime(beginTime);
-
-            if (dateTimeService.isInRawDataRange(begin)) {
-                Iterable<RawNumericMetric> metrics = dao.findRawMetrics(scheduleIds, beginTime, endTime);
-                return createRawComposites(metrics, beginTime, endTime, numberOfBuckets);
-            }
-
-            Iterable<AggregateNumericMetric> metrics = null;
-            if (dateTimeService.isIn1HourDataRange(begin)) {
-                metrics = dao.findOneHourMetrics(scheduleIds, beginTime, endTime);
-            } else if (dateTimeService.isIn6HourDataRnage(begin)) {
-                metrics = dao.findSixHourMetrics(scheduleIds, beginTime, endTime);
-            } else if (dateTimeService.isIn24HourDataRnage(begin)) {
-                metrics = dao.findTwentyFourHourMetrics(scheduleIds, beginTime, endTime);
-            } else {
-                throw new IllegalArgumentException("beginTime[" + beginTime + "] is outside the accepted range.");
-            }
+            final Buckets buckets = new Buckets(beginTime, endTime, numberOfBuckets);
+            groupQuery.execute(getTableForRange(beginTime), scheduleIds, beginTime, endTime, new GroupQuery.Merge() {
+                @Override
+                public void add(long timestamp, double avg, double min, double max) {
+                    buckets.insert(timestamp, avg, min, max);
+                }
+            });
 
-            return createComposites(metrics, beginTime, endTime, numberOfBuckets);
+            return createComposites(buckets);
         } finally {
             stopwatch.stop();
             if (log.isDebugEnabled()) {
@@ -336,25 +574,19 @@ public class MetricsServer {
     public AggregateNumericMetric getSummaryAggregate(List<Integer> scheduleIds, long beginTime, long endTime) {
         Stopwatch stopwatch = new Stopwatch().start();
         try {
-            DateTime begin = new DateTime(beginTime);
-
-            if (dateTimeService.isInRawDataRange(new DateTime(beginTime))) {
-                Iterable<RawNumericMetric> metrics = dao.findRawMetrics(scheduleIds, beginTime, endTime);
-                return calculateAggregatedRaw(metrics, beginTime);
-            }
-
-            Iterable<AggregateNumericMetric> metrics = null;
-            if (dateTimeService.isIn1HourDataRange(begin)) {
-                metrics = dao.findOneHourMetrics(scheduleIds, beginTime, endTime);
-            } else if (dateTimeService.isIn6HourDataRnage(begin)) {
-                metrics = dao.findSixHourMetrics(scheduleIds, beginTime, endTime);
-            } else if (dateTimeService.isIn24HourDataRnage(begin)) {
-                metrics = dao.findTwentyFourHourMetrics(scheduleIds, beginTime, endTime);
-            } else {
-                throw new IllegalArgumentException("beginTime[" + beginTime + "] is outside the accepted range.");
-            }
+            // A single bucket spanning the whole range yields the summary
+            final Buckets buckets = new Buckets(beginTime, endTime, 1);
+            groupQuery.execute(getTableForRange(beginTime), scheduleIds, beginTime, endTime, new GroupQuery.Merge() {
+                @Override
+                public void add(long timestamp, double avg, double min, double max) {
+                    buckets.insert(timestamp, avg, min, max);
+                }
+            });
 
-            return calculateAggregate(metrics, beginTime);
+            // We let the caller handle setting the schedule id because in some cases we do
+            // not care about it.
+            Buckets.Bucket bucket = buckets.get(0);
+            return new AggregateNumericMetric(0, bucket.getAvg(), bucket.getMin(), bucket.getMax(), beginTime);
         } finally {
             stopwatch.stop();
             if (log.isDebugEnabled()) {
@@ -365,6 +597,23 @@ public class MetricsServer {
         }
     }
 
+    /**
+     * @return The table that holds data at the resolution used for graphs that start at beginTime
+     */
+    private MetricsTable getTableForRange(long beginTime) {
+        DateTime begin = new DateTime(beginTime);
+        if (dateTimeService.isInRawDataRange(begin)) {
+            return MetricsTable.RAW;
+        } else if (dateTimeService.isIn1HourDataRange(begin)) {
+            return MetricsTable.ONE_HOUR;
+        } else if (dateTimeService.isIn6HourDataRnage(begin)) {
+            return MetricsTable.SIX_HOUR;
+        } else if (dateTimeService.isIn24HourDataRnage(begin)) {
+            return MetricsTable.TWENTY_FOUR_HOUR;
+        }
+        throw new IllegalArgumentException("beginTime[" + beginTime + "] is outside the accepted range.");
+    }
+
     private List<MeasurementDataNumericHighLowComposite> createRawComposites(Iterable<RawNumericMetric> metrics,
         long beginTime, long endTime, int numberOfBuckets) {
         Buckets buckets = new Buckets(beginTime, endTime, numberOfBuckets);
@@ -388,7 +637,10 @@ public class MetricsServer {
         for (AggregateNumericMetric metric : metrics) {
             buckets.insert(metric.getTimestamp(), metric.getAvg(), metric.getMin(), metric.getMax());
         }
+        return createComposites(buckets);
+    }
 
+    private List<MeasurementDataNumericHighLowComposite> createComposites(Buckets buckets) {
         List<MeasurementDataNumericHighLowComposite> data = new ArrayList<MeasurementDataNumericHighLowComposite>();
         for (int i = 0; i < buckets.getNumDataPoints(); ++i) {
             Buckets.Bucket bucket = buckets.get(i);
@@ -396,7 +648,6 @@ public class MetricsServer {
                 bucket.getMax(), bucket.getMin()));
         }
         return data;
-
     }
 
     public void addNumericData(final Set<MeasurementDataNumeric> dataSet,
@@ -406,6 +657,11 @@ public class MetricsServer {
                 log.debug("Inserting " + dataSet.size() + " raw metrics");
             }
 
+            if (rawDataBatcher != null) {
+                rawDataBatcher.add(dataSet, callback);
+                return;
+            }
+
             final long startTime = dateTimeService.now().getMillis();
             final AtomicInteger remainingInserts = new AtomicInteger(dataSet.size());
 
@@ -439,21 +695,21 @@ public class MetricsServer {
     void updateMetricsIndex(final MeasurementDataNumeric rawData, final int total,
         final AtomicInteger remainingInserts, final long startTime, final RawDataInsertedCallback callback) {
 
-        long timeSlice = dateTimeService.getTimeSlice(new DateTime(rawData.getTimestamp()),
+        final long timeSlice = dateTimeService.getTimeSlice(new DateTime(rawData.getTimestamp()),
             configuration.getRawTimeSliceDuration()).getMillis();
+
+        if (!isIndexUpdateRequired(rawData.getScheduleId(), timeSlice)) {
+            rawDataInserted(rawData, total, remainingInserts, startTime, callback);
+            return;
+        }
+
         StorageResultSetFuture resultSetFuture = dao.updateMetricsIndex(MetricsTable.ONE_HOUR, rawData.getScheduleId(),
             timeSlice);
         Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
             @Override
             public void onSuccess(ResultSet rows) {
-                callback.onSuccess(rawData);
-                if (remainingInserts.decrementAndGet() == 0) {
-                    long endTime = System.currentTimeMillis();
-                    if (log.isDebugEnabled()) {
-                        log.debug("Finished inserting " + total + " raw metrics in " + (endTime - startTime) + " ms");
-                    }
-                    callback.onFinish();
-                }
+                indexUpdated(rawData.getScheduleId(), timeSlice);
+                rawDataInserted(rawData, total, remainingInserts, startTime, callback);
             }
 
             @Override
@@ -465,6 +721,39 @@ public class MetricsServer {
         }, aggregationWorkers);
     }
 
+    private void rawDataInserted(MeasurementDataNumeric rawData, int total, AtomicInteger remainingInserts,
+        long startTime, RawDataInsertedCallback callback) {
+        callback.onSuccess(rawData);
+        if (remainingInserts.decrementAndGet() == 0) {
+            long endTime = System.currentTimeMillis();
+            if (log.isDebugEnabled()) {
+                log.debug("Finished inserting " + total + " raw metrics in " + (endTime - startTime) + " ms");
+            }
+            callback.onFinish();
+        }
+    }
+
+    /**
+     * Data with a time stamp in the future, e.g., from an agent whose clock is off, bypasses the index cache so that
+     * it cannot rotate the cache ahead of the actual current time slice.
+     */
+    private boolean isIndexUpdateRequired(int scheduleId, long timeSlice) {
+        if (indexCache == null || timeSlice > currentHour().getMillis()) {
+            return true;
+        }
+        return !indexCache.contains(scheduleId, timeSlice);
+    }
+
+    /**
+     * Only called once the index write has succeeded. A write that fails therefore leaves the schedule out of the
+     * cache, and the next data point for the time slice writes the index entry again.
+     */
+    private void indexUpdated(int scheduleId, long timeSlice) {
+        if (indexCache != null && timeSlice <= currentHour().getMillis()) {
+            indexCache.add(scheduleId, timeSlice);
+        }
+    }
+
     /**
      * Computes and stores aggregates for all buckets that are ready to be aggregated.
      * This includes raw, 1hr, 6hr, and 24hr data.
@@ -478,23 +767,72 @@ public class MetricsServer {
         try {
             DateTime theHour = currentHour();
 
+            if (aggregationDeferred) {
+                deferAggregation(theHour.minus(configuration.getRawTimeSliceDuration()));
+                return Collections.emptyList();
+            }
+
             if (useAsyncAggregation) {
                 if (pastAggregationMissed) {
-                    DateTime missedHour = roundDownToHour(mostRecentRawDataPriorToStartup);
-                    new Aggregator(aggregationWorkers, dao, configuration, dateTimeService, missedHour,
-                        aggregationBatchSize, parallelism).run();
+                    for (DateTime missedHour : missedHours) {
+                        new Aggregator(aggregationWorkers, dao, configuration, dateTimeService, missedHour,
+                            aggregationBatchSize, parallelism).run();
+                        evictIndexCache(missedHour);
+                    }
+                    missedHours.clear();
                     pastAggregationMissed = false;
                 }
 
                 DateTime timeSlice = theHour.minus(configuration.getRawTimeSliceDuration());
-                return new Aggregator(aggregationWorkers, dao, configuration, dateTimeService, timeSlice,
-                    aggregationBatchSize, parallelism).run();
+                try {
+                    Aggregator aggregator = new Aggregator(aggregationWorkers, dao, configuration, dateTimeService,
+                        timeSlice, aggregationBatchSize, parallelism);
+                    Set<AggregateNumericMetric> oneHourData = aggregator.run();
+                    if (aggregator.isFinished()) {
+                        closeAggregateCachePages(theHour);
+                    }
+                    return oneHourData;
+                } finally {
+                    evictIndexCache(timeSlice);
+                }
             } else {
+                StreamingAggregator aggregator = createStreamingAggregator();
+                DateTime timeSlice = theHour.minus(configuration.getRawTimeSliceDuration());
                 if (pastAggregationMissed) {
-                    calculateAggregates(roundDownToHour(mostRecentRawDataPriorToStartup).plusHours(1).getMillis());
-                    pastAggregationMissed = false;
+                    // Catch up the missed hours and the last hour together
+                    List<DateTime> hours = new ArrayList<DateTime>(missedHours);
+                    if (!hours.contains(timeSlice)) {
+                        hours.add(timeSlice);
+                    }
+                    try {
+                        List<AggregateNumericMetric> oneHourData = aggregator.catchUp(hours);
+                        if (aggregator.isFinished()) {
+                            closeAggregateCachePages(theHour);
+                        }
+                        return oneHourData;
+                    } finally {
+                        for (DateTime hour : hours) {
+                            evictIndexCache(hour);
+                        }
+                        missedHours.clear();
+                        pastAggregationMissed = false;
+                    }
+                }
+                try {
+                    List<AggregateNumericMetric> oneHourData;
+                    if (isAggregationShared()) {
+                        oneHourData = aggregator.runShared(timeSlice, serverName, aggregationServers);
+                    } else {
+                        oneHourData = aggregator.run(timeSlice);
+                    }
+                    // Pages are only closed once aggregation has finished, otherwise incomplete pages would be cached
+                    if (aggregator.isFinished()) {
+                        closeAggregateCachePages(theHour);
+                    }
+                    return oneHourData;
+                } finally {
+                    evictIndexCache(timeSlice);
                 }
-                return calculateAggregates(theHour.getMillis());
             }
         } finally {
             stopwatch.stop();
@@ -503,102 +841,93 @@ public class MetricsServer {
         }
     }
 
-    private List<AggregateNumericMetric> calculateAggregates(long startTime) {
-        DateTime dt = new DateTime(startTime);
-        DateTime currentHour = dateTimeService.getTimeSlice(dt, configuration.getRawTimeSliceDuration());
-        DateTime lastHour = currentHour.minus(configuration.getRawTimeSliceDuration());
-
-        if (log.isDebugEnabled()) {
-            log.debug("Starting aggregation for time slice " + lastHour);
+    private void deferAggregation(DateTime timeSlice) {
+        if (!missedHours.contains(timeSlice)) {
+            missedHours.add(timeSlice);
         }
+        pastAggregationMissed = true;
+        log.info("Aggregation of " + timeSlice + " is deferred until the migration of legacy aggregate metrics has " +
+            "finished. " + missedHours.size() + " hours will be caught up then.");
+    }
 
-        long sixHourTimeSlice = dateTimeService.getTimeSlice(lastHour,
-            configuration.getOneHourTimeSliceDuration()).getMillis();
-        if (log.isDebugEnabled()) {
-            log.debug("six hour time slice = " + new Date(sixHourTimeSlice));
+    /**
+     * Recomputes 1 hour, 6 hour, and 24 hour aggregates for every hour in the range for which there are index
+     * entries, i.e., for which aggregation has not run. This is intended for catching up after an outage that spanned
+     * more than the single missed hour that is handled at start up.
+     *
+     * @param beginTime The start of the range, rounded down to the hour
+     * @param endTime The end of the range, exclusive. Hours after the current hour are ignored.
+     * @return The 1 hour aggregates that were computed
+     */
+    public List<AggregateNumericMetric> recomputeAggregates(long beginTime, long endTime) {
+        Stopwatch stopwatch = new Stopwatch().start();
+        try {
+            DateTime begin = roundDownToHour(beginTime);
+            DateTime end = new DateTime(endTime);
+            List<AggregateNumericMetric> oneHourData = createStreamingAggregator().recompute(begin, end);
+            for (DateTime timeSlice = begin; timeSlice.isBefore(end);
+                 timeSlice = timeSlice.plus(configuration.getRawTimeSliceDuration())) {
+                evictIndexCache(timeSlice);
+            }
+            if (aggregateCache != null) {
+                aggregateCache.invalidateAll();
+            }
+            return oneHourData;
+        } finally {
+            stopwatch.stop();
+            totalAggregationTime.addAndGet(stopwatch.elapsed(TimeUnit.MILLISECONDS));
         }
+    }
 
-        long twentyFourHourTimeSlice = dateTimeService.getTimeSlice(lastHour,
-            configuration.getSixHourTimeSliceDuration()).getMillis();
-
-        List<AggregateNumericMetric> newOneHourAggregates = null;
-
-        List<AggregateNumericMetric> updatedSchedules = aggregateRawData(lastHour);
-        newOneHourAggregates = updatedSchedules;
-        if (!updatedSchedules.isEmpty()) {
-            dao.deleteMetricsIndexEntries(MetricsTable.ONE_HOUR, lastHour.getMillis());
-            updateMetricsIndex(MetricsTable.SIX_HOUR, updatedSchedules, configuration.getOneHourTimeSliceDuration());
+    /**
+     * Works on the shards of a shared aggregation run for the last hour that are not owned by another server. The
+     * computed 1 hour aggregates are passed to the {@link AggregationListener} if one is set.
+     *
+     * @return The 1 hour aggregates that were computed by this server
+     */
+    public List<AggregateNumericMetric> assistAggregation() {
+        if (serverName == null || aggregationDeferred) {
+            return Collections.emptyList();
         }
-
-        updatedSchedules = calculateAggregates(MetricsTable.ONE_HOUR, MetricsTable.SIX_HOUR, sixHourTimeSlice,
-            configuration.getOneHourTimeSliceDuration());
-        if (!updatedSchedules.isEmpty()) {
-            dao.deleteMetricsIndexEntries(MetricsTable.SIX_HOUR, sixHourTimeSlice);
-            updateMetricsIndex(MetricsTable.TWENTY_FOUR_HOUR, updatedSchedules,
-                configuration.getSixHourTimeSliceDuration());
+        Stopwatch stopwatch = new Stopwatch().start();
+        DateTime timeSlice = currentHour().minus(configuration.getRawTimeSliceDuration());
+        List<AggregateNumericMetric> oneHourData = createStreamingAggregator().assist(timeSlice, serverName);
+        stopwatch.stop();
+        if (!oneHourData.isEmpty()) {
+            totalAggregationTime.addAndGet(stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            evictIndexCache(timeSlice);
+            if (aggregationListener != null) {
+                aggregationListener.onAggregation(oneHourData);
+            }
         }
+        return oneHourData;
+    }
 
-        updatedSchedules = calculateAggregates(MetricsTable.SIX_HOUR, MetricsTable.TWENTY_FOUR_HOUR,
-            twentyFourHourTimeSlice, configuration.getSixHourTimeSliceDuration());
-        if (!updatedSchedules.isEmpty()) {
-            dao.deleteMetricsIndexEntries(MetricsTable.TWENTY_FOUR_HOUR, twentyFourHourTimeSlice);
-        }
+    private boolean isAggregationShared() {
+        return useSharedAggregation && serverName != null && aggregationServers > 1;
+    }
 
-        return newOneHourAggregates;
+    private StreamingAggregator createStreamingAggregator() {
+        return new StreamingAggregator(aggregationWorkers, dao, configuration, dateTimeService,
+            parallelism * aggregationBatchSize, parallelism);
     }
 
-    private void updateMetricsIndex(MetricsTable bucket, Iterable<AggregateNumericMetric> metrics, Duration duration) {
-        Map<Integer, Long> updates = new TreeMap<Integer, Long>();
-        for (AggregateNumericMetric metric : metrics) {
-            updates.put(metric.getScheduleId(),
-                dateTimeService.getTimeSlice(new DateTime(metric.getTimestamp()), duration).getMillis());
+    /**
+     * @param aggregatedThrough The end of the raw data time slice that was just aggregated
+     */
+    private void closeAggregateCachePages(DateTime aggregatedThrough) {
+        if (aggregateCache != null) {
+            aggregateCache.setAggregatedThrough(aggregatedThrough.getMillis());
         }
-        dao.updateMetricsIndex(bucket, updates);
     }
 
-    private List<AggregateNumericMetric> aggregateRawData(DateTime theHour) {
-        long start = System.currentTimeMillis();
-        try {
-            if (log.isDebugEnabled()) {
-                log.debug("Preparing to aggregate raw data. Time slice start time is [" + theHour +
-                    "] and the end time is [" + theHour.plus(configuration.getRawTimeSliceDuration()) + "]");
-            }
-            Iterable<MetricsIndexEntry> indexEntries = dao.findMetricsIndexEntries(MetricsTable.ONE_HOUR,
-                theHour.getMillis());
-            List<AggregateNumericMetric> oneHourMetrics = new ArrayList<AggregateNumericMetric>();
-
-            for (MetricsIndexEntry indexEntry : indexEntries) {
-                DateTime startTime = indexEntry.getTime();
-                DateTime endTime = startTime.plus(configuration.getRawTimeSliceDuration());
-                Iterable<RawNumericMetric> rawMetrics = dao.findRawMetrics(indexEntry.getScheduleId(),
-                    startTime.getMillis(), endTime.getMillis());
-                AggregateNumericMetric aggregatedRaw = calculateAggregatedRaw(rawMetrics, startTime.getMillis());
-                aggregatedRaw.setScheduleId(indexEntry.getScheduleId());
-                oneHourMetrics.add(aggregatedRaw);
-            }
-
-            for (AggregateNumericMetric metric : oneHourMetrics) {
-                dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-                dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-                dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
-            }
-
-            if (log.isDebugEnabled()) {
-                log.debug("Finished computing and inserting " + oneHourMetrics.size() + " aggregates into table ["
-                    + MetricsTable.ONE_HOUR + "]");
-            }
-
-            return oneHourMetrics;
-        } finally {
-            long end = System.currentTimeMillis();
-            if (log.isInfoEnabled()) {
-                log.info("Finished computing aggregates for table [" + MetricsTable.RAW
-                    + "]" + (end - start) + " ms");
-            }
+    private void evictIndexCache(DateTime timeSlice) {
+        if (indexCache != null) {
+            indexCache.evict(timeSlice.getMillis());
         }
     }
 
-    private AggregateNumericMetric calculateAggregatedRaw(Iterable<RawNumericMetric> rawMetrics, long timestamp) {
+    AggregateNumericMetric calculateAggregatedRaw(Iterable<RawNumericMetric> rawMetrics, long timestamp) {
         double min = Double.NaN;
         double max = min;
         int count = 0;
@@ -625,106 +954,6 @@ public class MetricsServer {
         return new AggregateNumericMetric(0, mean.getArithmeticMean(), min, max, timestamp);
     }
 
-    private List<AggregateNumericMetric> calculateAggregates(MetricsTable fromTable,
-        MetricsTable toTable, long timeSlice, Duration nextDuration) {
-
-        long start = System.currentTimeMillis();
-        try {
-            DateTime startTime = new DateTime(timeSlice);
-            DateTime endTime = startTime.plus(nextDuration);
-            DateTime currentHour = currentHour();
-
-            if (log.isDebugEnabled()) {
-                log.debug("Preparing to compute aggregates for data in " + fromTable + " table");
-                log.debug("Time slice start time is [" + startTime + "] and the end time is [" + endTime +  "].");
-            }
-
-            DateTimeComparator dateTimeComparator = DateTimeComparator.getInstance();
-            if (dateTimeComparator.compare(currentHour, endTime) < 0) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Skipping aggregation for " + fromTable + " since the time slice has not yet completed");
-                }
-                return Collections.emptyList();
-            }
-
-            Iterable<MetricsIndexEntry> indexEntries = dao.findMetricsIndexEntries(toTable, timeSlice);
-            List<AggregateNumericMetric> toMetrics = new ArrayList<AggregateNumericMetric>();
-
-
-            for (MetricsIndexEntry indexEntry : indexEntries) {
-                Iterable<AggregateNumericMetric> metrics = null;
-                switch (fromTable) {
-                    case ONE_HOUR:
-                        metrics = dao.findOneHourMetrics(indexEntry.getScheduleId(), startTime.getMillis(),
-                            endTime.getMillis());
-                        break;
-                    case SIX_HOUR:
-                        metrics = dao.findSixHourMetrics(indexEntry.getScheduleId(), startTime.getMillis(),
-                            endTime.getMillis());
-                        break;
-                    default:  // 24 hour
-                        metrics = dao.findTwentyFourHourMetrics(indexEntry.getScheduleId(), startTime.getMillis(),
-                            endTime.getMillis());
-                        break;
-                }
-                AggregateNumericMetric aggregatedMetric = calculateAggregate(metrics, startTime.getMillis());
-                aggregatedMetric.setScheduleId(indexEntry.getScheduleId());
-                toMetrics.add(aggregatedMetric);
-            }
-
-            switch (toTable) {
-                case ONE_HOUR:
-                    insertOneHourAggregates(toMetrics);
-                    break;
-                case SIX_HOUR:
-                    insertSixHourAggregates(toMetrics);
-                    break;
-                default:  // 24 hour
-                    insertTwentyFourHourAggregates(toMetrics);
-            }
-
-            if (log.isDebugEnabled()) {
-                log.debug("Finished computing and inserting " + toMetrics.size() + " aggregates into table [" + toTable
-                    + "] ");
-            }
-
-            return toMetrics;
-        } finally {
-            long end = System.currentTimeMillis();
-            if (log.isInfoEnabled()) {
-                log.info("Finished computing aggregates for table [" + fromTable + "] "
-                    + (end - start) + " ms");
-            }
-        }
-    }
-
-    private void insertOneHourAggregates(List<AggregateNumericMetric> metrics) {
-        for (AggregateNumericMetric metric : metrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
-        }
-    }
-
-    private void insertSixHourAggregates(List<AggregateNumericMetric> metrics) {
-        for (AggregateNumericMetric metric : metrics) {
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
-        }
-    }
-
-    private void insertTwentyFourHourAggregates(List<AggregateNumericMetric> metrics) {
-        for (AggregateNumericMetric metric : metrics) {
-            dao.insertTwentyFourHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN,
-                metric.getMin());
-            dao.insertTwentyFourHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX,
-                metric.getMax());
-            dao.insertTwentyFourHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG,
-                metric.getAvg());
-        }
-    }
-
     private AggregateNumericMetric calculateAggregate(Iterable<AggregateNumericMetric> metrics, long timestamp) {
         double min = Double.NaN;
         double max = min;
@@ -0,0 +1,534 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.datastax.driver.core.ResultSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.core.util.exception.ThrowableUtil;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+/**
+ * Groups raw data into unlogged batches before writing it to storage. Data is buffered per schedule, i.e., per
+ * partition, and a schedule's buffer is written as soon as it reaches the batch size. Everything else is written when
+ * the linger time expires. After the raw data for a flush has been written, the index is updated once per schedule
+ * per time slice, again with batches that each target a single index partition.
+ * <br/><br/>
+ * The {@link RawDataInsertedCallback} contract is the same as for unbatched inserts. The callback is notified of
+ * success for a data point only after both the raw data and its index entry have been stored.
+ */
+public class RawDataBatcher {
+
+    private static final long RATE_INTERVAL = 60000;
+
+    private static final long SHUTDOWN_TIMEOUT = 30000;
+
+    private final Log log = LogFactory.getLog(RawDataBatcher.class);
+
+    private MetricsDAO dao;
+
+    private MetricsConfiguration configuration;
+
+    private DateTimeService dateTimeService;
+
+    private ListeningExecutorService callbackExecutor;
+
+    private MetricsIndexCache indexCache;
+
+    private ScheduledExecutorService flushExecutor;
+
+    private volatile int batchSize;
+
+    private long linger;
+
+    private final Object lock = new Object();
+
+    private Map<Integer, List<PendingInsert>> pending = new HashMap<Integer, List<PendingInsert>>();
+
+    // The writes that have not completed yet, whether sent by a flush or as full batches by add()
+    private final Set<ListenableFuture<Void>> inFlight = Collections.newSetFromMap(
+        new ConcurrentHashMap<ListenableFuture<Void>, Boolean>());
+
+    private AtomicLong pointsInserted = new AtomicLong();
+
+    private AtomicLong batchesSent = new AtomicLong();
+
+    private AtomicLong batchedStatements = new AtomicLong();
+
+    private volatile double pointsPerSecond;
+
+    private volatile double batchesPerSecond;
+
+    private long lastSampleTime = System.currentTimeMillis();
+
+    private long lastSamplePoints;
+
+    private long lastSampleBatches;
+
+    public RawDataBatcher(MetricsDAO dao, MetricsConfiguration configuration, DateTimeService dateTimeService,
+        ListeningExecutorService callbackExecutor, MetricsIndexCache indexCache, int batchSize, long linger) {
+        this.dao = dao;
+        this.configuration = configuration;
+        this.dateTimeService = dateTimeService;
+        this.callbackExecutor = callbackExecutor;
+        this.indexCache = indexCache;
+        this.batchSize = batchSize;
+        this.linger = linger;
+    }
+
+    public void start() {
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(new StorageClientThreadFactory());
+        flushExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                    updateRates();
+                } catch (Throwable t) {
+                    log.warn("Failed to flush raw data batches: " + ThrowableUtil.getRootMessage(t));
+                }
+            }
+        }, linger, linger, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic flush and writes any data that is still buffered. This blocks until the raw data and index
+     * writes of the final flush, and of every batch that was sent before, have completed, so that the callback executor
+     * can be shut down afterwards.
+     */
+    public void shutdown() {
+        try {
+            if (flushExecutor != null) {
+                flushExecutor.shutdown();
+                flushExecutor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+            flush();
+            Futures.successfulAsList(new ArrayList<ListenableFuture<Void>>(inFlight)).get(SHUTDOWN_TIMEOUT,
+                TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while writing the remaining raw data batches");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Failed to write the remaining raw data batches: " + ThrowableUtil.getRootMessage(e));
+        } catch (TimeoutException e) {
+            log.warn("Timed out after " + SHUTDOWN_TIMEOUT + " ms waiting for the remaining raw data batches to " +
+                "be written");
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getLinger() {
+        return linger;
+    }
+
+    /**
+     * @return The number of raw data points per second that were fully stored, i.e., raw data plus index, during the
+     * last sampling interval
+     */
+    public double getPointsPerSecond() {
+        return pointsPerSecond;
+    }
+
+    /**
+     * @return The number of batches, raw data and index, sent per second during the last sampling interval
+     */
+    public double getBatchesPerSecond() {
+        return batchesPerSecond;
+    }
+
+    /**
+     * @return The average number of statements per batch since start up
+     */
+    public double getAverageBatchSize() {
+        long batches = batchesSent.get();
+        if (batches == 0) {
+            return 0;
+        }
+        return (double) batchedStatements.get() / batches;
+    }
+
+    public void add(Set<MeasurementDataNumeric> dataSet, RawDataInsertedCallback callback) {
+        InsertRequest request = new InsertRequest(dataSet.size(), callback);
+        List<List<PendingInsert>> fullBatches = null;
+
+        synchronized (lock) {
+            for (MeasurementDataNumeric data : dataSet) {
+                List<PendingInsert> inserts = pending.get(data.getScheduleId());
+                if (inserts == null) {
+                    inserts = new ArrayList<PendingInsert>();
+                    pending.put(data.getScheduleId(), inserts);
+                }
+                inserts.add(new PendingInsert(data, request));
+                if (inserts.size() >= batchSize) {
+                    pending.remove(data.getScheduleId());
+                    if (fullBatches == null) {
+                        fullBatches = new ArrayList<List<PendingInsert>>();
+                    }
+                    fullBatches.add(inserts);
+                }
+            }
+        }
+
+        if (fullBatches != null) {
+            write(fullBatches);
+        }
+    }
+
+    /**
+     * @return A future that completes once the raw data and index writes for the flushed data have completed
+     */
+    ListenableFuture<Void> flush() {
+        Map<Integer, List<PendingInsert>> batches;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return Futures.<Void>immediateFuture(null);
+            }
+            batches = pending;
+            pending = new HashMap<Integer, List<PendingInsert>>();
+        }
+        return write(batches.values());
+    }
+
+    private ListenableFuture<Void> write(Collection<List<PendingInsert>> batches) {
+        final IndexUpdates indexUpdates = new IndexUpdates(batches.size());
+
+        for (final List<PendingInsert> batch : batches) {
+            List<MeasurementDataNumeric> data = new ArrayList<MeasurementDataNumeric>(batch.size());
+            for (PendingInsert insert : batch) {
+                data.add(insert.data);
+            }
+            final int scheduleId = data.get(0).getScheduleId();
+            StorageResultSetFuture future = dao.insertRawDataBatch(scheduleId, data);
+            batchesSent.incrementAndGet();
+            batchedStatements.addAndGet(batch.size());
+
+            Futures.addCallback(future, new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(ResultSet result) {
+                    indexUpdates.add(batch);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("An error occurred while inserting a batch of " + batch.size() + " raw data " +
+                            "points for [scheduleId: " + scheduleId + "]", t);
+                    } else {
+                        log.error("An error occurred while inserting a batch of " + batch.size() + " raw data " +
+                            "points for [scheduleId: " + scheduleId + "]: " + ThrowableUtil.getRootMessage(t));
+                    }
+                    for (PendingInsert insert : batch) {
+                        insert.request.onFailure(t);
+                    }
+                    indexUpdates.skip();
+                }
+            }, callbackExecutor);
+        }
+        final ListenableFuture<Void> done = indexUpdates.done;
+        inFlight.add(done);
+        done.addListener(new Runnable() {
+            @Override
+            public void run() {
+                inFlight.remove(done);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return done;
+    }
+
+    private void updateIndex(Map<Long, Map<Integer, List<PendingInsert>>> updates, final SettableFuture<Void> done) {
+        List<IndexBatch> indexBatches = new ArrayList<IndexBatch>();
+        for (Map.Entry<Long, Map<Integer, List<PendingInsert>>> entry : updates.entrySet()) {
+            long timeSlice = entry.getKey();
+            Iterator<Map.Entry<Integer, List<PendingInsert>>> iterator = entry.getValue().entrySet().iterator();
+
+            while (iterator.hasNext()) {
+                IndexBatch indexBatch = new IndexBatch(timeSlice);
+                while (iterator.hasNext() && indexBatch.scheduleIds.size() < batchSize) {
+                    Map.Entry<Integer, List<PendingInsert>> scheduleEntry = iterator.next();
+                    if (isIndexUpdateRequired(scheduleEntry.getKey(), timeSlice)) {
+                        indexBatch.scheduleIds.add(scheduleEntry.getKey());
+                        indexBatch.inserts.addAll(scheduleEntry.getValue());
+                    } else {
+                        indexUpdateSkipped(scheduleEntry.getValue());
+                    }
+                }
+                if (!indexBatch.scheduleIds.isEmpty()) {
+                    indexBatches.add(indexBatch);
+                }
+            }
+        }
+
+        if (indexBatches.isEmpty()) {
+            done.set(null);
+            return;
+        }
+
+        final AtomicInteger remainingBatches = new AtomicInteger(indexBatches.size());
+        for (final IndexBatch indexBatch : indexBatches) {
+            StorageResultSetFuture future = dao.updateMetricsIndexBatch(MetricsTable.ONE_HOUR, indexBatch.timeSlice,
+                indexBatch.scheduleIds);
+            batchesSent.incrementAndGet();
+            batchedStatements.addAndGet(indexBatch.scheduleIds.size());
+
+            Futures.addCallback(future, new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(ResultSet result) {
+                    try {
+                        for (Integer scheduleId : indexBatch.scheduleIds) {
+                            indexUpdated(scheduleId, indexBatch.timeSlice);
+                        }
+                        pointsInserted.addAndGet(indexBatch.inserts.size());
+                        for (PendingInsert insert : indexBatch.inserts) {
+                            insert.request.onSuccess(insert.data);
+                        }
+                    } finally {
+                        batchDone();
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    try {
+                        log.error("An error occurred while trying to update " + MetricsTable.INDEX + " for " +
+                            indexBatch.scheduleIds.size() + " schedules at time slice " +
+                            new DateTime(indexBatch.timeSlice) + ": " + ThrowableUtil.getRootMessage(t));
+                        for (PendingInsert insert : indexBatch.inserts) {
+                            insert.request.onFailure(t);
+                        }
+                    } finally {
+                        batchDone();
+                    }
+                }
+
+                private void batchDone() {
+                    if (remainingBatches.decrementAndGet() == 0) {
+                        done.set(null);
+                    }
+                }
+            }, callbackExecutor);
+        }
+    }
+
+    private boolean isIndexUpdateRequired(int scheduleId, long timeSlice) {
+        if (indexCache == null || timeSlice > getTimeSlice(dateTimeService.nowInMillis())) {
+            return true;
+        }
+        return !indexCache.contains(scheduleId, timeSlice);
+    }
+
+    private void indexUpdated(int scheduleId, long timeSlice) {
+        if (indexCache != null && timeSlice <= getTimeSlice(dateTimeService.nowInMillis())) {
+            indexCache.add(scheduleId, timeSlice);
+        }
+    }
+
+    private void indexUpdateSkipped(List<PendingInsert> inserts) {
+        pointsInserted.addAndGet(inserts.size());
+        for (PendingInsert insert : inserts) {
+            insert.request.onSuccess(insert.data);
+        }
+    }
+
+    private void updateRates() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastSampleTime;
+        if (elapsed < RATE_INTERVAL) {
+            return;
+        }
+        long points = pointsInserted.get();
+        long batches = batchesSent.get();
+
+        pointsPerSecond = (points - lastSamplePoints) * 1000.0 / elapsed;
+        batchesPerSecond = (batches - lastSampleBatches) * 1000.0 / elapsed;
+
+        lastSampleTime = now;
+        lastSamplePoints = points;
+        lastSampleBatches = batches;
+    }
+
+    private long getTimeSlice(MeasurementDataNumeric data) {
+        return getTimeSlice(data.getTimestamp());
+    }
+
+    private long getTimeSlice(long timestamp) {
+        return dateTimeService.getTimeSlice(new DateTime(timestamp), configuration.getRawTimeSliceDuration())
+            .getMillis();
+    }
+
+    /**
+     * Collects the raw data batches of a single flush as they complete. Once every batch has completed, the index
+     * entries for the successfully stored data are written.
+     */
+    private class IndexUpdates {
+
+        private int remainingBatches;
+
+        private Map<Long, Map<Integer, List<PendingInsert>>> updates =
+            new HashMap<Long, Map<Integer, List<PendingInsert>>>();
+
+        final SettableFuture<Void> done = SettableFuture.create();
+
+        public IndexUpdates(int numBatches) {
+            remainingBatches = numBatches;
+        }
+
+        public void add(List<PendingInsert> batch) {
+            synchronized (this) {
+                for (PendingInsert insert : batch) {
+                    long timeSlice = getTimeSlice(insert.data);
+                    Map<Integer, List<PendingInsert>> schedules = updates.get(timeSlice);
+                    if (schedules == null) {
+                        schedules = new HashMap<Integer, List<PendingInsert>>();
+                        updates.put(timeSlice, schedules);
+                    }
+                    List<PendingInsert> inserts = schedules.get(insert.data.getScheduleId());
+                    if (inserts == null) {
+                        inserts = new ArrayList<PendingInsert>();
+                        schedules.put(insert.data.getScheduleId(), inserts);
+                    }
+                    inserts.add(insert);
+                }
+            }
+            skip();
+        }
+
+        public void skip() {
+            Map<Long, Map<Integer, List<PendingInsert>>> readyUpdates = null;
+            synchronized (this) {
+                if (--remainingBatches == 0) {
+                    readyUpdates = updates;
+                }
+            }
+            if (readyUpdates == null) {
+                return;
+            }
+            if (readyUpdates.isEmpty()) {
+                done.set(null);
+            } else {
+                updateIndex(readyUpdates, done);
+            }
+        }
+    }
+
+    /**
+     * The schedules of a single index batch, which all belong to the same time slice
+     */
+    private static class IndexBatch {
+
+        final long timeSlice;
+
+        final List<Integer> scheduleIds = new ArrayList<Integer>();
+
+        final List<PendingInsert> inserts = new ArrayList<PendingInsert>();
+
+        IndexBatch(long timeSlice) {
+            this.timeSlice = timeSlice;
+        }
+    }
+
+    private static class PendingInsert {
+
+        final MeasurementDataNumeric data;
+
+        final InsertRequest request;
+
+        PendingInsert(MeasurementDataNumeric data, InsertRequest request) {
+            this.data = data;
+            this.request = request;
+        }
+    }
+
+    /**
+     * Tracks the data set passed to a single call to {@link #add(Set, RawDataInsertedCallback)}, so that the callback
+     * is finished once all of its data has been stored, regardless of how the data was spread across batches.
+     */
+    private class InsertRequest {
+
+        final int total;
+
+        final AtomicInteger remaining;
+
+        final RawDataInsertedCallback callback;
+
+        final long startTime = System.currentTimeMillis();
+
+        InsertRequest(int total, RawDataInsertedCallback callback) {
+            this.total = total;
+            this.remaining = new AtomicInteger(total);
+            this.callback = callback;
+        }
+
+        void onSuccess(MeasurementDataNumeric data) {
+            callback.onSuccess(data);
+            if (remaining.decrementAndGet() == 0) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Finished inserting " + total + " raw metrics in " +
+                        (System.currentTimeMillis() - startTime) + " ms");
+                }
+                callback.onFinish();
+            }
+        }
+
+        void onFailure(Throwable t) {
+            callback.onFailure(t);
+        }
+    }
+
+}
@@ -15,10 +15,26 @@ public class StorageClientConstants {
 
     public static final String REQUEST_TOPOLOGY_CHANGE_DELTA = "rhq.storage.request.limit.topology-delta";
 
+    public static final String REQUEST_CONCURRENCY_ADAPTIVE = "rhq.storage.request.concurrency.adaptive";
+
+    public static final String REQUEST_CONCURRENCY_MIN = "rhq.storage.request.concurrency.min";
+
+    /**
+     * Prefix of the per {@link Workload} maximum concurrency, e.g., rhq.storage.request.concurrency.max.read
+     */
+    public static final String REQUEST_CONCURRENCY_MAX = "rhq.storage.request.concurrency.max";
+
+    public static final String REQUEST_CONCURRENCY_LATENCY_TOLERANCE =
+        "rhq.storage.request.concurrency.latency-tolerance";
+
+    public static final String REQUEST_CONCURRENCY_MAX_WAIT = "rhq.storage.request.concurrency.max-wait";
+
     public static final String LOAD_BALANCING = "rhq.storage.client.load-balancing";
 
     public static final String DATA_CENTER = "rhq.storage.dc";
 
+    public static final String TOKEN_AWARE = "rhq.storage.client.token-aware";
+
     private StorageClientConstants() {
     }
 
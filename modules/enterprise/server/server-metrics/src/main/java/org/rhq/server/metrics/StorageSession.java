@@ -1,5 +1,9 @@
 package org.rhq.server.metrics;
 
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_CONCURRENCY_ADAPTIVE;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_CONCURRENCY_LATENCY_TOLERANCE;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_CONCURRENCY_MAX_WAIT;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_CONCURRENCY_MIN;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT_MIN;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DAMPENING;
@@ -11,7 +15,9 @@ import java.math.MathContext;
 import java.math.RoundingMode;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -22,17 +28,37 @@ import com.datastax.driver.core.Query;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.QueryTimeoutException;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.RateLimiter;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
+ * Wraps the driver session to throttle requests. There are two independent mechanisms:
+ * <ul>
+ *   <li>A request rate limit for the whole cluster that changes with the topology and on client timeouts. It applies
+ *   to {@link Workload#INGESTION ingestion} and {@link Workload#AGGREGATION aggregation} requests. Interactive
+ *   {@link Workload#READ reads} are exempt so that they never queue up behind a backlog of writes.</li>
+ *   <li>An {@link AdaptiveLimiter adaptive concurrency limit} per {@link Workload}, driven by the observed latency of
+ *   the requests of that workload.</li>
+ * </ul>
+ * Requests that do not specify a workload run as {@link #DEFAULT_WORKLOAD}. That suits interactive queries and
+ * administrative statements only, so requests on the ingestion and aggregation paths must specify their workload.
+ *
  * @author John Sanda
  */
 public class StorageSession implements Host.StateListener {
 
+    /**
+     * The workload of the requests that do not specify one. These are exempt from the request rate limit.
+     */
+    public static final Workload DEFAULT_WORKLOAD = Workload.READ;
+
     private final Log log = LogFactory.getLog(StorageSession.class);
 
     private Session wrappedSession;
@@ -58,10 +84,30 @@ public class StorageSession implements Host.StateListener {
 
     private AtomicLong totalRequests = new AtomicLong();
 
+    private Map<Workload, AdaptiveLimiter> limiters = new EnumMap<Workload, AdaptiveLimiter>(Workload.class);
+
     public StorageSession(Session wrappedSession) {
         this.wrappedSession = wrappedSession;
         this.wrappedSession.getCluster().register(this);
         calculateRequestLimit();
+        createConcurrencyLimiters();
+    }
+
+    private void createConcurrencyLimiters() {
+        if (!Boolean.valueOf(System.getProperty(REQUEST_CONCURRENCY_ADAPTIVE, "true"))) {
+            log.info("Adaptive request concurrency limits are disabled");
+            return;
+        }
+        double minLimit = Double.parseDouble(System.getProperty(REQUEST_CONCURRENCY_MIN, "8"));
+        double latencyTolerance = Double.parseDouble(System.getProperty(REQUEST_CONCURRENCY_LATENCY_TOLERANCE,
+            "2.0"));
+        long maxWait = Long.parseLong(System.getProperty(REQUEST_CONCURRENCY_MAX_WAIT, "1000"));
+        for (Workload workload : Workload.values()) {
+            double maxLimit = Double.parseDouble(System.getProperty(workload.getMaxConcurrencyProperty(),
+                Integer.toString(workload.getDefaultMaxConcurrency())));
+            limiters.put(workload, new AdaptiveLimiter(workload.getName(), Math.min(minLimit, maxLimit), maxLimit,
+                latencyTolerance, maxWait));
+        }
     }
 
     public void registerNewSession(Session newWrappedSession) {
@@ -139,42 +185,97 @@ public class StorageSession implements Host.StateListener {
         return timeouts;
     }
 
+    /**
+     * @param workload The workload
+     * @return The concurrency limiter of the workload or null if adaptive concurrency limits are disabled
+     */
+    public AdaptiveLimiter getConcurrencyLimiter(Workload workload) {
+        return limiters.get(workload);
+    }
+
     public ResultSet execute(String query) {
-        try {
-            totalRequests.incrementAndGet();
-            permits.acquire();
-            return wrappedSession.execute(query);
-        } catch (NoHostAvailableException e) {
-            handleNoHostAvailable(e);
-            throw e;
-        }
+        return execute(query, DEFAULT_WORKLOAD);
+    }
+
+    public ResultSet execute(String query, Workload workload) {
+        return execute(new SimpleStatement(query), workload);
     }
 
     public ResultSet execute(Query query) {
+        return execute(query, DEFAULT_WORKLOAD);
+    }
+
+    public ResultSet execute(Query query, Workload workload) {
+        AdaptiveLimiter limiter = acquire(workload);
+        long startTime = limiter == null ? 0 : limiter.acquire();
+        boolean overloaded = false;
         try {
-            totalRequests.incrementAndGet();
-            permits.acquire();
             return wrappedSession.execute(query);
         } catch (NoHostAvailableException e) {
+            overloaded = isClientTimeout(e);
             handleNoHostAvailable(e);
             throw e;
+        } catch (QueryTimeoutException e) {
+            overloaded = true;
+            throw e;
+        } finally {
+            if (limiter != null) {
+                limiter.release(startTime, overloaded);
+            }
         }
     }
 
     public StorageResultSetFuture executeAsync(String query) {
-        totalRequests.incrementAndGet();
-        permits.acquire();
-        ResultSetFuture future = wrappedSession.executeAsync(query);
-        return new StorageResultSetFuture(future, this);
+        return executeAsync(query, DEFAULT_WORKLOAD);
+    }
+
+    public StorageResultSetFuture executeAsync(String query, Workload workload) {
+        return executeAsync(new SimpleStatement(query), workload);
     }
 
     public StorageResultSetFuture executeAsync(Query query) {
-        totalRequests.incrementAndGet();
-        permits.acquire();
+        return executeAsync(query, DEFAULT_WORKLOAD);
+    }
+
+    public StorageResultSetFuture executeAsync(Query query, Workload workload) {
+        AdaptiveLimiter limiter = acquire(workload);
+        long startTime = limiter == null ? 0 : limiter.acquire();
         ResultSetFuture future = wrappedSession.executeAsync(query);
+        releaseOnCompletion(future, limiter, startTime);
         return new StorageResultSetFuture(future, this);
     }
 
+    /**
+     * Counts the request and applies the request rate limit if the workload is subject to it.
+     *
+     * @return The concurrency limiter of the workload or null if adaptive concurrency limits are disabled
+     */
+    private AdaptiveLimiter acquire(Workload workload) {
+        totalRequests.incrementAndGet();
+        if (workload != Workload.READ) {
+            permits.acquire();
+        }
+        return limiters.get(workload);
+    }
+
+    private void releaseOnCompletion(ResultSetFuture future, final AdaptiveLimiter limiter, final long startTime) {
+        if (limiter == null) {
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet result) {
+                limiter.release(startTime, false);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                limiter.release(startTime, t instanceof QueryTimeoutException ||
+                    (t instanceof NoHostAvailableException && isClientTimeout((NoHostAvailableException) t)));
+            }
+        });
+    }
+
     public PreparedStatement prepare(String query) {
         totalRequests.incrementAndGet();
         permits.acquire();
@@ -0,0 +1,81 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+/**
+ * The kinds of requests that {@link StorageSession} throttles independently of each other. Each workload has its own
+ * {@link AdaptiveLimiter concurrency budget} so that, for example, a backlog of raw data inserts cannot starve the
+ * queries that render graphs.
+ *
+ * @see StorageClientConstants#REQUEST_CONCURRENCY_MAX
+ */
+public enum Workload {
+
+    /**
+     * Inserts of raw data and the metrics index updates for them
+     */
+    INGESTION("ingestion", 512),
+
+    /**
+     * Reads and writes done while computing aggregates
+     */
+    AGGREGATION("aggregation", 256),
+
+    /**
+     * Interactive queries, e.g., for graphs. These are not subject to the request rate limit.
+     */
+    READ("read", 256);
+
+    private final String name;
+
+    private final int defaultMaxConcurrency;
+
+    private Workload(String name, int defaultMaxConcurrency) {
+        this.name = name;
+        this.defaultMaxConcurrency = defaultMaxConcurrency;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The system property that overrides the maximum concurrency of this workload
+     */
+    public String getMaxConcurrencyProperty() {
+        return StorageClientConstants.REQUEST_CONCURRENCY_MAX + "." + name;
+    }
+
+    public int getDefaultMaxConcurrency() {
+        return defaultMaxConcurrency;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
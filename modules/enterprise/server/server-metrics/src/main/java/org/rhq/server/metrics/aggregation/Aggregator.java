@@ -61,6 +61,8 @@ public class Aggregator {
 
     private Set<AggregateNumericMetric> oneHourData;
 
+    private boolean finished;
+
     public Aggregator(ListeningExecutorService aggregationTasks, MetricsDAO dao, MetricsConfiguration configuration,
         DateTimeService dtService, DateTime startTime, int batchSize, int parallelism) {
         this.dao = dao;
@@ -115,6 +117,13 @@ public class Aggregator {
         return dtService.getTimeSlice(dtService.now(), configuration.getRawTimeSliceDuration());
     }
 
+    /**
+     * @return true if {@link #run()} aggregated every bucket, false if it was interrupted or aborted
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
     public Set<AggregateNumericMetric> run() {
         log.info("Starting aggregation for time slice " + startTime);
         try {
@@ -163,6 +172,7 @@ public class Aggregator {
             }
             updateIndexSignal.await();
 
+            finished = true;
             return oneHourData;
         } catch (InterruptedException e) {
             log.info("There was an interrupt while waiting for aggregation to finish. Aggregation will be aborted.");
@@ -20,7 +20,6 @@ import org.rhq.server.metrics.ArithmeticMeanCalculator;
 import org.rhq.server.metrics.MetricsDAO;
 import org.rhq.server.metrics.StorageResultSetFuture;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
-import org.rhq.server.metrics.domain.AggregateType;
 import org.rhq.server.metrics.domain.MetricsTable;
 
 /**
@@ -66,12 +65,7 @@ class Compute1HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>
                 }
                 AggregateNumericMetric aggregate = calculateAggregatedRaw(resultSet);
                 oneHourData.add(aggregate);
-                insertFutures.add(dao.insertOneHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
-                    AggregateType.MIN, aggregate.getMin()));
-                insertFutures.add(dao.insertOneHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
-                    AggregateType.MAX, aggregate.getMax()));
-                insertFutures.add(dao.insertOneHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
-                    AggregateType.AVG, aggregate.getAvg()));
+                insertFutures.add(dao.insertOneHourDataAsync(aggregate));
                 insertFutures.add(dao.updateMetricsIndex(MetricsTable.SIX_HOUR, aggregate.getScheduleId(),
                     sixHourTimeSlice.getMillis()));
             }
@@ -85,7 +79,7 @@ class Compute1HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>
         }
     }
 
-    private AggregateNumericMetric calculateAggregatedRaw(ResultSet resultSet) {
+    AggregateNumericMetric calculateAggregatedRaw(ResultSet resultSet) {
         double min = Double.NaN;
         double max = min;
         int count = 0;
@@ -19,7 +19,6 @@ import org.rhq.server.metrics.ArithmeticMeanCalculator;
 import org.rhq.server.metrics.MetricsDAO;
 import org.rhq.server.metrics.StorageResultSetFuture;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
-import org.rhq.server.metrics.domain.AggregateType;
 import org.rhq.server.metrics.domain.MetricsTable;
 
 /**
@@ -61,12 +60,7 @@ class Compute6HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>
                     continue;
                 }
                 AggregateNumericMetric aggregate = calculateAggregate(resultSet);
-                insertFutures.add(dao.insertSixHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
-                    AggregateType.MIN, aggregate.getMin()));
-                insertFutures.add(dao.insertSixHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
-                    AggregateType.MAX, aggregate.getMax()));
-                insertFutures.add(dao.insertSixHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
-                    AggregateType.AVG, aggregate.getAvg()));
+                insertFutures.add(dao.insertSixHourDataAsync(aggregate));
                 insertFutures.add(dao.updateMetricsIndex(MetricsTable.TWENTY_FOUR_HOUR, aggregate.getScheduleId(),
                     twentyFourHourTimeSlice.getMillis()));
             }
@@ -80,30 +74,22 @@ class Compute6HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>
         }
     }
 
-    private AggregateNumericMetric calculateAggregate(ResultSet resultSet) {
+    AggregateNumericMetric calculateAggregate(ResultSet resultSet) {
         double min = Double.NaN;
         double max = min;
         ArithmeticMeanCalculator mean = new ArithmeticMeanCalculator();
         List<Row> rows = resultSet.all();
 
-        // Inserting an aggregate metric currently requires three writes. If one of those writes fails, we could wind
-        // update with an IndexOutOfBoundsException in the loop below because it assumes rows.size() % 3 == 0 and that
-        // would could be false if writes fail. This won't be an issue though when the changes for BZ 1049054 are
-        // implemented, and this long comment can then be deleted.
-
-        for (int i = 0; i < rows.size(); i += 3) {
-            if (i == 0) {
-                min = rows.get(i + 1).getDouble(3);
-                max = rows.get(i).getDouble(3);
-            } else {
-                if (rows.get(i + 1).getDouble(3) < min) {
-                    min = rows.get(i + 1).getDouble(3);
-                }
-                if (rows.get(i).getDouble(3) > max) {
-                    max = rows.get(i).getDouble(3);
-                }
+        for (Row row : rows) {
+            double rowMin = row.getDouble(2);
+            double rowMax = row.getDouble(3);
+            if (Double.isNaN(min) || rowMin < min) {
+                min = rowMin;
+            }
+            if (Double.isNaN(max) || rowMax > max) {
+                max = rowMax;
             }
-            mean.add(rows.get(i + 2).getDouble(3));
+            mean.add(row.getDouble(4));
         }
         return new AggregateNumericMetric(rows.get(0).getInt(0), mean.getArithmeticMean(), min, max,
             startTime.getMillis());
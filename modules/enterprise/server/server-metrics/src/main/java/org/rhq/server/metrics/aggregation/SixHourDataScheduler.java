@@ -8,6 +8,7 @@ import com.google.common.util.concurrent.AsyncFunction;
 
 import org.rhq.server.metrics.SignalingCountDownLatch;
 import org.rhq.server.metrics.StorageResultSetFuture;
+import org.rhq.server.metrics.Workload;
 
 /**
  * @author John Sanda
@@ -31,7 +32,7 @@ class SixHourDataScheduler extends BatchAggregationScheduler {
     @Override
     protected StorageResultSetFuture findMetricData(int scheduleId) {
         return state.getDao().findSixHourMetricsAsync(scheduleId, state.getTwentyFourHourTimeSlice().getMillis(),
-            state.getTwentyFourHourTimeSliceEnd().getMillis());
+            state.getTwentyFourHourTimeSliceEnd().getMillis(), Workload.AGGREGATION);
     }
 
     @Override
@@ -0,0 +1,852 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics.aggregation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.datastax.driver.core.ResultSet;
+import com.google.common.base.Function;
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import org.rhq.core.util.exception.ThrowableUtil;
+import org.rhq.server.metrics.ComputeAggregate;
+import org.rhq.server.metrics.ComputeRawAggregate;
+import org.rhq.server.metrics.DateTimeService;
+import org.rhq.server.metrics.MetricsConfiguration;
+import org.rhq.server.metrics.MetricsDAO;
+import org.rhq.server.metrics.StorageClientThreadFactory;
+import org.rhq.server.metrics.StorageResultSetFuture;
+import org.rhq.server.metrics.Workload;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.AggregationLease;
+import org.rhq.server.metrics.domain.MetricsIndexEntry;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+/**
+ * Computes aggregates by streaming index entries page by page. For each schedule the data query, the aggregate
+ * computation, and the aggregate and index writes form an asynchronous pipeline. A semaphore bounds the number of
+ * schedules in the pipeline, so reading the next page of index entries blocks until enough writes have completed.
+ * <br/><br/>
+ * When an hour completes a 6 hour or 24 hour time slice, the roll ups are pipelined as well. As soon as the 1 hour
+ * aggregate of a schedule has been written, its 6 hour aggregate is computed, followed by its 24 hour aggregate. There
+ * is no barrier between the stages. Afterwards the 6 hour and 24 hour index partitions are swept for the schedules
+ * that had no raw data in the hour, skipping the schedules that have already been rolled up.
+ * <br/><br/>
+ * Progress is checkpointed after each page of index entries has been fully processed. If aggregation is interrupted,
+ * e.g., by a server restart or a fail over to another server, the next run for the same time slice resumes after the
+ * last checkpoint instead of starting over. Aggregation is idempotent, so at worst the schedules that were in flight
+ * are aggregated again.
+ * <br/><br/>
+ * Several hours, e.g., after an outage, are {@link #catchUp(List) caught up} in parallel. An hour can also be
+ * {@link #runShared(DateTime, String, int) shared} by the servers of a cluster.
+ */
+public class StreamingAggregator {
+
+    private static final long LEASE_POLL_INTERVAL = 5000;
+
+    private final Log log = LogFactory.getLog(StreamingAggregator.class);
+
+    private ListeningExecutorService aggregationTasks;
+
+    private MetricsDAO dao;
+
+    private MetricsConfiguration configuration;
+
+    private DateTimeService dtService;
+
+    private int maxSchedulesInFlight;
+
+    private int parallelHours;
+
+    private volatile boolean finished;
+
+    // Set when a schedule fails, so that the run is not reported as finished
+    private volatile boolean failed;
+
+    public StreamingAggregator(ListeningExecutorService aggregationTasks, MetricsDAO dao,
+        MetricsConfiguration configuration, DateTimeService dtService, int maxSchedulesInFlight) {
+        this(aggregationTasks, dao, configuration, dtService, maxSchedulesInFlight, 1);
+    }
+
+    /**
+     * @param parallelHours The number of time slices that {@link #catchUp(List)} aggregates concurrently
+     */
+    public StreamingAggregator(ListeningExecutorService aggregationTasks, MetricsDAO dao,
+        MetricsConfiguration configuration, DateTimeService dtService, int maxSchedulesInFlight, int parallelHours) {
+        this.aggregationTasks = aggregationTasks;
+        this.dao = dao;
+        this.configuration = configuration;
+        this.dtService = dtService;
+        this.maxSchedulesInFlight = maxSchedulesInFlight;
+        this.parallelHours = Math.max(1, parallelHours);
+    }
+
+    /**
+     * @return true if the last {@link #run(DateTime)}, {@link #catchUp(List)}, or
+     * {@link #runShared(DateTime, String, int)} aggregated every schedule of every stage, false if any schedule failed
+     * or the run was interrupted
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Aggregates the raw data for the hour starting at <code>timeSlice</code>. 1 hour and 6 hour data are rolled up as
+     * well if their time slices have completed.
+     *
+     * @return The 1 hour aggregates that were computed
+     */
+    public List<AggregateNumericMetric> run(DateTime timeSlice) {
+        finished = false;
+        failed = false;
+        try {
+            List<AggregateNumericMetric> oneHourData = aggregateHour(timeSlice);
+            finished = !failed;
+            return oneHourData;
+        } catch (InterruptedException e) {
+            log.info("There was an interrupt while waiting for aggregation to finish. Aggregation will be aborted.");
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Aggregates every hour in the range. See {@link #catchUp(List)}. The range is truncated at the current hour since
+     * only completed hours can be aggregated.
+     *
+     * @param startTime The start of the range, rounded down to the hour
+     * @param endTime The end of the range, exclusive
+     * @return The 1 hour aggregates that were computed
+     */
+    public List<AggregateNumericMetric> recompute(DateTime startTime, DateTime endTime) {
+        Duration rawDuration = configuration.getRawTimeSliceDuration();
+        DateTime end = endTime.isAfter(currentHour()) ? currentHour() : endTime;
+        List<DateTime> hours = new ArrayList<DateTime>();
+        for (DateTime timeSlice = dtService.getTimeSlice(startTime, rawDuration); timeSlice.isBefore(end);
+             timeSlice = timeSlice.plus(rawDuration)) {
+            hours.add(timeSlice);
+        }
+
+        log.info("Recomputing aggregates from " + startTime + " to " + end);
+        return catchUp(hours);
+    }
+
+    /**
+     * Aggregates the raw data of several hours, e.g., hours that were missed while the server was down. Up to
+     * <code>parallelHours</code> hours are aggregated concurrently. Once all of them are done, every 6 hour time slice
+     * that they touch and that has ended is rolled up, again concurrently, followed by the 24 hour time slices.
+     *
+     * @param hours The start times of the hours to aggregate
+     * @return The 1 hour aggregates that were computed
+     */
+    public List<AggregateNumericMetric> catchUp(List<DateTime> hours) {
+        finished = false;
+        failed = false;
+        Stopwatch stopwatch = new Stopwatch().start();
+        final Queue<AggregateNumericMetric> oneHourData = new ConcurrentLinkedQueue<AggregateNumericMetric>();
+        ListeningExecutorService hourWorkers = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+            Math.min(parallelHours, Math.max(1, hours.size())), new StorageClientThreadFactory()));
+        Set<DateTime> sixHourTimeSlices = new LinkedHashSet<DateTime>();
+        Set<DateTime> twentyFourHourTimeSlices = new LinkedHashSet<DateTime>();
+
+        log.info("Catching up aggregation for " + hours.size() + " hours");
+        try {
+            List<ListenableFuture<?>> rawStages = new ArrayList<ListenableFuture<?>>();
+            for (final DateTime hour : hours) {
+                rawStages.add(hourWorkers.submit(new StageTask() {
+                    @Override
+                    void runStage() throws InterruptedException {
+                        oneHourData.addAll(aggregate(rawStage(hour, null)));
+                    }
+                }));
+                DateTime sixHourTimeSlice = dtService.getTimeSlice(hour, configuration.getOneHourTimeSliceDuration());
+                if (hasEnded(sixHourTimeSlice, configuration.getOneHourTimeSliceDuration())) {
+                    sixHourTimeSlices.add(sixHourTimeSlice);
+                }
+                DateTime twentyFourHourTimeSlice = dtService.getTimeSlice(hour,
+                    configuration.getSixHourTimeSliceDuration());
+                if (hasEnded(twentyFourHourTimeSlice, configuration.getSixHourTimeSliceDuration())) {
+                    twentyFourHourTimeSlices.add(twentyFourHourTimeSlice);
+                }
+            }
+            Futures.allAsList(rawStages).get();
+
+            List<ListenableFuture<?>> oneHourStages = new ArrayList<ListenableFuture<?>>();
+            for (final DateTime sixHourTimeSlice : sixHourTimeSlices) {
+                oneHourStages.add(hourWorkers.submit(new StageTask() {
+                    @Override
+                    void runStage() throws InterruptedException {
+                        aggregate(oneHourStage(sixHourTimeSlice, null));
+                    }
+                }));
+            }
+            Futures.allAsList(oneHourStages).get();
+
+            List<ListenableFuture<?>> sixHourStages = new ArrayList<ListenableFuture<?>>();
+            for (final DateTime twentyFourHourTimeSlice : twentyFourHourTimeSlices) {
+                sixHourStages.add(hourWorkers.submit(new StageTask() {
+                    @Override
+                    void runStage() throws InterruptedException {
+                        aggregate(sixHourStage(twentyFourHourTimeSlice));
+                    }
+                }));
+            }
+            Futures.allAsList(sixHourStages).get();
+            finished = !failed;
+        } catch (InterruptedException e) {
+            log.info("There was an interrupt while catching up aggregation. The remaining hours will resume from " +
+                "their last checkpoint the next time aggregation runs.");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("There was an error while catching up aggregation. The remaining hours will resume from their " +
+                "last checkpoint the next time aggregation runs: " + ThrowableUtil.getRootMessage(e));
+        } finally {
+            hourWorkers.shutdownNow();
+        }
+        stopwatch.stop();
+        log.info("Finished catching up aggregation for " + hours.size() + " hours in " +
+            stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+
+        return new ArrayList<AggregateNumericMetric>(oneHourData);
+    }
+
+    /**
+     * Aggregates the hour starting at <code>timeSlice</code> together with the other servers of the cluster. Each
+     * stage, i.e., raw data and then 1 hour and 6 hour data if their time slices have completed, is split into
+     * <code>shards</code> shards by schedule id. A server takes a shard by writing a lease that expires unless it is
+     * renewed, so the shards of a server that dies are taken over once its leases expire. Other servers join through
+     * {@link #assist(DateTime, String)}.
+     * <br/><br/>
+     * This server works on shards until none is left that is not owned by someone else, then waits for the others to
+     * finish before it moves on to the next stage. Whichever server finds all shards of a stage finished, usually the
+     * one that completes the last shard, deletes the index partition and the leases of the stage. If that server dies
+     * first, the next server that looks at the stage, e.g., an assisting server, deletes them. The roll ups are not
+     * pipelined across stages since the shards of a stage may be aggregated by different servers.
+     *
+     * @param owner The name of this server
+     * @param shards The number of shards per stage, typically the number of servers in the cluster
+     * @return The 1 hour aggregates that were computed by this server
+     */
+    public List<AggregateNumericMetric> runShared(DateTime timeSlice, String owner, int shards) {
+        finished = false;
+        failed = false;
+        try {
+            List<AggregateNumericMetric> oneHourData = Collections.emptyList();
+            for (Stage stage : getSharedStages(timeSlice)) {
+                List<AggregateNumericMetric> aggregates = aggregateShards(stage, owner, shards);
+                if (stage.type == AggregationType.RAW) {
+                    oneHourData = aggregates;
+                }
+            }
+            finished = !failed;
+            return oneHourData;
+        } catch (InterruptedException e) {
+            log.info("There was an interrupt while waiting for aggregation to finish. Aggregation will be aborted. " +
+                "The shards owned by this server will be taken over by other servers when their leases expire.");
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Works on the shards of the hour starting at <code>timeSlice</code> that are not owned by another server. This
+     * does nothing unless a run for the hour has been started by {@link #runShared(DateTime, String, int)}. It
+     * returns as soon as no shard is left to take, without waiting for the other servers.
+     *
+     * @param owner The name of this server
+     * @return The 1 hour aggregates that were computed by this server
+     */
+    public List<AggregateNumericMetric> assist(DateTime timeSlice, String owner) {
+        try {
+            List<AggregateNumericMetric> oneHourData = Collections.emptyList();
+            for (Stage stage : getSharedStages(timeSlice)) {
+                List<AggregateNumericMetric> aggregates = aggregateShards(stage, owner, 0);
+                if (stage.type == AggregationType.RAW) {
+                    oneHourData = aggregates;
+                }
+            }
+            return oneHourData;
+        } catch (InterruptedException e) {
+            log.info("There was an interrupt while assisting with aggregation. The shards owned by this server will " +
+                "be taken over by other servers when their leases expire.");
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+    }
+
+    private List<Stage> getSharedStages(DateTime timeSlice) {
+        List<Stage> stages = new ArrayList<Stage>(3);
+        stages.add(rawStage(timeSlice, null));
+        DateTime sixHourTimeSlice = dtService.getTimeSlice(timeSlice, configuration.getOneHourTimeSliceDuration());
+        if (hasEnded(sixHourTimeSlice, configuration.getOneHourTimeSliceDuration())) {
+            stages.add(oneHourStage(sixHourTimeSlice, null));
+        }
+        DateTime twentyFourHourTimeSlice = dtService.getTimeSlice(timeSlice,
+            configuration.getSixHourTimeSliceDuration());
+        if (hasEnded(twentyFourHourTimeSlice, configuration.getSixHourTimeSliceDuration())) {
+            stages.add(sixHourStage(twentyFourHourTimeSlice));
+        }
+        return stages;
+    }
+
+    /**
+     * @param shards The number of shards to create if this server coordinates the stage or zero if it only assists
+     */
+    private List<AggregateNumericMetric> aggregateShards(Stage stage, String owner, int shards)
+        throws InterruptedException {
+        MetricsTable bucket = getIndexBucket(stage.type);
+        boolean coordinator = shards > 0;
+
+        List<AggregationLease> leases = dao.findAggregationLeases(bucket, stage.startTime);
+        if (leases.isEmpty()) {
+            if (!coordinator) {
+                return Collections.emptyList();
+            }
+            dao.createAggregationLeases(bucket, stage.startTime, shards);
+            leases = dao.findAggregationLeases(bucket, stage.startTime);
+        }
+
+        boolean finished = false;
+        while (true) {
+            AggregationLease available = null;
+            finished = true;
+            for (AggregationLease lease : leases) {
+                if (!lease.isFinished()) {
+                    finished = false;
+                    if (lease.getOwner() == null && available == null) {
+                        available = lease;
+                    }
+                }
+            }
+            if (finished) {
+                break;
+            }
+
+            if (available != null) {
+                // There is no compare and set in Cassandra 1.2. If two servers take the same shard, the last write
+                // wins and the other server backs off. Should both read their own write, the shard is aggregated
+                // twice, which is harmless since aggregation is idempotent.
+                dao.renewAggregationLease(bucket, stage.startTime, available.getShard(), owner);
+                if (isOwner(bucket, stage, available.getShard(), owner)) {
+                    aggregateShard(stage, new Shard(available.getShard(), leases.size(), available.getCheckpoint(),
+                        owner));
+                    if (stage.failures.get() > 0) {
+                        // The lease of the failed shard expires and another server, or the next run, retries it
+                        // from its checkpoint. Stop here rather than retrying it in a loop.
+                        finished = false;
+                        break;
+                    }
+                }
+            } else if (coordinator) {
+                Thread.sleep(LEASE_POLL_INTERVAL);
+            } else {
+                break;
+            }
+            leases = dao.findAggregationLeases(bucket, stage.startTime);
+        }
+
+        if (finished) {
+            // Deleting twice is harmless, so every server that sees the stage finished cleans up
+            dao.deleteMetricsIndexEntries(bucket, stage.startTime);
+            dao.deleteAggregationLeases(bucket, stage.startTime);
+        }
+
+        return new ArrayList<AggregateNumericMetric>(stage.aggregates);
+    }
+
+    /**
+     * Aggregates a shard that this server has taken. The lease of the shard is renewed at a third of the lease duration
+     * for as long as the shard is being aggregated, independent of how fast index pages are read, since reading the
+     * next page can block on the schedules in flight. Renewal stops once another server owns the lease.
+     */
+    private void aggregateShard(final Stage stage, final Shard shard) throws InterruptedException {
+        final MetricsTable bucket = getIndexBucket(stage.type);
+        long renewalInterval = Math.max(1000L, configuration.getAggregationLeaseDuration() * 1000L / 3);
+        ScheduledExecutorService leaseRenewals = Executors.newSingleThreadScheduledExecutor(
+            new StorageClientThreadFactory());
+        try {
+            leaseRenewals.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    if (shard.leaseLost) {
+                        return;
+                    }
+                    try {
+                        if (isOwner(bucket, stage, shard.index, shard.owner)) {
+                            dao.renewAggregationLease(bucket, stage.startTime, shard.index, shard.owner);
+                        } else {
+                            shard.leaseLost = true;
+                            log.warn("The lease of " + stage + " " + shard + " has been taken over by another " +
+                                "server. It will no longer be renewed.");
+                        }
+                    } catch (Exception e) {
+                        // An exception would cancel the renewals, so it is logged and renewal is retried next time
+                        log.warn("Failed to renew the lease of " + stage + " " + shard + ": " +
+                            ThrowableUtil.getRootMessage(e));
+                    }
+                }
+            }, renewalInterval, renewalInterval, TimeUnit.MILLISECONDS);
+
+            aggregate(stage, shard);
+        } finally {
+            leaseRenewals.shutdownNow();
+        }
+    }
+
+    private boolean isOwner(MetricsTable bucket, Stage stage, int shard, String owner) {
+        for (AggregationLease lease : dao.findAggregationLeases(bucket, stage.startTime)) {
+            if (lease.getShard() == shard) {
+                return owner.equals(lease.getOwner());
+            }
+        }
+        return false;
+    }
+
+    private List<AggregateNumericMetric> aggregateHour(DateTime timeSlice) throws InterruptedException {
+        DateTime sixHourTimeSlice = dtService.getTimeSlice(timeSlice, configuration.getOneHourTimeSliceDuration());
+        DateTime twentyFourHourTimeSlice = dtService.getTimeSlice(timeSlice,
+            configuration.getSixHourTimeSliceDuration());
+
+        if (log.isDebugEnabled()) {
+            log.debug("Starting aggregation for time slice " + timeSlice);
+        }
+
+        Stage sixHourStage = null;
+        Stage oneHourStage = null;
+        if (hasEnded(twentyFourHourTimeSlice, configuration.getSixHourTimeSliceDuration())) {
+            sixHourStage = sixHourStage(twentyFourHourTimeSlice);
+        }
+        if (hasEnded(sixHourTimeSlice, configuration.getOneHourTimeSliceDuration())) {
+            oneHourStage = oneHourStage(sixHourTimeSlice, sixHourStage);
+        }
+
+        List<AggregateNumericMetric> oneHourData = aggregate(rawStage(timeSlice, oneHourStage));
+        if (oneHourStage != null) {
+            aggregate(oneHourStage);
+        }
+        if (sixHourStage != null) {
+            aggregate(sixHourStage);
+        }
+
+        return oneHourData;
+    }
+
+    private boolean hasEnded(DateTime timeSlice, Duration duration) {
+        return !currentHour().isBefore(timeSlice.plus(duration));
+    }
+
+    private DateTime currentHour() {
+        return dtService.getTimeSlice(dtService.now(), configuration.getRawTimeSliceDuration());
+    }
+
+    private Stage rawStage(DateTime timeSlice, Stage next) {
+        return new Stage(AggregationType.RAW, timeSlice, configuration.getRawTimeSliceDuration(),
+            dtService.getTimeSlice(timeSlice, configuration.getOneHourTimeSliceDuration()), next);
+    }
+
+    private Stage oneHourStage(DateTime sixHourTimeSlice, Stage next) {
+        return new Stage(AggregationType.ONE_HOUR, sixHourTimeSlice, configuration.getOneHourTimeSliceDuration(),
+            dtService.getTimeSlice(sixHourTimeSlice, configuration.getSixHourTimeSliceDuration()), next);
+    }
+
+    private Stage sixHourStage(DateTime twentyFourHourTimeSlice) {
+        return new Stage(AggregationType.SIX_HOUR, twentyFourHourTimeSlice,
+            configuration.getSixHourTimeSliceDuration(), null, null);
+    }
+
+    private List<AggregateNumericMetric> aggregate(Stage stage) throws InterruptedException {
+        return aggregate(stage, null);
+    }
+
+    /**
+     * Aggregates every schedule in the index partition of the stage, resuming after the last checkpoint if there is
+     * one. Schedules that were already aggregated by the pipeline of the previous stage are skipped. The index
+     * partition and the checkpoint are deleted when the stage is done. If any schedule failed, the checkpoint stops
+     * before the page of the first failed schedule and both are kept, so that the failed schedules are aggregated
+     * again by the next run for the time slice.
+     * <br/><br/>
+     * If a shard is given, only the schedules of the shard are aggregated. Its checkpoint is kept with its lease,
+     * which {@link #aggregateShard(Stage, Shard)} renews, and the index partition is left for the server that
+     * coordinates the run. The lease is only marked finished if no schedule failed and this server still owns it.
+     *
+     * @return The aggregates computed by this stage, including those computed through the pipeline
+     */
+    private List<AggregateNumericMetric> aggregate(final Stage stage, Shard shard) throws InterruptedException {
+        Stopwatch stopwatch = new Stopwatch().start();
+        MetricsTable bucket = getIndexBucket(stage.type);
+        final Semaphore permits = new Semaphore(maxSchedulesInFlight);
+        // Starts at one so that the count cannot reach zero before all index entries have been read
+        final AtomicInteger remainingSchedules = new AtomicInteger(1);
+        final CountDownLatch doneSignal = new CountDownLatch(1);
+        Queue<Checkpoint> checkpoints = new ConcurrentLinkedQueue<Checkpoint>();
+        int numSchedules = 0;
+
+        Integer checkpoint = shard == null ? dao.findAggregationCheckpoint(bucket, stage.startTime) :
+            shard.checkpoint;
+        String description = shard == null ? stage.toString() : stage + " " + shard;
+        if (checkpoint == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Preparing to compute aggregates for " + description);
+            }
+        } else {
+            log.info("Resuming computation of aggregates for " + description + " after [scheduleId: " + checkpoint +
+                "]");
+        }
+
+        List<MetricsIndexEntry> page = dao.findMetricsIndexEntriesPage(bucket, stage.startTime,
+            checkpoint == null ? Integer.MIN_VALUE : checkpoint);
+        while (!page.isEmpty()) {
+            final Checkpoint pageCheckpoint = new Checkpoint(page.get(page.size() - 1).getScheduleId(), page.size());
+            checkpoints.add(pageCheckpoint);
+
+            for (MetricsIndexEntry indexEntry : page) {
+                final int scheduleId = indexEntry.getScheduleId();
+                if (stage.pipelined.contains(scheduleId) || (shard != null && !shard.contains(scheduleId))) {
+                    pageCheckpoint.scheduleFinished();
+                    continue;
+                }
+                permits.acquire();
+                remainingSchedules.incrementAndGet();
+                ++numSchedules;
+
+                Futures.addCallback(aggregateSchedule(stage, scheduleId), new FutureCallback<List<ResultSet>>() {
+                    @Override
+                    public void onSuccess(List<ResultSet> result) {
+                        scheduleFinished();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("There was an error aggregating " + stage.type + " for [scheduleId: " +
+                                scheduleId + "]", t);
+                        } else {
+                            log.warn("There was an error aggregating " + stage.type + " for [scheduleId: " +
+                                scheduleId + "]: " + ThrowableUtil.getRootMessage(t));
+                        }
+                        // If the schedule failed in the pipeline of a later stage, it is aggregated again for this
+                        // stage as well, which is harmless since aggregation is idempotent
+                        stage.failures.incrementAndGet();
+                        pageCheckpoint.failed = true;
+                        scheduleFinished();
+                    }
+
+                    private void scheduleFinished() {
+                        pageCheckpoint.scheduleFinished();
+                        permits.release();
+                        if (remainingSchedules.decrementAndGet() == 0) {
+                            doneSignal.countDown();
+                        }
+                    }
+                });
+            }
+            saveCheckpoint(bucket, stage, shard, checkpoints);
+            if (page.size() < configuration.getIndexPageSize()) {
+                break;
+            }
+            page = dao.findMetricsIndexEntriesPage(bucket, stage.startTime, pageCheckpoint.scheduleId);
+        }
+
+        if (remainingSchedules.decrementAndGet() == 0) {
+            doneSignal.countDown();
+        }
+        doneSignal.await();
+
+        int failures = stage.failures.get();
+        if (failures > 0) {
+            failed = true;
+            // Record the progress that was made up to the first failed page
+            saveCheckpoint(bucket, stage, shard, checkpoints);
+            log.warn("Failed to compute aggregates for " + failures + " schedules of " + description + ". The " +
+                "index entries and the checkpoint are kept so that they are aggregated again by the next run.");
+        } else if (shard != null) {
+            if (!shard.leaseLost && isOwner(bucket, stage, shard.index, shard.owner)) {
+                dao.finishAggregationLease(bucket, stage.startTime, shard.index);
+            } else {
+                // The new owner aggregates the shard again from its checkpoint and finishes the lease
+                log.warn("The lease of " + description + " expired before it was finished. It was not marked " +
+                    "finished since another server owns it now.");
+            }
+        } else if (numSchedules > 0 || checkpoint != null) {
+            dao.deleteMetricsIndexEntries(bucket, stage.startTime);
+            dao.deleteAggregationCheckpoint(bucket, stage.startTime);
+        }
+
+        stopwatch.stop();
+        if (log.isInfoEnabled()) {
+            log.info("Finished computing " + stage.aggregates.size() + " aggregates for " + description + " of " +
+                numSchedules + " schedules in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+        }
+
+        return new ArrayList<AggregateNumericMetric>(stage.aggregates);
+    }
+
+    /**
+     * Saves the last schedule id of the most recent page for which every earlier page has been fully processed without
+     * failures. The checkpoint never moves past a page with a failed schedule. Checkpoints are only written by the
+     * thread that reads the index, so they are written in order. The checkpoint of a shard is no longer written once
+     * another server owns its lease.
+     */
+    private void saveCheckpoint(MetricsTable bucket, Stage stage, Shard shard, Queue<Checkpoint> checkpoints) {
+        Checkpoint finished = null;
+        while (!checkpoints.isEmpty() && checkpoints.peek().isFinished() && !checkpoints.peek().failed) {
+            finished = checkpoints.poll();
+        }
+        if (shard == null) {
+            if (finished != null) {
+                dao.updateAggregationCheckpoint(bucket, stage.startTime, finished.scheduleId);
+            }
+        } else if (finished != null && !shard.leaseLost) {
+            dao.updateAggregationLeaseCheckpoint(bucket, stage.startTime, shard.index, finished.scheduleId);
+        }
+    }
+
+    /**
+     * Computes and stores the aggregate of a schedule for the stage. If the stage has a next stage, the schedule then
+     * continues with it right away.
+     */
+    private ListenableFuture<List<ResultSet>> aggregateSchedule(final Stage stage, final int scheduleId) {
+        ListenableFuture<AggregateNumericMetric> aggregateFuture = Futures.transform(
+            findData(stage.type, scheduleId, stage.startTime, stage.endTime),
+            computeAggregate(stage.type, stage.startTime), aggregationTasks);
+        ListenableFuture<List<ResultSet>> insertsFuture = Futures.transform(aggregateFuture,
+            new AsyncFunction<AggregateNumericMetric, List<ResultSet>>() {
+                @Override
+                public ListenableFuture<List<ResultSet>> apply(AggregateNumericMetric aggregate) {
+                    if (Double.isNaN(aggregate.getAvg())) {
+                        // There is no data for the schedule
+                        return Futures.immediateFuture(Collections.<ResultSet>emptyList());
+                    }
+                    aggregate.setScheduleId(scheduleId);
+                    stage.aggregates.add(aggregate);
+                    return Futures.allAsList(insertAggregate(stage.type, aggregate, stage.nextTimeSlice));
+                }
+            }, aggregationTasks);
+
+        if (stage.next == null) {
+            return insertsFuture;
+        }
+        return Futures.transform(insertsFuture, new AsyncFunction<List<ResultSet>, List<ResultSet>>() {
+            @Override
+            public ListenableFuture<List<ResultSet>> apply(List<ResultSet> resultSets) {
+                if (resultSets.isEmpty()) {
+                    // Nothing was written, so the next stage picks up the schedule from its index if needed
+                    return Futures.immediateFuture(resultSets);
+                }
+                stage.next.pipelined.add(scheduleId);
+                return aggregateSchedule(stage.next, scheduleId);
+            }
+        }, aggregationTasks);
+    }
+
+    private MetricsTable getIndexBucket(AggregationType type) {
+        switch (type) {
+        case RAW:
+            return MetricsTable.ONE_HOUR;
+        case ONE_HOUR:
+            return MetricsTable.SIX_HOUR;
+        default:
+            return MetricsTable.TWENTY_FOUR_HOUR;
+        }
+    }
+
+    private StorageResultSetFuture findData(AggregationType type, int scheduleId, long startTime, long endTime) {
+        switch (type) {
+        case RAW:
+            return dao.findRawMetricsAsync(scheduleId, startTime, endTime, Workload.AGGREGATION);
+        case ONE_HOUR:
+            return dao.findOneHourMetricsAsync(scheduleId, startTime, endTime, Workload.AGGREGATION);
+        default:
+            return dao.findSixHourMetricsAsync(scheduleId, startTime, endTime, Workload.AGGREGATION);
+        }
+    }
+
+    private Function<ResultSet, AggregateNumericMetric> computeAggregate(AggregationType type, long timestamp) {
+        if (type == AggregationType.RAW) {
+            return new ComputeRawAggregate(timestamp);
+        }
+        return new ComputeAggregate(timestamp);
+    }
+
+    private List<StorageResultSetFuture> insertAggregate(AggregationType type, AggregateNumericMetric aggregate,
+        DateTime nextTimeSlice) {
+        List<StorageResultSetFuture> futures = new ArrayList<StorageResultSetFuture>(2);
+
+        switch (type) {
+        case RAW:
+            futures.add(dao.insertOneHourDataAsync(aggregate));
+            break;
+        case ONE_HOUR:
+            futures.add(dao.insertSixHourDataAsync(aggregate));
+            break;
+        default:
+            futures.add(dao.insertTwentyFourHourDataAsync(aggregate));
+        }
+
+        if (nextTimeSlice != null) {
+            futures.add(dao.updateMetricsIndex(getIndexBucket(next(type)), aggregate.getScheduleId(),
+                nextTimeSlice.getMillis()));
+        }
+
+        return futures;
+    }
+
+    private AggregationType next(AggregationType type) {
+        return type == AggregationType.RAW ? AggregationType.ONE_HOUR : AggregationType.SIX_HOUR;
+    }
+
+    /**
+     * The aggregation of one time slice of one type of data
+     */
+    private static class Stage {
+        final AggregationType type;
+        final long startTime;
+        final long endTime;
+        // The time slice of the index entry to add for the computed aggregates or null if no index entry should be
+        // added
+        final DateTime nextTimeSlice;
+        // The stage that each schedule continues with when it is done with this one or null
+        final Stage next;
+        // Schedules that the previous stage has already passed on to this one
+        final Set<Integer> pipelined = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final Queue<AggregateNumericMetric> aggregates = new ConcurrentLinkedQueue<AggregateNumericMetric>();
+        final AtomicInteger failures = new AtomicInteger();
+
+        Stage(AggregationType type, DateTime timeSlice, Duration duration, DateTime nextTimeSlice, Stage next) {
+            this.type = type;
+            this.startTime = timeSlice.getMillis();
+            this.endTime = timeSlice.plus(duration).getMillis();
+            this.nextTimeSlice = nextTimeSlice;
+            this.next = next;
+        }
+
+        @Override
+        public String toString() {
+            return type + " for time slice [" + new DateTime(startTime) + "]";
+        }
+    }
+
+    /**
+     * The schedules of an index partition whose id modulo the number of shards equals the index of the shard
+     */
+    private static class Shard {
+        final int index;
+        final int count;
+        final Integer checkpoint;
+        final String owner;
+        // Set by the lease renewal once another server owns the lease
+        volatile boolean leaseLost;
+
+        Shard(int index, int count, Integer checkpoint, String owner) {
+            this.index = index;
+            this.count = count;
+            this.checkpoint = checkpoint;
+            this.owner = owner;
+        }
+
+        boolean contains(int scheduleId) {
+            return (hash(scheduleId) & Integer.MAX_VALUE) % count == index;
+        }
+
+        /**
+         * Spreads schedule ids that were allocated in blocks, e.g., all schedules of a resource, across the shards
+         */
+        private static int hash(int scheduleId) {
+            int h = scheduleId * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        @Override
+        public String toString() {
+            return "shard [" + index + "/" + count + "]";
+        }
+    }
+
+    /**
+     * Tracks the schedules of one page of index entries
+     */
+    private static class Checkpoint {
+        final int scheduleId;
+        final AtomicInteger remaining;
+        volatile boolean failed;
+
+        Checkpoint(int scheduleId, int size) {
+            this.scheduleId = scheduleId;
+            remaining = new AtomicInteger(size);
+        }
+
+        void scheduleFinished() {
+            remaining.decrementAndGet();
+        }
+
+        boolean isFinished() {
+            return remaining.get() == 0;
+        }
+    }
+
+    /**
+     * Runs a stage on a catch up worker and converts an interrupt into a failure of the task
+     */
+    private abstract static class StageTask implements Runnable {
+        @Override
+        public void run() {
+            try {
+                runStage();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while aggregating", e);
+            }
+        }
+
+        abstract void runStage() throws InterruptedException;
+    }
+
+}
@@ -31,127 +31,62 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 
 /**
+ * Maps rows of the single row aggregate tables, i.e., {@link MetricsTable#getAggregateTableName()}. Each row has the
+ * columns schedule_id, time, min, max, avg in that order. When metadata is included, the row must also have the
+ * columns ttl(avg) and writetime(avg). Since min, max, and avg are always written together, the metadata of the avg
+ * column applies to all three.
+ *
  * @author John Sanda
  */
 public class AggregateNumericMetricMapper implements ResultSetMapper<AggregateNumericMetric> {
 
-    private ResultSetMapper<AggregateNumericMetric> resultSetMapper;
+    private final boolean includeMetadata;
 
     public AggregateNumericMetricMapper() {
         this(false);
     }
 
     public AggregateNumericMetricMapper(boolean includeMetadata) {
-        if (includeMetadata) {
-            resultSetMapper = new ResultSetMapper<AggregateNumericMetric>() {
-                @Override
-                public List<AggregateNumericMetric> mapAll(ResultSet resultSet) {
-                    List<AggregateNumericMetric> metrics = new ArrayList<AggregateNumericMetric>();
-                    while (!resultSet.isExhausted()) {
-                        metrics.add(mapOne(resultSet));
-                    }
-
-                    return metrics;
-                }
-
-                @Override
-                public AggregateNumericMetric mapOne(ResultSet resultSet) {
-                    return map(resultSet.one(), resultSet.one(), resultSet.one()).get(0);
-                }
-
-                @Override
-                public List<AggregateNumericMetric> map(Row... row) {
-                    List<AggregateNumericMetric> metrics = new ArrayList<AggregateNumericMetric>();
-
-                    for (int i = 0; i < row.length; i += 3) {
-                        AggregateNumericMetric metric = new AggregateNumericMetric();
-                        metric.setScheduleId(row[i].getInt(0));
-                        metric.setTimestamp(row[i].getDate(1).getTime());
-                        metric.setMax(row[i].getDouble(3));
-                        metric.setMin(row[i + 1].getDouble(3));
-                        metric.setAvg(row[i + 2].getDouble(3));
-
-                        ColumnMetadata maxMetadata = new ColumnMetadata(row[i].getInt(4), row[i].getLong(5));
-                        ColumnMetadata minMetadata = new ColumnMetadata(row[i + 1].getInt(4), row[i + 1].getLong(5));
-                        ColumnMetadata avgMetadata = new ColumnMetadata(row[i + 2].getInt(4), row[i + 2].getLong(5));
-
-                        metric.setAvgColumnMetadata(avgMetadata);
-                        metric.setMaxColumnMetadata(maxMetadata);
-                        metric.setMinColumnMetadata(minMetadata);
-
-                        metrics.add(metric);
-                    }
-
-                    return metrics;
-                }
-
-                @Override
-                public AggregateNumericMetric map(Row row) {
-                    throw new UnsupportedOperationException(
-                        "Method is not supported. Only triples are accepted for mapping.");
-                }
-            };
-        } else {
-            resultSetMapper = new ResultSetMapper<AggregateNumericMetric>() {
-                @Override
-                public List<AggregateNumericMetric> mapAll(ResultSet resultSet) {
-                    List<AggregateNumericMetric> metrics = new ArrayList<AggregateNumericMetric>();
-                    while (!resultSet.isExhausted()) {
-                        metrics.add(mapOne(resultSet));
-                    }
-
-                    return metrics;
-                }
-
-                @Override
-                public AggregateNumericMetric mapOne(ResultSet resultSet) {
-                    return map(resultSet.one(), resultSet.one(), resultSet.one()).get(0);
-                }
-
-                @Override
-                public List<AggregateNumericMetric> map(Row... row) {
-                    List<AggregateNumericMetric> metrics = new ArrayList<AggregateNumericMetric>();
-
-                    for (int i = 0; i < row.length; i += 3) {
-                        AggregateNumericMetric metric = new AggregateNumericMetric();
-                        metric.setScheduleId(row[i].getInt(0));
-                        metric.setTimestamp(row[i].getDate(1).getTime());
-                        metric.setMax(row[i].getDouble(3));
-                        metric.setMin(row[i + 1].getDouble(3));
-                        metric.setAvg(row[i + 2].getDouble(3));
-
-                        metrics.add(metric);
-                    }
-
-                    return metrics;
-                }
-
-                @Override
-                public AggregateNumericMetric map(Row row) {
-                    throw new UnsupportedOperationException(
-                        "Method is not supported. Only triples are accepted for mapping.");
-                }
-            };
-        }
+        this.includeMetadata = includeMetadata;
     }
 
     @Override
     public List<AggregateNumericMetric> mapAll(ResultSet resultSet) {
-        return resultSetMapper.mapAll(resultSet);
+        List<AggregateNumericMetric> metrics = new ArrayList<AggregateNumericMetric>();
+        for (Row row : resultSet) {
+            metrics.add(map(row));
+        }
+
+        return metrics;
     }
 
     @Override
     public AggregateNumericMetric mapOne(ResultSet resultSet) {
-        return resultSetMapper.mapOne(resultSet);
+        return map(resultSet.one());
     }
 
     @Override
-    public List<AggregateNumericMetric> map(Row... rows) {
-        return resultSetMapper.map(rows);
+    public List<AggregateNumericMetric> map(Row... row) {
+        List<AggregateNumericMetric> metrics = new ArrayList<AggregateNumericMetric>(row.length);
+        for (Row singleRow : row) {
+            metrics.add(map(singleRow));
+        }
+
+        return metrics;
     }
 
     @Override
     public AggregateNumericMetric map(Row row) {
-        return resultSetMapper.map(row);
+        AggregateNumericMetric metric = new AggregateNumericMetric(row.getInt(0), row.getDouble(4), row.getDouble(2),
+            row.getDouble(3), row.getDate(1).getTime());
+
+        if (includeMetadata) {
+            ColumnMetadata metadata = new ColumnMetadata(row.getInt(5), row.getLong(6));
+            metric.setMinColumnMetadata(metadata);
+            metric.setMaxColumnMetadata(metadata);
+            metric.setAvgColumnMetadata(metadata);
+        }
+
+        return metric;
     }
 }
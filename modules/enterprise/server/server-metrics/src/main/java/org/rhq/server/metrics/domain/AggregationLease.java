@@ -0,0 +1,77 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2013 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics.domain;
+
+/**
+ * The ownership and progress of one shard of an index partition when aggregation is shared by several servers. The
+ * owner is written with a TTL, so a lease that is not renewed expires and the shard can be taken over by another
+ * server. The checkpoint and the finished flag outlive the owner.
+ */
+public class AggregationLease {
+
+    private int shard;
+
+    private String owner;
+
+    private Integer checkpoint;
+
+    private boolean finished;
+
+    public AggregationLease(int shard, String owner, Integer checkpoint, boolean finished) {
+        this.shard = shard;
+        this.owner = owner;
+        this.checkpoint = checkpoint;
+        this.finished = finished;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    /**
+     * @return The name of the server that holds the lease or null if the lease has expired or was never taken
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return The last schedule id of the shard that has been aggregated or null if there is no checkpoint
+     */
+    public Integer getCheckpoint() {
+        return checkpoint;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public String toString() {
+        return "AggregationLease[shard=" + shard + ", owner=" + owner + ", checkpoint=" + checkpoint +
+            ", finished=" + finished + "]";
+    }
+}
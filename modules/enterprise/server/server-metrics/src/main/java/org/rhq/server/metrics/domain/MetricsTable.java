@@ -30,25 +30,43 @@ import org.joda.time.Duration;
 
 public enum MetricsTable {
 
-    INDEX("metrics_index", -1),
-    RAW("raw_metrics", Duration.standardDays(7).toStandardSeconds().getSeconds()),
-    ONE_HOUR("one_hour_metrics", Duration.standardDays(14).toStandardSeconds().getSeconds()),
-    SIX_HOUR("six_hour_metrics", Duration.standardDays(31).toStandardSeconds().getSeconds()),
-    TWENTY_FOUR_HOUR("twenty_four_hour_metrics", Duration.standardDays(365).toStandardSeconds().getSeconds());
+    INDEX("metrics_index", null, -1),
+    RAW("raw_metrics", null, Duration.standardDays(7).toStandardSeconds().getSeconds()),
+    ONE_HOUR("one_hour_metrics", "one_hour_aggregates", Duration.standardDays(14).toStandardSeconds().getSeconds()),
+    SIX_HOUR("six_hour_metrics", "six_hour_aggregates", Duration.standardDays(31).toStandardSeconds().getSeconds()),
+    TWENTY_FOUR_HOUR("twenty_four_hour_metrics", "twenty_four_hour_aggregates",
+        Duration.standardDays(365).toStandardSeconds().getSeconds()),
+    AGGREGATION_CHECKPOINT("aggregation_checkpoints", null, RAW.getTTL()),
+    AGGREGATION_LEASE("aggregation_leases", null, RAW.getTTL()),
+    METRICS_MIGRATION("metrics_migrations", null, -1);
 
 
     private final String tableName;
+    private final String aggregateTableName;
     private final int ttl;
 
-    private MetricsTable(String tableName, int ttl) {
+    private MetricsTable(String tableName, String aggregateTableName, int ttl) {
         this.tableName = tableName;
+        this.aggregateTableName = aggregateTableName;
         this.ttl = ttl;
     }
 
+    /**
+     * The table name also serves as the bucket name in the {@link #INDEX index}. For the aggregate buckets this is the
+     * legacy table that stores min, max, and avg as three separate rows.
+     */
     public String getTableName() {
         return this.tableName;
     }
 
+    /**
+     * @return The table that stores min, max, and avg in a single row per schedule and time, or null for
+     * {@link #INDEX}, {@link #RAW}, and the bookkeeping tables
+     */
+    public String getAggregateTableName() {
+        return this.aggregateTableName;
+    }
+
     public int getTTL() {
         return this.ttl;
     }
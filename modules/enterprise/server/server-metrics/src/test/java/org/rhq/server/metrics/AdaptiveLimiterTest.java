@@ -0,0 +1,93 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void decreaseLimitOnceForConcurrentTimeouts() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 10, 2.0, 1000);
+
+        long request1 = limiter.acquire();
+        long request2 = limiter.acquire();
+        limiter.release(request1, true);
+        limiter.release(request2, true);
+
+        assertEquals(limiter.getLimit(), 10 * AdaptiveLimiter.BACKOFF_RATIO, 0.0001,
+            "The limit should be decreased only once for requests that were in flight at the same time");
+        assertEquals(limiter.getDecreases(), 1);
+        assertEquals(limiter.getInFlight(), 0);
+    }
+
+    @Test
+    public void doNotDecreaseBelowMinLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 5, 10, 2.0, 1000);
+
+        for (int i = 0; i < 20; ++i) {
+            limiter.release(limiter.acquire(), true);
+        }
+
+        assertEquals(limiter.getLimit(), 5.0, 0.0001, "The limit should not drop below the min limit");
+    }
+
+    @Test
+    public void increaseLimitWhenLatencyIsStable() {
+        // A tolerance this high means that latency never causes a decrease
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 10, Double.MAX_VALUE, 1000);
+        limiter.release(limiter.acquire(), true);
+        double decreasedLimit = limiter.getLimit();
+
+        long[] requests = new long[5];
+        for (int i = 0; i < requests.length; ++i) {
+            requests[i] = limiter.acquire();
+        }
+        for (long request : requests) {
+            limiter.release(request, false);
+        }
+
+        assertTrue(limiter.getLimit() > decreasedLimit, "The limit should grow while it is being used");
+        assertTrue(limiter.getLimit() <= 10, "The limit should not grow above the max limit");
+    }
+
+    @Test
+    public void proceedWithoutPermitAfterMaxWait() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 1, 2.0, 10);
+
+        limiter.acquire();
+        limiter.acquire();
+
+        assertEquals(limiter.getInFlight(), 2);
+        assertEquals(limiter.getThrottled(), 1, "The second request should have waited for a permit");
+        assertEquals(limiter.getOverflows(), 1, "The second request should have proceeded after the max wait");
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+public class AggregateCacheTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static final long DAY = 24 * HOUR;
+
+    private MetricsConfiguration configuration;
+
+    private DateTimeService dateTimeService;
+
+    private CountingLoader loader;
+
+    private DateTimeZone defaultZone;
+
+    @BeforeMethod
+    public void initLoader() {
+        configuration = new MetricsConfiguration();
+        dateTimeService = new DateTimeService();
+        dateTimeService.setConfiguration(configuration);
+        loader = new CountingLoader();
+        // Time slices are computed in local time, the other tests assume that the epoch starts a day
+        defaultZone = DateTimeZone.getDefault();
+        DateTimeZone.setDefault(DateTimeZone.UTC);
+    }
+
+    @AfterMethod
+    public void restoreTimeZone() {
+        DateTimeZone.setDefault(defaultZone);
+    }
+
+    @Test
+    public void doNotCacheBeforeAggregationHasRun() {
+        AggregateCache cache = new AggregateCache(configuration, dateTimeService, 10);
+
+        cache.find(MetricsTable.ONE_HOUR, 100, 0, DAY, loader);
+        cache.find(MetricsTable.ONE_HOUR, 100, 0, DAY, loader);
+
+        assertEquals(loader.loads, 2, "Nothing should be cached before the first aggregation run");
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void cacheClosedPagesAndLoadOpenSliceLive() {
+        AggregateCache cache = new AggregateCache(configuration, dateTimeService, 10);
+        cache.setAggregatedThrough(DAY + 3 * HOUR);
+
+        List<AggregateNumericMetric> metrics = cache.find(MetricsTable.ONE_HOUR, 100, 2 * HOUR, DAY + 3 * HOUR,
+            loader);
+
+        assertEquals(metrics.size(), 25, "Expected data from hour 2 of the first day through hour 3 of the second");
+        assertEquals(metrics.get(0).getTimestamp(), 2 * HOUR);
+        assertEquals(metrics.get(24).getTimestamp(), DAY + 2 * HOUR);
+        assertEquals(loader.loads, 2, "Expected one load for the closed page and one for the open page");
+
+        cache.find(MetricsTable.ONE_HOUR, 100, 2 * HOUR, DAY + 3 * HOUR, loader);
+
+        assertEquals(loader.loads, 3, "Only the open page should have been loaded again");
+        assertEquals(cache.getHits(), 1);
+        assertEquals(cache.getMisses(), 1);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedPages() {
+        AggregateCache cache = new AggregateCache(configuration, dateTimeService, 1);
+        cache.setAggregatedThrough(3 * DAY);
+
+        cache.find(MetricsTable.ONE_HOUR, 100, 0, DAY, loader);
+        cache.find(MetricsTable.ONE_HOUR, 101, 0, DAY, loader);
+        cache.find(MetricsTable.ONE_HOUR, 100, 0, DAY, loader);
+
+        assertEquals(loader.loads, 3, "The page of schedule 100 should have been evicted");
+        assertEquals(cache.getEvictions(), 2);
+        assertEquals(cache.size(), 1);
+    }
+
+    @Test
+    public void invalidateAllPages() {
+        AggregateCache cache = new AggregateCache(configuration, dateTimeService, 10);
+        cache.setAggregatedThrough(DAY);
+
+        cache.find(MetricsTable.ONE_HOUR, 100, 0, DAY, loader);
+        cache.invalidateAll();
+        cache.find(MetricsTable.ONE_HOUR, 100, 0, DAY, loader);
+
+        assertEquals(loader.loads, 2, "The page should have been reloaded after invalidating the cache");
+    }
+
+    @Test
+    public void alignPagesWithLocalTimeSlices() {
+        DateTimeZone.setDefault(DateTimeZone.forOffsetHours(-5));
+        AggregateCache cache = new AggregateCache(configuration, dateTimeService, 10);
+        DateTime day0 = new DateTime(2014, 1, 1, 0, 0);
+
+        long pageStart = cache.getPageStart(MetricsTable.SIX_HOUR, day0.plusDays(2).plusHours(7).getMillis());
+        long pageEnd = cache.getPageEnd(MetricsTable.SIX_HOUR, pageStart);
+        assertEquals(dateTimeService.getTimeSlice(new DateTime(pageStart),
+            configuration.getSixHourTimeSliceDuration()).getMillis(), pageStart,
+            "A page should start at a local 24 hour time slice");
+        assertEquals(pageEnd - pageStart, 6 * DAY, "A page of 6 hour data should span 24 time slices");
+
+        cache.setAggregatedThrough(pageEnd - HOUR);
+        cache.find(MetricsTable.SIX_HOUR, 100, pageStart, pageEnd, loader);
+        cache.find(MetricsTable.SIX_HOUR, 100, pageStart, pageEnd, loader);
+        assertEquals(loader.loads, 2, "The page should not be cached before all of its time slices have ended");
+
+        cache.setAggregatedThrough(pageEnd);
+        cache.find(MetricsTable.SIX_HOUR, 100, pageStart, pageEnd, loader);
+        cache.find(MetricsTable.SIX_HOUR, 100, pageStart, pageEnd, loader);
+        assertEquals(loader.loads, 3, "The page should be cached once all of its time slices have ended");
+        assertEquals(loader.beginTime, pageStart);
+        assertEquals(loader.endTime, pageEnd);
+    }
+
+    /**
+     * Returns one aggregate per hour in the requested range.
+     */
+    private static class CountingLoader implements AggregateCache.Loader {
+        int loads;
+
+        long beginTime;
+
+        long endTime;
+
+        @Override
+        public Iterable<AggregateNumericMetric> load(int scheduleId, long beginTime, long endTime) {
+            ++loads;
+            this.beginTime = beginTime;
+            this.endTime = endTime;
+            List<AggregateNumericMetric> metrics = new ArrayList<AggregateNumericMetric>();
+            for (long time = beginTime; time < endTime; time += HOUR) {
+                metrics.add(new AggregateNumericMetric(scheduleId, 1.0, 1.0, 1.0, time));
+            }
+            return metrics;
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Date;
+
+import com.datastax.driver.core.PreparedStatement;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.AggregateType;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+public class AggregateTableMigratorTest extends MetricsTest {
+
+    @BeforeMethod
+    public void resetDB() {
+        purgeDB();
+    }
+
+    @Test
+    public void migrateLegacyAggregates() {
+        DateTime hour0 = hour0();
+
+        insertLegacy(MetricsTable.ONE_HOUR, 100, hour0, 1.0, 4.0, 2.5);
+        insertLegacy(MetricsTable.ONE_HOUR, 100, hour0.plusHours(1), 2.0, 6.0, 3.0);
+        insertLegacy(MetricsTable.ONE_HOUR, 101, hour0, 5.0, 5.0, 5.0);
+        insertLegacy(MetricsTable.SIX_HOUR, 100, hour0, 1.0, 6.0, 2.75);
+        insertLegacy(MetricsTable.TWENTY_FOUR_HOUR, 100, hour0, 1.0, 6.0, 2.75);
+
+        // Pages smaller than a partition force the token scan to span multiple pages
+        AggregateTableMigrator migrator = new AggregateTableMigrator(storageSession, 2);
+        long rows = migrator.migrate();
+
+        assertEquals(rows, 5, "The number of migrated rows is wrong");
+        assertEquals(migrator.getMigratedPartitions(), 4, "The number of migrated partitions is wrong");
+
+        assert1HourDataEquals(100,
+            new AggregateNumericMetric(100, 2.5, 1.0, 4.0, hour0.getMillis()),
+            new AggregateNumericMetric(100, 3.0, 2.0, 6.0, hour0.plusHours(1).getMillis()));
+        assert1HourDataEquals(101, new AggregateNumericMetric(101, 5.0, 5.0, 5.0, hour0.getMillis()));
+        assert6HourDataEquals(100, new AggregateNumericMetric(100, 2.75, 1.0, 6.0, hour0.getMillis()));
+        assert24HourDataEquals(100, new AggregateNumericMetric(100, 2.75, 1.0, 6.0, hour0.getMillis()));
+
+        for (MetricsTable table : new MetricsTable[] {MetricsTable.ONE_HOUR, MetricsTable.SIX_HOUR,
+            MetricsTable.TWENTY_FOUR_HOUR}) {
+            assertTrue(session.execute("SELECT schedule_id FROM " + table).all().isEmpty(), "The legacy table " +
+                table + " should be empty after the migration");
+        }
+        assertTrue(migrator.isFinished(), "The migration should have been recorded as finished");
+    }
+
+    @Test
+    public void migrateOnlyOnce() {
+        DateTime hour0 = hour0();
+
+        AggregateTableMigrator migrator = new AggregateTableMigrator(storageSession);
+        assertFalse(migrator.isFinished(), "Nothing has been migrated yet");
+        migrator.migrate();
+        assertTrue(migrator.isFinished(), "The migration should have been recorded as finished");
+
+        insertLegacy(MetricsTable.ONE_HOUR, 100, hour0, 1.0, 4.0, 2.5);
+        assertEquals(new AggregateTableMigrator(storageSession).migrate(), 0, "A finished migration should not " +
+            "scan the legacy tables again");
+        assertEquals(session.execute("SELECT schedule_id FROM " + MetricsTable.ONE_HOUR).all().size(), 3,
+            "The legacy rows should not have been touched");
+    }
+
+    @Test
+    public void doNotOverwriteNewerAggregates() {
+        DateTime hour0 = hour0();
+
+        insertLegacy(MetricsTable.ONE_HOUR, 100, hour0, 1.0, 4.0, 2.5);
+        dao.insertOneHourData(new AggregateNumericMetric(100, 3.0, 2.0, 5.0, hour0.getMillis()));
+
+        new AggregateTableMigrator(storageSession).migrate(MetricsTable.ONE_HOUR);
+
+        assert1HourDataEquals(100, new AggregateNumericMetric(100, 3.0, 2.0, 5.0, hour0.getMillis()));
+    }
+
+    @Test
+    public void skipIncompleteAggregates() {
+        DateTime hour0 = hour0();
+
+        PreparedStatement insert = session.prepare("INSERT INTO " + MetricsTable.ONE_HOUR + " (schedule_id, time, " +
+            "type, value) VALUES (?, ?, ?, ?) USING TIMESTAMP 1");
+        session.execute(insert.bind(100, hour0.toDate(), AggregateType.MIN.ordinal(), 1.0));
+        insertLegacy(MetricsTable.ONE_HOUR, 100, hour0.plusHours(1), 2.0, 6.0, 3.0);
+
+        AggregateTableMigrator migrator = new AggregateTableMigrator(storageSession);
+        migrator.migrate(MetricsTable.ONE_HOUR);
+
+        assertEquals(migrator.getSkippedRows(), 1, "The incomplete aggregate should have been skipped");
+        assert1HourDataEquals(100, new AggregateNumericMetric(100, 3.0, 2.0, 6.0, hour0.plusHours(1).getMillis()));
+        assertEquals(session.execute("SELECT schedule_id FROM " + MetricsTable.ONE_HOUR + " WHERE schedule_id = 100 " +
+            "AND time = " + hour0.getMillis()).all().size(), 1, "The partition with the incomplete aggregate should " +
+            "have been kept");
+    }
+
+    private void insertLegacy(MetricsTable table, int scheduleId, DateTime time, double min, double max,
+        double avg) {
+        // Use an old write time so that aggregates written by the tests to the new tables are newer
+        PreparedStatement insert = session.prepare("INSERT INTO " + table + " (schedule_id, time, type, value) " +
+            "VALUES (?, ?, ?, ?) USING TTL " + table.getTTL() + " AND TIMESTAMP 1");
+        Date date = time.toDate();
+        session.execute(insert.bind(scheduleId, date, AggregateType.MIN.ordinal(), min));
+        session.execute(insert.bind(scheduleId, date, AggregateType.MAX.ordinal(), max));
+        session.execute(insert.bind(scheduleId, date, AggregateType.AVG.ordinal(), avg));
+    }
+
+}
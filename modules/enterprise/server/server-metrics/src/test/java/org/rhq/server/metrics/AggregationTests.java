@@ -27,7 +27,6 @@ import org.testng.annotations.Test;
 import org.rhq.core.domain.measurement.MeasurementDataNumeric;
 import org.rhq.server.metrics.aggregation.Aggregator;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
-import org.rhq.server.metrics.domain.AggregateType;
 import org.rhq.server.metrics.domain.MetricsIndexEntry;
 import org.rhq.server.metrics.domain.MetricsTable;
 
@@ -358,18 +357,9 @@ public class AggregationTests extends MetricsTest {
     }
 
     private WaitForWrite insert1HourData(AggregateNumericMetric... data) {
-        WaitForWrite waitForWrite = new WaitForWrite(data.length * 3);
+        WaitForWrite waitForWrite = new WaitForWrite(data.length);
         for (AggregateNumericMetric datum : data) {
-            StorageResultSetFuture future = dao.insertOneHourDataAsync(datum.getScheduleId(), datum.getTimestamp(),
-                AggregateType.AVG, datum.getAvg());
-            Futures.addCallback(future, waitForWrite);
-
-            future = dao.insertOneHourDataAsync(datum.getScheduleId(), datum.getTimestamp(), AggregateType.MIN,
-                datum.getMin());
-            Futures.addCallback(future, waitForWrite);
-
-            future = dao.insertOneHourDataAsync(datum.getScheduleId(), datum.getTimestamp(), AggregateType.MAX,
-                datum.getMax());
+            StorageResultSetFuture future = dao.insertOneHourDataAsync(datum);
             Futures.addCallback(future, waitForWrite);
         }
         return waitForWrite;
@@ -124,10 +124,10 @@ public class CassandraIntegrationTest {
 
     protected Iterable<AggregateNumericMetric> findAggregateMetrics(MetricsTable table, int scheduleId) {
         String cql =
-            "SELECT schedule_id, time, type, value " +
-                "FROM " + table + " " +
+            "SELECT schedule_id, time, min, max, avg " +
+                "FROM " + table.getAggregateTableName() + " " +
                 "WHERE schedule_id = ? " +
-                "ORDER BY time, type";
+                "ORDER BY time";
         PreparedStatement statement = session.prepare(cql);
         BoundStatement boundStatement = statement.bind(scheduleId);
 
@@ -140,8 +140,8 @@ public class CassandraIntegrationTest {
 
         try {
             String cql =
-                "SELECT schedule_id, time, type, value, ttl(value), writetime(value) " +
-                    "FROM " + table + " " +
+                "SELECT schedule_id, time, min, max, avg, ttl(avg), writetime(avg) " +
+                    "FROM " + table.getAggregateTableName() + " " +
                     "WHERE schedule_id = ? AND time >= ? AND time < ?";
             PreparedStatement statement = storageSession.prepare(cql);
             BoundStatement boundStatement = statement.bind(scheduleId, new Date(startTime), new Date(endTime));
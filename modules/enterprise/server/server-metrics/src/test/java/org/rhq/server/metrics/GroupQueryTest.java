@@ -0,0 +1,109 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+
+package org.rhq.server.metrics;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+public class GroupQueryTest extends MetricsTest {
+
+    @BeforeMethod
+    public void resetDB() {
+        purgeDB();
+    }
+
+    @Test
+    public void mergeDataOfAllSchedulesWithLimitedConcurrency() {
+        DateTime hour0 = hour0();
+        List<Integer> scheduleIds = new ArrayList<Integer>();
+
+        // More schedules than the concurrency limit so that queries have to wait for permits
+        for (int scheduleId = 100; scheduleId < 110; ++scheduleId) {
+            scheduleIds.add(scheduleId);
+            dao.insertOneHourData(new AggregateNumericMetric(scheduleId, 2.0, 1.0, scheduleId, hour0.getMillis()));
+            dao.insertOneHourData(new AggregateNumericMetric(scheduleId, 3.0, 1.0, 3.0,
+                hour0.plusHours(1).getMillis()));
+            // outside of the range
+            dao.insertOneHourData(new AggregateNumericMetric(scheduleId, 4.0, 4.0, 4.0,
+                hour0.plusHours(2).getMillis()));
+        }
+
+        final Map<Long, Integer> counts = new HashMap<Long, Integer>();
+        final double[] groupMax = {Double.NaN};
+        new GroupQuery(dao, 2).execute(MetricsTable.ONE_HOUR, scheduleIds, hour0.getMillis(),
+            hour0.plusHours(2).getMillis(), new GroupQuery.Merge() {
+                @Override
+                public void add(long timestamp, double avg, double min, double max) {
+                    Integer count = counts.get(timestamp);
+                    counts.put(timestamp, count == null ? 1 : count + 1);
+                    if (Double.isNaN(groupMax[0]) || max > groupMax[0]) {
+                        groupMax[0] = max;
+                    }
+                }
+            });
+
+        assertEquals(counts.size(), 2, "Expected data for two time slices");
+        assertEquals(counts.get(hour0.getMillis()), (Integer) 10, "Expected data of every schedule for hour 0");
+        assertEquals(counts.get(hour0.plusHours(1).getMillis()), (Integer) 10,
+            "Expected data of every schedule for hour 1");
+        assertEquals(groupMax[0], 109.0, "The max of the group is wrong");
+    }
+
+    @Test
+    public void failIfMergeFails() {
+        DateTime hour0 = hour0();
+        dao.insertOneHourData(new AggregateNumericMetric(100, 2.0, 1.0, 3.0, hour0.getMillis()));
+
+        try {
+            new GroupQuery(dao, 1).execute(MetricsTable.ONE_HOUR, asList(100, 101), hour0.getMillis(),
+                hour0.plusHours(1).getMillis(), new GroupQuery.Merge() {
+                    @Override
+                    public void add(long timestamp, double avg, double min, double max) {
+                        throw new IllegalStateException("merge failed");
+                    }
+                });
+            fail("Expected a " + CQLException.class.getSimpleName());
+        } catch (CQLException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException, "The cause should be the merge failure");
+        }
+    }
+
+}
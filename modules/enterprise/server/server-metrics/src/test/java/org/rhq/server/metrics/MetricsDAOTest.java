@@ -90,7 +90,13 @@ public class MetricsDAOTest extends CassandraIntegrationTest {
         session.execute("TRUNCATE " + MetricsTable.ONE_HOUR);
         session.execute("TRUNCATE " + MetricsTable.SIX_HOUR);
         session.execute("TRUNCATE " + MetricsTable.TWENTY_FOUR_HOUR);
+        session.execute("TRUNCATE " + MetricsTable.ONE_HOUR.getAggregateTableName());
+        session.execute("TRUNCATE " + MetricsTable.SIX_HOUR.getAggregateTableName());
+        session.execute("TRUNCATE " + MetricsTable.TWENTY_FOUR_HOUR.getAggregateTableName());
         session.execute("TRUNCATE " + MetricsTable.INDEX);
+        session.execute("TRUNCATE " + MetricsTable.AGGREGATION_CHECKPOINT);
+        session.execute("TRUNCATE " + MetricsTable.AGGREGATION_LEASE);
+        session.execute("TRUNCATE " + MetricsTable.METRICS_MIGRATION);
     }
 
     @Test(enabled = ENABLED)
@@ -233,9 +239,7 @@ public class MetricsDAOTest extends CassandraIntegrationTest {
         );
 
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         List<AggregateNumericMetric> expected = asList(
@@ -269,9 +273,7 @@ public class MetricsDAOTest extends CassandraIntegrationTest {
         );
 
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         List<AggregateNumericMetric> actual = Lists.newArrayList(dao.findOneHourMetrics(asList(schedule1, schedule2),
@@ -299,9 +301,7 @@ public class MetricsDAOTest extends CassandraIntegrationTest {
         );
 
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         DateTime startTime = hour0.plusHours(1);
@@ -407,9 +407,7 @@ public class MetricsDAOTest extends CassandraIntegrationTest {
 
         metrics = this.generateRandomAggregatedMetrics(scheduleId, numberOfAggregatedMetrics, startTime);
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
         double expectedMinSum = 0;
         double expectedMaxSum = 0;
@@ -426,9 +424,7 @@ public class MetricsDAOTest extends CassandraIntegrationTest {
         metrics = this.generateRandomAggregatedMetrics(alternateScheduleId, alternateNumberOfAggregatedMetrics,
             startTime);
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         List<AggregateSimpleNumericMetric> retrievedItems = Lists.newArrayList(dao.findAggregatedSimpleOneHourMetric(
@@ -466,25 +462,19 @@ public class MetricsDAOTest extends CassandraIntegrationTest {
         List<AggregateNumericMetric> firstHourMetrics = this.generateRandomAggregatedMetrics(scheduleId, 234,
             startTime);
         for (AggregateNumericMetric metric : firstHourMetrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         List<AggregateNumericMetric> secondHourMetrics = this.generateRandomAggregatedMetrics(scheduleId, 234,
             startTime + HOUR);
         for (AggregateNumericMetric metric : secondHourMetrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         List<AggregateNumericMetric> alternateScheduleIdMetrics = this.generateRandomAggregatedMetrics(
             alternateScheduleId, 159, startTime);
         for (AggregateNumericMetric metric : alternateScheduleIdMetrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         //verify data can be retrieved
@@ -548,17 +538,13 @@ public class MetricsDAOTest extends CassandraIntegrationTest {
         //insert data
         List<AggregateNumericMetric> metrics = this.generateRandomAggregatedMetrics(scheduleId, 2, startTime);
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         List<AggregateNumericMetric> alternateMetrics = this.generateRandomAggregatedMetrics(alternateScheduleId,
             3, startTime);
         for (AggregateNumericMetric metric : alternateMetrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         //verify data can be retrieve
@@ -581,17 +567,13 @@ public class MetricsDAOTest extends CassandraIntegrationTest {
         //insert data
         List<AggregateNumericMetric> metrics = this.generateRandomAggregatedMetrics(scheduleId, 2, startTime);
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertSixHourData(metric);
         }
 
         List<AggregateNumericMetric> alternateMetrics = this.generateRandomAggregatedMetrics(alternateScheduleId,
             3, startTime);
         for (AggregateNumericMetric metric : alternateMetrics) {
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertSixHourData(metric);
         }
 
         //verify data can be retrieve
@@ -614,23 +596,13 @@ public class MetricsDAOTest extends CassandraIntegrationTest {
         //insert data
         List<AggregateNumericMetric> metrics = this.generateRandomAggregatedMetrics(scheduleId, 2, startTime);
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertTwentyFourHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN,
-                metric.getMin());
-            dao.insertTwentyFourHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX,
-                metric.getMax());
-            dao.insertTwentyFourHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG,
-                metric.getAvg());
+            dao.insertTwentyFourHourData(metric);
         }
 
         List<AggregateNumericMetric> alternateMetrics = this.generateRandomAggregatedMetrics(alternateScheduleId,
             3, startTime);
         for (AggregateNumericMetric metric : alternateMetrics) {
-            dao.insertTwentyFourHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN,
-                metric.getMin());
-            dao.insertTwentyFourHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX,
-                metric.getMax());
-            dao.insertTwentyFourHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG,
-                metric.getAvg());
+            dao.insertTwentyFourHourData(metric);
         }
 
         //verify data can be retrieve
@@ -0,0 +1,143 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class MetricsIndexCacheTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Test
+    public void skipDuplicateIndexUpdates() {
+        MetricsIndexCache cache = new MetricsIndexCache();
+
+        assertFalse(cache.contains(100, HOUR), "The first update for a schedule should be required");
+        cache.add(100, HOUR);
+        assertTrue(cache.contains(100, HOUR), "A duplicate update should be skipped");
+        assertFalse(cache.contains(101, HOUR), "The first update for a different schedule should be required");
+        cache.add(101, HOUR);
+        assertFalse(cache.contains(0, HOUR), "The first update for schedule id 0 should be required");
+        cache.add(0, HOUR);
+        assertTrue(cache.contains(0, HOUR), "A duplicate update for schedule id 0 should be skipped");
+
+        assertEquals(cache.size(), 3);
+        assertEquals(cache.getHits(), 2);
+        assertEquals(cache.getMisses(), 3);
+        assertEquals(cache.getHitRate(), 0.4, 0.0001);
+    }
+
+    @Test
+    public void requireUpdatesUntilWriteSucceeds() {
+        MetricsIndexCache cache = new MetricsIndexCache();
+
+        assertFalse(cache.contains(100, HOUR), "The first update for a schedule should be required");
+        assertFalse(cache.contains(100, HOUR), "Updates should be required while the first write is pending");
+
+        // The first write failed and nothing was added, the next write succeeds
+        assertFalse(cache.contains(100, HOUR), "Updates should be required after a failed write");
+        assertTrue(cache.add(100, HOUR));
+        assertTrue(cache.contains(100, HOUR), "Updates should be skipped after a successful write");
+        assertFalse(cache.add(100, HOUR), "A second successful write should not add the schedule again");
+        assertEquals(cache.size(), 1);
+    }
+
+    @Test
+    public void doNotRotateOnLookup() {
+        MetricsIndexCache cache = new MetricsIndexCache();
+
+        cache.add(100, HOUR);
+        assertFalse(cache.contains(100, 2 * HOUR), "An update for a new time slice should be required");
+        assertFalse(cache.contains(100, 3 * HOUR), "An update for a new time slice should be required");
+        assertTrue(cache.contains(100, HOUR), "Lookups should not rotate the time slices");
+    }
+
+    @Test
+    public void rotateAtTimeSliceBoundary() {
+        MetricsIndexCache cache = new MetricsIndexCache();
+
+        cache.add(100, HOUR);
+        assertTrue(cache.add(100, 2 * HOUR), "An update for a new time slice should be required");
+        assertFalse(cache.add(100, HOUR), "The previous time slice should still be tracked");
+
+        assertTrue(cache.add(100, 3 * HOUR), "An update for a new time slice should be required");
+        assertFalse(cache.add(100, 2 * HOUR), "The previous time slice should still be tracked");
+        assertTrue(cache.add(100, HOUR), "Time slices older than the previous one should not be tracked");
+        assertTrue(cache.add(100, HOUR), "Time slices older than the previous one should not be tracked");
+    }
+
+    @Test
+    public void retryUpdateAfterRemove() {
+        MetricsIndexCache cache = new MetricsIndexCache();
+
+        cache.add(100, HOUR);
+        cache.remove(100, HOUR);
+
+        assertTrue(cache.add(100, HOUR), "An update should be required after it has been removed");
+        assertEquals(cache.size(), 1);
+    }
+
+    @Test
+    public void evictTimeSlice() {
+        MetricsIndexCache cache = new MetricsIndexCache();
+
+        cache.add(100, HOUR);
+        cache.add(100, 2 * HOUR);
+        cache.evict(HOUR);
+
+        assertTrue(cache.add(100, HOUR), "An update should be required after the time slice has been evicted");
+        assertFalse(cache.add(100, 2 * HOUR), "Other time slices should not be affected by eviction");
+    }
+
+    @Test
+    public void addAndRemoveManySchedules() {
+        MetricsIndexCache cache = new MetricsIndexCache();
+        int numSchedules = 10000;
+
+        for (int i = 1; i <= numSchedules; ++i) {
+            assertTrue(cache.add(i, HOUR), "The first update for schedule " + i + " should be required");
+        }
+        assertEquals(cache.size(), numSchedules);
+
+        for (int i = 1; i <= numSchedules; i += 2) {
+            cache.remove(i, HOUR);
+        }
+        assertEquals(cache.size(), numSchedules / 2);
+
+        for (int i = 1; i <= numSchedules; ++i) {
+            if (i % 2 == 0) {
+                assertFalse(cache.add(i, HOUR), "The update for schedule " + i + " should be skipped");
+            } else {
+                assertTrue(cache.add(i, HOUR), "The update for schedule " + i + " should be required");
+            }
+        }
+    }
+
+}
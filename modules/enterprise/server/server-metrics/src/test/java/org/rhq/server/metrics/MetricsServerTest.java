@@ -30,10 +30,12 @@ import static org.joda.time.DateTime.now;
 import static org.rhq.test.AssertUtils.assertCollectionMatchesNoOrder;
 import static org.rhq.test.AssertUtils.assertPropertiesMatch;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -54,7 +56,6 @@ import org.testng.annotations.Test;
 import org.rhq.core.domain.measurement.MeasurementDataNumeric;
 import org.rhq.core.domain.measurement.composite.MeasurementDataNumericHighLowComposite;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
-import org.rhq.server.metrics.domain.AggregateType;
 import org.rhq.server.metrics.domain.MetricsIndexEntry;
 import org.rhq.server.metrics.domain.MetricsTable;
 import org.rhq.server.metrics.domain.RawNumericMetric;
@@ -152,7 +153,13 @@ public class MetricsServerTest extends CassandraIntegrationTest {
         session.execute("TRUNCATE " + MetricsTable.ONE_HOUR);
         session.execute("TRUNCATE " + MetricsTable.SIX_HOUR);
         session.execute("TRUNCATE " + MetricsTable.TWENTY_FOUR_HOUR);
+        session.execute("TRUNCATE " + MetricsTable.ONE_HOUR.getAggregateTableName());
+        session.execute("TRUNCATE " + MetricsTable.SIX_HOUR.getAggregateTableName());
+        session.execute("TRUNCATE " + MetricsTable.TWENTY_FOUR_HOUR.getAggregateTableName());
         session.execute("TRUNCATE " + MetricsTable.INDEX);
+        session.execute("TRUNCATE " + MetricsTable.AGGREGATION_CHECKPOINT);
+        session.execute("TRUNCATE " + MetricsTable.AGGREGATION_LEASE);
+        session.execute("TRUNCATE " + MetricsTable.METRICS_MIGRATION);
     }
 
     @Test(enabled = ENABLED)
@@ -197,6 +204,59 @@ public class MetricsServerTest extends CassandraIntegrationTest {
             "Failed to update index for " + MetricsTable.ONE_HOUR);
     }
 
+    @Test(enabled = ENABLED)
+    public void insertRawNumericDataWithBatchedIngestion() throws Exception {
+        metricsServer.shutdown();
+        metricsServer = new MetricsServerStub();
+        metricsServer.setConfiguration(configuration);
+        metricsServer.setDateTimeService(dateTimeService);
+        metricsServer.setDAO(dao);
+        metricsServer.setUseBatchedIngestion(true);
+        metricsServer.setIngestionBatchSize(2);
+        metricsServer.init();
+
+        int scheduleId1 = 123;
+        int scheduleId2 = 456;
+
+        DateTime hour0 = hour0();
+        DateTime currentTime = hour0.plusHours(4).plusMinutes(44);
+        DateTime threeMinutesAgo = currentTime.minusMinutes(3);
+        DateTime twoMinutesAgo = currentTime.minusMinutes(2);
+        DateTime oneMinuteAgo = currentTime.minusMinutes(1);
+
+        Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>();
+        data.add(new MeasurementDataNumeric(threeMinutesAgo.getMillis(), scheduleId1, 3.2));
+        data.add(new MeasurementDataNumeric(twoMinutesAgo.getMillis(), scheduleId1, 3.9));
+        data.add(new MeasurementDataNumeric(oneMinuteAgo.getMillis(), scheduleId1, 2.6));
+        data.add(new MeasurementDataNumeric(oneMinuteAgo.getMillis(), scheduleId2, 1.1));
+
+        WaitForRawInserts waitForRawInserts = new WaitForRawInserts(data.size());
+        metricsServer.addNumericData(data, waitForRawInserts);
+        waitForRawInserts.await("Failed to insert raw data");
+
+        DateTime hour4 = hour0.plusHours(4);
+        DateTime hour5 = hour0.plusHours(5);
+
+        List<RawNumericMetric> actual = Lists.newArrayList(dao.findRawMetrics(scheduleId1, hour4.getMillis(),
+            hour5.getMillis()));
+        List<RawNumericMetric> expected = asList(
+            new RawNumericMetric(scheduleId1, threeMinutesAgo.getMillis(), 3.2),
+            new RawNumericMetric(scheduleId1, twoMinutesAgo.getMillis(), 3.9),
+            new RawNumericMetric(scheduleId1, oneMinuteAgo.getMillis(), 2.6)
+        );
+        assertEquals(actual, expected, "Failed to retrieve raw metric data for schedule " + scheduleId1);
+
+        actual = Lists.newArrayList(dao.findRawMetrics(scheduleId2, hour4.getMillis(), hour5.getMillis()));
+        expected = asList(new RawNumericMetric(scheduleId2, oneMinuteAgo.getMillis(), 1.1));
+        assertEquals(actual, expected, "Failed to retrieve raw metric data for schedule " + scheduleId2);
+
+        List<MetricsIndexEntry> expectedIndex = asList(
+            new MetricsIndexEntry(MetricsTable.ONE_HOUR, hour4, scheduleId1),
+            new MetricsIndexEntry(MetricsTable.ONE_HOUR, hour4, scheduleId2));
+        assertMetricsIndexEquals(MetricsTable.ONE_HOUR, hour4.getMillis(), expectedIndex,
+            "Failed to update index for " + MetricsTable.ONE_HOUR);
+    }
+
     @Test(enabled = ENABLED)
     public void calculateAggregatesForOneScheduleWhenDBIsEmpty() throws Exception {
         int scheduleId = 123;
@@ -234,6 +294,108 @@ public class MetricsServerTest extends CassandraIntegrationTest {
         // TODO verify metrics index for 24 hour data is updated
     }
 
+    @Test(enabled = ENABLED)
+    public void catchUpAggregationThatWasDeferred() throws Exception {
+        int scheduleId = 123;
+
+        DateTime hour0 = hour0();
+        DateTime hour6 = hour0.plusHours(6);
+        DateTime lastHour = hour6.minusHours(1);
+
+        Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>();
+        data.add(new MeasurementDataNumeric(hour6.minusMinutes(3).getMillis(), scheduleId, 3.2));
+        data.add(new MeasurementDataNumeric(hour6.minusMinutes(2).getMillis(), scheduleId, 3.9));
+
+        WaitForRawInserts waitForRawInserts = new WaitForRawInserts(data.size());
+
+        setNow(hour6.plusHours(1));
+        metricsServer.addNumericData(data, waitForRawInserts);
+        waitForRawInserts.await("Failed to insert raw data");
+
+        metricsServer.setAggregationDeferred(true);
+        metricsServer.calculateAggregates();
+
+        assert1HourDataEquals(scheduleId, Collections.<AggregateNumericMetric>emptyList());
+        assertMetricsIndexEquals(MetricsTable.ONE_HOUR, lastHour.getMillis(),
+            asList(new MetricsIndexEntry(MetricsTable.ONE_HOUR, lastHour, scheduleId)),
+            "The index entries should be kept while aggregation is deferred");
+
+        metricsServer.setAggregationDeferred(false);
+        setNow(hour6.plusHours(2));
+        metricsServer.calculateAggregates();
+
+        assert1HourDataEquals(scheduleId, asList(new AggregateNumericMetric(scheduleId, divide(3.2 + 3.9, 2), 3.2,
+            3.9, lastHour.getMillis())));
+        assertMetricsIndexEquals(MetricsTable.ONE_HOUR, lastHour.getMillis(),
+            Collections.<MetricsIndexEntry>emptyList(), "The index entries should have been deleted after the " +
+            "deferred hour was caught up");
+    }
+
+    @Test(enabled = ENABLED)
+    public void recomputeAggregatesForMultipleMissedHours() throws Exception {
+        int scheduleId = 123;
+
+        DateTime hour0 = hour0();
+        DateTime hour2 = hour0.plusHours(2);
+        DateTime hour3 = hour0.plusHours(3);
+        DateTime hour4 = hour0.plusHours(4);
+
+        Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>();
+        data.add(new MeasurementDataNumeric(hour2.plusMinutes(10).getMillis(), scheduleId, 3.0));
+        data.add(new MeasurementDataNumeric(hour2.plusMinutes(20).getMillis(), scheduleId, 5.0));
+        data.add(new MeasurementDataNumeric(hour3.plusMinutes(10).getMillis(), scheduleId, 1.0));
+        data.add(new MeasurementDataNumeric(hour3.plusMinutes(20).getMillis(), scheduleId, 2.0));
+
+        WaitForRawInserts waitForRawInserts = new WaitForRawInserts(data.size());
+
+        setNow(hour0.plusHours(7));
+        metricsServer.addNumericData(data, waitForRawInserts);
+        waitForRawInserts.await("Failed to insert raw data");
+
+        metricsServer.recomputeAggregates(hour2.getMillis(), hour4.getMillis());
+
+        assert1HourDataEquals(scheduleId, asList(
+            new AggregateNumericMetric(scheduleId, 4.0, 3.0, 5.0, hour2.getMillis()),
+            new AggregateNumericMetric(scheduleId, 1.5, 1.0, 2.0, hour3.getMillis())
+        ));
+        assert6HourDataEquals(scheduleId, asList(new AggregateNumericMetric(scheduleId, divide(4.0 + 1.5, 2), 1.0,
+            5.0, hour0.getMillis())));
+        assertMetricsIndexEquals(MetricsTable.ONE_HOUR, hour2.getMillis(), Collections.<MetricsIndexEntry>emptyList(),
+            "The index entries should have been deleted after recomputing aggregates");
+        assertMetricsIndexEquals(MetricsTable.ONE_HOUR, hour3.getMillis(), Collections.<MetricsIndexEntry>emptyList(),
+            "The index entries should have been deleted after recomputing aggregates");
+    }
+
+    @Test(enabled = ENABLED)
+    public void resumeAggregationAfterCheckpoint() throws Exception {
+        DateTime hour0 = hour0();
+        DateTime hour2 = hour0.plusHours(2);
+        DateTime hour3 = hour0.plusHours(3);
+
+        Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>();
+        data.add(new MeasurementDataNumeric(hour2.plusMinutes(10).getMillis(), 100, 3.0));
+        data.add(new MeasurementDataNumeric(hour2.plusMinutes(10).getMillis(), 200, 5.0));
+
+        WaitForRawInserts waitForRawInserts = new WaitForRawInserts(data.size());
+
+        setNow(hour0.plusHours(7));
+        metricsServer.addNumericData(data, waitForRawInserts);
+        waitForRawInserts.await("Failed to insert raw data");
+
+        // Simulate an earlier run that was interrupted after aggregating schedule 100
+        dao.updateAggregationCheckpoint(MetricsTable.ONE_HOUR, hour2.getMillis(), 100);
+
+        metricsServer.recomputeAggregates(hour2.getMillis(), hour3.getMillis());
+
+        assert1HourDataEquals(100, Collections.<AggregateNumericMetric>emptyList());
+        assert1HourDataEquals(200, asList(new AggregateNumericMetric(200, 5.0, 5.0, 5.0, hour2.getMillis())));
+        assert6HourDataEquals(200, asList(new AggregateNumericMetric(200, 5.0, 5.0, 5.0, hour0.getMillis())));
+        assertNull(dao.findAggregationCheckpoint(MetricsTable.ONE_HOUR, hour2.getMillis()),
+            "The checkpoint should have been deleted after aggregation finished");
+        assertMetricsIndexEquals(MetricsTable.ONE_HOUR, hour2.getMillis(), Collections.<MetricsIndexEntry>emptyList(),
+            "The index entries should have been deleted after aggregation finished");
+    }
+
     @Test(enabled = ENABLED)
     public void aggregateRawDataDuring9thHour() throws Exception {
         int scheduleId = 123;
@@ -321,9 +483,7 @@ public class MetricsServerTest extends CassandraIntegrationTest {
             new AggregateNumericMetric(scheduleId, avg2, min2, max2, hour8.getMillis())
         );
         for (AggregateNumericMetric metric : oneHourMetrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         // update the 6 hour queue
@@ -513,9 +673,7 @@ public class MetricsServerTest extends CassandraIntegrationTest {
             new AggregateNumericMetric(scheduleId, avg2, min2, max2, hour12.getMillis())
         );
         for (AggregateNumericMetric metric : sixHourMetrics) {
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertSixHourData(metric);
         }
 
         // update the 24 queue
@@ -661,9 +819,7 @@ public class MetricsServerTest extends CassandraIntegrationTest {
             new AggregateNumericMetric(scheduleId, 3.0, 3.0, 3.0, bucket59Time.plusHours(2).getMillis())
         );
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         AggregateNumericMetric actual = metricsServer.getSummaryAggregate(scheduleId, beginTime.getMillis(),
@@ -695,9 +851,7 @@ public class MetricsServerTest extends CassandraIntegrationTest {
             new AggregateNumericMetric(scheduleId2, 5.2, 5.2, 5.2, bucket59Time.getMillis())
         );
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         AggregateNumericMetric actual = metricsServer.getSummaryAggregate(asList(scheduleId1, scheduleId2),
@@ -842,9 +996,7 @@ public class MetricsServerTest extends CassandraIntegrationTest {
             new AggregateNumericMetric(scheduleId, 3.0, 3.0, 3.0, bucket59Time.plusHours(2).getMillis())
         );
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         List<MeasurementDataNumericHighLowComposite> actualData = Lists.newArrayList(metricsServer.findDataForResource(
@@ -890,9 +1042,7 @@ public class MetricsServerTest extends CassandraIntegrationTest {
             new AggregateNumericMetric(scheduleId2, 4.2, 4.2, 4.2, bucket59Time.getMillis())
         );
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertOneHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertOneHourData(metric);
         }
 
         List<MeasurementDataNumericHighLowComposite> actual = metricsServer.findDataForGroup(
@@ -931,9 +1081,7 @@ public class MetricsServerTest extends CassandraIntegrationTest {
             new AggregateNumericMetric(scheduleId, 3.0, 3.0, 3.0, bucket59Time.plusHours(2).getMillis())
         );
         for (AggregateNumericMetric metric : metrics) {
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MIN, metric.getMin());
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.MAX, metric.getMax());
-            dao.insertSixHourData(metric.getScheduleId(), metric.getTimestamp(), AggregateType.AVG, metric.getAvg());
+            dao.insertSixHourData(metric);
         }
 
         List<MeasurementDataNumericHighLowComposite> actualData = Lists.newArrayList(metricsServer.findDataForResource(
@@ -59,7 +59,13 @@ public class MetricsTest extends CassandraIntegrationTest {
         session.execute("TRUNCATE " + MetricsTable.ONE_HOUR);
         session.execute("TRUNCATE " + MetricsTable.SIX_HOUR);
         session.execute("TRUNCATE " + MetricsTable.TWENTY_FOUR_HOUR);
+        session.execute("TRUNCATE " + MetricsTable.ONE_HOUR.getAggregateTableName());
+        session.execute("TRUNCATE " + MetricsTable.SIX_HOUR.getAggregateTableName());
+        session.execute("TRUNCATE " + MetricsTable.TWENTY_FOUR_HOUR.getAggregateTableName());
         session.execute("TRUNCATE " + MetricsTable.INDEX);
+        session.execute("TRUNCATE " + MetricsTable.AGGREGATION_CHECKPOINT);
+        session.execute("TRUNCATE " + MetricsTable.AGGREGATION_LEASE);
+        session.execute("TRUNCATE " + MetricsTable.METRICS_MIGRATION);
     }
 
     protected void assert1HourDataEquals(int scheduleId, AggregateNumericMetric... expected) {
@@ -0,0 +1,138 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.server.metrics.aggregation.StreamingAggregator;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.AggregationLease;
+import org.rhq.server.metrics.domain.MetricsTable;
+
+public class SharedAggregationTest extends MetricsTest {
+
+    private ListeningExecutorService aggregationTasks;
+
+    private MetricsDAO leaseDAO;
+
+    @BeforeClass
+    public void setUp() {
+        aggregationTasks = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+
+        // A short lease so that the shard of a dead server can be taken over quickly
+        MetricsConfiguration leaseConfiguration = new MetricsConfiguration();
+        leaseConfiguration.setAggregationLeaseDuration(1);
+        leaseDAO = new MetricsDAO(storageSession, leaseConfiguration);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        aggregationTasks.shutdown();
+    }
+
+    @BeforeMethod
+    public void resetDB() {
+        purgeDB();
+    }
+
+    @Test
+    public void doNotAssistWithoutSharedRun() {
+        DateTime hour = hour0().minusDays(1).plusHours(2);
+        insertRawData(hour, 100, 3.0);
+
+        List<AggregateNumericMetric> oneHourData = createAggregator().assist(hour, "server2");
+
+        assertTrue(oneHourData.isEmpty(), "Nothing should be aggregated unless a shared run has been started");
+        assertEquals(Iterables.size(dao.findMetricsIndexEntries(MetricsTable.ONE_HOUR, hour.getMillis())), 1,
+            "The index entries should not have been touched");
+    }
+
+    @Test
+    public void takeOverShardOfDeadServer() {
+        DateTime hour = hour0().minusDays(1).plusHours(2);
+        for (int scheduleId = 100; scheduleId < 104; ++scheduleId) {
+            insertRawData(hour, scheduleId, scheduleId);
+        }
+
+        // A server that died while it owned shard 1
+        leaseDAO.createAggregationLeases(MetricsTable.ONE_HOUR, hour.getMillis(), 2);
+        leaseDAO.renewAggregationLease(MetricsTable.ONE_HOUR, hour.getMillis(), 1, "server2");
+
+        List<AggregateNumericMetric> oneHourData = createAggregator().runShared(hour, "server1", 2);
+
+        assertEquals(oneHourData.size(), 4, "The schedules of both shards should have been aggregated");
+        for (int scheduleId = 100; scheduleId < 104; ++scheduleId) {
+            assert1HourDataEquals(scheduleId, new AggregateNumericMetric(scheduleId, scheduleId, scheduleId,
+                scheduleId, hour.getMillis()));
+        }
+        assert1HourMetricsIndexEmpty(hour);
+        List<AggregationLease> leases = leaseDAO.findAggregationLeases(MetricsTable.ONE_HOUR, hour.getMillis());
+        assertTrue(leases.isEmpty(), "The leases should have been deleted but found " + leases);
+    }
+
+    @Test
+    public void cleanUpStageFinishedByDeadServer() {
+        DateTime hour = hour0().minusDays(1).plusHours(2);
+        insertRawData(hour, 100, 3.0);
+
+        // The server that finished the last shard died before it deleted the index entries and the leases
+        leaseDAO.createAggregationLeases(MetricsTable.ONE_HOUR, hour.getMillis(), 2);
+        leaseDAO.finishAggregationLease(MetricsTable.ONE_HOUR, hour.getMillis(), 0);
+        leaseDAO.finishAggregationLease(MetricsTable.ONE_HOUR, hour.getMillis(), 1);
+
+        List<AggregateNumericMetric> oneHourData = createAggregator().assist(hour, "server2");
+
+        assertTrue(oneHourData.isEmpty(), "Nothing should be aggregated for a finished stage");
+        assert1HourMetricsIndexEmpty(hour);
+        List<AggregationLease> leases = leaseDAO.findAggregationLeases(MetricsTable.ONE_HOUR, hour.getMillis());
+        assertTrue(leases.isEmpty(), "The leases should have been deleted but found " + leases);
+    }
+
+    private StreamingAggregator createAggregator() {
+        return new StreamingAggregator(aggregationTasks, leaseDAO, configuration, dateTimeService, 10);
+    }
+
+    private void insertRawData(DateTime hour, int scheduleId, double value) {
+        dao.insertRawData(new MeasurementDataNumeric(hour.plusMinutes(10).getMillis(), scheduleId, value)).get();
+        dao.updateMetricsIndex(MetricsTable.ONE_HOUR, scheduleId, hour.getMillis()).get();
+    }
+
+}
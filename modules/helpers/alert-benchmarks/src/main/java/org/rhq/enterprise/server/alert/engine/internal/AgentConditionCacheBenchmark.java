@@ -0,0 +1,112 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.rhq.core.domain.event.Event;
+import org.rhq.core.domain.event.EventSource;
+import org.rhq.core.domain.measurement.MeasurementData;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+
+/**
+ * Checks the reports of one agent against an {@link AgentConditionCache} loaded with generated conditions, see
+ * {@link SyntheticAlertConditions}, including the serialization of the alert condition messages the checks produce.
+ * Both the throughput and the distribution of the time per report are measured; run with -prof gc for the allocation
+ * rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AgentConditionCacheBenchmark {
+
+    private static final long START_TIME = 1388534400000L;
+
+    private static final int REPORTS = 64;
+
+    @Param({ "1000", "10000", "100000" })
+    private int conditionCount;
+
+    /** The number of values of a measurement report, or of events of an event report. */
+    @Param({ "100", "1000" })
+    private int reportSize;
+
+    private AgentConditionCache cache;
+
+    private MeasurementData[][] measurementReports;
+
+    private EventSource[] eventSources;
+
+    private List<Event>[] eventReports;
+
+    private int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        SyntheticAlertConditions conditions = new SyntheticAlertConditions(conditionCount, conditionCount);
+        cache = conditions.newAgentConditionCache(1, new SerializingConditionProducer());
+
+        measurementReports = new MeasurementData[REPORTS][];
+        eventSources = new EventSource[REPORTS];
+        eventReports = new List[REPORTS];
+        for (int i = 0; i < REPORTS; i++) {
+            long timestamp = START_TIME + (i * 60000L);
+            measurementReports[i] = conditions.newMeasurementData(reportSize, timestamp);
+            eventSources[i] = conditions.getEventSource(i % conditions.getResourceCount());
+            eventReports[i] = conditions.newEvents(eventSources[i], reportSize, timestamp);
+        }
+    }
+
+    @Benchmark
+    public AlertConditionCacheStats checkMeasurements() {
+        return cache.checkConditions(measurementReports[next++ & (REPORTS - 1)]);
+    }
+
+    /**
+     * Like the coordinator, checks the remaining events again after each match.
+     */
+    @Benchmark
+    public List<Integer> checkEvents() {
+        int report = next++ & (REPORTS - 1);
+        List<Event> events = new ArrayList<Event>(eventReports[report]);
+        List<Integer> matchedConditionIds = new ArrayList<Integer>();
+        while (!events.isEmpty()) {
+            cache.checkConditions(eventSources[report], events, matchedConditionIds);
+        }
+        return matchedConditionIds;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.rhq.core.domain.measurement.Availability;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+
+/**
+ * Checks availability reports against a {@link GlobalConditionCache} loaded with generated availability conditions,
+ * see {@link SyntheticAlertConditions}. Availability duration conditions are left out, as they schedule their checks
+ * with the availability manager.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GlobalConditionCacheBenchmark {
+
+    private static final long START_TIME = 1388534400000L;
+
+    private static final int REPORTS = 64;
+
+    @Param({ "1000", "10000", "100000" })
+    private int conditionCount;
+
+    @Param({ "100", "1000" })
+    private int reportSize;
+
+    private GlobalConditionCache cache;
+
+    private Availability[][] availabilityReports;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SyntheticAlertConditions conditions = new SyntheticAlertConditions(conditionCount, conditionCount);
+        cache = conditions.newGlobalConditionCache(new SerializingConditionProducer());
+
+        availabilityReports = new Availability[REPORTS][];
+        for (int i = 0; i < REPORTS; i++) {
+            availabilityReports[i] = conditions.newAvailabilities(reportSize, START_TIME + (i * 30000L));
+        }
+    }
+
+    @Benchmark
+    public AlertConditionCacheStats checkAvailabilities() {
+        return cache.checkConditions(availabilityReports[next++ & (REPORTS - 1)]);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+import javax.jms.JMSException;
+
+import org.rhq.enterprise.server.alert.engine.jms.CachedConditionProducerLocal;
+import org.rhq.enterprise.server.alert.engine.jms.model.ActiveAlertConditionMessage;
+import org.rhq.enterprise.server.alert.engine.jms.model.AlertConditionMessageBatch;
+import org.rhq.enterprise.server.alert.engine.jms.model.InactiveAlertConditionMessage;
+
+/**
+ * Stands in for the JMS producer of the alert condition messages. Every message is serialized, which is what putting
+ * it into an object message costs the sender, and then dropped. Sending to the broker and consuming the messages are
+ * not part of the benchmarks.
+ */
+final class SerializingConditionProducer implements CachedConditionProducerLocal {
+
+    private long messageCount;
+    private long activeCount;
+    private long byteCount;
+
+    public <S> void sendActivateAlertConditionMessage(int alertConditionId, long timestamp, S value,
+        Object... extraParams) throws JMSException {
+        send(new ActiveAlertConditionMessage(alertConditionId, timestamp, String.valueOf(value), extraParams));
+        messageCount++;
+        activeCount++;
+    }
+
+    public void sendDeactivateAlertConditionMessage(int alertConditionId, long timestamp) throws JMSException {
+        send(new InactiveAlertConditionMessage(alertConditionId, timestamp));
+        messageCount++;
+    }
+
+    public void sendAlertConditionMessages(AlertConditionMessageBatch batch) throws JMSException {
+        send(batch);
+        messageCount += batch.size();
+        activeCount += batch.getActiveCount();
+    }
+
+    long getMessageCount() {
+        return messageCount;
+    }
+
+    long getActiveCount() {
+        return activeCount;
+    }
+
+    long getByteCount() {
+        return byteCount;
+    }
+
+    private void send(Serializable message) throws JMSException {
+        CountingOutputStream out = new CountingOutputStream();
+        try {
+            ObjectOutputStream objectOut = new ObjectOutputStream(out);
+            objectOut.writeObject(message);
+            objectOut.close();
+        } catch (IOException e) {
+            JMSException jmsException = new JMSException("Failed to serialize " + message);
+            jmsException.setLinkedException(e);
+            throw jmsException;
+        }
+        byteCount += out.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
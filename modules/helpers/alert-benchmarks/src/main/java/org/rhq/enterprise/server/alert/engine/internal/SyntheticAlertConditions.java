@@ -0,0 +1,265 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Random;
+
+import org.rhq.core.domain.alert.AlertCondition;
+import org.rhq.core.domain.alert.AlertConditionCategory;
+import org.rhq.core.domain.alert.composite.AbstractAlertConditionCategoryComposite;
+import org.rhq.core.domain.alert.composite.AlertConditionAvailabilityCategoryComposite;
+import org.rhq.core.domain.alert.composite.AlertConditionChangesCategoryComposite;
+import org.rhq.core.domain.alert.composite.AlertConditionEventCategoryComposite;
+import org.rhq.core.domain.alert.composite.AlertConditionRangeCategoryComposite;
+import org.rhq.core.domain.alert.composite.AlertConditionScheduleCategoryComposite;
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.event.Event;
+import org.rhq.core.domain.event.EventDefinition;
+import org.rhq.core.domain.event.EventSeverity;
+import org.rhq.core.domain.event.EventSource;
+import org.rhq.core.domain.measurement.Availability;
+import org.rhq.core.domain.measurement.AvailabilityType;
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementData;
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.util.PageControl;
+import org.rhq.core.domain.util.PageList;
+import org.rhq.enterprise.server.alert.AlertConditionManagerLocal;
+import org.rhq.enterprise.server.alert.engine.jms.CachedConditionProducerLocal;
+import org.rhq.enterprise.server.auth.SubjectManagerLocal;
+import org.rhq.enterprise.server.measurement.MeasurementDataManagerLocal;
+
+/**
+ * Generates the alert conditions of one agent, and the measurement data, events and availabilities reported for its
+ * resources, so that the condition caches can be loaded and checked without a database. The session beans the caches
+ * load their conditions from are stood in for by proxies that serve the generated conditions.
+ *
+ * The conditions are spread over the schedules and resources the way alert templates usually spread them: most
+ * schedules have no condition at all, and the thresholds are set so that only a few percent of the data matches.
+ * Generation is seeded, so the same parameters always give the same conditions and data.
+ */
+final class SyntheticAlertConditions {
+
+    /** Most collected schedules have no conditions; data is reported for this many schedules per condition. */
+    private static final int SCHEDULES_PER_CONDITION = 4;
+
+    /** Conditions per resource with events or availability conditions. */
+    private static final int CONDITIONS_PER_RESOURCE = 4;
+
+    private static final String[] DETAILS_PATTERNS = { ".*OutOfMemoryError.*", ".*Connection refused.*",
+        ".*disk [0-9]+ is full.*", ".*(deadlock|lock wait timeout).*", ".*Too many open files.*" };
+
+    private static final String[] DETAILS = { "GET /index.html HTTP/1.1 200 1043",
+        "Session 4f1e2a timed out after 1800 seconds", "Connection refused: connect to db01.example.com:5432",
+        "Exception in thread \"main\" java.lang.OutOfMemoryError: Java heap space",
+        "Checkpoint completed in 312 ms, 1024 pages written", "Warning: disk 2 is full, writes are suspended",
+        "User admin logged in from 10.0.0.17", "Deployed application petstore.ear in 4211 ms" };
+
+    private final int scheduleCount;
+    private final int resourceCount;
+
+    private final EnumMap<AlertConditionCategory, List<AbstractAlertConditionCategoryComposite>> composites;
+    private final EventSource[] eventSources;
+    private final Random random;
+
+    /**
+     * @param conditionCount the number of conditions of the agent, about as many as there are conditions in the
+     * global cache
+     */
+    SyntheticAlertConditions(int conditionCount, long seed) {
+        scheduleCount = Math.max(1, conditionCount * SCHEDULES_PER_CONDITION);
+        resourceCount = Math.max(1, conditionCount / CONDITIONS_PER_RESOURCE);
+        composites = new EnumMap<AlertConditionCategory, List<AbstractAlertConditionCategoryComposite>>(
+            AlertConditionCategory.class);
+        for (AlertConditionCategory category : AlertConditionCategory.values()) {
+            composites.put(category, new ArrayList<AbstractAlertConditionCategoryComposite>());
+        }
+        random = new Random(seed);
+
+        // 70% thresholds, 10% ranges, 10% changes and 10% events for the agent cache
+        for (int id = 1; id <= conditionCount; id++) {
+            int scheduleId = random.nextInt(scheduleCount);
+            int kind = random.nextInt(10);
+            if (kind < 7) {
+                boolean high = random.nextBoolean();
+                AlertCondition condition = newCondition(id, AlertConditionCategory.THRESHOLD, "threshold",
+                    high ? ">" : "<", high ? 95.0 + random.nextInt(5) : random.nextInt(5), null);
+                add(new AlertConditionScheduleCategoryComposite(condition, scheduleId, DataType.MEASUREMENT));
+            } else if (kind < 8) {
+                double low = 20.0 + random.nextInt(20);
+                AlertCondition condition = newCondition(id, AlertConditionCategory.RANGE, "range", "<", low,
+                    String.valueOf(low + 40.0));
+                add(new AlertConditionRangeCategoryComposite(condition, scheduleId, DataType.MEASUREMENT));
+            } else if (kind < 9) {
+                AlertCondition condition = newCondition(id, AlertConditionCategory.CHANGE, "change", null, null, null);
+                add(new AlertConditionChangesCategoryComposite(condition, scheduleId, DataType.MEASUREMENT));
+            } else {
+                EventSeverity severity = EventSeverity.values()[random.nextInt(EventSeverity.values().length)];
+                String details = random.nextBoolean() ? null : DETAILS_PATTERNS[random
+                    .nextInt(DETAILS_PATTERNS.length)];
+                AlertCondition condition = newCondition(id, AlertConditionCategory.EVENT, severity.name(), null, null,
+                    details);
+                add(new AlertConditionEventCategoryComposite(condition, random.nextInt(resourceCount)));
+            }
+        }
+
+        // availability changes for the global cache
+        String[] availabilityOperators = { "AVAIL_GOES_DOWN", "AVAIL_GOES_UP", "AVAIL_GOES_NOT_UP" };
+        for (int id = conditionCount + 1; id <= 2 * conditionCount; id++) {
+            AlertCondition condition = newCondition(id, AlertConditionCategory.AVAILABILITY,
+                availabilityOperators[random.nextInt(availabilityOperators.length)], null, null, null);
+            add(new AlertConditionAvailabilityCategoryComposite(condition, random.nextInt(resourceCount),
+                AvailabilityType.UP));
+        }
+
+        ResourceType resourceType = new ResourceType("Synthetic", "synthetic", ResourceCategory.SERVER, null);
+        EventDefinition eventDefinition = new EventDefinition(resourceType, "logEntry");
+        eventSources = new EventSource[resourceCount];
+        for (int resourceId = 0; resourceId < resourceCount; resourceId++) {
+            eventSources[resourceId] = new EventSource("/var/log/synthetic-" + resourceId + ".log", eventDefinition,
+                new Resource(resourceId));
+        }
+    }
+
+    int getScheduleCount() {
+        return scheduleCount;
+    }
+
+    int getResourceCount() {
+        return resourceCount;
+    }
+
+    AgentConditionCache newAgentConditionCache(int agentId, CachedConditionProducerLocal producer) {
+        return new AgentConditionCache(agentId, producer, newProxy(AlertConditionManagerLocal.class),
+            newProxy(MeasurementDataManagerLocal.class), newProxy(SubjectManagerLocal.class));
+    }
+
+    GlobalConditionCache newGlobalConditionCache(CachedConditionProducerLocal producer) {
+        return new GlobalConditionCache(producer, newProxy(AlertConditionManagerLocal.class),
+            newProxy(SubjectManagerLocal.class));
+    }
+
+    /**
+     * @return one numeric value for each of count random schedules, collected at the given time
+     */
+    MeasurementData[] newMeasurementData(int count, long timestamp) {
+        MeasurementData[] data = new MeasurementData[count];
+        for (int i = 0; i < count; i++) {
+            data[i] = new MeasurementDataNumeric(timestamp, random.nextInt(scheduleCount), random.nextDouble() * 100.0);
+        }
+        return data;
+    }
+
+    EventSource getEventSource(int resourceId) {
+        return eventSources[resourceId];
+    }
+
+    /**
+     * @return count log entries of the source, mostly ones that no details pattern matches
+     */
+    List<Event> newEvents(EventSource source, int count, long timestamp) {
+        List<Event> events = new ArrayList<Event>(count);
+        for (int i = 0; i < count; i++) {
+            EventSeverity severity = EventSeverity.values()[random.nextInt(EventSeverity.values().length)];
+            events.add(new Event(timestamp + i, severity, source, DETAILS[random.nextInt(DETAILS.length)]));
+        }
+        return events;
+    }
+
+    /**
+     * @return the availabilities of count random resources, mostly up
+     */
+    Availability[] newAvailabilities(int count, long timestamp) {
+        Availability[] availabilities = new Availability[count];
+        for (int i = 0; i < count; i++) {
+            AvailabilityType type = (random.nextInt(10) == 0) ? AvailabilityType.DOWN : AvailabilityType.UP;
+            availabilities[i] = new Availability(eventSources[random.nextInt(resourceCount)].getResource(), timestamp,
+                type);
+        }
+        return availabilities;
+    }
+
+    private void add(AbstractAlertConditionCategoryComposite composite) {
+        composites.get(composite.getCondition().getCategory()).add(composite);
+    }
+
+    private static AlertCondition newCondition(final int id, AlertConditionCategory category, String name,
+        String comparator, Double threshold, String option) {
+        // conditions only get their ids from the database
+        AlertCondition condition = new AlertCondition(null, category) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public int getId() {
+                return id;
+            }
+        };
+        condition.setName(name);
+        condition.setComparator(comparator);
+        condition.setThreshold(threshold);
+        condition.setOption(option);
+        return condition;
+    }
+
+    /**
+     * Serves the generated conditions page by page, like the session beans serve them from the database. All other
+     * methods return null.
+     */
+    private <T> T newProxy(Class<T> sessionBeanInterface) {
+        return sessionBeanInterface.cast(Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { sessionBeanInterface }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("getAlertConditionComposites")) {
+                        AlertConditionCategory category = (AlertConditionCategory) args[2];
+                        PageControl pageControl = (PageControl) args[args.length - 1];
+                        return getPage(composites.get(category), pageControl);
+                    } else if (name.equals("getOverlord")) {
+                        return new Subject("overlord", true, false);
+                    } else if (name.equals("toString")) {
+                        return "synthetic " + method.getDeclaringClass().getSimpleName();
+                    } else if (name.equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    } else if (name.equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            }));
+    }
+
+    private static PageList<AbstractAlertConditionCategoryComposite> getPage(
+        List<AbstractAlertConditionCategoryComposite> all, PageControl pageControl) {
+        int start = Math.min(pageControl.getStartRow(), all.size());
+        int end = Math.min(start + pageControl.getPageSize(), all.size());
+        List<AbstractAlertConditionCategoryComposite> page = (start < end) ? all.subList(start, end) : Collections
+            .<AbstractAlertConditionCategoryComposite> emptyList();
+        return new PageList<AbstractAlertConditionCategoryComposite>(page, all.size(), pageControl);
+    }
+}
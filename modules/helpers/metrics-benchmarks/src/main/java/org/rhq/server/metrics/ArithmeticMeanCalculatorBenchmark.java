@@ -0,0 +1,89 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computes the mean of one time slice worth of values, e.g., 60 raw values per 1 hour aggregate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArithmeticMeanCalculatorBenchmark {
+
+    @Param({"6", "60", "1440"})
+    private int count;
+
+    private double[] values;
+
+    private ArithmeticMeanCalculator calculator;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(count);
+        values = new double[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = random.nextDouble() * 100;
+        }
+        calculator = new ArithmeticMeanCalculator();
+    }
+
+    @Benchmark
+    public double newCalculator() {
+        ArithmeticMeanCalculator mean = new ArithmeticMeanCalculator();
+        for (double value : values) {
+            mean.add(value);
+        }
+        return mean.getArithmeticMean();
+    }
+
+    @Benchmark
+    public double resetCalculator() {
+        calculator.reset();
+        for (double value : values) {
+            calculator.add(value);
+        }
+        return calculator.getArithmeticMean();
+    }
+
+}
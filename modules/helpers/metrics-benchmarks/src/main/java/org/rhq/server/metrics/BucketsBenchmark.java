@@ -0,0 +1,98 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds the 60 buckets of a graph from the data points in its range, which is what the find data methods of
+ * {@link MetricsServer} do for every schedule.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BucketsBenchmark {
+
+    private static final long BEGIN_TIME = 1388534400000L;
+
+    private static final long END_TIME = BEGIN_TIME + TimeUnit.DAYS.toMillis(7);
+
+    @Param({"60", "1440", "10080"})
+    private int dataPoints;
+
+    private long[] timestamps;
+
+    private double[] values;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(dataPoints);
+        long interval = (END_TIME - BEGIN_TIME) / dataPoints;
+        timestamps = new long[dataPoints];
+        values = new double[dataPoints];
+        for (int i = 0; i < dataPoints; ++i) {
+            timestamps[i] = BEGIN_TIME + (i * interval);
+            values[i] = random.nextDouble() * 100;
+        }
+    }
+
+    @Benchmark
+    public Buckets insert() {
+        Buckets buckets = new Buckets(BEGIN_TIME, END_TIME);
+        for (int i = 0; i < timestamps.length; ++i) {
+            buckets.insert(timestamps[i], values[i], values[i], values[i]);
+        }
+        return buckets;
+    }
+
+    @Benchmark
+    public double insertAndRead() {
+        Buckets buckets = insert();
+        double sum = 0;
+        for (int i = 0; i < buckets.getNumDataPoints(); ++i) {
+            Buckets.Bucket bucket = buckets.get(i);
+            sum += bucket.getAvg() + bucket.getMin() + bucket.getMax();
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.joda.time.Minutes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computes time slices for the default raw, 1 hour, and 6 hour time slice durations. Timestamps are cycled through so
+ * that the JIT cannot fold the computation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DateTimeServiceBenchmark {
+
+    private static final int TIMESTAMPS = 1024;
+
+    private DateTimeService dateTimeService;
+
+    private MetricsConfiguration configuration;
+
+    private long[] timestamps;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        configuration = new MetricsConfiguration();
+        dateTimeService = new DateTimeService();
+        dateTimeService.setConfiguration(configuration);
+
+        Random random = new Random(TIMESTAMPS);
+        long now = System.currentTimeMillis();
+        timestamps = new long[TIMESTAMPS];
+        for (int i = 0; i < TIMESTAMPS; ++i) {
+            timestamps[i] = now - (long) (random.nextDouble() * TimeUnit.DAYS.toMillis(365));
+        }
+    }
+
+    private long nextTimestamp() {
+        next = (next + 1) & (TIMESTAMPS - 1);
+        return timestamps[next];
+    }
+
+    @Benchmark
+    public DateTime rawTimeSlice() {
+        return dateTimeService.getTimeSlice(nextTimestamp(), configuration.getRawTimeSliceDuration());
+    }
+
+    @Benchmark
+    public DateTime oneHourTimeSlice() {
+        return dateTimeService.getTimeSlice(nextTimestamp(), configuration.getOneHourTimeSliceDuration());
+    }
+
+    @Benchmark
+    public DateTime sixHourTimeSlice() {
+        return dateTimeService.getTimeSlice(nextTimestamp(), configuration.getSixHourTimeSliceDuration());
+    }
+
+    @Benchmark
+    public DateTime timeSliceInMinutes() {
+        return dateTimeService.getTimeSlice(nextTimestamp(), Minutes.minutes(360));
+    }
+
+    @Benchmark
+    public DateTime timeSliceOfDateTime() {
+        return dateTimeService.getTimeSlice(new DateTime(nextTimestamp()), Duration.standardHours(1));
+    }
+
+}
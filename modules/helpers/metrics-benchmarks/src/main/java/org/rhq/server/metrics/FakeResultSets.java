@@ -0,0 +1,227 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+/**
+ * Builds in-memory {@link ResultSet}s and {@link Row}s with the same column layout as the metrics queries, so that
+ * row mapping and aggregation can be benchmarked without a Cassandra node. The driver does not expose constructors for
+ * either class, so they are created reflectively from the serialized column values. Values are deserialized by the
+ * driver on access just like they are for a real query.
+ * <br/><br/>
+ * A result set can be iterated only once. Benchmarks that consume one must build a new one per invocation from the
+ * {@link Rows} returned here.
+ */
+public class FakeResultSets {
+
+    public static final String KEYSPACE = "rhq";
+
+    private static final Constructor<ColumnDefinitions.Definition> DEFINITION_CONSTRUCTOR;
+
+    private static final Constructor<ColumnDefinitions> COLUMN_DEFINITIONS_CONSTRUCTOR;
+
+    private static final Method ROW_FROM_DATA;
+
+    private static final Constructor<ResultSet> RESULT_SET_CONSTRUCTOR;
+
+    static {
+        try {
+            DEFINITION_CONSTRUCTOR = ColumnDefinitions.Definition.class.getDeclaredConstructor(String.class,
+                String.class, String.class, DataType.class);
+            DEFINITION_CONSTRUCTOR.setAccessible(true);
+
+            COLUMN_DEFINITIONS_CONSTRUCTOR = ColumnDefinitions.class.getDeclaredConstructor(
+                ColumnDefinitions.Definition[].class);
+            COLUMN_DEFINITIONS_CONSTRUCTOR.setAccessible(true);
+
+            ROW_FROM_DATA = Row.class.getDeclaredMethod("fromData", ColumnDefinitions.class, List.class);
+            ROW_FROM_DATA.setAccessible(true);
+
+            RESULT_SET_CONSTRUCTOR = findResultSetConstructor();
+            RESULT_SET_CONSTRUCTOR.setAccessible(true);
+        } catch (Exception e) {
+            throw new IllegalStateException("The cassandra driver on the class path is not supported", e);
+        }
+    }
+
+    private FakeResultSets() {
+    }
+
+    /**
+     * @return Rows with the columns schedule_id, time, value of the raw data query
+     */
+    public static Rows rawRows(int scheduleId, long startTime, long interval, int count, long seed) {
+        Random random = new Random(seed);
+        Rows rows = new Rows(columns("raw_metrics", "schedule_id", DataType.cint(), "time", DataType.timestamp(),
+            "value", DataType.cdouble()));
+        for (int i = 0; i < count; ++i) {
+            rows.add(encode(scheduleId), encode(startTime + (i * interval)), encode(random.nextDouble() * 100));
+        }
+        return rows;
+    }
+
+    /**
+     * @return Rows with the columns schedule_id, time, min, max, avg of the aggregate data queries
+     */
+    public static Rows aggregateRows(int scheduleId, long startTime, long interval, int count, long seed) {
+        Random random = new Random(seed);
+        Rows rows = new Rows(columns("one_hour_aggregates", "schedule_id", DataType.cint(), "time",
+            DataType.timestamp(), "min", DataType.cdouble(), "max", DataType.cdouble(), "avg", DataType.cdouble()));
+        for (int i = 0; i < count; ++i) {
+            double min = random.nextDouble() * 50;
+            double max = min + (random.nextDouble() * 50);
+            double avg = (min + max) / 2;
+            rows.add(encode(scheduleId), encode(startTime + (i * interval)), encode(min), encode(max), encode(avg));
+        }
+        return rows;
+    }
+
+    private static ColumnDefinitions columns(String table, Object... namesAndTypes) {
+        try {
+            ColumnDefinitions.Definition[] definitions = new ColumnDefinitions.Definition[namesAndTypes.length / 2];
+            for (int i = 0; i < definitions.length; ++i) {
+                definitions[i] = DEFINITION_CONSTRUCTOR.newInstance(KEYSPACE, table, namesAndTypes[i * 2],
+                    namesAndTypes[(i * 2) + 1]);
+            }
+            return COLUMN_DEFINITIONS_CONSTRUCTOR.newInstance((Object) definitions);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to create column definitions", e);
+        }
+    }
+
+    private static ByteBuffer encode(int value) {
+        return (ByteBuffer) ByteBuffer.allocate(4).putInt(value).flip();
+    }
+
+    private static ByteBuffer encode(long value) {
+        return (ByteBuffer) ByteBuffer.allocate(8).putLong(value).flip();
+    }
+
+    private static ByteBuffer encode(double value) {
+        return (ByteBuffer) ByteBuffer.allocate(8).putDouble(value).flip();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Constructor<ResultSet> findResultSetConstructor() throws NoSuchMethodException {
+        for (Constructor<?> constructor : ResultSet.class.getDeclaredConstructors()) {
+            List<Class<?>> parameterTypes = Arrays.asList(constructor.getParameterTypes());
+            if (parameterTypes.contains(ColumnDefinitions.class) && parameterTypes.contains(Queue.class)) {
+                return (Constructor<ResultSet>) constructor;
+            }
+        }
+        throw new NoSuchMethodException(ResultSet.class.getName() + "(ColumnDefinitions, Queue, ...)");
+    }
+
+    /**
+     * The serialized values of a fixed set of rows from which any number of result sets can be created.
+     */
+    public static class Rows {
+
+        private final ColumnDefinitions metadata;
+
+        private final List<List<ByteBuffer>> data = new ArrayList<List<ByteBuffer>>();
+
+        Rows(ColumnDefinitions metadata) {
+            this.metadata = metadata;
+        }
+
+        void add(ByteBuffer... values) {
+            data.add(Arrays.asList(values));
+        }
+
+        public int size() {
+            return data.size();
+        }
+
+        /**
+         * @return A new result set over the rows. Any trace or execution info of the result set is null.
+         */
+        public ResultSet newResultSet() {
+            Class<?>[] parameterTypes = RESULT_SET_CONSTRUCTOR.getParameterTypes();
+            Object[] args = new Object[parameterTypes.length];
+            for (int i = 0; i < parameterTypes.length; ++i) {
+                if (parameterTypes[i] == ColumnDefinitions.class) {
+                    args[i] = metadata;
+                } else if (parameterTypes[i] == Queue.class) {
+                    args[i] = copyData();
+                } else if (parameterTypes[i] == boolean.class) {
+                    args[i] = false;
+                }
+            }
+            try {
+                return RESULT_SET_CONSTRUCTOR.newInstance(args);
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to create result set", e);
+            }
+        }
+
+        /**
+         * @return New rows. Row does not consume its values so the returned rows can be read any number of times.
+         */
+        public Row[] newRows() {
+            Row[] rows = new Row[data.size()];
+            try {
+                for (int i = 0; i < rows.length; ++i) {
+                    rows[i] = (Row) ROW_FROM_DATA.invoke(null, metadata, copy(data.get(i)));
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to create row", e);
+            }
+            return rows;
+        }
+
+        private Queue<List<ByteBuffer>> copyData() {
+            Queue<List<ByteBuffer>> queue = new LinkedList<List<ByteBuffer>>();
+            for (List<ByteBuffer> row : data) {
+                queue.add(copy(row));
+            }
+            return queue;
+        }
+
+        private List<ByteBuffer> copy(List<ByteBuffer> row) {
+            List<ByteBuffer> values = new ArrayList<ByteBuffer>(row.size());
+            for (ByteBuffer value : row) {
+                values.add(value.duplicate());
+            }
+            return values;
+        }
+    }
+
+}
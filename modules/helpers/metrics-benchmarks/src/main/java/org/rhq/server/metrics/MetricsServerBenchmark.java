@@ -0,0 +1,85 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.RawNumericMetric;
+
+/**
+ * Aggregates one time slice of mapped raw data the way {@link MetricsServer} does when it summarizes raw data for a
+ * single schedule. The server is never initialized, so no session is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetricsServerBenchmark {
+
+    private static final long START_TIME = 1388534400000L;
+
+    @Param({"6", "60", "1440"})
+    private int count;
+
+    private MetricsServer metricsServer;
+
+    private List<RawNumericMetric> rawMetrics;
+
+    @Setup
+    public void setUp() {
+        metricsServer = new MetricsServer();
+
+        Random random = new Random(count);
+        rawMetrics = new ArrayList<RawNumericMetric>(count);
+        for (int i = 0; i < count; ++i) {
+            rawMetrics.add(new RawNumericMetric(100, START_TIME + (i * 60000L), random.nextDouble() * 100));
+        }
+    }
+
+    @Benchmark
+    public AggregateNumericMetric calculateAggregatedRaw() {
+        return metricsServer.calculateAggregatedRaw(rawMetrics, START_TIME);
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics.aggregation;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+import org.joda.time.DateTime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.rhq.server.metrics.FakeResultSets;
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+/**
+ * Computes the aggregate of a single schedule from a raw or 1 hour result set, which is the per schedule work that
+ * {@link Compute1HourData} and {@link Compute6HourData} do before writing. The functions are created without a DAO
+ * since the inserts are not exercised. The readRows benchmarks only consume the result sets and serve as a baseline
+ * for the cost of the driver.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ComputeDataBenchmark {
+
+    private static final long START_TIME = 1388534400000L;
+
+    @Param({"6", "60", "1440"})
+    private int rows;
+
+    private FakeResultSets.Rows rawRows;
+
+    private FakeResultSets.Rows oneHourRows;
+
+    private ResultSet rawResultSet;
+
+    private ResultSet oneHourResultSet;
+
+    private Compute1HourData compute1HourData;
+
+    private Compute6HourData compute6HourData;
+
+    @Setup
+    public void setUp() {
+        rawRows = FakeResultSets.rawRows(100, START_TIME, 60000L, rows, rows);
+        oneHourRows = FakeResultSets.aggregateRows(100, START_TIME, 3600000L, rows, rows);
+
+        DateTime startTime = new DateTime(START_TIME);
+        compute1HourData = new Compute1HourData(startTime, startTime, null, new HashSet<AggregateNumericMetric>());
+        compute6HourData = new Compute6HourData(startTime, startTime, null);
+    }
+
+    @Setup(Level.Invocation)
+    public void createResultSets() {
+        rawResultSet = rawRows.newResultSet();
+        oneHourResultSet = oneHourRows.newResultSet();
+    }
+
+    @Benchmark
+    public AggregateNumericMetric compute1HourData() {
+        return compute1HourData.calculateAggregatedRaw(rawResultSet);
+    }
+
+    @Benchmark
+    public AggregateNumericMetric compute6HourData() {
+        return compute6HourData.calculateAggregate(oneHourResultSet);
+    }
+
+    @Benchmark
+    public List<Row> readRawRows() {
+        return rawResultSet.all();
+    }
+
+    @Benchmark
+    public List<Row> readOneHourRows() {
+        return oneHourResultSet.all();
+    }
+
+}
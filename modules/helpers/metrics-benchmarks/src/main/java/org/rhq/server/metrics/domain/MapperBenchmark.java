@@ -0,0 +1,119 @@
+/*
+ *
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ *
+ */
+
+package org.rhq.server.metrics.domain;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.rhq.server.metrics.FakeResultSets;
+
+/**
+ * Maps raw and aggregate rows to their domain objects. The mapAll benchmarks include iterating the result set, which
+ * is where the driver deserializes column values; the map benchmarks work on rows that already exist. A result set can
+ * only be consumed once, so a new one is created before each invocation of the mapAll benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MapperBenchmark {
+
+    private static final long START_TIME = 1388534400000L;
+
+    @Param({"6", "60", "1440"})
+    private int rows;
+
+    private FakeResultSets.Rows rawRows;
+
+    private FakeResultSets.Rows aggregateRows;
+
+    private Row[] rawRowArray;
+
+    private Row[] aggregateRowArray;
+
+    private ResultSet rawResultSet;
+
+    private ResultSet aggregateResultSet;
+
+    private RawNumericMetricMapper rawMapper;
+
+    private AggregateNumericMetricMapper aggregateMapper;
+
+    @Setup
+    public void setUp() {
+        rawRows = FakeResultSets.rawRows(100, START_TIME, 60000L, rows, rows);
+        aggregateRows = FakeResultSets.aggregateRows(100, START_TIME, 3600000L, rows, rows);
+        rawRowArray = rawRows.newRows();
+        aggregateRowArray = aggregateRows.newRows();
+        rawMapper = new RawNumericMetricMapper();
+        aggregateMapper = new AggregateNumericMetricMapper();
+    }
+
+    @Setup(Level.Invocation)
+    public void createResultSets() {
+        rawResultSet = rawRows.newResultSet();
+        aggregateResultSet = aggregateRows.newResultSet();
+    }
+
+    @Benchmark
+    public List<RawNumericMetric> mapAllRaw() {
+        return rawMapper.mapAll(rawResultSet);
+    }
+
+    @Benchmark
+    public List<AggregateNumericMetric> mapAllAggregates() {
+        return aggregateMapper.mapAll(aggregateResultSet);
+    }
+
+    @Benchmark
+    public List<RawNumericMetric> mapRawRows() {
+        return rawMapper.map(rawRowArray);
+    }
+
+    @Benchmark
+    public List<AggregateNumericMetric> mapAggregateRows() {
+        return aggregateMapper.map(aggregateRowArray);
+    }
+
+}
@@ -43,7 +43,7 @@ public class WebConnectorComponent extends BaseComponent<WebConnectorComponent>
     public void getValues(MeasurementReport report, Set<MeasurementScheduleRequest> metrics) throws Exception {
         super.getValues(report, metrics);
         MeasurementScheduleRequest maxConnectionMetricRequest = getMaxConnectionMetricRequest(metrics);
-        if (maxConnectionMetricRequest != null && !hasMaxConnectionMetric(report)) {
+        if (maxConnectionMetricRequest != null && !report.containsNumericData(MAX_CONNECTIONS_METRIC_NAME)) {
             report.addData(new MeasurementDataNumeric(maxConnectionMetricRequest, Double
                     .valueOf(computeMaxConnections())));
         }
@@ -58,15 +58,6 @@ public class WebConnectorComponent extends BaseComponent<WebConnectorComponent>
         return null;
     }
 
-    private boolean hasMaxConnectionMetric(MeasurementReport report) {
-        for (MeasurementDataNumeric metric : report.getNumericData()) {
-            if (MAX_CONNECTIONS_METRIC_NAME.equals(metric.getName())) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     /**
      * Post-process the result from confguration reading to return the computed
      * value of max-connections if none is provided by the server.